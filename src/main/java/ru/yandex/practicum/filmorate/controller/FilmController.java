@@ -1,13 +1,32 @@
 package ru.yandex.practicum.filmorate.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import lombok.AllArgsConstructor;
 import org.springframework.validation.annotation.Validated;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.yandex.practicum.filmorate.dto.FilmFilter;
+import ru.yandex.practicum.filmorate.dto.FilmFilterResult;
+import ru.yandex.practicum.filmorate.dto.FilmImportResult;
+import ru.yandex.practicum.filmorate.dto.Page;
+import ru.yandex.practicum.filmorate.dto.Suggestion;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.service.film.FilmAutocomplete;
+import ru.yandex.practicum.filmorate.service.film.FilmImportService;
 import ru.yandex.practicum.filmorate.service.film.FilmService;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
+import javax.validation.constraints.NotBlank;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
 
 @Validated
@@ -15,13 +34,22 @@ import java.util.List;
 @AllArgsConstructor
 @RequestMapping("/films")
 public class FilmController {
+    private static final String NDJSON = "application/x-ndjson";
     private final FilmService filmService;
+    private final FilmImportService filmImportService;
+    private final ObjectMapper objectMapper;
 
     @PostMapping
     public Film createFilm(@RequestBody @Valid Film film) {
         return filmService.addFilm(film);
     }
 
+    // Массив фильмов или NDJSON, ответ содержит ид или ошибку для каждого элемента
+    @PostMapping(value = "/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, NDJSON})
+    public FilmImportResult importFilms(InputStream body) throws IOException {
+        return filmImportService.importFilms(body);
+    }
+
     @PutMapping
     public Film updateFilm(@RequestBody @Valid Film film) {
         return filmService.updateFilm(film);
@@ -32,9 +60,37 @@ public class FilmController {
         return filmService.getFilmById(id);
     }
 
+    // Без параметров возвращается весь список, с after или limit - страница, курсор следующей в заголовке
     @GetMapping
-    public List<Film> findAllFilms() {
-        return filmService.getAllFilms();
+    public ResponseEntity<List<Film>> findAllFilms(@RequestParam(required = false) String after,
+                                                   @RequestParam(required = false) @Min(1) @Max(Page.MAX_LIMIT)
+                                                   Integer limit) {
+        if (after == null && limit == null) {
+            return ResponseEntity.ok(filmService.getAllFilms());
+        }
+        Page<Film> page = filmService.getFilmsPage(after, limit == null ? Page.DEFAULT_LIMIT : limit);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.getNextCursor() != null) {
+            response.header(Page.NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        return response.body(page.getItems());
+    }
+
+    // Весь каталог построчно в формате NDJSON, фильмы пишутся в ответ по мере чтения из БД
+    @GetMapping(value = "/export", produces = NDJSON)
+    public StreamingResponseBody exportFilms() {
+        // Поток ответа закрывает Spring, а сбрасывать буфер после каждого фильма не нужно
+        ObjectWriter writer = objectMapper.writer()
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        return outputStream -> filmService.exportFilms(film -> {
+            try {
+                writer.writeValue(outputStream, film);
+                outputStream.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
     }
 
     @PutMapping("/{id}/mark/{userId}")
@@ -67,6 +123,13 @@ public class FilmController {
         return filmService.getCommonFilms(userId, friendId);
     }
 
+    // Похожие фильмы по оценкам общих оценивших, по убыванию похожести
+    @GetMapping("/{id}/similar")
+    public List<Film> getSimilarFilms(@PathVariable int id,
+                                      @RequestParam(defaultValue = "10") @Min(1) @Max(Page.MAX_LIMIT) int limit) {
+        return filmService.getSimilarFilms(id, limit);
+    }
+
     @GetMapping("/director/{directorId}")
     public List<Film> getFilmsByDirectorId(@PathVariable int directorId, @RequestParam String sortBy) {
         return filmService.getFilmsByDirectorId(directorId, sortBy);
@@ -76,4 +139,18 @@ public class FilmController {
     public List<Film> getFilmsBySearch(@RequestParam String query, @RequestParam List<String> by) {
         return filmService.getFilmsBySearch(query, by);
     }
+
+    // Отбор по жанрам, MPA, годам, продолжительности и режиссёрам с количеством фильмов по значениям
+    @GetMapping("/filter")
+    public FilmFilterResult filterFilms(@Valid FilmFilter filter) {
+        return filmService.filterFilms(filter);
+    }
+
+    // Подсказки при вводе: фильмы и режиссёры, в названии которых есть слово, начинающееся с prefix
+    @GetMapping("/autocomplete")
+    public List<Suggestion> getSuggestions(@RequestParam @NotBlank String prefix,
+                                           @RequestParam(defaultValue = "10") @Min(1)
+                                           @Max(FilmAutocomplete.MAX_LIMIT) int limit) {
+        return filmService.getSuggestions(prefix, limit);
+    }
 }
@@ -1,20 +1,40 @@
 package ru.yandex.practicum.filmorate.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import lombok.AllArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.yandex.practicum.filmorate.dto.Page;
+import ru.yandex.practicum.filmorate.dto.RecommendationBatchRequest;
 import ru.yandex.practicum.filmorate.model.Event;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.service.event.FeedHub;
 import ru.yandex.practicum.filmorate.service.user.UserService;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
 
+@Validated
 @RestController
 @AllArgsConstructor
 @RequestMapping("/users")
 public class UserController {
+    private static final String NDJSON = "application/x-ndjson";
     private final UserService userService;
+    private final FeedHub feedHub;
+    private final ObjectMapper objectMapper;
 
     @PostMapping
     public User createUser(@RequestBody @Valid User user) {
@@ -31,9 +51,20 @@ public class UserController {
         return userService.getUserById(id);
     }
 
+    // Без параметров возвращается весь список, с after или limit - страница, курсор следующей в заголовке
     @GetMapping
-    public List<User> findAllUsers() {
-        return userService.getAllUsers();
+    public ResponseEntity<List<User>> findAllUsers(@RequestParam(required = false) String after,
+                                                   @RequestParam(required = false) @Min(1) @Max(Page.MAX_LIMIT)
+                                                   Integer limit) {
+        if (after == null && limit == null) {
+            return ResponseEntity.ok(userService.getAllUsers());
+        }
+        Page<User> page = userService.getUsersPage(after, limit == null ? Page.DEFAULT_LIMIT : limit);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.getNextCursor() != null) {
+            response.header(Page.NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        return response.body(page.getItems());
     }
 
     @DeleteMapping("/{id}")
@@ -61,13 +92,66 @@ public class UserController {
         return userService.getAllCommonFriends(id, otherId);
     }
 
+    // Без параметров - фильмы самого похожего пользователя, с k или limit - голосование k похожих пользователей,
+    // с model=als - прогноз обученной модели
     @GetMapping("/{id}/recommendations")
-    public List<Film> findRecommendations(@PathVariable int id) {
-        return userService.getRecommendations(id);
+    public List<Film> findRecommendations(@PathVariable int id,
+                                          @RequestParam(required = false) @Min(1) @Max(Page.MAX_LIMIT) Integer k,
+                                          @RequestParam(required = false) @Min(1) @Max(Page.MAX_LIMIT)
+                                          Integer limit,
+                                          @RequestParam(required = false) String model) {
+        if (model != null) {
+            return userService.getModelRecommendations(id, model, limit == null ? Page.DEFAULT_LIMIT : limit);
+        }
+        if (k == null && limit == null) {
+            return userService.getRecommendations(id);
+        }
+        return userService.getRecommendations(id, k, limit == null ? Page.DEFAULT_LIMIT : limit);
     }
 
+    // Рекомендации для списка или отрезка ид пользователей построчно в формате NDJSON, по мере расчёта
+    @PostMapping(value = "/recommendations/batch", produces = NDJSON)
+    public StreamingResponseBody findRecommendationsBatch(@RequestBody @Valid RecommendationBatchRequest request) {
+        // Поток ответа закрывает Spring, а сбрасывать буфер после каждой строки не нужно
+        ObjectWriter writer = objectMapper.writer()
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        return outputStream -> userService.getRecommendationsBatch(request, recommendations -> {
+            try {
+                writer.writeValue(outputStream, recommendations);
+                outputStream.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // Новые события ленты в формате SSE. После разрыва клиент передаёт Last-Event-ID и получает пропущенное
+    @GetMapping(value = "/{id}/feed/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamUsersFeed(@PathVariable int id,
+                                      @RequestHeader(value = "Last-Event-ID", required = false) Integer lastEventId) {
+        return feedHub.subscribe(id, lastEventId);
+    }
+
+    // Без параметров возвращается вся лента. sinceEventId - события после указанного (для опроса новых),
+    // beforeEventId - события перед указанным (для листания назад), без границ с limit - последние события
     @GetMapping("/{id}/feed")
-    public List<Event> getUsersFeed(@PathVariable int id) {
-        return userService.getEventsByUser(id);
+    public List<Event> getUsersFeed(@PathVariable int id,
+                                    @RequestParam(required = false) @Min(0) Integer sinceEventId,
+                                    @RequestParam(required = false) @Min(1) Integer beforeEventId,
+                                    @RequestParam(required = false) @Min(1) @Max(Page.MAX_LIMIT) Integer limit) {
+        if (sinceEventId == null && beforeEventId == null && limit == null) {
+            return userService.getEventsByUser(id);
+        }
+        return userService.getEventsPageByUser(id, sinceEventId, beforeEventId,
+                limit == null ? Page.DEFAULT_LIMIT : limit);
+    }
+
+    // События всех друзей пользователя, последние limit событий перед beforeEventId
+    @GetMapping("/{id}/timeline")
+    public List<Event> getUsersTimeline(@PathVariable int id,
+                                        @RequestParam(required = false) @Min(1) Integer beforeEventId,
+                                        @RequestParam(required = false) @Min(1) @Max(Page.MAX_LIMIT) Integer limit) {
+        return userService.getTimeline(id, beforeEventId, limit == null ? Page.DEFAULT_LIMIT : limit);
     }
 }
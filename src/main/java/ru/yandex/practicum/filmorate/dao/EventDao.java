@@ -7,5 +7,11 @@ import java.util.List;
 public interface EventDao {
     Integer addEvent(Event event);
 
+    void addEvents(List<Event> events);
+
     List<Event> getUserEvents(int userId);
+
+    List<Event> getUserEventsPage(int userId, Integer sinceEventId, Integer beforeEventId, int limit);
+
+    List<Event> getFriendsEventsPage(int userId, Integer beforeEventId, int limit);
 }
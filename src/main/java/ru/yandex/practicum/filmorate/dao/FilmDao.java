@@ -3,40 +3,34 @@ package ru.yandex.practicum.filmorate.dao;
 import ru.yandex.practicum.filmorate.model.Director;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mark;
 
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 public interface FilmDao {
     Film addFilm(Film film);
 
+    List<Film> addFilms(List<Film> films);
+
     Film updateFilm(Film film);
 
     List<Film> getFilmById(int id);
 
     List<Film> getAllFilms();
 
-    void addMark(int id, int userId, int mark);
-
-    Integer deleteMark(int id, int userId);
-
-    Integer deleteFilm(int id);
-
-    List<Film> getPopularFilms();
-
-    List<Film> getPopularFilmsWithLimit(Integer count);
+    List<Film> getFilmsPage(int afterId, int limit);
 
-    List<Film> getPopularFilmsByYear(Integer year);
+    void exportFilms(Consumer<Film> consumer);
 
-    List<Film> getPopularFilmsByYearWithLimit(Integer count, Integer year);
-
-    List<Film> getPopularFilmsByGenre(Integer genreId);
+    void addMark(int id, int userId, int mark);
 
-    List<Film> getPopularFilmsByGenreWithLimit(Integer count, Integer genreId);
+    void addMarks(List<Mark> marks);
 
-    List<Film> getPopularFilmsByYearAndGenre(Integer genreId, Integer year);
+    Integer deleteMark(int id, int userId);
 
-    List<Film> getPopularFilmsByYearAndGenreWithLimit(Integer count, Integer genreId, Integer year);
+    Integer deleteFilm(int id);
 
     List<Film> getCommonFilms(int userId, int friendId);
 
@@ -44,13 +38,12 @@ public interface FilmDao {
 
     List<Film> getFilmsByDirectorIdSortByLikes(int directorId);
 
-    List<Film> getFilmsByTitleSearch(String query);
-
-    List<Film> getFilmsByDirectorSearch(String query);
+    List<Film> getRecommendations(List<Integer> filmIdsForRecommendation);
 
-    List<Film> getFilmsByTitleAndDirectorSearch(String query);
+    List<Film> getFilmsByIds(List<Integer> filmIds);
 
-    List<Film> getRecommendations(List<Integer> filmIdsForRecommendation);
+    // Сумма и количество оценок фильмов: {marks_sum, marks_count}; filmIds == null - все фильмы
+    Map<Integer, int[]> getFilmIdToMarksSumAndCount(List<Integer> filmIds);
 
     Map<Integer, List<Genre>> getFilmIdToGenres(List<Integer> filmIdsForRecommendation);
 
@@ -1,8 +1,20 @@
 package ru.yandex.practicum.filmorate.dao;
 
-import java.util.HashMap;
-import java.util.Map;
+import ru.yandex.practicum.filmorate.model.Mark;
+
+import java.util.List;
 
 public interface MarkDao {
-    Map<Integer, HashMap<Integer, Integer>> getUserIdToFilmIdWithMark(int requesterId);
-}
\ No newline at end of file
+    List<Integer> getFilmIdsByUserId(int userId);
+
+    // Оценки по парам ид пользователя и фильма из keys; отсутствующих в БД оценок в результате нет
+    List<Mark> getMarks(List<Mark> keys);
+
+    // Потоковое чтение всех оценок в порядке ид пользователя и ид фильма
+    void forEachMark(MarkHandler handler);
+
+    @FunctionalInterface
+    interface MarkHandler {
+        void accept(int userId, int filmId, int mark);
+    }
+}
@@ -13,6 +13,11 @@ public interface UserDao {
 
     List<User> getAllUsers();
 
+    List<User> getUsersPage(int afterId, int limit);
+
+    // Ид пользователей больше afterId по возрастанию, не больше limit
+    List<Integer> getUserIdsPage(int afterId, int limit);
+
     Integer deleteUser(int id);
 
     Integer addFriend(int id, int friendId);
@@ -21,5 +26,7 @@ public interface UserDao {
 
     List<User> getAllFriends(int id);
 
+    List<Integer> getFriendIds(int id);
+
     List<User> getAllCommonFriends(int id, int otherId);
 }
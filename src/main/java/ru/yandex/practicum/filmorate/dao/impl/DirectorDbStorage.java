@@ -1,7 +1,6 @@
 package ru.yandex.practicum.filmorate.dao.impl;
 
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.stereotype.Repository;
 import ru.yandex.practicum.filmorate.dao.DirectorDao;
@@ -14,9 +13,11 @@ import java.util.Objects;
 @Repository("directorDbStorage")
 public class DirectorDbStorage implements DirectorDao {
     private final JdbcTemplate jdbcTemplate;
+    private final ReferenceDataRegistry referenceDataRegistry;
 
-    public DirectorDbStorage(JdbcTemplate jdbcTemplate) {
+    public DirectorDbStorage(JdbcTemplate jdbcTemplate, ReferenceDataRegistry referenceDataRegistry) {
         this.jdbcTemplate = jdbcTemplate;
+        this.referenceDataRegistry = referenceDataRegistry;
     }
 
     @Override
@@ -27,21 +28,20 @@ public class DirectorDbStorage implements DirectorDao {
         Map<String, String> params = Map.of(
                 "director_name", director.getName());
         director.setId(simpleJdbcInsert.executeAndReturnKey(params).intValue());
+        referenceDataRegistry.putDirector(director);
         return director;
     }
 
+    // Чтение режиссёров идёт из реестра, который обновляется при каждом изменении в этом классе
     @Override
     public List<Director> getDirectors() {
-        return jdbcTemplate.query("SELECT * " +
-                                      "FROM directors " +
-                                      "ORDER BY director_id", directorRowMapper());
+        return referenceDataRegistry.getDirectors();
     }
 
     @Override
     public List<Director> getDirectorById(int id) {
-        return jdbcTemplate.query("SELECT * " +
-                                      "FROM directors " +
-                                      "WHERE director_id = ?", directorRowMapper(), id);
+        Director director = referenceDataRegistry.getDirector(id);
+        return director == null ? List.of() : List.of(director);
     }
 
     @Override
@@ -52,16 +52,21 @@ public class DirectorDbStorage implements DirectorDao {
         if (result == 0) {
             return null;
         }
+        referenceDataRegistry.putDirector(director);
         return director;
     }
 
     @Override
     public int deleteDirector(int id) {
-        return jdbcTemplate.update("DELETE FROM public.directors WHERE director_id = ?", id);
+        int result = jdbcTemplate.update("DELETE FROM public.directors WHERE director_id = ?", id);
+        referenceDataRegistry.removeDirector(id);
+        return result;
     }
 
-    private RowMapper<Director> directorRowMapper() {
-        return (rs, rowNum) -> new Director(rs.getInt("director_id"),
-                rs.getString("director_name"));
+    @Override
+    public List<Integer> getFilmIdsByDirectorId(int id) {
+        return jdbcTemplate.queryForList("SELECT film_id " +
+                                             "FROM directors_film " +
+                                             "WHERE director_id = ?", Integer.class, id);
     }
-}
\ No newline at end of file
+}
@@ -1,28 +1,68 @@
 package ru.yandex.practicum.filmorate.dao.impl;
 
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import ru.yandex.practicum.filmorate.dao.EventDao;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.Event;
-import ru.yandex.practicum.filmorate.model.User;
 
+import java.sql.PreparedStatement;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 @Repository("EventDbStorage")
 public class EventDbStorage implements EventDao {
+    private static final int MULTI_ROW_INSERT_SIZE = 100;
     private final JdbcTemplate jdbcTemplate;
 
     public EventDbStorage(JdbcTemplate jdbcTemplate) {
         this.jdbcTemplate = jdbcTemplate;
     }
 
+    // Ид события проставляется в переданный объект, он нужен для рассылки события подписчикам ленты
     @Override
     public Integer addEvent(Event event) {
-        String sql = "insert into users_events (user_id, event_type, operation, entity_id, timestamp) " +
-                "values(?, ?, ?, ?, ?);";
-        return jdbcTemplate.update(sql, event.getUserId(), event.getEventType(),
-                event.getOperation(), event.getEntityId(), event.getTimestamp());
+        addEvents(List.of(event));
+        return 1;
+    }
+
+    /**
+     * Запись событий многострочными insert, по MULTI_ROW_INSERT_SIZE строк в запросе.
+     * Сгенерированные ид проставляются в события в порядке вставки.
+     */
+    @Override
+    @Transactional
+    public void addEvents(List<Event> events) {
+        for (int from = 0; from < events.size(); from += MULTI_ROW_INSERT_SIZE) {
+            List<Event> chunk = events.subList(from, Math.min(from + MULTI_ROW_INSERT_SIZE, events.size()));
+            StringBuilder sql = new StringBuilder(
+                    "insert into users_events (user_id, event_type, operation, entity_id, timestamp) values ");
+            for (int i = 0; i < chunk.size(); i++) {
+                sql.append(i == 0 ? "(?, ?, ?, ?, ?)" : ", (?, ?, ?, ?, ?)");
+            }
+            KeyHolder keyHolder = new GeneratedKeyHolder();
+            jdbcTemplate.update(con -> {
+                PreparedStatement ps = con.prepareStatement(sql.toString(), new String[]{"event_id"});
+                int index = 1;
+                for (Event event : chunk) {
+                    ps.setInt(index++, event.getUserId());
+                    ps.setString(index++, event.getEventType());
+                    ps.setString(index++, event.getOperation());
+                    ps.setInt(index++, event.getEntityId());
+                    ps.setLong(index++, event.getTimestamp());
+                }
+                return ps;
+            }, keyHolder);
+            List<Map<String, Object>> keys = keyHolder.getKeyList();
+            for (int i = 0; i < keys.size() && i < chunk.size(); i++) {
+                chunk.get(i).setEventId(((Number) keys.get(i).values().iterator().next()).intValue());
+            }
+        }
     }
 
     @Override
@@ -30,27 +70,61 @@ public class EventDbStorage implements EventDao {
         if (!isUserInDb(userId)) {
             throw new NotFoundException(String.format("Пользователь с идентификатором %s не найден", userId));
         }
-        String sql = "select * from users_events where user_id = ?";
-        return jdbcTemplate.query(sql, (rs, rowNum) -> new Event(
+        String sql = "select * from users_events where user_id = ? order by event_id";
+        return jdbcTemplate.query(sql, eventRowMapper(), userId);
+    }
+
+    /**
+     * Страница ленты по индексу (user_id, event_id), события в порядке возрастания ид.
+     * С sinceEventId возвращаются первые limit событий после него, иначе - последние limit событий
+     * перед beforeEventId (или вообще последние, если граница не задана).
+     */
+    @Override
+    public List<Event> getUserEventsPage(int userId, Integer sinceEventId, Integer beforeEventId, int limit) {
+        if (!isUserInDb(userId)) {
+            throw new NotFoundException(String.format("Пользователь с идентификатором %s не найден", userId));
+        }
+        String sql = "select * from users_events where user_id = ? and event_id > ? and event_id < ? " +
+                "order by event_id " + (sinceEventId != null ? "asc" : "desc") + " limit ?";
+        List<Event> events = jdbcTemplate.query(sql, eventRowMapper(), userId,
+                sinceEventId == null ? 0 : sinceEventId,
+                beforeEventId == null ? Integer.MAX_VALUE : beforeEventId,
+                limit);
+        if (sinceEventId == null) {
+            Collections.reverse(events);
+        }
+        return events;
+    }
+
+    /**
+     * Последние limit событий друзей пользователя перед beforeEventId, в порядке возрастания ид.
+     * Один запрос: друзья соединяются с событиями по индексу (user_id, event_id), БД сама отбирает
+     * первые limit событий по убыванию ид, поэтому число запросов не зависит от количества друзей.
+     */
+    @Override
+    public List<Event> getFriendsEventsPage(int userId, Integer beforeEventId, int limit) {
+        if (!isUserInDb(userId)) {
+            throw new NotFoundException(String.format("Пользователь с идентификатором %s не найден", userId));
+        }
+        String sql = "select e.* from users_events as e join friends as f on e.user_id = f.friend_id " +
+                "where f.user_id = ? and e.event_id < ? order by e.event_id desc limit ?";
+        List<Event> events = jdbcTemplate.query(sql, eventRowMapper(), userId,
+                beforeEventId == null ? Integer.MAX_VALUE : beforeEventId, limit);
+        Collections.reverse(events);
+        return events;
+    }
+
+    private boolean isUserInDb(int userId) {
+        return jdbcTemplate.queryForObject("select exists(select 1 from users where id = ?)", Boolean.class, userId);
+    }
+
+    private RowMapper<Event> eventRowMapper() {
+        return (rs, rowNum) -> new Event(
                 rs.getInt("event_id"),
                 rs.getInt("user_id"),
                 rs.getString("event_type"),
                 rs.getString("operation"),
                 rs.getInt("entity_id"),
-                rs.getLong("timestamp")), userId);
-    }
-
-    private boolean isUserInDb(int userId) {
-        String sql = "select * from users where id = ?";
-        List<User> users = jdbcTemplate.query(sql, (rs, rowNum) -> {
-            User user = new User(rs.getString("email"),
-                    rs.getString("login"),
-                    rs.getString("name"),
-                    rs.getDate("birthday").toLocalDate());
-            user.setId(userId);
-            return user;
-        }, userId);
-
-        return !users.isEmpty();
+                rs.getLong("timestamp"));
     }
 }
@@ -1,7 +1,9 @@
 package ru.yandex.practicum.filmorate.dao.impl;
 
 import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
@@ -9,46 +11,114 @@ import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import ru.yandex.practicum.filmorate.dao.FilmDao;
 import ru.yandex.practicum.filmorate.model.Director;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.Genre;
-import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.Mark;
 
 import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Repository("filmDbStorage")
 public class FilmDbStorage implements FilmDao {
+    private static final int HYDRATION_BATCH_SIZE = 1000;
+    private static final int EXPORT_FETCH_SIZE = 500;
+    private static final String FILMS_SQL =
+            "SELECT f.*, fr.rating " +
+            "FROM films AS f " +
+            "LEFT JOIN film_ratings AS fr ON f.id = fr.film_id ";
     private final JdbcTemplate jdbcTemplate;
     private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final ReferenceDataRegistry referenceDataRegistry;
+    // Метаданные таблицы читаются один раз при первой вставке, а не при каждом добавлении фильма
+    private final SimpleJdbcInsert filmInsert;
 
-    public FilmDbStorage(JdbcTemplate jdbcTemplate) {
+    public FilmDbStorage(JdbcTemplate jdbcTemplate, ReferenceDataRegistry referenceDataRegistry) {
         this.jdbcTemplate = jdbcTemplate;
         this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.referenceDataRegistry = referenceDataRegistry;
+        this.filmInsert = new SimpleJdbcInsert(jdbcTemplate)
+                .withTableName("films")
+                .usingGeneratedKeyColumns("id");
     }
 
     @Override
+    @Transactional
     public Film addFilm(Film film) {
-        SimpleJdbcInsert simpleJdbcInsert = new SimpleJdbcInsert(Objects.requireNonNull(jdbcTemplate.getDataSource()))
-                .withTableName("films")
-                .usingGeneratedKeyColumns("id");
         Map<String, String> params = Map.of(
                 "name", film.getName(),
                 "releaseDate", film.getReleaseDate().toString(),
                 "description", film.getDescription(),
                 "duration", film.getDuration().toString(),
                 "mpa_id", film.getMpa().getId().toString());
-        film.setId(simpleJdbcInsert.executeAndReturnKey(params).intValue());
+        film.setId(filmInsert.executeAndReturnKey(params).intValue());
+        // Заводим пустой агрегат оценок, который дальше поддерживается addMark/deleteMark
+        jdbcTemplate.update("INSERT INTO film_ratings (film_id) VALUES (?);", film.getId());
         //добавить связи фильм - директор
         addDirectorsToFilm(film);
         return addGenresToFilm(film);
     }
 
+    /**
+     * Пакетное добавление фильмов в одной транзакции.
+     * Фильмы вставляются одним JDBC-пакетом с возвратом сгенерированных ид, затем такими же пакетами
+     * заводятся агрегаты оценок и связи с жанрами и режиссёрами. Ссылки на жанры, MPA и режиссёров
+     * должны быть проверены заранее: ошибка любой строки откатывает весь пакет.
+     */
+    @Override
+    @Transactional
+    public List<Film> addFilms(List<Film> films) {
+        if (films.isEmpty()) {
+            return films;
+        }
+        String sql = "INSERT INTO films (name, releaseDate, description, duration, mpa_id) VALUES (?, ?, ?, ?, ?)";
+        jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+            try (PreparedStatement statement = con.prepareStatement(sql, new String[]{"id"})) {
+                for (Film film : films) {
+                    statement.setString(1, film.getName());
+                    statement.setDate(2, Date.valueOf(film.getReleaseDate()));
+                    statement.setString(3, film.getDescription());
+                    statement.setInt(4, film.getDuration());
+                    statement.setInt(5, film.getMpa().getId());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                try (ResultSet keys = statement.getGeneratedKeys()) {
+                    // Без проверки недостающий ключ дал бы невнятную ошибку SQL или чужие ид у фильмов
+                    for (Film film : films) {
+                        if (!keys.next()) {
+                            throw new IllegalStateException("Драйвер вернул меньше сгенерированных ид, чем "
+                                    + films.size() + " добавленных фильмов.");
+                        }
+                        film.setId(keys.getInt(1));
+                    }
+                }
+            }
+            return null;
+        });
+        jdbcTemplate.batchUpdate("INSERT INTO film_ratings (film_id) VALUES (?)", films, films.size(),
+                (ps, film) -> ps.setInt(1, film.getId()));
+        List<int[]> filmGenres = new ArrayList<>();
+        List<int[]> filmDirectors = new ArrayList<>();
+        for (Film film : films) {
+            film.setGenres(distinctById(film.getGenres(), Genre::getId));
+            film.setDirectors(distinctById(film.getDirectors(), Director::getId));
+            film.getGenres().forEach(genre -> filmGenres.add(new int[]{film.getId(), genre.getId()}));
+            film.getDirectors().forEach(director -> filmDirectors.add(new int[]{film.getId(), director.getId()}));
+        }
+        batchInsertLinks("INSERT INTO film_genres VALUES (?, ?)", filmGenres);
+        batchInsertLinks("INSERT INTO directors_film VALUES (?, ?)", filmDirectors);
+        return films;
+    }
+
     @Override
     public Film updateFilm(Film film) {
         String sql =
@@ -81,256 +151,160 @@ public class FilmDbStorage implements FilmDao {
 
     @Override
     public List<Film> getFilmById(int id) {
-        String sql = "SELECT f.*, m.name AS mpa_name, fg.genre_id, g.name AS genre_name, df.director_id, d.director_name, mk.rating_count " +
-                "FROM films AS f " +
-                "LEFT JOIN mpa AS m ON f.mpa_id = m.id " +
-                "LEFT JOIN film_genres AS fg ON f.id = fg.film_id " +
-                "LEFT JOIN genres AS g ON fg.genre_id = g.id " +
-                "LEFT JOIN directors_film AS df ON f.id = df.film_id " +
-                "LEFT JOIN directors AS d ON df.director_id = d.director_id " +
-                "LEFT JOIN (SELECT film_id, CAST(sum(mark) AS DECIMAL(3,1))/CAST(count(film_id) AS DECIMAL(3,1)) AS rating_count " +
-                            "FROM marks " +
-                            "GROUP BY film_id " +
-                            "ORDER BY rating_count DESC) AS mk ON f.id = mk.film_id " +
+        String sql = FILMS_SQL +
                 "WHERE f.id = ?";
         return getFilmsList(sql, id);
     }
 
     @Override
     public List<Film> getAllFilms() {
-        String sql = "SELECT f.*, m.name AS mpa_name, fg.genre_id, g.name AS genre_name, df.director_id, d.director_name, mk.rating_count " +
-                "FROM films AS f " +
-                "LEFT JOIN mpa AS m ON f.mpa_id = m.id " +
-                "LEFT JOIN film_genres AS fg ON f.id = fg.film_id " +
-                "LEFT JOIN genres AS g ON fg.genre_id = g.id " +
-                "LEFT JOIN directors_film AS df ON f.id = df.film_id " +
-                "LEFT JOIN directors AS d ON df.director_id = d.director_id " +
-                "LEFT JOIN (SELECT film_id, CAST(sum(mark) AS DECIMAL(3,1))/CAST(count(film_id) AS DECIMAL(3,1)) AS rating_count " +
-                            "FROM marks " +
-                            "GROUP BY film_id " +
-                            "ORDER BY rating_count DESC) AS mk ON f.id = mk.film_id " +
-                "ORDER BY mk.rating_count DESC NULLS LAST";
+        String sql = FILMS_SQL +
+                "ORDER BY fr.rating DESC NULLS LAST";
         return getFilmsList(sql);
     }
 
+    // Keyset-выборка по первичному ключу: стоимость не зависит от того, насколько далеко пролистан каталог
     @Override
-    public void addMark(int filmId, int userId, int mark) {
-        String sql = "INSERT INTO marks (user_id, film_id, mark) VALUES (?, ?, ?);";
-        jdbcTemplate.update(sql, userId, filmId, mark);
-    }
-
-    @Override
-    public Integer deleteMark(int filmId, int userId) {
-        String sql = "DELETE FROM marks WHERE user_id = ? AND film_id = ?;";
-        return jdbcTemplate.update(sql, userId, filmId);
-    }
-
-    @Override
-    public Integer deleteFilm(int id) {
-        return jdbcTemplate.update("DELETE FROM films WHERE id = ?;", id);
-    }
-
-    @Override
-    public List<Film> getPopularFilms() {
-        String sql = "SELECT f.*, m.name AS mpa_name, fg.genre_id, g.name AS genre_name, df.director_id, d.director_name, mk.rating_count " +
-                "FROM films AS f " +
-                "LEFT JOIN mpa AS m ON f.mpa_id = m.id " +
-                "LEFT JOIN film_genres AS fg ON f.id = fg.film_id " +
-                "LEFT JOIN genres AS g ON fg.genre_id = g.id " +
-                "LEFT JOIN directors_film AS df ON f.id = df.film_id " +
-                "LEFT JOIN directors AS d ON df.director_id = d.director_id " +
-                "LEFT JOIN (SELECT film_id, CAST(sum(mark) AS DECIMAL(3,1))/CAST(count(film_id) AS DECIMAL(3,1)) AS rating_count " +
-                            "FROM marks " +
-                            "GROUP BY film_id " +
-                            "ORDER BY rating_count DESC) AS mk ON f.id = mk.film_id " +
-                "ORDER BY mk.rating_count DESC NULLS LAST";
-        return getFilmsList(sql);
-    }
-
+    public List<Film> getFilmsPage(int afterId, int limit) {
+        String sql = FILMS_SQL +
+                "WHERE f.id > ? " +
+                "ORDER BY f.id " +
+                "LIMIT ?";
+        return getFilmsList(sql, afterId, limit);
+    }
+
+    /**
+     * Потоковая выгрузка всего каталога.
+     * Строки фильмов читаются курсором с ограниченным fetch size (для PostgreSQL курсор работает только
+     * внутри транзакции), жанры и режиссёры догружаются пачками по EXPORT_FETCH_SIZE фильмов,
+     * после чего фильмы пачки передаются consumer и больше не удерживаются в памяти.
+     */
     @Override
-    public List<Film> getPopularFilmsWithLimit(Integer count) {
-        String sql = "SELECT f.*, m.name AS mpa_name, fg.genre_id, g.name AS genre_name, df.director_id, d.director_name, mk.rating_count " +
-                "FROM films AS f " +
-                "LEFT JOIN mpa AS m ON f.mpa_id = m.id " +
-                "LEFT JOIN film_genres AS fg ON f.id = fg.film_id " +
-                "LEFT JOIN genres AS g ON fg.genre_id = g.id " +
-                "LEFT JOIN directors_film AS df ON f.id = df.film_id " +
-                "LEFT JOIN directors AS d ON df.director_id = d.director_id " +
-                "LEFT JOIN (SELECT film_id, CAST(sum(mark) AS DECIMAL(3,1))/CAST(count(film_id) AS DECIMAL(3,1)) AS rating_count " +
-                            "FROM marks " +
-                            "GROUP BY film_id " +
-                            "ORDER BY rating_count DESC) AS mk ON f.id = mk.film_id " +
-                "WHERE f.id IN (SELECT f2.id " +
-                                "FROM films AS f2 " +
-                                "LEFT JOIN (SELECT film_id, CAST(sum(mark) AS DECIMAL(3,1))/CAST(count(film_id) AS DECIMAL(3,1)) AS rating_count " +
-                                            "FROM marks " +
-                                            "GROUP BY film_id " +
-                                            "ORDER BY rating_count DESC) AS mk ON f2.id = mk.film_id " +
-                                "LIMIT ?) " +
-                "ORDER BY mk.rating_count DESC NULLS LAST";
-        return getFilmsList(sql, count);
+    @Transactional(readOnly = true)
+    public void exportFilms(Consumer<Film> consumer) {
+        String sql = FILMS_SQL +
+                "ORDER BY f.id";
+        RowMapper<Film> rowMapper = filmsRowMapper();
+        List<Film> chunk = new ArrayList<>(EXPORT_FETCH_SIZE);
+        jdbcTemplate.query(con -> {
+            PreparedStatement statement = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(EXPORT_FETCH_SIZE);
+            return statement;
+        }, (RowCallbackHandler) rs -> {
+            chunk.add(rowMapper.mapRow(rs, chunk.size()));
+            if (chunk.size() == EXPORT_FETCH_SIZE) {
+                exportChunk(chunk, consumer);
+            }
+        });
+        exportChunk(chunk, consumer);
     }
 
     @Override
-    public List<Film> getPopularFilmsByYear(Integer year) {
-        String sql = "SELECT f.*, m.name AS mpa_name, fg.genre_id, g.name AS genre_name, df.director_id, d.director_name, mk.rating_count " +
-                "FROM films AS f " +
-                "LEFT JOIN mpa AS m ON f.mpa_id = m.id " +
-                "LEFT JOIN film_genres AS fg ON f.id = fg.film_id " +
-                "LEFT JOIN genres AS g ON fg.genre_id = g.id " +
-                "LEFT JOIN directors_film AS df ON f.id = df.film_id " +
-                "LEFT JOIN directors AS d ON df.director_id = d.director_id " +
-                "LEFT JOIN (SELECT film_id, CAST(sum(mark) AS DECIMAL(3,1))/CAST(count(film_id) AS DECIMAL(3,1)) AS rating_count " +
-                            "FROM marks " +
-                            "GROUP BY film_id " +
-                            "ORDER BY rating_count DESC) AS mk ON f.id = mk.film_id " +
-                "WHERE EXTRACT(YEAR FROM f.releasedate) = ? " +
-                "ORDER BY mk.rating_count DESC NULLS LAST";
-        return getFilmsList(sql, year);
+    @Transactional
+    public void addMark(int filmId, int userId, int mark) {
+        String sql = "INSERT INTO marks (user_id, film_id, mark) VALUES (?, ?, ?);";
+        jdbcTemplate.update(sql, userId, filmId, mark);
+        String sqlUpdateRating =
+                "UPDATE film_ratings " +
+                "SET marks_sum = marks_sum + ?, " +
+                    "marks_count = marks_count + 1, " +
+                    "rating = CAST(marks_sum + ? AS DOUBLE PRECISION) / (marks_count + 1) " +
+                "WHERE film_id = ?;";
+        if (jdbcTemplate.update(sqlUpdateRating, mark, mark, filmId) == 0) {
+            insertRating(filmId);
+        }
     }
 
+    /**
+     * Запись пачки оценок одной транзакцией.
+     * Агрегаты рейтинга обновляются одним запросом на фильм, а не на каждую оценку.
+     */
     @Override
-    public List<Film> getPopularFilmsByYearWithLimit(Integer count, Integer year) {
-        String sql = "SELECT f.*, m.name AS mpa_name, fg.genre_id, g.name AS genre_name, df.director_id, d.director_name, mk.rating_count " +
-                "FROM films AS f " +
-                "LEFT JOIN mpa AS m ON f.mpa_id = m.id " +
-                "LEFT JOIN film_genres AS fg ON f.id = fg.film_id " +
-                "LEFT JOIN genres AS g ON fg.genre_id = g.id " +
-                "LEFT JOIN directors_film AS df ON f.id = df.film_id " +
-                "LEFT JOIN directors AS d ON df.director_id = d.director_id " +
-                "LEFT JOIN (SELECT film_id, CAST(sum(mark) AS DECIMAL(3,1))/CAST(count(film_id) AS DECIMAL(3,1)) AS rating_count " +
-                            "FROM marks " +
-                            "GROUP BY film_id " +
-                            "ORDER BY rating_count DESC) AS mk ON f.id = mk.film_id " +
-                "WHERE f.id IN (SELECT f2.id " +
-                                "FROM films AS f2 " +
-                                "LEFT JOIN (SELECT film_id, CAST(sum(mark) AS DECIMAL(3,1))/CAST(count(film_id) AS DECIMAL(3,1)) AS rating_count " +
-                                            "FROM marks " +
-                                            "GROUP BY film_id " +
-                                            "ORDER BY rating_count DESC) AS mk ON f2.id = mk.film_id " +
-                                "WHERE EXTRACT(YEAR FROM f2.releasedate) = ? " +
-                                "LIMIT ?) " +
-                "ORDER BY mk.rating_count DESC NULLS LAST";
-        return getFilmsList(sql, year, count);
+    @Transactional
+    public void addMarks(List<Mark> marks) {
+        if (marks.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO marks (user_id, film_id, mark) VALUES (?, ?, ?)", marks, marks.size(),
+                (ps, mark) -> {
+                    ps.setInt(1, mark.getUserId());
+                    ps.setInt(2, mark.getFilmId());
+                    ps.setInt(3, mark.getMark());
+                });
+        // Для каждого фильма: сумма и количество новых оценок
+        Map<Integer, int[]> filmIdToMarks = new LinkedHashMap<>();
+        for (Mark mark : marks) {
+            int[] sumAndCount = filmIdToMarks.computeIfAbsent(mark.getFilmId(), filmId -> new int[2]);
+            sumAndCount[0] += mark.getMark();
+            sumAndCount[1]++;
+        }
+        String sqlUpdateRating =
+                "UPDATE film_ratings " +
+                "SET marks_sum = marks_sum + ?, " +
+                    "marks_count = marks_count + ?, " +
+                    "rating = CAST(marks_sum + ? AS DOUBLE PRECISION) / (marks_count + ?) " +
+                "WHERE film_id = ?";
+        List<Map.Entry<Integer, int[]>> entries = new ArrayList<>(filmIdToMarks.entrySet());
+        int[][] counts = jdbcTemplate.batchUpdate(sqlUpdateRating, entries, entries.size(), (ps, entry) -> {
+            ps.setInt(1, entry.getValue()[0]);
+            ps.setInt(2, entry.getValue()[1]);
+            ps.setInt(3, entry.getValue()[0]);
+            ps.setInt(4, entry.getValue()[1]);
+            ps.setInt(5, entry.getKey());
+        });
+        for (int i = 0; i < entries.size(); i++) {
+            if (counts[0][i] == 0) {
+                insertRating(entries.get(i).getKey());
+            }
+        }
     }
 
     @Override
-    public List<Film> getPopularFilmsByGenre(Integer genreId) {
-        String sql = "SELECT f.*, m.name AS mpa_name, fg.genre_id, g.name AS genre_name, df.director_id, d.director_name, mk.rating_count " +
-                "FROM films AS f " +
-                "LEFT JOIN mpa AS m ON f.mpa_id = m.id " +
-                "LEFT JOIN film_genres AS fg ON f.id = fg.film_id " +
-                "LEFT JOIN genres AS g ON fg.genre_id = g.id " +
-                "LEFT JOIN directors_film AS df ON f.id = df.film_id " +
-                "LEFT JOIN directors AS d ON df.director_id = d.director_id " +
-                "LEFT JOIN (SELECT film_id, CAST(sum(mark) AS DECIMAL(3,1))/CAST(count(film_id) AS DECIMAL(3,1)) AS rating_count " +
-                            "FROM marks " +
-                            "GROUP BY film_id " +
-                            "ORDER BY rating_count DESC) AS mk ON f.id = mk.film_id " +
-                "WHERE f.id IN (SELECT f2.id " +
-                                "FROM films AS f2 " +
-                                "LEFT JOIN film_genres AS fg2 ON f2.id = fg2.film_id " +
-                                "LEFT JOIN (SELECT film_id, CAST(sum(mark) AS DECIMAL(3,1))/CAST(count(film_id) AS DECIMAL(3,1)) AS rating_count " +
-                                            "FROM marks " +
-                                            "GROUP BY film_id " +
-                                            "ORDER BY rating_count DESC) AS mk ON f2.id = mk.film_id " +
-                                "WHERE fg2.genre_id = ?) " +
-                "ORDER BY mk.rating_count DESC NULLS LAST";
-        return getFilmsList(sql, genreId);
+    @Transactional
+    public Integer deleteMark(int filmId, int userId) {
+        List<Integer> marks = jdbcTemplate.queryForList("SELECT mark FROM marks WHERE user_id = ? AND film_id = ?;",
+                Integer.class, userId, filmId);
+        if (marks.isEmpty()) {
+            return 0;
+        }
+        int mark = marks.get(0);
+        String sql = "DELETE FROM marks WHERE user_id = ? AND film_id = ?;";
+        int result = jdbcTemplate.update(sql, userId, filmId);
+        // Проверка, что оценку не удалили параллельно
+        if (result == 0) {
+            return result;
+        }
+        String sqlUpdateRating =
+                "UPDATE film_ratings " +
+                "SET marks_sum = marks_sum - ?, " +
+                    "marks_count = marks_count - 1, " +
+                    "rating = CASE WHEN marks_count > 1 " +
+                                  "THEN CAST(marks_sum - ? AS DOUBLE PRECISION) / (marks_count - 1) " +
+                             "END " +
+                "WHERE film_id = ?;";
+        if (jdbcTemplate.update(sqlUpdateRating, mark, mark, filmId) == 0) {
+            insertRating(filmId);
+        }
+        return result;
     }
 
-    @Override
-    public List<Film> getPopularFilmsByGenreWithLimit(Integer count, Integer genreId) {
-        String sql = "SELECT f.*, m.name AS mpa_name, fg.genre_id, g.name AS genre_name, df.director_id, d.director_name, mk.rating_count " +
-                "FROM films AS f " +
-                "LEFT JOIN mpa AS m ON f.mpa_id = m.id " +
-                "LEFT JOIN film_genres AS fg ON f.id = fg.film_id " +
-                "LEFT JOIN genres AS g ON fg.genre_id = g.id " +
-                "LEFT JOIN directors_film AS df ON f.id = df.film_id " +
-                "LEFT JOIN directors AS d ON df.director_id = d.director_id " +
-                "LEFT JOIN (SELECT film_id, CAST(sum(mark) AS DECIMAL(3,1))/CAST(count(film_id) AS DECIMAL(3,1)) AS rating_count " +
-                            "FROM marks " +
-                            "GROUP BY film_id " +
-                            "ORDER BY rating_count DESC) AS mk ON f.id = mk.film_id " +
-                "WHERE f.id IN (SELECT f2.id " +
-                                "FROM films AS f2 " +
-                                "LEFT JOIN film_genres AS fg2 ON f2.id = fg2.film_id " +
-                                "LEFT JOIN (SELECT film_id, CAST(sum(mark) AS DECIMAL(3,1))/CAST(count(film_id) AS DECIMAL(3,1)) AS rating_count " +
-                                            "FROM marks " +
-                                            "GROUP BY film_id " +
-                                            "ORDER BY rating_count DESC) AS mk ON f2.id = mk.film_id " +
-                                "WHERE fg2.genre_id = ? " +
-                                "LIMIT ?) " +
-                "ORDER BY mk.rating_count DESC NULLS LAST";
-        return getFilmsList(sql, genreId, count);
+    // Агрегата нет (фильм добавлен до появления film_ratings) - считаем его по оценкам, уже изменённым в этой транзакции
+    private void insertRating(int filmId) {
+        jdbcTemplate.update("INSERT INTO film_ratings (film_id, marks_sum, marks_count, rating) " +
+                "SELECT ?, COALESCE(SUM(mark), 0), COUNT(mark), AVG(CAST(mark AS DOUBLE PRECISION)) " +
+                "FROM marks " +
+                "WHERE film_id = ?", filmId, filmId);
     }
 
     @Override
-    public List<Film> getPopularFilmsByYearAndGenre(Integer genreId, Integer year) {
-        String sql = "SELECT f.*, m.name AS mpa_name, fg.genre_id, g.name AS genre_name, df.director_id, d.director_name, mk.rating_count " +
-                "FROM films AS f " +
-                "LEFT JOIN mpa AS m ON f.mpa_id = m.id " +
-                "LEFT JOIN film_genres AS fg ON f.id = fg.film_id " +
-                "LEFT JOIN genres AS g ON fg.genre_id = g.id " +
-                "LEFT JOIN directors_film AS df ON f.id = df.film_id " +
-                "LEFT JOIN directors AS d ON df.director_id = d.director_id " +
-                "LEFT JOIN (SELECT film_id, CAST(sum(mark) AS DECIMAL(3,1))/CAST(count(film_id) AS DECIMAL(3,1)) AS rating_count " +
-                            "FROM marks " +
-                            "GROUP BY film_id " +
-                            "ORDER BY rating_count DESC) AS mk ON f.id = mk.film_id " +
-                "WHERE f.id IN (SELECT f2.id " +
-                                "FROM films AS f2 " +
-                                "LEFT JOIN film_genres AS fg2 ON f2.id = fg2.film_id " +
-                                "LEFT JOIN (SELECT film_id, CAST(sum(mark) AS DECIMAL(3,1))/CAST(count(film_id) AS DECIMAL(3,1)) AS rating_count " +
-                                            "FROM marks " +
-                                            "GROUP BY film_id " +
-                                            "ORDER BY rating_count DESC) AS mk ON f2.id = mk.film_id " +
-                                "WHERE EXTRACT(YEAR FROM f2.releasedate) = ? " +
-                                "AND fg2.genre_id = ?) " +
-                "ORDER BY mk.rating_count DESC NULLS LAST";
-        return getFilmsList(sql, year, genreId);
-    }
-
-    @Override
-    public List<Film> getPopularFilmsByYearAndGenreWithLimit(Integer count, Integer genreId, Integer year) {
-        String sql = "SELECT f.*, m.name AS mpa_name, fg.genre_id, g.name AS genre_name, df.director_id, d.director_name, mk.rating_count " +
-                "FROM films AS f " +
-                "LEFT JOIN mpa AS m ON f.mpa_id = m.id " +
-                "LEFT JOIN film_genres AS fg ON f.id = fg.film_id " +
-                "LEFT JOIN genres AS g ON fg.genre_id = g.id " +
-                "LEFT JOIN directors_film AS df ON f.id = df.film_id " +
-                "LEFT JOIN directors AS d ON df.director_id = d.director_id " +
-                "LEFT JOIN (SELECT film_id, CAST(sum(mark) AS DECIMAL(3,1))/CAST(count(film_id) AS DECIMAL(3,1)) AS rating_count " +
-                            "FROM marks " +
-                            "GROUP BY film_id " +
-                            "ORDER BY rating_count DESC) AS mk ON f.id = mk.film_id " +
-                "WHERE f.id IN (SELECT f2.id " +
-                                "FROM films AS f2 " +
-                                "LEFT JOIN film_genres AS fg2 ON f2.id = fg2.film_id " +
-                                "LEFT JOIN (SELECT film_id, CAST(sum(mark) AS DECIMAL(3,1))/CAST(count(film_id) AS DECIMAL(3,1)) AS rating_count " +
-                                            "FROM marks " +
-                                            "GROUP BY film_id " +
-                                            "ORDER BY rating_count DESC) AS mk ON f2.id = mk.film_id " +
-                                "WHERE EXTRACT(YEAR FROM f2.releasedate) = ? " +
-                                "AND fg2.genre_id = ? " +
-                                "LIMIT ?) " +
-                "ORDER BY mk.rating_count DESC NULLS LAST";
-        return getFilmsList(sql, year, genreId, count);
+    public Integer deleteFilm(int id) {
+        return jdbcTemplate.update("DELETE FROM films WHERE id = ?;", id);
     }
 
     @Override
     public List<Film> getCommonFilms(int userId, int friendId) {
-        String sql = "SELECT f.*, m.name AS mpa_name, fg.genre_id, g.name AS genre_name, df.director_id, d.director_name, mk.rating_count " +
-                "FROM films AS f " +
-                "LEFT JOIN mpa AS m ON f.mpa_id = m.id " +
-                "LEFT JOIN film_genres AS fg ON f.id = fg.film_id " +
-                "LEFT JOIN genres AS g ON fg.genre_id = g.id " +
-                "LEFT JOIN directors_film AS df ON f.id = df.film_id " +
-                "LEFT JOIN directors AS d ON df.director_id = d.director_id " +
-                "LEFT JOIN (SELECT film_id, CAST(sum(mark) AS DECIMAL(3,1))/CAST(count(film_id) AS DECIMAL(3,1)) AS rating_count " +
-                            "FROM marks " +
-                            "GROUP BY film_id " +
-                            "ORDER BY rating_count DESC) AS mk ON f.id = mk.film_id " +
+        String sql = FILMS_SQL +
                 "WHERE f.id IN (SELECT mk2.film_id " +
                                 "FROM marks AS mk2 " +
                                 "WHERE mk2.user_id = ? " +
@@ -339,168 +313,107 @@ public class FilmDbStorage implements FilmDao {
                                                 "FROM marks " +
                                                 "WHERE user_id = ? " +
                                                 "AND mark > 5)) " +
-                "ORDER BY mk.rating_count DESC NULLS LAST";
+                "ORDER BY fr.rating DESC NULLS LAST";
         return getFilmsList(sql, userId, friendId);
     }
 
     @Override
     public List<Film> getFilmsByDirectorIdSortByYear(int directorId) {
-        String sql = "SELECT f.*, m.name AS mpa_name, fg.genre_id, g.name AS genre_name, df.director_id, d.director_name, mk.rating_count " +
-                "FROM films AS f " +
-                "LEFT JOIN mpa AS m ON f.mpa_id = m.id " +
-                "LEFT JOIN film_genres AS fg ON f.id = fg.film_id " +
-                "LEFT JOIN genres AS g ON fg.genre_id = g.id " +
-                "LEFT JOIN directors_film AS df ON f.id = df.film_id " +
-                "LEFT JOIN directors AS d ON df.director_id = d.director_id " +
-                "LEFT JOIN (SELECT film_id, CAST(sum(mark) AS DECIMAL(3,1))/CAST(count(film_id) AS DECIMAL(3,1)) AS rating_count " +
-                            "FROM marks " +
-                            "GROUP BY film_id " +
-                            "ORDER BY rating_count DESC) AS mk ON f.id = mk.film_id " +
-                "WHERE f.id IN (SELECT f2.id " +
-                                "FROM films AS f2 " +
-                                "LEFT JOIN directors_film AS df2 ON f2.id = df2.film_id " +
-                                "LEFT JOIN (SELECT film_id, CAST(sum(mark) AS DECIMAL(3,1))/CAST(count(film_id) AS DECIMAL(3,1)) AS rating_count " +
-                                            "FROM marks " +
-                                            "GROUP BY film_id " +
-                                            "ORDER BY rating_count DESC) AS mk ON f2.id = mk.film_id " +
-                                "WHERE df2.director_id = ?) " +
+        String sql = FILMS_SQL +
+                "WHERE f.id IN (SELECT film_id FROM directors_film WHERE director_id = ?) " +
                 "ORDER BY f.releasedate";
         return getFilmsList(sql, directorId);
     }
 
     @Override
     public List<Film> getFilmsByDirectorIdSortByLikes(int directorId) {
-        String sql = "SELECT f.*, m.name AS mpa_name, fg.genre_id, g.name AS genre_name, df.director_id, d.director_name, mk.rating_count " +
-                "FROM films AS f " +
-                "LEFT JOIN mpa AS m ON f.mpa_id = m.id " +
-                "LEFT JOIN film_genres AS fg ON f.id = fg.film_id " +
-                "LEFT JOIN genres AS g ON fg.genre_id = g.id " +
-                "LEFT JOIN directors_film AS df ON f.id = df.film_id " +
-                "LEFT JOIN directors AS d ON df.director_id = d.director_id " +
-                "LEFT JOIN (SELECT film_id, CAST(sum(mark) AS DECIMAL(3,1))/CAST(count(film_id) AS DECIMAL(3,1)) AS rating_count " +
-                            "FROM marks " +
-                            "GROUP BY film_id " +
-                            "ORDER BY rating_count DESC) AS mk ON f.id = mk.film_id " +
-                "WHERE f.id IN (SELECT f2.id " +
-                                "FROM films AS f2 " +
-                                "LEFT JOIN directors_film AS df2 ON f2.id = df2.film_id " +
-                                "LEFT JOIN (SELECT film_id, CAST(sum(mark) AS DECIMAL(3,1))/CAST(count(film_id) AS DECIMAL(3,1)) AS rating_count " +
-                                            "FROM marks " +
-                                            "GROUP BY film_id " +
-                                            "ORDER BY rating_count DESC) AS mk ON f2.id = mk.film_id " +
-                                "WHERE df2.director_id = ?) " +
-                "ORDER BY mk.rating_count DESC NULLS LAST";
+        String sql = FILMS_SQL +
+                "WHERE f.id IN (SELECT film_id FROM directors_film WHERE director_id = ?) " +
+                "ORDER BY fr.rating DESC NULLS LAST";
         return getFilmsList(sql, directorId);
     }
 
     @Override
-    public List<Film> getFilmsByTitleSearch(String query) {
-        String sql = "SELECT f.*, m.name AS mpa_name, fg.genre_id, g.name AS genre_name, df.director_id, d.director_name, mk.rating_count " +
-                "FROM films AS f " +
-                "LEFT JOIN mpa AS m ON f.mpa_id = m.id " +
-                "LEFT JOIN film_genres AS fg ON f.id = fg.film_id " +
-                "LEFT JOIN genres AS g ON fg.genre_id = g.id " +
-                "LEFT JOIN directors_film AS df ON f.id = df.film_id " +
-                "LEFT JOIN directors AS d ON df.director_id = d.director_id " +
-                "LEFT JOIN (SELECT film_id, CAST(sum(mark) AS DECIMAL(3,1))/CAST(count(film_id) AS DECIMAL(3,1)) AS rating_count " +
-                            "FROM marks " +
-                            "GROUP BY film_id " +
-                            "ORDER BY rating_count DESC) AS mk ON f.id = mk.film_id " +
-                "WHERE UPPER (f.name) LIKE UPPER (?) " +
-                "ORDER BY mk.rating_count DESC NULLS LAST";
-        String param = "%" + query + "%";
-        return getFilmsList(sql, param);
-    }
-
-    @Override
-    public List<Film> getFilmsByTitleAndDirectorSearch(String query) {
-        String sql = "SELECT f.*, m.name AS mpa_name, fg.genre_id, g.name AS genre_name, df.director_id, d.director_name, mk.rating_count " +
-                "FROM films AS f " +
-                "LEFT JOIN mpa AS m ON f.mpa_id = m.id " +
-                "LEFT JOIN film_genres AS fg ON f.id = fg.film_id " +
-                "LEFT JOIN genres AS g ON fg.genre_id = g.id " +
-                "LEFT JOIN directors_film AS df ON f.id = df.film_id " +
-                "LEFT JOIN directors AS d ON df.director_id = d.director_id " +
-                "LEFT JOIN (SELECT film_id, CAST(sum(mark) AS DECIMAL(3,1))/CAST(count(film_id) AS DECIMAL(3,1)) AS rating_count " +
-                            "FROM marks " +
-                            "GROUP BY film_id " +
-                            "ORDER BY rating_count DESC) AS mk ON f.id = mk.film_id " +
-                "WHERE UPPER (f.name) LIKE UPPER (?) " +
-                "OR UPPER (d.director_name) LIKE UPPER (?) " +
-                "ORDER BY mk.rating_count DESC NULLS LAST";
-        String param = "%" + query + "%";
-        return getFilmsList(sql, param, param);
+    public List<Film> getRecommendations(List<Integer> filmIdsForRecommendation) {
+        String sql = FILMS_SQL +
+                "WHERE f.id IN (:filmIdsForRecommendation) " +
+                "ORDER BY fr.rating DESC NULLS LAST";
+        SqlParameterSource parameters = new MapSqlParameterSource("filmIdsForRecommendation", filmIdsForRecommendation);
+        List<Film> films = namedJdbcTemplate.query(sql, parameters, filmsRowMapper());
+        enrichFilms(films);
+        return films;
     }
 
     @Override
-    public List<Film> getFilmsByDirectorSearch(String query) {
-        String sql = "SELECT f.*, m.name AS mpa_name, fg.genre_id, g.name AS genre_name, df.director_id, d.director_name, mk.rating_count " +
-                "FROM films AS f " +
-                "LEFT JOIN mpa AS m ON f.mpa_id = m.id " +
-                "LEFT JOIN film_genres AS fg ON f.id = fg.film_id " +
-                "LEFT JOIN genres AS g ON fg.genre_id = g.id " +
-                "LEFT JOIN directors_film AS df ON f.id = df.film_id " +
-                "LEFT JOIN directors AS d ON df.director_id = d.director_id " +
-                "LEFT JOIN (SELECT film_id, CAST(sum(mark) AS DECIMAL(3,1))/CAST(count(film_id) AS DECIMAL(3,1)) AS rating_count " +
-                            "FROM marks " +
-                            "GROUP BY film_id " +
-                            "ORDER BY rating_count DESC) AS mk ON f.id = mk.film_id " +
-                "WHERE UPPER (d.director_name) LIKE UPPER (?) " +
-                "ORDER BY mk.rating_count DESC NULLS LAST";
-        String param = "%" + query + "%";
-        return getFilmsList(sql, param);
+    public List<Film> getFilmsByIds(List<Integer> filmIds) {
+        Map<Integer, Film> filmIdToFilm = new HashMap<>();
+        String sql = FILMS_SQL +
+                "WHERE f.id IN (:filmIds)";
+        for (List<Integer> batch : splitIntoBatches(filmIds)) {
+            SqlParameterSource parameters = new MapSqlParameterSource("filmIds", batch);
+            namedJdbcTemplate.query(sql, parameters, filmsRowMapper())
+                    .forEach(film -> filmIdToFilm.put(film.getId(), film));
+        }
+        // Сохраняем порядок входящего списка ид
+        List<Film> films = new ArrayList<>();
+        for (Integer filmId : filmIds) {
+            Film film = filmIdToFilm.get(filmId);
+            if (film != null) {
+                films.add(film);
+            }
+        }
+        enrichFilms(films);
+        return films;
     }
 
     @Override
-    public List<Film> getRecommendations(List<Integer> filmIdsForRecommendation) {
+    public Map<Integer, int[]> getFilmIdToMarksSumAndCount(List<Integer> filmIds) {
+        Map<Integer, int[]> filmIdToMarks = new HashMap<>();
+        if (filmIds != null && filmIds.isEmpty()) {
+            return filmIdToMarks;
+        }
         String sql =
-                "SELECT f.*, m.name AS mpa_name, mk.rating_count " +
+                "SELECT f.id, fr.marks_sum, fr.marks_count " +
                         "FROM films AS f " +
-                        "LEFT JOIN mpa AS m ON f.mpa_id = m.id " +
-                        "LEFT JOIN (SELECT film_id, CAST(sum(mark) AS DECIMAL(3,1))/CAST(count(film_id) AS DECIMAL(3,1)) AS rating_count " +
-                        "FROM marks " +
-                        "GROUP BY film_id " +
-                        "ORDER BY rating_count DESC) AS mk ON f.id = mk.film_id " +
-                        "WHERE f.id IN (:filmIdsForRecommendation) " +
-                        "ORDER BY mk.rating_count DESC NULLS LAST";
-        SqlParameterSource parameters = new MapSqlParameterSource("filmIdsForRecommendation", filmIdsForRecommendation);
-        return namedJdbcTemplate.query(sql, parameters, filmsRowMapper());
+                        "LEFT JOIN film_ratings AS fr ON f.id = fr.film_id" +
+                        (filmIds == null ? "" : " WHERE f.id IN (:filmIds)");
+        SqlParameterSource parameters = new MapSqlParameterSource("filmIds", filmIds);
+        namedJdbcTemplate.query(sql, parameters, (RowCallbackHandler) rs ->
+                filmIdToMarks.put(rs.getInt("id"), new int[]{rs.getInt("marks_sum"), rs.getInt("marks_count")}));
+        return filmIdToMarks;
     }
 
     @Override
     public Map<Integer, List<Genre>> getFilmIdToGenres(List<Integer> filmIdsForRecommendation) {
         String sql =
-                "SELECT fg.film_id, fg.genre_id, g.name " +
+                "SELECT fg.film_id, fg.genre_id " +
                         "FROM film_genres AS fg " +
-                        "LEFT JOIN genres AS g ON fg.genre_id = g.id " +
                         "WHERE fg.film_id IN (:filmIdsForRecommendation) " +
-                        "ORDER BY fg.film_id";
+                        "ORDER BY fg.film_id, fg.genre_id";
         SqlParameterSource parameters = new MapSqlParameterSource("filmIdsForRecommendation", filmIdsForRecommendation);
-        List<Map<Integer, Genre>> filmIdToGenreList = namedJdbcTemplate.query(sql, parameters, genresRowMapper());
-        return filmIdToGenreList.stream()
-                .map(Map::entrySet)
-                .flatMap(Set::stream)
-                .collect(Collectors.groupingBy(Map.Entry::getKey,
-                        Collectors.mapping(Map.Entry::getValue, Collectors.toList())));
+        Map<Integer, List<Genre>> filmIdToGenres = new HashMap<>();
+        namedJdbcTemplate.query(sql, parameters, (RowCallbackHandler) rs ->
+                filmIdToGenres.computeIfAbsent(rs.getInt("film_id"), filmId -> new ArrayList<>())
+                        .add(referenceDataRegistry.getGenre(rs.getInt("genre_id"))));
+        return filmIdToGenres;
     }
 
     @Override
     public Map<Integer, List<Director>> getFilmIdToDirectors(List<Integer> filmIdsForRecommendation) {
         String sql =
-                "SELECT df.film_id, df.director_id, d.director_name " +
+                "SELECT df.film_id, df.director_id " +
                         "FROM directors_film AS df " +
-                        "LEFT JOIN directors AS d ON df.director_id = d.director_id " +
                         "WHERE df.film_id IN (:filmIdsForRecommendation) " +
-                        "ORDER BY df.film_id";
+                        "ORDER BY df.film_id, df.director_id";
         SqlParameterSource parameters = new MapSqlParameterSource("filmIdsForRecommendation", filmIdsForRecommendation);
-        List<Map<Integer, Director>> filmIdToDirectorList = namedJdbcTemplate.query(sql, parameters, directorsRowMapper());
-        return filmIdToDirectorList.stream()
-                .map(Map::entrySet)
-                .flatMap(Set::stream)
-                .collect(Collectors.groupingBy(Map.Entry::getKey,
-                        Collectors.mapping(Map.Entry::getValue, Collectors.toList())));
+        Map<Integer, List<Director>> filmIdToDirectors = new HashMap<>();
+        namedJdbcTemplate.query(sql, parameters, (RowCallbackHandler) rs ->
+                filmIdToDirectors.computeIfAbsent(rs.getInt("film_id"), filmId -> new ArrayList<>())
+                        .add(referenceDataRegistry.getDirector(rs.getInt("director_id"))));
+        return filmIdToDirectors;
     }
 
+    // Жанры, рейтинг MPA и режиссёры берутся из реестра справочников, а не создаются на каждую строку
     private RowMapper<Film> filmsRowMapper() {
         return (rs, rowNum) -> {
             Film film = new Film(
@@ -508,74 +421,13 @@ public class FilmDbStorage implements FilmDao {
                     rs.getString("description"),
                     rs.getDate("releasedate").toLocalDate(),
                     rs.getInt("duration"),
-                    new Mpa(rs.getInt("mpa_id"),
-                            rs.getString("mpa_name")));
-            film.setRating(rs.getDouble("rating_count"));
+                    referenceDataRegistry.getMpa(rs.getInt("mpa_id")));
+            film.setRating(rs.getDouble("rating"));
             film.setId(rs.getInt("id"));
             return film;
         };
     }
 
-    private RowMapper<Map<Integer, Genre>> genresRowMapper() {
-        return (rs, rowNum) -> {
-            Map<Integer, Genre> filmIdToGenre = new HashMap<>();
-            Genre genre = new Genre(rs.getInt("genre_id"), rs.getString("name"));
-            filmIdToGenre.put(rs.getInt("film_id"), genre);
-            return filmIdToGenre;
-        };
-    }
-
-    private RowMapper<Map<Integer, Director>> directorsRowMapper() {
-        return (rs, rowNum) -> {
-            Map<Integer, Director> filmIdToDirector = new HashMap<>();
-            Director director = new Director(rs.getInt("director_id"), rs.getString("director_name"));
-            filmIdToDirector.put(rs.getInt("film_id"), director);
-            return filmIdToDirector;
-        };
-    }
-
-    private Film getNewFilm(ResultSet rs) throws SQLException {
-        Film film = new Film(
-                rs.getString("name"),
-                rs.getString("description"),
-                rs.getDate("releasedate").toLocalDate(),
-                rs.getInt("duration"),
-                new Mpa(rs.getInt("mpa_id"),
-                        rs.getString("mpa_name")));
-        film.setRating(rs.getDouble("rating_count"));
-        return film;
-    }
-
-    private RowMapper<Film> filmListRowMapper(List<Film> films) {
-        Map<Integer, Film> filmMap = new HashMap<>();
-        Map<Integer, HashMap<Integer, Genre>> filmGenreMap = new HashMap<>();
-        Map<Integer, HashMap<Integer, Director>> filmDirectorMap = new HashMap<>();
-        return (rs, rowNum) -> {
-            int filmId = rs.getInt("id");
-            if (!filmMap.containsKey(filmId)) {
-                Film film = FilmDbStorage.this.getNewFilm(rs);
-                film.setId(filmId);
-                filmMap.put(filmId, film);
-                films.add(film);
-                filmGenreMap.put(filmId, new HashMap<>());
-                filmDirectorMap.put(filmId, new HashMap<>());
-            }
-            int genreId = rs.getInt("genre_id");
-            if (genreId != 0 && !filmGenreMap.get(filmId).containsKey(genreId)) {
-                Genre genre = new Genre(genreId, rs.getString("genre_name"));
-                filmGenreMap.get(filmId).put(genreId, genre);
-                filmMap.get(filmId).getGenres().add(genre);
-            }
-            int directorId = rs.getInt("director_id");
-            if (directorId != 0 && !filmDirectorMap.get(filmId).containsKey(directorId)) {
-                Director director = new Director(directorId, rs.getString("director_name"));
-                filmDirectorMap.get(filmId).put(directorId, director);
-                filmMap.get(filmId).getDirectors().add(director);
-            }
-            return filmMap.get(filmId);
-        };
-    }
-
     // Метод добавления жанров в фильмы
     private Film addGenresToFilm(Film film) {
         jdbcTemplate.update("DELETE FROM film_genres WHERE film_id = ?;", film.getId());
@@ -641,9 +493,64 @@ public class FilmDbStorage implements FilmDao {
         });
     }
 
+    /**
+     * Загрузка фильмов в две фазы.
+     * Сначала одним запросом выбираются строки фильмов в нужном порядке без соединения с жанрами и режиссёрами,
+     * затем жанры и режиссёры догружаются пачками по ид фильмов. Так фильм с 4 жанрами и 3 режиссёрами
+     * даёт 1 + 4 + 3 строки вместо 12.
+     */
     private List<Film> getFilmsList(String sql, @Nullable Object... args) {
-        List<Film> films = new ArrayList<>();
-        jdbcTemplate.query(sql, filmListRowMapper(films), args);
+        List<Film> films = jdbcTemplate.query(sql, filmsRowMapper(), args);
+        enrichFilms(films);
         return films;
     }
-}
\ No newline at end of file
+
+    private void enrichFilms(List<Film> films) {
+        List<Integer> filmIds = films.stream()
+                .map(Film::getId)
+                .collect(Collectors.toList());
+        Map<Integer, List<Genre>> filmIdToGenres = new HashMap<>();
+        Map<Integer, List<Director>> filmIdToDirectors = new HashMap<>();
+        for (List<Integer> batch : splitIntoBatches(filmIds)) {
+            filmIdToGenres.putAll(getFilmIdToGenres(batch));
+            filmIdToDirectors.putAll(getFilmIdToDirectors(batch));
+        }
+        for (Film film : films) {
+            film.setGenres(filmIdToGenres.getOrDefault(film.getId(), new ArrayList<>()));
+            film.setDirectors(filmIdToDirectors.getOrDefault(film.getId(), new ArrayList<>()));
+        }
+    }
+
+    private void exportChunk(List<Film> chunk, Consumer<Film> consumer) {
+        enrichFilms(chunk);
+        chunk.forEach(consumer);
+        chunk.clear();
+    }
+
+    private void batchInsertLinks(String sql, List<int[]> links) {
+        if (!links.isEmpty()) {
+            jdbcTemplate.batchUpdate(sql, links, links.size(), (ps, link) -> {
+                ps.setInt(1, link[0]);
+                ps.setInt(2, link[1]);
+            });
+        }
+    }
+
+    // Удаление дубликатов с сохранением порядка, null считается пустым списком
+    private static <T> List<T> distinctById(@Nullable List<T> items, Function<T, Integer> idGetter) {
+        Map<Integer, T> itemsById = new LinkedHashMap<>();
+        if (items != null) {
+            items.forEach(item -> itemsById.putIfAbsent(idGetter.apply(item), item));
+        }
+        return new ArrayList<>(itemsById.values());
+    }
+
+    // Разбиение списка ид на пачки, чтобы не упираться в ограничение размера IN (...)
+    private List<List<Integer>> splitIntoBatches(List<Integer> filmIds) {
+        List<List<Integer>> batches = new ArrayList<>();
+        for (int from = 0; from < filmIds.size(); from += HYDRATION_BATCH_SIZE) {
+            batches.add(filmIds.subList(from, Math.min(from + HYDRATION_BATCH_SIZE, filmIds.size())));
+        }
+        return batches;
+    }
+}
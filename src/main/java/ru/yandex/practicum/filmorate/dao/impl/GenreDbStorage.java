@@ -1,37 +1,28 @@
 package ru.yandex.practicum.filmorate.dao.impl;
 
-import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 import ru.yandex.practicum.filmorate.dao.GenreDao;
 import ru.yandex.practicum.filmorate.model.Genre;
 
 import java.util.List;
 
+// Справочник почти не меняется, поэтому читается из реестра в памяти, а не из БД
 @Repository
 public class GenreDbStorage implements GenreDao {
-    private final JdbcTemplate jdbcTemplate;
+    private final ReferenceDataRegistry referenceDataRegistry;
 
-    public GenreDbStorage(JdbcTemplate jdbcTemplate) {
-        this.jdbcTemplate = jdbcTemplate;
+    public GenreDbStorage(ReferenceDataRegistry referenceDataRegistry) {
+        this.referenceDataRegistry = referenceDataRegistry;
     }
 
     @Override
     public List<Genre> getGenreById(int id) {
-        return jdbcTemplate.query("select * from genres where id = ?;", genreRowMapper(), id);
+        Genre genre = referenceDataRegistry.getGenre(id);
+        return genre == null ? List.of() : List.of(genre);
     }
 
     @Override
     public List<Genre> getAllGenres() {
-        return jdbcTemplate.query("select * from genres order by id;", genreRowMapper());
-    }
-
-    private RowMapper<Genre> genreRowMapper() {
-        return (rs, rowNum) -> {
-            Genre genre = new Genre();
-            genre.setId(rs.getInt("id"));
-            genre.setName(rs.getString("name"));
-            return genre;
-        };
+        return referenceDataRegistry.getGenres();
     }
 }
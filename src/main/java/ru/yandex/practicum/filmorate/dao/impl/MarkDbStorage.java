@@ -1,25 +1,24 @@
 package ru.yandex.practicum.filmorate.dao.impl;
 
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import ru.yandex.practicum.filmorate.dao.MarkDao;
 import ru.yandex.practicum.filmorate.model.Mark;
 
-import java.util.HashMap;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 @Repository("markDbStorage")
 public class MarkDbStorage implements MarkDao {
-    private static final String USERS_MARKS_SQL =
-            "SELECT * " +
-            "FROM marks AS m1 " +
-            "WHERE m1.user_id IN (SELECT m2.user_id " +
-                                  "FROM marks AS m2 " +
-                                  "WHERE m2.film_id IN (SELECT m3.film_id " +
-                                                        "FROM marks AS m3 " +
-                                                        "WHERE m3.user_id = ?))";
+    private static final int FETCH_SIZE = 1000;
+    // Количество пар (user_id, film_id) в одном запросе getMarks
+    private static final int KEYS_BATCH_SIZE = 500;
     private final JdbcTemplate jdbcTemplate;
 
     public MarkDbStorage(JdbcTemplate jdbcTemplate) {
@@ -27,19 +26,40 @@ public class MarkDbStorage implements MarkDao {
     }
 
     @Override
-    public Map<Integer, HashMap<Integer, Integer>> getUserIdToFilmIdWithMark(int requesterId) {
-        List<Mark> markList = jdbcTemplate.query(USERS_MARKS_SQL, marksRowMapper(), requesterId);
-        Map<Integer, HashMap<Integer, Integer>> userIdToFilmIdWithMark = new HashMap<>();
-        for (Mark mark : markList) {
-            int userId = mark.getUserId();
-            int filmId = mark.getFilmId();
-            int markCount = mark.getMark();
-            if (!userIdToFilmIdWithMark.containsKey(userId)) {
-                userIdToFilmIdWithMark.put(userId, new HashMap<>());
+    public List<Integer> getFilmIdsByUserId(int userId) {
+        return jdbcTemplate.queryForList("SELECT film_id FROM marks WHERE user_id = ?;", Integer.class, userId);
+    }
+
+    @Override
+    public List<Mark> getMarks(List<Mark> keys) {
+        List<Mark> marks = new ArrayList<>();
+        for (int from = 0; from < keys.size(); from += KEYS_BATCH_SIZE) {
+            List<Mark> batch = keys.subList(from, Math.min(from + KEYS_BATCH_SIZE, keys.size()));
+            String sql = "SELECT * FROM marks WHERE (user_id, film_id) IN (" +
+                    String.join(", ", Collections.nCopies(batch.size(), "(?, ?)")) + ");";
+            Object[] args = new Object[batch.size() * 2];
+            for (int i = 0; i < batch.size(); i++) {
+                args[2 * i] = batch.get(i).getUserId();
+                args[2 * i + 1] = batch.get(i).getFilmId();
             }
-            userIdToFilmIdWithMark.get(userId).put(filmId, markCount);
+            marks.addAll(jdbcTemplate.query(sql, marksRowMapper(), args));
         }
-        return userIdToFilmIdWithMark;
+        return marks;
+    }
+
+    /**
+     * Курсор с fetch size работает в PostgreSQL только внутри транзакции, поэтому метод транзакционный.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public void forEachMark(MarkHandler handler) {
+        String sql = "SELECT user_id, film_id, mark FROM marks ORDER BY user_id, film_id";
+        jdbcTemplate.query(con -> {
+            PreparedStatement statement = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(FETCH_SIZE);
+            return statement;
+        }, (RowCallbackHandler) rs -> handler.accept(rs.getInt("user_id"), rs.getInt("film_id"), rs.getInt("mark")));
     }
 
     private RowMapper<Mark> marksRowMapper() {
@@ -1,37 +1,28 @@
 package ru.yandex.practicum.filmorate.dao.impl;
 
-import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 import ru.yandex.practicum.filmorate.dao.MpaDao;
 import ru.yandex.practicum.filmorate.model.Mpa;
 
 import java.util.List;
 
+// Справочник почти не меняется, поэтому читается из реестра в памяти, а не из БД
 @Repository
 public class MpaDbStorage implements MpaDao {
-    private final JdbcTemplate jdbcTemplate;
+    private final ReferenceDataRegistry referenceDataRegistry;
 
-    public MpaDbStorage(JdbcTemplate jdbcTemplate) {
-        this.jdbcTemplate = jdbcTemplate;
+    public MpaDbStorage(ReferenceDataRegistry referenceDataRegistry) {
+        this.referenceDataRegistry = referenceDataRegistry;
     }
 
     @Override
     public List<Mpa> getMpaById(int id) {
-        return jdbcTemplate.query("select * from mpa where id = ?;", mpaRowMapper(), id);
+        Mpa mpa = referenceDataRegistry.getMpa(id);
+        return mpa == null ? List.of() : List.of(mpa);
     }
 
     @Override
     public List<Mpa> getAllMpa() {
-        return jdbcTemplate.query("select * from mpa order by id;", mpaRowMapper());
-    }
-
-    private RowMapper<Mpa> mpaRowMapper() {
-        return (rs, rowNum) -> {
-            Mpa mpa = new Mpa();
-            mpa.setId(rs.getInt("id"));
-            mpa.setName(rs.getString("name"));
-            return mpa;
-        };
+        return referenceDataRegistry.getMpa();
     }
 }
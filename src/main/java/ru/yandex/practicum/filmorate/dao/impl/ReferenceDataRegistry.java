@@ -0,0 +1,117 @@
+package ru.yandex.practicum.filmorate.dao.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Справочники жанров, рейтингов MPA и режиссёров в памяти.
+ * Загружаются при создании, режиссёры дальше обновляются через putDirector/removeDirector при изменениях в БД.
+ * Каждый справочник хранится как неизменяемый снимок, который при записи подменяется целиком,
+ * поэтому чтение идёт без блокировок. Модели изменяемые, поэтому наружу выдаются копии: изменения объекта
+ * вызывающим кодом (например, фильма с этим жанром) не попадают в справочник и в другие фильмы.
+ */
+@Slf4j
+@Component
+public class ReferenceDataRegistry {
+    private final JdbcTemplate jdbcTemplate;
+    private volatile Snapshot<Genre> genres;
+    private volatile Snapshot<Mpa> mpa;
+    private volatile Snapshot<Director> directors;
+
+    public ReferenceDataRegistry(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        load();
+    }
+
+    public synchronized void load() {
+        genres = new Snapshot<>(jdbcTemplate.query("select * from genres order by id;",
+                (rs, rowNum) -> new Genre(rs.getInt("id"), rs.getString("name"))), Genre::getId);
+        mpa = new Snapshot<>(jdbcTemplate.query("select * from mpa order by id;",
+                (rs, rowNum) -> new Mpa(rs.getInt("id"), rs.getString("name"))), Mpa::getId);
+        directors = new Snapshot<>(jdbcTemplate.query("select * from directors order by director_id;",
+                (rs, rowNum) -> new Director(rs.getInt("director_id"), rs.getString("director_name"))),
+                Director::getId);
+        log.info("Справочники загружены: жанров {}, рейтингов MPA {}, режиссёров {}.",
+                genres.all.size(), mpa.all.size(), directors.all.size());
+    }
+
+    public List<Genre> getGenres() {
+        return copyAll(genres.all, ReferenceDataRegistry::copy);
+    }
+
+    public Genre getGenre(int id) {
+        return copy(genres.byId.get(id));
+    }
+
+    public List<Mpa> getMpa() {
+        return copyAll(mpa.all, ReferenceDataRegistry::copy);
+    }
+
+    public Mpa getMpa(int id) {
+        return copy(mpa.byId.get(id));
+    }
+
+    public List<Director> getDirectors() {
+        return copyAll(directors.all, ReferenceDataRegistry::copy);
+    }
+
+    /**
+     * Получение режиссёра по ид.
+     * Все изменения режиссёров проходят через реестр, поэтому отсутствие ид в справочнике означает,
+     * что режиссёра нет, и запроса к БД не делается.
+     */
+    public Director getDirector(int id) {
+        return copy(directors.byId.get(id));
+    }
+
+    // Сохраняем копию, чтобы изменения объекта вызывающим кодом не попали в справочник
+    public synchronized void putDirector(Director director) {
+        Map<Integer, Director> byId = new TreeMap<>(directors.byId);
+        byId.put(director.getId(), copy(director));
+        directors = new Snapshot<>(new ArrayList<>(byId.values()), Director::getId);
+    }
+
+    public synchronized void removeDirector(int id) {
+        Map<Integer, Director> byId = new TreeMap<>(directors.byId);
+        byId.remove(id);
+        directors = new Snapshot<>(new ArrayList<>(byId.values()), Director::getId);
+    }
+
+    private static <T> List<T> copyAll(List<T> items, UnaryOperator<T> copier) {
+        List<T> copies = new ArrayList<>(items.size());
+        items.forEach(item -> copies.add(copier.apply(item)));
+        return copies;
+    }
+
+    private static Genre copy(Genre genre) {
+        return genre == null ? null : new Genre(genre.getId(), genre.getName());
+    }
+
+    private static Mpa copy(Mpa mpa) {
+        return mpa == null ? null : new Mpa(mpa.getId(), mpa.getName());
+    }
+
+    private static Director copy(Director director) {
+        return director == null ? null : new Director(director.getId(), director.getName());
+    }
+
+    private static final class Snapshot<T> {
+        private final List<T> all;
+        private final Map<Integer, T> byId;
+
+        private Snapshot(List<T> all, Function<T, Integer> idGetter) {
+            Map<Integer, T> byId = new HashMap<>();
+            all.forEach(item -> byId.put(idGetter.apply(item), item));
+            this.all = List.copyOf(all);
+            this.byId = Collections.unmodifiableMap(byId);
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package ru.yandex.practicum.filmorate.dao.impl;
 
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import ru.yandex.practicum.filmorate.dao.UserDao;
 import ru.yandex.practicum.filmorate.model.*;
 
@@ -70,8 +72,43 @@ public class UserDbStorage implements UserDao {
         return users;
     }
 
+    // Keyset-выборка по первичному ключу, друзья читаются по тому же диапазону ид, а не всей таблицей
     @Override
+    public List<User> getUsersPage(int afterId, int limit) {
+        Map<Integer, User> usersMap = new HashMap<>();
+        String sql = "select * from users where id > ? order by id limit ?;";
+        List<User> users = jdbcTemplate.query(sql, usersListRowMapper(usersMap), afterId, limit);
+        if (users.isEmpty()) {
+            return users;
+        }
+        int lastId = users.get(users.size() - 1).getId();
+        String sqlFriends = "select user_id, friend_id from friends where user_id > ? and user_id <= ?;";
+        jdbcTemplate.query(sqlFriends, addFriendIds(usersMap), afterId, lastId);
+        return users;
+    }
+
+    @Override
+    public List<Integer> getUserIdsPage(int afterId, int limit) {
+        String sql = "select id from users where id > ? order by id limit ?;";
+        return jdbcTemplate.queryForList(sql, Integer.class, afterId, limit);
+    }
+
+    @Override
+    @Transactional
     public Integer deleteUser(int id) {
+        // Оценки пользователя удалятся каскадно, поэтому сначала вычитаем их из агрегатов рейтинга фильмов
+        String sqlUpdateRatings =
+                "update film_ratings " +
+                "set marks_sum = marks_sum - (select m.mark from marks m " +
+                                             "where m.film_id = film_ratings.film_id and m.user_id = ?), " +
+                    "marks_count = marks_count - 1 " +
+                "where film_id in (select film_id from marks where user_id = ?);";
+        jdbcTemplate.update(sqlUpdateRatings, id, id);
+        String sqlUpdateRatingValues =
+                "update film_ratings " +
+                "set rating = case when marks_count > 0 then cast(marks_sum as double precision) / marks_count end " +
+                "where film_id in (select film_id from marks where user_id = ?);";
+        jdbcTemplate.update(sqlUpdateRatingValues, id);
         return jdbcTemplate.update("delete from users where id = ?;", id);
     }
 
@@ -85,6 +122,11 @@ public class UserDbStorage implements UserDao {
         return jdbcTemplate.update("delete from friends where user_id = ? and friend_id = ?;", id, friendId);
     }
 
+    @Override
+    public List<Integer> getFriendIds(int id) {
+        return jdbcTemplate.queryForList("select friend_id from friends where user_id = ?;", Integer.class, id);
+    }
+
     @Override
     public List<User> getAllFriends(int id) {
         Map<Integer, User> usersMap = new HashMap<>();
@@ -95,15 +137,10 @@ public class UserDbStorage implements UserDao {
             usersMap.put(rs.getInt("id"), user);
             return user;
         }, id);
-        // Добавление ид друзей в список пользователю
-        jdbcTemplate.query("select * from friends;", (RowMapper<Integer>) (rs, rowNum) -> {
-            do {
-                if (usersMap.containsKey(rs.getInt("user_id"))) {
-                    usersMap.get(rs.getInt("user_id")).getFriends().add(rs.getInt("friend_id"));
-                }
-            } while (rs.next());
-            return null;
-        });
+        // Добавление ид друзей в список пользователю, читаем только связи друзей пользователя
+        String sqlFriends = "select user_id, friend_id from friends " +
+                "where user_id in (select friend_id from friends where user_id = ?);";
+        jdbcTemplate.query(sqlFriends, addFriendIds(usersMap), id);
         return users;
     }
 
@@ -136,6 +173,15 @@ public class UserDbStorage implements UserDao {
         };
     }
 
+    private RowCallbackHandler addFriendIds(Map<Integer, User> usersMap) {
+        return rs -> {
+            User user = usersMap.get(rs.getInt("user_id"));
+            if (user != null) {
+                user.getFriends().add(rs.getInt("friend_id"));
+            }
+        };
+    }
+
     private RowMapper<User> userRowMapper() {
         return (rs, rowNum) -> {
             User user = getNewUser(rs);
@@ -0,0 +1,20 @@
+package ru.yandex.practicum.filmorate.dto;
+
+import lombok.Data;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Количество найденных фильмов по значениям каждого измерения фильтра.
+ * Количество по измерению считается без условия на само это измерение, чтобы было видно,
+ * сколько фильмов даст выбор другого значения. durations - по интервалам, ключ - начало интервала.
+ */
+@Data
+public class FilmFacets {
+    private Map<Integer, Integer> genres = new TreeMap<>();
+    private Map<Integer, Integer> mpa = new TreeMap<>();
+    private Map<Integer, Integer> years = new TreeMap<>();
+    private Map<Integer, Integer> durations = new TreeMap<>();
+    private Map<Integer, Integer> directors = new TreeMap<>();
+}
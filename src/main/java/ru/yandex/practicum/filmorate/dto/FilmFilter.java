@@ -0,0 +1,34 @@
+package ru.yandex.practicum.filmorate.dto;
+
+import lombok.Data;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import java.util.List;
+
+/**
+ * Условия GET /films/filter. Незаданное условие (и пустой список) не ограничивает выборку.
+ * genreMode: any - есть хотя бы один из жанров, all - есть все жанры.
+ * Границы годов и продолжительности включаются.
+ */
+@Data
+public class FilmFilter {
+    public static final String ANY = "any";
+    public static final String ALL = "all";
+    public static final String SORT_BY_RATING = "rating";
+    public static final String SORT_BY_RELEASE_DATE = "releaseDate";
+    private List<Integer> genres;
+    private String genreMode = ANY;
+    private List<Integer> mpa;
+    private Integer yearFrom;
+    private Integer yearTo;
+    private Integer durationFrom;
+    private Integer durationTo;
+    private List<Integer> directors;
+    private String sortBy = SORT_BY_RATING;
+    @Min(0)
+    private int offset;
+    @Min(1)
+    @Max(Page.MAX_LIMIT)
+    private int limit = 10;
+}
@@ -0,0 +1,18 @@
+package ru.yandex.practicum.filmorate.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import ru.yandex.practicum.filmorate.model.Film;
+
+import java.util.List;
+
+/**
+ * Ответ GET /films/filter: total - всего подходящих фильмов, films - запрошенная страница.
+ */
+@Data
+@AllArgsConstructor
+public class FilmFilterResult {
+    private int total;
+    private List<Film> films;
+    private FilmFacets facets;
+}
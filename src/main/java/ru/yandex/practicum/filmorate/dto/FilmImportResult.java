@@ -0,0 +1,38 @@
+package ru.yandex.practicum.filmorate.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Результат пакетной загрузки фильмов: по одной записи на каждый элемент входных данных
+ * в порядке следования, с ид добавленного фильма или описанием ошибки.
+ */
+@Data
+public class FilmImportResult {
+    private int created;
+    private int failed;
+    private final List<Item> items = new ArrayList<>();
+
+    public void addCreated(int index, int id) {
+        items.add(new Item(index, id, null));
+        created++;
+    }
+
+    public void addFailed(int index, String error) {
+        items.add(new Item(index, null, error));
+        failed++;
+    }
+
+    @Data
+    @AllArgsConstructor
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Item {
+        private int index;
+        private Integer id;
+        private String error;
+    }
+}
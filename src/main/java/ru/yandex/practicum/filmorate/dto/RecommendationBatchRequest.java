@@ -0,0 +1,42 @@
+package ru.yandex.practicum.filmorate.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Data;
+
+import javax.validation.constraints.AssertTrue;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+/**
+ * Запрос рекомендаций для многих пользователей: список ид или отрезок ид [fromId, toId].
+ * Без k и limit рекомендации подбираются как в GET /users/{id}/recommendations без параметров,
+ * иначе - голосованием k похожих пользователей.
+ */
+@Data
+public class RecommendationBatchRequest {
+    public static final int MAX_USER_IDS = 10000;
+    @Size(max = MAX_USER_IDS)
+    private List<Integer> userIds;
+    @Min(1)
+    private Integer fromId;
+    @Min(1)
+    private Integer toId;
+    @Min(1)
+    @Max(Page.MAX_LIMIT)
+    private Integer k;
+    @Min(1)
+    @Max(Page.MAX_LIMIT)
+    private Integer limit;
+
+    // Задан либо список, либо отрезок целиком
+    @JsonIgnore
+    @AssertTrue(message = "Нужно передать либо userIds, либо fromId и toId, fromId не больше toId")
+    public boolean isUsersSelected() {
+        if (userIds != null) {
+            return fromId == null && toId == null;
+        }
+        return fromId != null && toId != null && fromId <= toId;
+    }
+}
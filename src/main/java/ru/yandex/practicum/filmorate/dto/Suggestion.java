@@ -0,0 +1,19 @@
+package ru.yandex.practicum.filmorate.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Подсказка при вводе поискового запроса: фильм или режиссёр.
+ * filmIds - для фильма его ид, для режиссёра - ид его фильмов с наибольшим рейтингом.
+ */
+@Data
+@AllArgsConstructor
+public class Suggestion {
+    public static final String FILM = "film";
+    public static final String DIRECTOR = "director";
+    private String type;
+    private int id;
+    private String name;
+    private int[] filmIds;
+}
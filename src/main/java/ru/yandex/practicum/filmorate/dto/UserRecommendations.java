@@ -0,0 +1,16 @@
+package ru.yandex.practicum.filmorate.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Рекомендации одного пользователя в пакетной выдаче.
+ * popular - подобрать по оценкам нечего, вместо рекомендаций популярные фильмы.
+ */
+@Data
+@AllArgsConstructor
+public class UserRecommendations {
+    private int userId;
+    private int[] filmIds;
+    private boolean popular;
+}
@@ -2,19 +2,23 @@ package ru.yandex.practicum.filmorate.exception;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
+import org.springframework.validation.BindException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 
+import javax.validation.ConstraintViolationException;
 import java.util.Map;
 
 @Slf4j
 @ControllerAdvice("ru.yandex.practicum.filmorate")
 @RestControllerAdvice
 public class ErrorHandler {
-    // Отлавливаем все ValidationException
-    @ExceptionHandler({ValidationException.class, SearchParameterException.class})
+    // Отлавливаем все ValidationException и ошибки проверки параметров запроса (@Valid, @Validated);
+    // MethodArgumentNotValidException для тела запроса - наследник BindException
+    @ExceptionHandler({ValidationException.class, SearchParameterException.class,
+            ConstraintViolationException.class, BindException.class})
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     public Map<String, String> handleNotValid(final Exception e) {
         log.error("Получен статус 400 Bad Request. {}", e.getMessage(), e);
@@ -6,6 +6,9 @@ import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.dao.DirectorDao;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.service.film.FilmCache;
+import ru.yandex.practicum.filmorate.service.film.FilmFacetIndex;
+import ru.yandex.practicum.filmorate.service.film.FilmSearchIndex;
 
 import java.util.List;
 
@@ -14,9 +17,18 @@ import java.util.List;
 public class DirectorServiceImpl implements DirectorService {
 
     private final DirectorDao directorDao;
+    private final FilmCache filmCache;
+    private final FilmSearchIndex searchIndex;
+    private final FilmFacetIndex facetIndex;
 
-    public DirectorServiceImpl(@Qualifier("directorDbStorage") DirectorDao directorDao) {
+    public DirectorServiceImpl(@Qualifier("directorDbStorage") DirectorDao directorDao,
+                               FilmCache filmCache,
+                               FilmSearchIndex searchIndex,
+                               FilmFacetIndex facetIndex) {
         this.directorDao = directorDao;
+        this.filmCache = filmCache;
+        this.searchIndex = searchIndex;
+        this.facetIndex = facetIndex;
     }
 
     @Override
@@ -38,6 +50,7 @@ public class DirectorServiceImpl implements DirectorService {
     @Override
     public Director addDirector(Director director) {
         Director addDirector = directorDao.addDirector(director);
+        searchIndex.addDirector(addDirector);
         log.info("Добавлен новый режиссер = {}", addDirector);
         return addDirector;
     }
@@ -49,16 +62,23 @@ public class DirectorServiceImpl implements DirectorService {
         if (upDirector == null) {
             throw new NotFoundException("Директор с id " + directorId + " не найден.");
         }
+        filmCache.invalidate(directorDao.getFilmIdsByDirectorId(directorId));
+        searchIndex.updateDirector(upDirector);
         log.info("Обновлен режиссер с ид {}", directorId);
         return upDirector;
     }
 
     @Override
     public void deleteDirector(int id) {
+        // Связи с фильмами удаляются каскадно, поэтому ид фильмов читаем до удаления
+        List<Integer> filmIds = directorDao.getFilmIdsByDirectorId(id);
         int check = directorDao.deleteDirector(id);
         if (check == 0) {
             throw new NotFoundException("Режиссер не найден под id = " + id);
         }
+        filmCache.invalidate(filmIds);
+        searchIndex.removeDirector(id);
+        facetIndex.removeDirector(id);
         log.info("Удален режиссер под id = {}", id);
     }
 }
@@ -0,0 +1,11 @@
+package ru.yandex.practicum.filmorate.service.event;
+
+/**
+ * Гарантия записи события в ленту.
+ * STRICT - вызывающий ждёт, пока пачка с событием будет записана в БД, ошибка записи возвращается ему.
+ * RELAXED - событие только ставится в очередь, ошибка записи попадает лишь в лог.
+ */
+public enum EventDelivery {
+    STRICT,
+    RELAXED
+}
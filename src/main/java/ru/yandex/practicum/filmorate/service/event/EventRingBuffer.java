@@ -0,0 +1,80 @@
+package ru.yandex.practicum.filmorate.service.event;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Ограниченный кольцевой буфер без блокировок: много писателей, один читатель.
+ * Писатель занимает номер ячейки через CAS по хвосту и затем публикует в неё элемент.
+ * Читатель забирает элементы подряд, пока не встретит пустую ячейку, очищает их и только после этого
+ * сдвигает голову, поэтому писатель не может занять ячейку, которую читатель ещё не освободил.
+ */
+final class EventRingBuffer<T> {
+    private final AtomicReferenceArray<T> slots;
+    private final int capacity;
+    private final int mask;
+    // Следующий номер для писателя
+    private final AtomicLong tail = new AtomicLong();
+    // Следующий номер для читателя, меняется только читателем
+    private volatile long head;
+
+    EventRingBuffer(int requestedCapacity) {
+        int capacity = 1;
+        while (capacity < requestedCapacity) {
+            capacity <<= 1;
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Добавление элемента.
+     *
+     * @return false, если буфер заполнен.
+     */
+    boolean offer(T item) {
+        while (true) {
+            long sequence = tail.get();
+            if (sequence - head >= capacity) {
+                return false;
+            }
+            if (tail.compareAndSet(sequence, sequence + 1)) {
+                slots.set((int) (sequence & mask), item);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Перенос опубликованных элементов в список, не больше maxItems. Вызывается только читателем.
+     *
+     * @return количество перенесённых элементов.
+     */
+    int drainTo(List<T> target, int maxItems) {
+        long sequence = head;
+        int drained = 0;
+        while (drained < maxItems) {
+            int index = (int) (sequence & mask);
+            T item = slots.get(index);
+            if (item == null) {
+                break;
+            }
+            slots.set(index, null);
+            target.add(item);
+            sequence++;
+            drained++;
+        }
+        head = sequence;
+        return drained;
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    int capacity() {
+        return capacity;
+    }
+}
@@ -5,8 +5,12 @@ import ru.yandex.practicum.filmorate.model.Event;
 import java.util.List;
 
 public interface EventService {
-    Integer addEvent(Event event);
+    void addEvent(Event event);
+
+    void addEvent(Event event, EventDelivery delivery);
 
     List<Event> getUserEvents(int userId);
 
+    List<Event> getUserEventsPage(int userId, Integer sinceEventId, Integer beforeEventId, int limit);
+
 }
@@ -1,6 +1,7 @@
 package ru.yandex.practicum.filmorate.service.event;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.dao.EventDao;
 import ru.yandex.practicum.filmorate.model.Event;
@@ -11,16 +12,26 @@ import java.util.List;
 @Service
 public class EventServiceImpl implements EventService {
     private final EventDao eventDao;
+    private final EventWriter eventWriter;
+    private final EventDelivery defaultDelivery;
 
-    public EventServiceImpl(EventDao eventDao) {
+    public EventServiceImpl(EventDao eventDao,
+                            EventWriter eventWriter,
+                            @Value("${filmorate.events.delivery:STRICT}") EventDelivery defaultDelivery) {
         this.eventDao = eventDao;
+        this.eventWriter = eventWriter;
+        this.defaultDelivery = defaultDelivery;
     }
 
     @Override
-    public Integer addEvent(Event event) {
-        int i = eventDao.addEvent(event);
+    public void addEvent(Event event) {
+        addEvent(event, defaultDelivery);
+    }
+
+    @Override
+    public void addEvent(Event event, EventDelivery delivery) {
+        eventWriter.write(event, delivery);
         log.info("Событие пользователя с ид = {} добавлено", event.getUserId());
-        return i;
     }
 
     @Override
@@ -29,4 +40,11 @@ public class EventServiceImpl implements EventService {
         log.info("Список с активностью пользователя с ид {} возвращён.", userId);
         return events;
     }
+
+    @Override
+    public List<Event> getUserEventsPage(int userId, Integer sinceEventId, Integer beforeEventId, int limit) {
+        List<Event> events = eventDao.getUserEventsPage(userId, sinceEventId, beforeEventId, limit);
+        log.info("Страница ленты пользователя с ид {} размером {} возвращена.", userId, events.size());
+        return events;
+    }
 }
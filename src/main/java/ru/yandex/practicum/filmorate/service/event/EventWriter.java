@@ -0,0 +1,254 @@
+package ru.yandex.practicum.filmorate.service.event;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dao.EventDao;
+import ru.yandex.practicum.filmorate.model.Event;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Фоновая запись событий ленты.
+ * События складываются в кольцевой буфер без блокировок, один поток забирает всё накопившееся
+ * (не больше max-batch-size) и записывает многострочными insert. Пока идёт запись пачки, в буфере
+ * набирается следующая, поэтому под нагрузкой на одно обращение к БД приходится много событий.
+ * Если буфер заполнен или запись выключена, событие записывается сразу в потоке вызывающего.
+ * Записанные события передаются получателям FeedListener (подписки на ленту, ленты друзей).
+ * Метрики: глубина очереди, размер пачки и время записи пачки - filmorate.events.writer.*.
+ */
+@Slf4j
+@Component
+public class EventWriter {
+    // Сколько спит поток записи, если его не разбудили новым событием
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private final EventDao eventDao;
+    private final List<FeedListener> listeners;
+    private final int maxBatchSize;
+    private final EventRingBuffer<PendingEvent> buffer;
+    private final Thread writer;
+    private final DistributionSummary batchSizes;
+    private final Timer flushLatency;
+    private final LongAdder writtenEvents = new LongAdder();
+    private final LongAdder failedEvents = new LongAdder();
+    private final LongAdder directWrites = new LongAdder();
+    private volatile boolean running;
+
+    public EventWriter(EventDao eventDao,
+                       List<FeedListener> listeners,
+                       MeterRegistry meterRegistry,
+                       @Value("${filmorate.events.writer.enabled:true}") boolean enabled,
+                       @Value("${filmorate.events.writer.buffer-size:8192}") int bufferSize,
+                       @Value("${filmorate.events.writer.max-batch-size:500}") int maxBatchSize) {
+        this.eventDao = eventDao;
+        this.listeners = listeners;
+        this.maxBatchSize = maxBatchSize;
+        this.buffer = new EventRingBuffer<>(bufferSize);
+        this.writer = new Thread(this::runWriter, "event-writer");
+        this.writer.setDaemon(true);
+        Gauge.builder("filmorate.events.writer.queue.depth", buffer, EventRingBuffer::size)
+                .description("События, ожидающие записи")
+                .register(meterRegistry);
+        this.batchSizes = DistributionSummary.builder("filmorate.events.writer.batch.size")
+                .description("Количество событий в записанной пачке")
+                .baseUnit("events")
+                .register(meterRegistry);
+        this.flushLatency = Timer.builder("filmorate.events.writer.flush.latency")
+                .description("Время записи пачки событий")
+                .register(meterRegistry);
+        FunctionCounter.builder("filmorate.events.writer.written", writtenEvents, LongAdder::sum)
+                .description("Записанные события")
+                .register(meterRegistry);
+        FunctionCounter.builder("filmorate.events.writer.failed", failedEvents, LongAdder::sum)
+                .description("События, которые не удалось записать")
+                .register(meterRegistry);
+        FunctionCounter.builder("filmorate.events.writer.direct-writes", directWrites, LongAdder::sum)
+                .description("События, записанные в потоке вызывающего из-за заполненного буфера")
+                .register(meterRegistry);
+        if (enabled) {
+            running = true;
+            writer.start();
+            log.info("Фоновая запись событий включена: буфер на {} событий, пачка до {} событий.",
+                    buffer.capacity(), maxBatchSize);
+        }
+    }
+
+    /**
+     * Запись события.
+     * При STRICT метод возвращается после записи события в БД и пробрасывает ошибку записи,
+     * при RELAXED - сразу после постановки события в буфер.
+     */
+    public void write(Event event, EventDelivery delivery) {
+        if (!running) {
+            writeDirectly(event);
+            return;
+        }
+        PendingEvent pendingEvent = new PendingEvent(event,
+                delivery == EventDelivery.STRICT ? new CompletableFuture<>() : null);
+        if (!buffer.offer(pendingEvent)) {
+            directWrites.increment();
+            writeDirectly(event);
+            return;
+        }
+        LockSupport.unpark(writer);
+        // Запись остановилась, пока событие ставилось в буфер: дописываем буфер сами
+        if (!running) {
+            flushRemaining();
+        }
+        if (pendingEvent.done != null) {
+            await(pendingEvent.done);
+        }
+    }
+
+    public long getWrittenCount() {
+        return writtenEvents.sum();
+    }
+
+    public long getFailedCount() {
+        return failedEvents.sum();
+    }
+
+    public long getDirectWriteCount() {
+        return directWrites.sum();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        flushRemaining();
+        log.info("Фоновая запись событий остановлена, буфер записан.");
+    }
+
+    private void runWriter() {
+        List<PendingEvent> batch = new ArrayList<>(maxBatchSize);
+        while (true) {
+            if (buffer.drainTo(batch, maxBatchSize) == 0) {
+                if (!running) {
+                    return;
+                }
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+            flush(batch);
+            batch.clear();
+        }
+    }
+
+    // После остановки потока записи буфер читается под блокировкой, чтобы читатель оставался один
+    private synchronized void flushRemaining() {
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        List<PendingEvent> batch = new ArrayList<>(maxBatchSize);
+        while (buffer.drainTo(batch, maxBatchSize) > 0) {
+            flush(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Запись пачки событий.
+     * Если пачка не записалась целиком, события записываются по одному, чтобы ошибка досталась только своему.
+     */
+    private void flush(List<PendingEvent> batch) {
+        long start = System.nanoTime();
+        List<Event> events = new ArrayList<>(batch.size());
+        batch.forEach(pendingEvent -> events.add(pendingEvent.event));
+        try {
+            eventDao.addEvents(events);
+            notifyListeners(events);
+            writtenEvents.add(batch.size());
+            batch.forEach(pendingEvent -> pendingEvent.complete(null));
+        } catch (RuntimeException e) {
+            log.warn("Пачка из {} событий не записана, события будут записаны по одному. {}",
+                    batch.size(), e.getMessage());
+            for (PendingEvent pendingEvent : batch) {
+                try {
+                    eventDao.addEvent(pendingEvent.event);
+                    notifyListeners(List.of(pendingEvent.event));
+                    writtenEvents.increment();
+                    pendingEvent.complete(null);
+                } catch (RuntimeException eventException) {
+                    failedEvents.increment();
+                    log.warn("Событие пользователя с ид = {} не записано: {}", pendingEvent.event.getUserId(),
+                            eventException.getMessage());
+                    pendingEvent.complete(eventException);
+                }
+            }
+        } finally {
+            batchSizes.record(batch.size());
+            flushLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void writeDirectly(Event event) {
+        eventDao.addEvent(event);
+        notifyListeners(List.of(event));
+    }
+
+    // Ошибка получателя не должна влиять на запись и на вызывающего
+    private void notifyListeners(List<Event> events) {
+        for (FeedListener listener : listeners) {
+            try {
+                listener.onEventsWritten(events);
+            } catch (RuntimeException e) {
+                log.warn("Ошибка передачи событий получателю {}: {}", listener.getClass().getSimpleName(),
+                        e.getMessage());
+            }
+        }
+    }
+
+    private static void await(CompletableFuture<Void> done) {
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static final class PendingEvent {
+        private final Event event;
+        // Только для STRICT: завершается после записи события
+        private final CompletableFuture<Void> done;
+
+        private PendingEvent(Event event, CompletableFuture<Void> done) {
+            this.event = event;
+            this.done = done;
+        }
+
+        private void complete(RuntimeException error) {
+            if (done == null) {
+                return;
+            }
+            if (error == null) {
+                done.complete(null);
+            } else {
+                done.completeExceptionally(error);
+            }
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package ru.yandex.practicum.filmorate.service.event;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.yandex.practicum.filmorate.dao.EventDao;
+import ru.yandex.practicum.filmorate.dto.Page;
+import ru.yandex.practicum.filmorate.model.Event;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Рассылка новых событий ленты подписчикам SSE (GET /users/{id}/feed/stream).
+ * Записанные события публикуются сюда после фиксации в БД. У каждого подписчика свой ограниченный буфер,
+ * отправку выполняет общий пул потоков, поэтому медленный клиент не задерживает запись событий
+ * и других подписчиков. Если буфер подписчика переполнен, подписка закрывается: клиент переподключится
+ * с заголовком Last-Event-ID и дочитает пропущенное из БД. Закрытие и heartbeat тоже выполняются в пуле отправки:
+ * отправка в SseEmitter синхронизирована на нём, и зависший на записи в сокет клиент иначе блокировал бы
+ * публикующий поток.
+ */
+@Slf4j
+@Component
+public class FeedHub implements FeedListener {
+    private static final String EVENT_NAME = "event";
+    private final EventDao eventDao;
+    private final int bufferSize;
+    private final long timeoutMillis;
+    private final Map<Integer, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final ExecutorService sender;
+    private final ScheduledExecutorService heartbeat;
+
+    public FeedHub(EventDao eventDao,
+                   MeterRegistry meterRegistry,
+                   @Value("${filmorate.feed.stream.buffer-size:256}") int bufferSize,
+                   @Value("${filmorate.feed.stream.timeout-ms:1800000}") long timeoutMillis,
+                   @Value("${filmorate.feed.stream.heartbeat-ms:15000}") long heartbeatMillis,
+                   @Value("${filmorate.feed.stream.sender-threads:4}") int senderThreads) {
+        this.eventDao = eventDao;
+        this.bufferSize = bufferSize;
+        this.timeoutMillis = timeoutMillis;
+        this.sender = Executors.newFixedThreadPool(senderThreads, daemonThreads("feed-sender-"));
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(daemonThreads("feed-heartbeat-"));
+        this.heartbeat.scheduleWithFixedDelay(this::sendHeartbeat, heartbeatMillis, heartbeatMillis,
+                TimeUnit.MILLISECONDS);
+        Gauge.builder("filmorate.feed.stream.subscribers", subscriberCount, AtomicInteger::get)
+                .description("Открытые подписки на ленту")
+                .register(meterRegistry);
+        FunctionCounter.builder("filmorate.feed.stream.delivered", delivered, LongAdder::sum)
+                .description("События, отправленные подписчикам")
+                .register(meterRegistry);
+        FunctionCounter.builder("filmorate.feed.stream.evicted", evicted, LongAdder::sum)
+                .description("Подписки, закрытые из-за переполнения буфера")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Подписка на новые события пользователя.
+     * Подписчик регистрируется до чтения последнего ид из БД, а после регистрации события всегда
+     * дочитываются из БД: событие, опубликованное между чтением и регистрацией, иначе было бы потеряно.
+     * Повторы из буфера отсекаются по ид события.
+     *
+     * @param lastEventId ид последнего полученного клиентом события. События после него сначала
+     *                    дочитываются из БД. Если не задан, отправляются только события, записанные после подписки.
+     */
+    public SseEmitter subscribe(int userId, Integer lastEventId) {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        Subscriber subscriber = new Subscriber(userId, emitter);
+        subscribers.computeIfAbsent(userId, id -> new CopyOnWriteArraySet<>()).add(subscriber);
+        subscriberCount.incrementAndGet();
+        int sinceEventId;
+        try {
+            // Заодно проверяет, что пользователь существует
+            List<Event> latest = eventDao.getUserEventsPage(userId, null, null, 1);
+            sinceEventId = lastEventId != null ? lastEventId : latest.isEmpty() ? 0 : latest.get(0).getEventId();
+        } catch (RuntimeException e) {
+            remove(subscriber);
+            throw e;
+        }
+        emitter.onCompletion(() -> remove(subscriber));
+        emitter.onTimeout(() -> remove(subscriber));
+        emitter.onError(error -> remove(subscriber));
+        subscriber.start(sinceEventId);
+        log.info("Пользователь с ид {} подписан на ленту, начиная с события {}.", userId, sinceEventId);
+        return emitter;
+    }
+
+    // Не блокируется: события только раскладываются по буферам подписчиков
+    @Override
+    public void onEventsWritten(List<Event> events) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        for (Event event : events) {
+            Set<Subscriber> userSubscribers = subscribers.get(event.getUserId());
+            if (userSubscribers == null) {
+                continue;
+            }
+            for (Subscriber subscriber : userSubscribers) {
+                subscriber.enqueue(event);
+            }
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+    public long getEvictedCount() {
+        return evicted.sum();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        heartbeat.shutdownNow();
+        sender.shutdownNow();
+        subscribers.values().forEach(userSubscribers -> userSubscribers.forEach(subscriber -> {
+            remove(subscriber);
+            subscriber.emitter.complete();
+        }));
+    }
+
+    private void remove(Subscriber subscriber) {
+        Set<Subscriber> userSubscribers = subscribers.get(subscriber.userId);
+        if (userSubscribers != null && userSubscribers.remove(subscriber)) {
+            subscriberCount.decrementAndGet();
+            subscribers.computeIfPresent(subscriber.userId, (id, set) -> set.isEmpty() ? null : set);
+        }
+    }
+
+    // Пустой комментарий не даёт прокси закрыть соединение и выявляет отключившихся клиентов
+    private void sendHeartbeat() {
+        subscribers.values().forEach(userSubscribers -> userSubscribers.forEach(Subscriber::requestHeartbeat));
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger number = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private final class Subscriber {
+        private final int userId;
+        private final SseEmitter emitter;
+        private final Queue<Event> buffer;
+        // Отправка идёт не больше чем в одном потоке пула; до start события только копятся в буфере
+        private final AtomicBoolean scheduled = new AtomicBoolean(true);
+        // События до этого ид уже отправлены из БД при дочитывании, из буфера их не отправляем повторно
+        private int skipUpToEventId;
+        private boolean backlogPending = true;
+        private volatile boolean heartbeatPending;
+        // Подписка вытеснена из-за переполнения буфера, поток пула закроет emitter
+        private volatile boolean closing;
+
+        private Subscriber(int userId, SseEmitter emitter) {
+            this.userId = userId;
+            this.emitter = emitter;
+            this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        }
+
+        // Значение видно потоку пула: передача задачи в пул упорядочивает запись и чтение
+        private void start(int sinceEventId) {
+            skipUpToEventId = sinceEventId;
+            scheduled.set(false);
+            schedule();
+        }
+
+        private void enqueue(Event event) {
+            if (closing) {
+                return;
+            }
+            if (!buffer.offer(event)) {
+                closing = true;
+                evicted.increment();
+                log.info("Подписка пользователя с ид {} на ленту закрыта: клиент не успевает читать события.", userId);
+                remove(this);
+            }
+            schedule();
+        }
+
+        private void requestHeartbeat() {
+            heartbeatPending = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                sender.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                if (closing) {
+                    buffer.clear();
+                    emitter.complete();
+                    return;
+                }
+                if (backlogPending) {
+                    sendBacklog();
+                    backlogPending = false;
+                }
+                Event event;
+                while ((event = buffer.poll()) != null) {
+                    if (event.getEventId() != null && event.getEventId() <= skipUpToEventId) {
+                        continue;
+                    }
+                    send(event);
+                }
+                if (heartbeatPending) {
+                    heartbeatPending = false;
+                    emitter.send(SseEmitter.event().comment(""));
+                }
+            } catch (IOException | IllegalStateException e) {
+                remove(this);
+                return;
+            } finally {
+                scheduled.set(false);
+            }
+            // Событие, heartbeat или вытеснение могли прийти после опустошения буфера, но до сброса флага
+            if (!buffer.isEmpty() || heartbeatPending || closing) {
+                schedule();
+            }
+        }
+
+        // Дочитывание пропущенных событий из БД страницами
+        private void sendBacklog() throws IOException {
+            List<Event> page;
+            do {
+                page = eventDao.getUserEventsPage(userId, skipUpToEventId, null, Page.MAX_LIMIT);
+                for (Event event : page) {
+                    send(event);
+                    skipUpToEventId = event.getEventId();
+                }
+            } while (page.size() == Page.MAX_LIMIT);
+        }
+
+        private void send(Event event) throws IOException {
+            emitter.send(SseEmitter.event()
+                    .id(String.valueOf(event.getEventId()))
+                    .name(EVENT_NAME)
+                    .data(event, MediaType.APPLICATION_JSON));
+            delivered.increment();
+        }
+    }
+}
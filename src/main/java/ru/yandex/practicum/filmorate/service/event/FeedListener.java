@@ -0,0 +1,13 @@
+package ru.yandex.practicum.filmorate.service.event;
+
+import ru.yandex.practicum.filmorate.model.Event;
+
+import java.util.List;
+
+/**
+ * Получатель событий ленты, уже записанных в БД (с проставленными ид).
+ * Вызывается в потоке записи, поэтому не должен блокироваться.
+ */
+public interface FeedListener {
+    void onEventsWritten(List<Event> events);
+}
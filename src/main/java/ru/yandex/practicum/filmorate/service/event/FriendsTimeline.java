@@ -0,0 +1,240 @@
+package ru.yandex.practicum.filmorate.service.event;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dao.EventDao;
+import ru.yandex.practicum.filmorate.dao.UserDao;
+import ru.yandex.practicum.filmorate.model.Event;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ленты событий друзей (GET /users/{id}/timeline).
+ * Лента пользователя создаётся в памяти при первом чтении: последние capacity событий его друзей читаются из БД,
+ * дальше новые события друзей раскладываются в неё при записи (fan-out on write). Хранится не больше
+ * max-timelines лент, давно не читанные вытесняются. Для пользователей, у которых друзей больше
+ * max-friends-for-fan-out, лента в памяти не ведётся и каждая страница читается из БД (fan-out on read).
+ * Страница, которая не помещается в сохранённое окно, тоже читается из БД одним запросом по индексу
+ * (user_id, event_id) (см. {@link EventDao#getFriendsEventsPage}).
+ * При изменении списка друзей или удалении пользователя затронутые ленты сбрасываются.
+ */
+@Slf4j
+@Component
+public class FriendsTimeline implements FeedListener {
+    private final EventDao eventDao;
+    private final UserDao userDao;
+    private final int capacity;
+    private final int maxFriendsForFanOut;
+    private final int maxTimelines;
+    private final Map<Integer, Timeline> timelines;
+    // Ид друга -> ленты пользователей, в которые раскладываются его события
+    private final Map<Integer, Set<Timeline>> timelinesByFriendId = new HashMap<>();
+    private final LongAdder memoryReads = new LongAdder();
+    private final LongAdder databaseReads = new LongAdder();
+
+    public FriendsTimeline(EventDao eventDao,
+                           @Qualifier("userDbStorage") UserDao userDao,
+                           MeterRegistry meterRegistry,
+                           @Value("${filmorate.timeline.capacity:200}") int capacity,
+                           @Value("${filmorate.timeline.max-friends-for-fan-out:1000}") int maxFriendsForFanOut,
+                           @Value("${filmorate.timeline.max-timelines:10000}") int maxTimelines) {
+        this.eventDao = eventDao;
+        this.userDao = userDao;
+        this.capacity = capacity;
+        this.maxFriendsForFanOut = maxFriendsForFanOut;
+        this.maxTimelines = maxTimelines;
+        this.timelines = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Timeline> eldest) {
+                if (size() > FriendsTimeline.this.maxTimelines) {
+                    unregister(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+        FunctionCounter.builder("filmorate.timeline.reads", memoryReads, LongAdder::sum)
+                .tag("source", "memory")
+                .description("Страницы лент друзей, отданные из памяти")
+                .register(meterRegistry);
+        FunctionCounter.builder("filmorate.timeline.reads", databaseReads, LongAdder::sum)
+                .tag("source", "database")
+                .description("Страницы лент друзей, прочитанные из БД")
+                .register(meterRegistry);
+        Gauge.builder("filmorate.timeline.size", this, FriendsTimeline::size)
+                .description("Ленты друзей в памяти")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Страница ленты друзей: последние limit событий перед beforeEventId в порядке возрастания ид.
+     */
+    public List<Event> getTimeline(int userId, Integer beforeEventId, int limit) {
+        Timeline timeline = getOrLoad(userId);
+        if (timeline != null) {
+            synchronized (this) {
+                List<Event> page = timeline.page(beforeEventId, limit);
+                if (page != null) {
+                    memoryReads.increment();
+                    return page;
+                }
+            }
+        }
+        databaseReads.increment();
+        return eventDao.getFriendsEventsPage(userId, beforeEventId, limit);
+    }
+
+    @Override
+    public synchronized void onEventsWritten(List<Event> events) {
+        for (Event event : events) {
+            Set<Timeline> friendTimelines = timelinesByFriendId.get(event.getUserId());
+            if (friendTimelines != null) {
+                friendTimelines.forEach(timeline -> timeline.add(event));
+            }
+        }
+    }
+
+    // Список друзей пользователя изменился
+    public synchronized void invalidate(int userId) {
+        Timeline timeline = timelines.remove(userId);
+        if (timeline != null) {
+            unregister(timeline);
+        }
+    }
+
+    // Удалённый пользователь пропадает и как читатель, и как друг в чужих лентах
+    public synchronized void removeUser(int userId) {
+        invalidate(userId);
+        Set<Timeline> friendTimelines = timelinesByFriendId.get(userId);
+        if (friendTimelines != null) {
+            new ArrayList<>(friendTimelines).forEach(timeline -> invalidate(timeline.userId));
+        }
+    }
+
+    public synchronized int size() {
+        return timelines.size();
+    }
+
+    public long getMemoryReadCount() {
+        return memoryReads.sum();
+    }
+
+    public long getDatabaseReadCount() {
+        return databaseReads.sum();
+    }
+
+    /**
+     * Лента пользователя в памяти или null, если лента читается из БД.
+     * Лента регистрируется до чтения из БД, чтобы события, записанные во время загрузки, в неё попали;
+     * повторы отсекаются по ид события.
+     */
+    private Timeline getOrLoad(int userId) {
+        synchronized (this) {
+            Timeline timeline = timelines.get(userId);
+            if (timeline != null) {
+                return timeline.fanOutOnRead ? null : timeline;
+            }
+        }
+        List<Integer> friendIds = userDao.getFriendIds(userId);
+        boolean fanOutOnRead = friendIds.size() > maxFriendsForFanOut;
+        Timeline timeline = new Timeline(userId, fanOutOnRead ? List.of() : friendIds, fanOutOnRead);
+        synchronized (this) {
+            Timeline existing = timelines.get(userId);
+            if (existing != null) {
+                return existing.fanOutOnRead ? null : existing;
+            }
+            timelines.put(userId, timeline);
+            if (timeline.fanOutOnRead) {
+                return null;
+            }
+            friendIds.forEach(friendId -> timelinesByFriendId.computeIfAbsent(friendId, id -> new HashSet<>())
+                    .add(timeline));
+        }
+        List<Event> latest;
+        try {
+            latest = eventDao.getFriendsEventsPage(userId, null, capacity);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                if (timelines.get(userId) == timeline) {
+                    invalidate(userId);
+                }
+            }
+            throw e;
+        }
+        synchronized (this) {
+            // События, разложенные во время загрузки, могли вытеснить старые: add сбросит признак при вытеснении
+            timeline.complete = latest.size() < capacity;
+            latest.forEach(timeline::add);
+            timeline.loaded = true;
+        }
+        log.info("Лента друзей пользователя с ид {} загружена в память: друзей {}, событий {}.",
+                userId, friendIds.size(), latest.size());
+        return timeline;
+    }
+
+    private void unregister(Timeline timeline) {
+        for (Integer friendId : timeline.friendIds) {
+            Set<Timeline> friendTimelines = timelinesByFriendId.get(friendId);
+            if (friendTimelines != null) {
+                friendTimelines.remove(timeline);
+                if (friendTimelines.isEmpty()) {
+                    timelinesByFriendId.remove(friendId);
+                }
+            }
+        }
+    }
+
+    // Все поля меняются и читаются под блокировкой FriendsTimeline
+    private final class Timeline {
+        private final int userId;
+        private final List<Integer> friendIds;
+        private final boolean fanOutOnRead;
+        private final TreeMap<Integer, Event> events = new TreeMap<>();
+        private boolean loaded;
+        // В ленте все события друзей, более старых нет
+        private boolean complete;
+
+        private Timeline(int userId, List<Integer> friendIds, boolean fanOutOnRead) {
+            this.userId = userId;
+            this.friendIds = friendIds;
+            this.fanOutOnRead = fanOutOnRead;
+        }
+
+        private void add(Event event) {
+            if (event.getEventId() == null) {
+                return;
+            }
+            events.put(event.getEventId(), event);
+            if (events.size() > capacity) {
+                events.pollFirstEntry();
+                complete = false;
+            }
+        }
+
+        // Страница из памяти или null, если сохранённого окна не хватает
+        private List<Event> page(Integer beforeEventId, int limit) {
+            if (!loaded) {
+                return null;
+            }
+            NavigableMap<Integer, Event> older = beforeEventId == null ? events : events.headMap(beforeEventId, false);
+            List<Event> page = new ArrayList<>(Math.min(limit, older.size()));
+            for (Event event : older.descendingMap().values()) {
+                if (page.size() == limit) {
+                    break;
+                }
+                page.add(event);
+            }
+            if (page.size() < limit && !complete) {
+                return null;
+            }
+            Collections.reverse(page);
+            return page;
+        }
+    }
+}
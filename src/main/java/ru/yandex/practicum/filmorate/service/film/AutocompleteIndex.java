@@ -0,0 +1,190 @@
+package ru.yandex.practicum.filmorate.service.film;
+
+import ru.yandex.practicum.filmorate.dto.Suggestion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Неизменяемый индекс подсказок по началу слова в названиях фильмов и именах режиссёров.
+ * Подсказки пронумерованы по убыванию рейтинга (у режиссёра - рейтинг его лучшего фильма), поэтому лучшие
+ * подсказки - с наименьшими номерами. Ключи - нормализованные окончания названий, начиная с каждого слова,
+ * хранятся отсортированным массивом: подходящие под префикс ключи идут подряд и находятся двоичным поиском.
+ * Над номерами ключей строится дерево минимумов, поэтому лучшие limit подсказок диапазона выбираются
+ * за O(limit * log n) без просмотра всех ключей, сколько бы их ни было у короткого префикса.
+ */
+final class AutocompleteIndex {
+    static final int MAX_LIMIT = 50;
+    private static final int DIRECTOR_FILMS_COUNT = 5;
+    private static final int[] NOTHING = new int[0];
+    static final AutocompleteIndex EMPTY = new Builder(filmId -> 0).build();
+    private final String[] keys;
+    private final Suggestion[] suggestions;
+    // Дерево отрезков: листья с leaves - номера подсказок ключей, в узле - наименьший номер в поддереве
+    private final int leaves;
+    private final int[] minRanks;
+
+    private AutocompleteIndex(String[] keys, int[] keyRanks, Suggestion[] suggestions) {
+        this.keys = keys;
+        this.suggestions = suggestions;
+        this.leaves = Integer.highestOneBit(Math.max(1, keys.length - 1)) << 1;
+        this.minRanks = new int[2 * leaves];
+        Arrays.fill(minRanks, Integer.MAX_VALUE);
+        System.arraycopy(keyRanks, 0, minRanks, leaves, keyRanks.length);
+        for (int node = leaves - 1; node > 0; node--) {
+            minRanks[node] = Math.min(minRanks[2 * node], minRanks[2 * node + 1]);
+        }
+    }
+
+    /**
+     * @param prefix нормализованный префикс, см. {@link FilmSearchIndex#normalize}.
+     * @return не больше limit подсказок, в которых какое-либо слово начинается с prefix, по убыванию рейтинга.
+     */
+    List<Suggestion> suggest(String prefix, int limit) {
+        int[] ranks = prefix.isEmpty() || limit <= 0 ? NOTHING : top(prefix, Math.min(limit, MAX_LIMIT));
+        List<Suggestion> result = new ArrayList<>(ranks.length);
+        for (int rank : ranks) {
+            result.add(suggestions[rank]);
+        }
+        return result;
+    }
+
+    int size() {
+        return suggestions.length;
+    }
+
+    /**
+     * Наименьшие номера подсказок в диапазоне ключей с префиксом prefix.
+     * Диапазон покрывается O(log n) узлами дерева, узлы достаются из кучи по наименьшему номеру
+     * и заменяются детьми, пока не набрано limit разных номеров.
+     */
+    private int[] top(String prefix, int limit) {
+        // Ключи могут повторяться, поэтому границы ищутся сами, а не через Arrays.binarySearch
+        int from = 0;
+        int high = keys.length;
+        while (from < high) {
+            int middle = (from + high) >>> 1;
+            if (keys[middle].compareTo(prefix) < 0) {
+                from = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        int to = from;
+        high = keys.length;
+        while (to < high) {
+            int middle = (to + high) >>> 1;
+            if (keys[middle].startsWith(prefix)) {
+                to = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        PriorityQueue<Integer> nodes = new PriorityQueue<>(Comparator.comparingInt(node -> minRanks[node]));
+        for (int left = from + leaves, right = to + leaves; left < right; left >>>= 1, right >>>= 1) {
+            if ((left & 1) == 1) {
+                nodes.add(left++);
+            }
+            if ((right & 1) == 1) {
+                nodes.add(--right);
+            }
+        }
+        int[] top = new int[limit];
+        int size = 0;
+        while (size < limit && !nodes.isEmpty()) {
+            int node = nodes.poll();
+            if (node >= leaves) {
+                // Одинаковые номера (несколько слов одной подсказки) выходят из кучи подряд
+                if (size == 0 || top[size - 1] != minRanks[node]) {
+                    top[size++] = minRanks[node];
+                }
+            } else {
+                nodes.add(2 * node);
+                nodes.add(2 * node + 1);
+            }
+        }
+        return Arrays.copyOf(top, size);
+    }
+
+    static final class Builder {
+        private static final Comparator<Entry> BY_RATING = Comparator
+                .comparingDouble((Entry entry) -> entry.rating).reversed()
+                .thenComparing(entry -> entry.suggestion.getType())
+                .thenComparingInt(entry -> entry.suggestion.getId());
+        private final IntToDoubleFunction filmRating;
+        private final List<Entry> entries = new ArrayList<>();
+
+        /**
+         * @param filmRating рейтинг фильма по ид.
+         */
+        Builder(IntToDoubleFunction filmRating) {
+            this.filmRating = filmRating;
+        }
+
+        void addFilm(int filmId, String name) {
+            entries.add(new Entry(new Suggestion(Suggestion.FILM, filmId, name, new int[]{filmId}),
+                    filmRating.applyAsDouble(filmId)));
+        }
+
+        void addDirector(int directorId, String name, int[] filmIds) {
+            int[] topFilmIds = Arrays.stream(filmIds)
+                    .boxed()
+                    .sorted(Comparator.comparingDouble((Integer filmId) -> filmRating.applyAsDouble(filmId))
+                            .reversed()
+                            .thenComparing(filmId -> filmId))
+                    .limit(DIRECTOR_FILMS_COUNT)
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+            double rating = topFilmIds.length == 0 ? 0 : filmRating.applyAsDouble(topFilmIds[0]);
+            entries.add(new Entry(new Suggestion(Suggestion.DIRECTOR, directorId, name, topFilmIds), rating));
+        }
+
+        AutocompleteIndex build() {
+            entries.sort(BY_RATING);
+            Suggestion[] suggestions = new Suggestion[entries.size()];
+            List<Key> keys = new ArrayList<>();
+            for (int rank = 0; rank < suggestions.length; rank++) {
+                suggestions[rank] = entries.get(rank).suggestion;
+                String text = FilmSearchIndex.normalize(suggestions[rank].getName());
+                for (int i = 0; i < text.length(); i++) {
+                    boolean wordStart = i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1));
+                    if (wordStart && Character.isLetterOrDigit(text.charAt(i))) {
+                        keys.add(new Key(text.substring(i), rank));
+                    }
+                }
+            }
+            keys.sort(Comparator.comparing((Key key) -> key.text).thenComparingInt(key -> key.rank));
+            String[] keyTexts = new String[keys.size()];
+            int[] keyRanks = new int[keys.size()];
+            for (int i = 0; i < keyTexts.length; i++) {
+                keyTexts[i] = keys.get(i).text;
+                keyRanks[i] = keys.get(i).rank;
+            }
+            return new AutocompleteIndex(keyTexts, keyRanks, suggestions);
+        }
+    }
+
+    private static final class Entry {
+        private final Suggestion suggestion;
+        private final double rating;
+
+        private Entry(Suggestion suggestion, double rating) {
+            this.suggestion = suggestion;
+            this.rating = rating;
+        }
+    }
+
+    private static final class Key {
+        private final String text;
+        private final int rank;
+
+        private Key(String text, int rank) {
+            this.text = text;
+            this.rank = rank;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package ru.yandex.practicum.filmorate.service.film;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dto.Suggestion;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Подсказки при вводе поискового запроса (см. {@link AutocompleteIndex}), без обращения к БД.
+ * Индекс строится по {@link FilmSearchIndex} и рейтингам из {@link FilmPopularityIndex} и перестраивается
+ * в фоне целиком, поэтому изменения копятся между перестроениями: после изменения фильмов и режиссёров индекс
+ * перестраивается не чаще film-refresh-interval-ms, а после изменения одних только оценок - не чаще
+ * rating-refresh-interval-ms. Без этих ограничений поток изменений (например, импорт каталога) вызывал бы
+ * полное перестроение на каждой проверке. Запросы читают готовый индекс и не ждут перестроения.
+ */
+@Slf4j
+@Component
+public class FilmAutocomplete {
+    public static final int MAX_LIMIT = AutocompleteIndex.MAX_LIMIT;
+    private final FilmSearchIndex searchIndex;
+    private final FilmPopularityIndex popularityIndex;
+    private final long refreshIntervalMillis;
+    private final long filmRefreshIntervalNanos;
+    private final long ratingRefreshIntervalNanos;
+    private final LongAdder rebuilds = new LongAdder();
+    private ScheduledExecutorService scheduler;
+    private volatile AutocompleteIndex index = AutocompleteIndex.EMPTY;
+    private long builtSearchVersion = -1;
+    private long builtRatingVersion = -1;
+    private long builtAtNanos;
+
+    public FilmAutocomplete(FilmSearchIndex searchIndex,
+                            FilmPopularityIndex popularityIndex,
+                            MeterRegistry meterRegistry,
+                            @Value("${filmorate.autocomplete.refresh-interval-ms:1000}") long refreshIntervalMillis,
+                            @Value("${filmorate.autocomplete.film-refresh-interval-ms:10000}")
+                            long filmRefreshIntervalMillis,
+                            @Value("${filmorate.autocomplete.rating-refresh-interval-ms:60000}")
+                            long ratingRefreshIntervalMillis) {
+        this.searchIndex = searchIndex;
+        this.popularityIndex = popularityIndex;
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        this.filmRefreshIntervalNanos = TimeUnit.MILLISECONDS.toNanos(filmRefreshIntervalMillis);
+        this.ratingRefreshIntervalNanos = TimeUnit.MILLISECONDS.toNanos(ratingRefreshIntervalMillis);
+        FunctionCounter.builder("filmorate.autocomplete.rebuilds", rebuilds, LongAdder::sum)
+                .description("Перестроения индекса подсказок")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        rebuild();
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "autocomplete-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::refreshQuietly, refreshIntervalMillis, refreshIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return не больше limit фильмов и режиссёров, в названии или имени которых есть слово, начинающееся
+     * с prefix (без учёта регистра), по убыванию рейтинга.
+     */
+    public List<Suggestion> suggest(String prefix, int limit) {
+        return index.suggest(FilmSearchIndex.normalize(prefix).stripLeading(), limit);
+    }
+
+    /**
+     * Построение индекса по текущему состоянию индексов поиска и популярности.
+     * Версии читаются до копирования, поэтому изменение во время построения вызовет ещё одно перестроение.
+     */
+    public synchronized void rebuild() {
+        long searchVersion = searchIndex.getVersion();
+        long ratingVersion = popularityIndex.getVersion();
+        AutocompleteIndex.Builder builder = new AutocompleteIndex.Builder(popularityIndex::getRating);
+        searchIndex.copyTo(builder);
+        index = builder.build();
+        builtSearchVersion = searchVersion;
+        builtRatingVersion = ratingVersion;
+        builtAtNanos = System.nanoTime();
+        rebuilds.increment();
+        log.debug("Индекс подсказок построен, подсказок: {}.", index.size());
+    }
+
+    public long getRebuildCount() {
+        return rebuilds.sum();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    // Ошибка построения не должна отменять следующие проверки по расписанию
+    private void refreshQuietly() {
+        try {
+            synchronized (this) {
+                long sinceBuildNanos = System.nanoTime() - builtAtNanos;
+                boolean filmsChanged = builtSearchVersion != searchIndex.getVersion()
+                        && sinceBuildNanos >= filmRefreshIntervalNanos;
+                boolean ratingsChanged = builtRatingVersion != popularityIndex.getVersion()
+                        && sinceBuildNanos >= ratingRefreshIntervalNanos;
+                if (filmsChanged || ratingsChanged) {
+                    rebuild();
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("Ошибка при построении индекса подсказок.", e);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package ru.yandex.practicum.filmorate.service.film;
+
+import java.util.Arrays;
+
+/**
+ * Множество номеров фильмов (см. {@link FilmFacetIndex}) в сжатом виде.
+ * Пока номеров мало, они хранятся отсортированным массивом, а когда массив становится больше битовой карты
+ * того же диапазона - битовой картой; при удалении номеров карта снова сжимается в массив. Так у редкого
+ * значения (режиссёр с парой фильмов) множество занимает несколько байт, а у частого (жанр, рейтинг MPA)
+ * не больше бита на фильм. Операции с запросом выполняются над несжатой картой long[]. Не потокобезопасно.
+ */
+final class FilmBitmap {
+    private int[] values = new int[2];
+    private int size;
+    private long[] words;
+
+    void add(int slot) {
+        if (words != null) {
+            int word = slot >>> 6;
+            if (word >= words.length) {
+                words = Arrays.copyOf(words, Math.max(word + 1, words.length * 2));
+            }
+            if ((words[word] & 1L << slot) == 0) {
+                words[word] |= 1L << slot;
+                size++;
+            }
+            return;
+        }
+        int position = Arrays.binarySearch(values, 0, size, slot);
+        if (position >= 0) {
+            return;
+        }
+        position = -position - 1;
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        System.arraycopy(values, position, values, position + 1, size - position);
+        values[position] = slot;
+        size++;
+        // Массив из size чисел занимает 32 * size бит, карта до наибольшего номера - values[size - 1] + 1 бит
+        if (size > 64 && 32L * size > values[size - 1] + 1) {
+            toWords();
+        }
+    }
+
+    void remove(int slot) {
+        if (words != null) {
+            int word = slot >>> 6;
+            if (word < words.length && (words[word] & 1L << slot) != 0) {
+                words[word] &= ~(1L << slot);
+                size--;
+                // Сжимаем с запасом, чтобы не переключаться туда и обратно на каждом изменении
+                if (32L * size < 64L * words.length / 4) {
+                    toValues();
+                }
+            }
+            return;
+        }
+        int position = Arrays.binarySearch(values, 0, size, slot);
+        if (position >= 0) {
+            System.arraycopy(values, position + 1, values, position, size - position - 1);
+            size--;
+        }
+    }
+
+    int cardinality() {
+        return size;
+    }
+
+    // target |= this
+    void orInto(long[] target) {
+        if (words != null) {
+            for (int i = 0; i < Math.min(words.length, target.length); i++) {
+                target[i] |= words[i];
+            }
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            int slot = values[i];
+            if (slot >>> 6 < target.length) {
+                target[slot >>> 6] |= 1L << slot;
+            }
+        }
+    }
+
+    // target &= this
+    void andInto(long[] target) {
+        if (words != null) {
+            for (int i = 0; i < target.length; i++) {
+                target[i] &= i < words.length ? words[i] : 0;
+            }
+            return;
+        }
+        long[] result = new long[target.length];
+        for (int i = 0; i < size; i++) {
+            int slot = values[i];
+            if (slot >>> 6 < target.length) {
+                result[slot >>> 6] |= target[slot >>> 6] & 1L << slot;
+            }
+        }
+        System.arraycopy(result, 0, target, 0, target.length);
+    }
+
+    // |this ∧ set| без построения пересечения
+    int andCardinality(long[] set) {
+        int count = 0;
+        if (words != null) {
+            for (int i = 0; i < Math.min(words.length, set.length); i++) {
+                count += Long.bitCount(words[i] & set[i]);
+            }
+            return count;
+        }
+        for (int i = 0; i < size; i++) {
+            int slot = values[i];
+            if (slot >>> 6 < set.length && (set[slot >>> 6] & 1L << slot) != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void toWords() {
+        words = new long[(values[size - 1] >>> 6) + 1];
+        for (int i = 0; i < size; i++) {
+            words[values[i] >>> 6] |= 1L << values[i];
+        }
+        values = null;
+    }
+
+    private void toValues() {
+        values = new int[Math.max(2, size)];
+        int count = 0;
+        for (int i = 0; i < words.length; i++) {
+            long word = words[i];
+            while (word != 0) {
+                values[count++] = i * 64 + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        words = null;
+    }
+}
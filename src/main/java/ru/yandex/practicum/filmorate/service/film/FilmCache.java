@@ -0,0 +1,131 @@
+package ru.yandex.practicum.filmorate.service.film;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Кэш полностью собранных фильмов с вытеснением давно не использованных записей (LRU).
+ * Записи удаляются при любом изменении фильма, его оценок или его режиссёров.
+ * Фильм изменяемый, поэтому в кэше хранится копия, и при каждом попадании выдаётся новая копия:
+ * изменения фильма вызывающим кодом не попадают ни в кэш, ни к другим вызывающим.
+ * Счётчики попаданий, промахов и вытеснений публикуются как метрики filmorate.film.cache.*.
+ */
+@Component
+public class FilmCache {
+    private final int maxSize;
+    private final Map<Integer, Film> films;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    // Увеличивается при каждой инвалидации, чтобы загруженный до неё фильм не попал в кэш
+    private long generation;
+
+    public FilmCache(@Value("${filmorate.film-cache.max-size:10000}") int maxSize, MeterRegistry meterRegistry) {
+        this.maxSize = maxSize;
+        this.films = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Film> eldest) {
+                if (size() > FilmCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+        FunctionCounter.builder("filmorate.film.cache.hits", hits, LongAdder::sum)
+                .description("Фильмы, возвращённые из кэша")
+                .register(meterRegistry);
+        FunctionCounter.builder("filmorate.film.cache.misses", misses, LongAdder::sum)
+                .description("Фильмы, загруженные из БД")
+                .register(meterRegistry);
+        FunctionCounter.builder("filmorate.film.cache.evictions", evictions, LongAdder::sum)
+                .description("Фильмы, вытесненные из кэша по размеру")
+                .register(meterRegistry);
+        Gauge.builder("filmorate.film.cache.size", this, FilmCache::size)
+                .description("Количество фильмов в кэше")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Получение фильма из кэша или, при промахе, загрузка через loader.
+     *
+     * @param filmId ид фильма.
+     * @param loader загрузка фильма из БД, возвращает null, если фильма нет.
+     * @return фильм или null, если фильма нет.
+     */
+    public Film get(int filmId, IntFunction<Film> loader) {
+        long loadGeneration;
+        synchronized (this) {
+            Film film = films.get(filmId);
+            if (film != null) {
+                hits.increment();
+                return copy(film);
+            }
+            loadGeneration = generation;
+        }
+        misses.increment();
+        Film film = loader.apply(filmId);
+        if (film != null) {
+            synchronized (this) {
+                if (generation == loadGeneration) {
+                    films.put(filmId, copy(film));
+                }
+            }
+        }
+        return film;
+    }
+
+    private static Film copy(Film film) {
+        Mpa mpa = film.getMpa() == null ? null : new Mpa(film.getMpa().getId(), film.getMpa().getName());
+        Film copy = new Film(film.getName(), film.getDescription(), film.getReleaseDate(), film.getDuration(), mpa);
+        copy.setId(film.getId());
+        copy.setRating(film.getRating());
+        copy.setGenres(film.getGenres().stream()
+                .map(genre -> new Genre(genre.getId(), genre.getName()))
+                .collect(Collectors.toList()));
+        copy.setDirectors(film.getDirectors().stream()
+                .map(director -> new Director(director.getId(), director.getName()))
+                .collect(Collectors.toList()));
+        return copy;
+    }
+
+    public synchronized void invalidate(int filmId) {
+        generation++;
+        films.remove(filmId);
+    }
+
+    public synchronized void invalidate(Collection<Integer> filmIds) {
+        generation++;
+        filmIds.forEach(films::remove);
+    }
+
+    public synchronized int size() {
+        return films.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+}
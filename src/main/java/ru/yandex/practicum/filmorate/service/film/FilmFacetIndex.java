@@ -0,0 +1,317 @@
+package ru.yandex.practicum.filmorate.service.film;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dao.FilmDao;
+import ru.yandex.practicum.filmorate.dto.FilmFacets;
+import ru.yandex.practicum.filmorate.dto.FilmFilter;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.service.recommendation.TopScores;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Индекс фильтрации фильмов по жанрам, рейтингу MPA, году выпуска, продолжительности и режиссёрам в памяти.
+ * Фильмам выдаются плотные номера, для каждого значения измерения хранится множество номеров
+ * ({@link FilmBitmap}). Условие на измерение - объединение множеств выбранных значений (для всех жанров
+ * сразу - пересечение), результат - пересечение условий по словам long[]. Количество фильмов по значениям
+ * измерения считается по пересечению остальных условий. Индекс строится при старте и обновляется
+ * при добавлении, изменении и удалении фильмов и режиссёров.
+ */
+@Slf4j
+@Component
+public class FilmFacetIndex {
+    public static final int DURATION_BUCKET = 30;
+    private static final int GENRES = 0;
+    private static final int MPA = 1;
+    private static final int YEARS = 2;
+    private static final int DURATIONS = 3;
+    private static final int DIRECTORS = 4;
+    private static final int DIMENSIONS = 5;
+    private static final int[] NOTHING = new int[0];
+    private final FilmDao filmDao;
+    private final FilmPopularityIndex popularityIndex;
+    private final Map<Integer, Integer> filmIdToSlot = new HashMap<>();
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    private Slot[] slots = new Slot[16];
+    private int slotCount;
+    private final FilmBitmap alive = new FilmBitmap();
+    private final Map<Integer, FilmBitmap> genres = new HashMap<>();
+    private final Map<Integer, FilmBitmap> mpa = new HashMap<>();
+    private final NavigableMap<Integer, FilmBitmap> years = new TreeMap<>();
+    private final NavigableMap<Integer, FilmBitmap> durations = new TreeMap<>();
+    private final Map<Integer, FilmBitmap> directors = new HashMap<>();
+
+    public FilmFacetIndex(@Qualifier("filmDbStorage") FilmDao filmDao, FilmPopularityIndex popularityIndex) {
+        this.filmDao = filmDao;
+        this.popularityIndex = popularityIndex;
+    }
+
+    // Фильмы читаются потоком, как при выгрузке каталога
+    @PostConstruct
+    public synchronized void load() {
+        filmDao.exportFilms(this::index);
+        log.info("Индекс фильтрации построен, фильмов в индексе: {}.", alive.cardinality());
+    }
+
+    public synchronized void addFilm(Film film) {
+        index(film);
+    }
+
+    public synchronized void updateFilm(Film film) {
+        index(film);
+    }
+
+    public synchronized void removeFilm(int filmId) {
+        Integer slot = filmIdToSlot.remove(filmId);
+        if (slot == null) {
+            return;
+        }
+        forEachPosting(slots[slot], (postings, value) -> {
+            FilmBitmap bitmap = postings.get(value);
+            if (bitmap == null) {
+                return;
+            }
+            bitmap.remove(slot);
+            if (bitmap.cardinality() == 0) {
+                postings.remove(value);
+            }
+        });
+        alive.remove(slot);
+        slots[slot] = null;
+        freeSlots.push(slot);
+    }
+
+    // Связи режиссёра с фильмами удаляются в БД каскадно
+    public synchronized void removeDirector(int directorId) {
+        if (directors.remove(directorId) == null) {
+            return;
+        }
+        for (int i = 0; i < slotCount; i++) {
+            Slot slot = slots[i];
+            if (slot != null && Arrays.stream(slot.directorIds).anyMatch(id -> id == directorId)) {
+                slot.directorIds = Arrays.stream(slot.directorIds)
+                        .filter(id -> id != directorId)
+                        .toArray();
+            }
+        }
+    }
+
+    /**
+     * Отбор фильмов по условиям без обращения к БД.
+     *
+     * @param filter проверенные условия, см. {@link FilmFilter}.
+     * @return количество подходящих фильмов, ид фильмов запрошенной страницы и количества по измерениям.
+     */
+    public synchronized Result filter(FilmFilter filter) {
+        int wordCount = (slotCount + 63) >>> 6;
+        long[] all = new long[wordCount];
+        alive.orInto(all);
+        long[][] conditions = new long[DIMENSIONS][];
+        conditions[GENRES] = FilmFilter.ALL.equals(filter.getGenreMode())
+                ? allOf(genres, filter.getGenres(), all)
+                : anyOf(genres, filter.getGenres(), wordCount);
+        conditions[MPA] = anyOf(mpa, filter.getMpa(), wordCount);
+        conditions[YEARS] = range(years, filter.getYearFrom(), filter.getYearTo(), wordCount);
+        conditions[DURATIONS] = range(durations, filter.getDurationFrom(), filter.getDurationTo(), wordCount);
+        conditions[DIRECTORS] = anyOf(directors, filter.getDirectors(), wordCount);
+
+        FilmFacets facets = new FilmFacets();
+        count(genres, intersect(all, conditions, GENRES), facets.getGenres(), 1);
+        count(mpa, intersect(all, conditions, MPA), facets.getMpa(), 1);
+        count(years, intersect(all, conditions, YEARS), facets.getYears(), 1);
+        count(durations, intersect(all, conditions, DURATIONS), facets.getDurations(), DURATION_BUCKET);
+        count(directors, intersect(all, conditions, DIRECTORS), facets.getDirectors(), 1);
+
+        long[] matched = intersect(all, conditions, -1);
+        int total = 0;
+        for (long word : matched) {
+            total += Long.bitCount(word);
+        }
+        int from = Math.min(filter.getOffset(), total);
+        int to = (int) Math.min((long) from + filter.getLimit(), total);
+        int[] top = top(matched, FilmFilter.SORT_BY_RELEASE_DATE.equals(filter.getSortBy()), to);
+        return new Result(total, Arrays.copyOfRange(top, from, to), facets);
+    }
+
+    // Первые count фильмов по убыванию рейтинга или даты выпуска, при равенстве - по возрастанию ид
+    private int[] top(long[] matched, boolean byReleaseDate, int count) {
+        TopScores top = new TopScores(count);
+        for (int i = 0; i < matched.length; i++) {
+            long word = matched[i];
+            while (word != 0) {
+                Slot slot = slots[i * 64 + Long.numberOfTrailingZeros(word)];
+                top.offer(slot.filmId, byReleaseDate ? slot.releaseDay : popularityIndex.getRating(slot.filmId));
+                word &= word - 1;
+            }
+        }
+        return top.drainIds();
+    }
+
+    private void index(Film film) {
+        removeFilm(film.getId());
+        Integer free = freeSlots.poll();
+        int slot = free != null ? free : slotCount++;
+        if (slot == slots.length) {
+            slots = Arrays.copyOf(slots, slots.length * 2);
+        }
+        slots[slot] = new Slot(film);
+        filmIdToSlot.put(film.getId(), slot);
+        alive.add(slot);
+        forEachPosting(slots[slot], (postings, value) -> postings.computeIfAbsent(value, v -> new FilmBitmap())
+                .add(slot));
+    }
+
+    private void forEachPosting(Slot slot, PostingConsumer consumer) {
+        for (int genreId : slot.genreIds) {
+            consumer.accept(genres, genreId);
+        }
+        if (slot.mpaId != null) {
+            consumer.accept(mpa, slot.mpaId);
+        }
+        if (slot.year != null) {
+            consumer.accept(years, slot.year);
+        }
+        if (slot.duration != null) {
+            consumer.accept(durations, slot.duration);
+        }
+        for (int directorId : slot.directorIds) {
+            consumer.accept(directors, directorId);
+        }
+    }
+
+    // null - условия на измерение нет
+    private static long[] anyOf(Map<Integer, FilmBitmap> postings, List<Integer> values, int wordCount) {
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        long[] condition = new long[wordCount];
+        for (Integer value : values) {
+            FilmBitmap bitmap = postings.get(value);
+            if (bitmap != null) {
+                bitmap.orInto(condition);
+            }
+        }
+        return condition;
+    }
+
+    private static long[] allOf(Map<Integer, FilmBitmap> postings, List<Integer> values, long[] all) {
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        long[] condition = all.clone();
+        for (Integer value : values) {
+            FilmBitmap bitmap = postings.get(value);
+            if (bitmap == null) {
+                return new long[all.length];
+            }
+            bitmap.andInto(condition);
+        }
+        return condition;
+    }
+
+    private static long[] range(NavigableMap<Integer, FilmBitmap> postings, Integer from, Integer to,
+                                int wordCount) {
+        if (from == null && to == null) {
+            return null;
+        }
+        long[] condition = new long[wordCount];
+        int low = from == null ? Integer.MIN_VALUE : from;
+        int high = to == null ? Integer.MAX_VALUE : to;
+        if (low <= high) {
+            postings.subMap(low, true, high, true).values().forEach(bitmap -> bitmap.orInto(condition));
+        }
+        return condition;
+    }
+
+    // Пересечение всех условий, кроме условия на измерение except
+    private static long[] intersect(long[] all, long[][] conditions, int except) {
+        long[] result = all.clone();
+        for (int dimension = 0; dimension < conditions.length; dimension++) {
+            long[] condition = conditions[dimension];
+            if (dimension != except && condition != null) {
+                for (int i = 0; i < result.length; i++) {
+                    result[i] &= condition[i];
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void count(Map<Integer, FilmBitmap> postings, long[] set, Map<Integer, Integer> counts,
+                              int bucket) {
+        postings.forEach((value, bitmap) -> {
+            int count = bitmap.andCardinality(set);
+            if (count > 0) {
+                counts.merge(Math.floorDiv(value, bucket) * bucket, count, Integer::sum);
+            }
+        });
+    }
+
+    public static final class Result {
+        private final int total;
+        private final int[] filmIds;
+        private final FilmFacets facets;
+
+        private Result(int total, int[] filmIds, FilmFacets facets) {
+            this.total = total;
+            this.filmIds = filmIds;
+            this.facets = facets;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int[] getFilmIds() {
+            return filmIds;
+        }
+
+        public FilmFacets getFacets() {
+            return facets;
+        }
+    }
+
+    @FunctionalInterface
+    private interface PostingConsumer {
+        void accept(Map<Integer, FilmBitmap> postings, int value);
+    }
+
+    // Значения фильма, по которым он записан в индекс; нужны, чтобы убрать его при изменении
+    private static final class Slot {
+        private final int filmId;
+        private final int[] genreIds;
+        private final Integer mpaId;
+        private final Integer year;
+        private final Integer duration;
+        private final long releaseDay;
+        private int[] directorIds;
+
+        private Slot(Film film) {
+            this.filmId = film.getId();
+            this.genreIds = film.getGenres() == null ? NOTHING : film.getGenres().stream()
+                    .mapToInt(Genre::getId)
+                    .distinct()
+                    .toArray();
+            this.mpaId = film.getMpa() == null ? null : film.getMpa().getId();
+            this.year = film.getReleaseDate() == null ? null : film.getReleaseDate().getYear();
+            this.duration = film.getDuration();
+            this.releaseDay = film.getReleaseDate() == null ? Long.MIN_VALUE : film.getReleaseDate().toEpochDay();
+            this.directorIds = film.getDirectors() == null ? NOTHING : film.getDirectors().stream()
+                    .mapToInt(Director::getId)
+                    .distinct()
+                    .toArray();
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package ru.yandex.practicum.filmorate.service.film;
+
+import ru.yandex.practicum.filmorate.dto.FilmImportResult;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+public interface FilmImportService {
+    FilmImportResult importFilms(InputStream input) throws IOException;
+}
@@ -0,0 +1,176 @@
+package ru.yandex.practicum.filmorate.service.film;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.dao.DirectorDao;
+import ru.yandex.practicum.filmorate.dao.FilmDao;
+import ru.yandex.practicum.filmorate.dao.GenreDao;
+import ru.yandex.practicum.filmorate.dao.MpaDao;
+import ru.yandex.practicum.filmorate.dto.FilmImportResult;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static ru.yandex.practicum.filmorate.service.film.FilmServiceImpl.INITIAL_RELEASE_DATE;
+
+/**
+ * Пакетная загрузка фильмов из JSON-массива или NDJSON.
+ * Входные данные читаются потоком, каждый фильм проверяется отдельно, корректные фильмы
+ * записываются пачками по CHUNK_SIZE, каждая пачка в своей транзакции.
+ */
+@Slf4j
+@Service
+public class FilmImportServiceImpl implements FilmImportService {
+    private static final int CHUNK_SIZE = 1000;
+    private final FilmDao filmDao;
+    private final GenreDao genreDao;
+    private final MpaDao mpaDao;
+    private final DirectorDao directorDao;
+    private final FilmPopularityIndex popularityIndex;
+    private final FilmSearchIndex searchIndex;
+    private final FilmFacetIndex facetIndex;
+    private final Validator validator;
+    private final ObjectMapper objectMapper;
+
+    public FilmImportServiceImpl(@Qualifier("filmDbStorage") FilmDao filmDao,
+                                 GenreDao genreDao,
+                                 MpaDao mpaDao,
+                                 @Qualifier("directorDbStorage") DirectorDao directorDao,
+                                 FilmPopularityIndex popularityIndex,
+                                 FilmSearchIndex searchIndex,
+                                 FilmFacetIndex facetIndex,
+                                 Validator validator,
+                                 ObjectMapper objectMapper) {
+        this.filmDao = filmDao;
+        this.genreDao = genreDao;
+        this.mpaDao = mpaDao;
+        this.directorDao = directorDao;
+        this.popularityIndex = popularityIndex;
+        this.searchIndex = searchIndex;
+        this.facetIndex = facetIndex;
+        this.validator = validator;
+        this.objectMapper = objectMapper;
+    }
+
+    // Элементы разбираются в дерево, чтобы ошибка в одном фильме не сбивала чтение следующих
+    @Override
+    public FilmImportResult importFilms(InputStream input) throws IOException {
+        FilmImportResult result = new FilmImportResult();
+        List<Film> chunk = new ArrayList<>(CHUNK_SIZE);
+        List<Integer> chunkIndexes = new ArrayList<>(CHUNK_SIZE);
+        int index = 0;
+        try (MappingIterator<JsonNode> nodes = objectMapper.readerFor(JsonNode.class).readValues(input)) {
+            while (nodes.hasNextValue()) {
+                JsonNode node = nodes.nextValue();
+                try {
+                    Film film = objectMapper.treeToValue(node, Film.class);
+                    String error = validate(film);
+                    if (error != null) {
+                        result.addFailed(index, error);
+                    } else {
+                        chunk.add(film);
+                        chunkIndexes.add(index);
+                    }
+                } catch (JsonProcessingException e) {
+                    result.addFailed(index, "Фильм не удалось прочитать: " + e.getOriginalMessage());
+                }
+                index++;
+                if (chunk.size() == CHUNK_SIZE) {
+                    importChunk(chunk, chunkIndexes, result);
+                }
+            }
+        } catch (JsonProcessingException e) {
+            result.addFailed(index, "Некорректный JSON, загрузка остановлена: " + e.getOriginalMessage());
+        }
+        importChunk(chunk, chunkIndexes, result);
+        result.getItems().sort(Comparator.comparingInt(FilmImportResult.Item::getIndex));
+        log.info("Пакетная загрузка фильмов завершена: добавлено {}, с ошибками {}.",
+                result.getCreated(), result.getFailed());
+        return result;
+    }
+
+    /**
+     * Запись пачки фильмов.
+     * Если пачка не записалась целиком, фильмы записываются по одному, чтобы найти ошибочные.
+     */
+    private void importChunk(List<Film> chunk, List<Integer> chunkIndexes, FilmImportResult result) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        try {
+            filmDao.addFilms(chunk);
+            for (int i = 0; i < chunk.size(); i++) {
+                addCreated(chunk.get(i), chunkIndexes.get(i), result);
+            }
+        } catch (DataAccessException e) {
+            log.warn("Пачка из {} фильмов не записана, фильмы будут записаны по одному. {}",
+                    chunk.size(), e.getMessage());
+            for (int i = 0; i < chunk.size(); i++) {
+                try {
+                    addCreated(filmDao.addFilms(List.of(chunk.get(i))).get(0), chunkIndexes.get(i), result);
+                } catch (DataAccessException itemException) {
+                    result.addFailed(chunkIndexes.get(i), "Фильм не записан: " + itemException.getMostSpecificCause()
+                            .getMessage());
+                }
+            }
+        }
+        chunk.clear();
+        chunkIndexes.clear();
+    }
+
+    private void addCreated(Film film, int index, FilmImportResult result) {
+        popularityIndex.addFilm(film);
+        searchIndex.addFilm(film);
+        facetIndex.addFilm(film);
+        result.addCreated(index, film.getId());
+    }
+
+    // Возвращает описание ошибки или null, если фильм корректен
+    private String validate(Film film) {
+        List<String> errors = validator.validate(film).stream()
+                .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+                .collect(Collectors.toCollection(ArrayList::new));
+        if (film.getReleaseDate() == null) {
+            errors.add("Не указана дата релиза.");
+        } else if (film.getReleaseDate().isBefore(INITIAL_RELEASE_DATE)) {
+            errors.add("Дата релиза меньше минимального значения.");
+        }
+        if (film.getDuration() == null) {
+            errors.add("Не указана продолжительность.");
+        }
+        if (film.getMpa() == null || film.getMpa().getId() == null) {
+            errors.add("Не указан рейтинг MPA.");
+        } else if (mpaDao.getMpaById(film.getMpa().getId()).isEmpty()) {
+            errors.add("Рейтинг MPA с id " + film.getMpa().getId() + " не найден.");
+        }
+        if (film.getGenres() != null) {
+            for (Genre genre : film.getGenres()) {
+                if (genre.getId() == null || genreDao.getGenreById(genre.getId()).isEmpty()) {
+                    errors.add("Жанр с id " + genre.getId() + " не найден.");
+                }
+            }
+        }
+        if (film.getDirectors() != null) {
+            for (Director director : film.getDirectors()) {
+                if (director.getId() == null || directorDao.getDirectorById(director.getId()).isEmpty()) {
+                    errors.add("Режиссёр с id " + director.getId() + " не найден.");
+                }
+            }
+        }
+        return errors.isEmpty() ? null : String.join(" ", errors);
+    }
+}
@@ -0,0 +1,256 @@
+package ru.yandex.practicum.filmorate.service.film;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dao.FilmDao;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mark;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.LongConsumer;
+
+/**
+ * Индекс популярности фильмов в памяти.
+ * Для каждой комбинации (все жанры | жанр) × (все года | год) хранит ид фильмов, упорядоченные по рейтингу,
+ * поэтому выборка первых count популярных фильмов не требует сортировки всего каталога в БД.
+ * Индекс обновляется при добавлении, изменении и удалении фильмов, а также при изменении оценок.
+ * Для фильма хранятся сумма и количество оценок, поэтому записанная оценка применяется к рейтингу в памяти,
+ * без чтения агрегата из БД; рейтинг считается так же, как в film_ratings.
+ * Чтение идёт без блокировки. Изменение фильма добавляет новую запись в упорядоченные множества до удаления
+ * старой, а счётчик version нечётный, пока изменение не закончено: если за время обхода множества он поменялся,
+ * обход повторяется, а после нескольких неудачных попыток выполняется под блокировкой. Поэтому фильм,
+ * рейтинг которого меняется во время чтения, не пропадает из выдачи и не попадает в неё дважды.
+ */
+@Slf4j
+@Component
+public class FilmPopularityIndex {
+    private static final int ALL = 0;
+    private static final int MAX_OPTIMISTIC_READS = 3;
+    private static final Comparator<RankedFilm> BY_RATING = Comparator
+            .comparingDouble((RankedFilm film) -> film.rating).reversed()
+            .thenComparingInt(film -> film.filmId);
+    private final FilmDao filmDao;
+    private final Map<Integer, RankedFilm> filmIdToRankedFilm = new ConcurrentHashMap<>();
+    private final Map<Long, NavigableSet<RankedFilm>> rankings = new ConcurrentHashMap<>();
+    private volatile long version;
+
+    public FilmPopularityIndex(@Qualifier("filmDbStorage") FilmDao filmDao) {
+        this.filmDao = filmDao;
+    }
+
+    @PostConstruct
+    public synchronized void load() {
+        // Счётчик остаётся нечётным до конца загрузки, поэтому читатели не видят частично построенный индекс
+        version++;
+        filmIdToRankedFilm.clear();
+        rankings.clear();
+        Map<Integer, int[]> filmIdToMarks = filmDao.getFilmIdToMarksSumAndCount(null);
+        for (Film film : filmDao.getAllFilms()) {
+            int[] marks = filmIdToMarks.getOrDefault(film.getId(), new int[2]);
+            index(new RankedFilm(film.getId(), film.getReleaseDate().getYear(), getGenreIds(film),
+                    marks[0], marks[1]));
+        }
+        version++;
+        log.info("Индекс популярности построен, фильмов в индексе: {}.", filmIdToRankedFilm.size());
+    }
+
+    /**
+     * Получение ид популярных фильмов.
+     *
+     * @param count   максимальный размер списка, null - без ограничения.
+     * @param genreId ид жанра, 0 - все жанры.
+     * @param year    год выпуска, null - все года.
+     * @return список ид фильмов, упорядоченный по убыванию рейтинга.
+     */
+    public List<Integer> getPopularFilmIds(Integer count, int genreId, Integer year) {
+        long key = key(genreId, year == null ? ALL : year);
+        int limit = count == null ? Integer.MAX_VALUE : count;
+        for (int attempt = 0; attempt < MAX_OPTIMISTIC_READS; attempt++) {
+            long before = version;
+            if ((before & 1) == 0) {
+                List<Integer> filmIds = readRanking(key, limit);
+                if (version == before) {
+                    return filmIds;
+                }
+            }
+        }
+        synchronized (this) {
+            return readRanking(key, limit);
+        }
+    }
+
+    /**
+     * Упорядочивание ид фильмов по убыванию рейтинга, при равном рейтинге - по возрастанию ид.
+     * Фильмы без оценок и отсутствующие в индексе идут в конце.
+     */
+    public List<Integer> sortByRating(int[] filmIds) {
+        List<RankedFilm> rankedFilms = new ArrayList<>(filmIds.length);
+        for (int filmId : filmIds) {
+            RankedFilm rankedFilm = filmIdToRankedFilm.get(filmId);
+            rankedFilms.add(rankedFilm != null ? rankedFilm : new RankedFilm(filmId, ALL, new int[0], 0, 0));
+        }
+        rankedFilms.sort(BY_RATING);
+        List<Integer> sorted = new ArrayList<>(rankedFilms.size());
+        for (RankedFilm rankedFilm : rankedFilms) {
+            sorted.add(rankedFilm.filmId);
+        }
+        return sorted;
+    }
+
+    // Рейтинг из индекса, 0 - оценок нет или фильма нет в индексе
+    public double getRating(int filmId) {
+        RankedFilm rankedFilm = filmIdToRankedFilm.get(filmId);
+        return rankedFilm == null ? 0 : rankedFilm.rating;
+    }
+
+    // В индексе есть все фильмы из БД, поэтому по нему можно проверить существование фильма без запроса
+    public boolean containsFilm(int filmId) {
+        return filmIdToRankedFilm.containsKey(filmId);
+    }
+
+    // Счётчик изменений индекса, в том числе рейтингов; нечётный, пока изменение не закончено
+    public long getVersion() {
+        return version;
+    }
+
+    // У нового фильма ещё нет оценок
+    public synchronized void addFilm(Film film) {
+        index(new RankedFilm(film.getId(), film.getReleaseDate().getYear(), getGenreIds(film), 0, 0));
+    }
+
+    // Оценки при обновлении фильма не меняются, поэтому берём их из индекса
+    public synchronized void updateFilm(Film film) {
+        RankedFilm old = filmIdToRankedFilm.get(film.getId());
+        index(new RankedFilm(film.getId(), film.getReleaseDate().getYear(), getGenreIds(film),
+                old == null ? 0 : old.marksSum, old == null ? 0 : old.marksCount));
+    }
+
+    public synchronized void removeFilm(int filmId) {
+        RankedFilm old = filmIdToRankedFilm.get(filmId);
+        if (old != null) {
+            version++;
+            filmIdToRankedFilm.remove(filmId);
+            forEachKey(old, key -> rankings.get(key).remove(old));
+            version++;
+        }
+    }
+
+    /**
+     * Учёт записанных в БД оценок без обращения к БД.
+     */
+    public synchronized void addMarks(List<Mark> marks) {
+        Map<Integer, int[]> filmIdToMarks = new HashMap<>();
+        for (Mark mark : marks) {
+            int[] sumAndCount = filmIdToMarks.computeIfAbsent(mark.getFilmId(), filmId -> new int[2]);
+            sumAndCount[0] += mark.getMark();
+            sumAndCount[1]++;
+        }
+        filmIdToMarks.forEach((filmId, sumAndCount) -> applyMarks(filmId, sumAndCount[0], sumAndCount[1]));
+    }
+
+    // Учёт удалённой из БД оценки без обращения к БД
+    public synchronized void removeMark(int filmId, int mark) {
+        applyMarks(filmId, -mark, -1);
+    }
+
+    /**
+     * Перечитывание сумм и количеств оценок из БД, когда удалённые оценки неизвестны (например, при удалении
+     * пользователя). Чтение выполняется под блокировкой индекса, чтобы более старое значение
+     * не перезаписало более новое.
+     */
+    public synchronized void refreshRatings(List<Integer> filmIds) {
+        Map<Integer, int[]> filmIdToMarks = filmDao.getFilmIdToMarksSumAndCount(filmIds);
+        for (Map.Entry<Integer, int[]> entry : filmIdToMarks.entrySet()) {
+            RankedFilm old = filmIdToRankedFilm.get(entry.getKey());
+            int[] marks = entry.getValue();
+            if (old != null && (old.marksSum != marks[0] || old.marksCount != marks[1])) {
+                index(new RankedFilm(old.filmId, old.year, old.genreIds, marks[0], marks[1]));
+            }
+        }
+    }
+
+    private void applyMarks(int filmId, int sumDelta, int countDelta) {
+        RankedFilm old = filmIdToRankedFilm.get(filmId);
+        if (old != null) {
+            index(new RankedFilm(old.filmId, old.year, old.genreIds, old.marksSum + sumDelta,
+                    old.marksCount + countDelta));
+        }
+    }
+
+    private void index(RankedFilm rankedFilm) {
+        version++;
+        forEachKey(rankedFilm, key -> rankings.computeIfAbsent(key, k -> new ConcurrentSkipListSet<>(BY_RATING))
+                .add(rankedFilm));
+        RankedFilm old = filmIdToRankedFilm.put(rankedFilm.filmId, rankedFilm);
+        if (old != null) {
+            // При том же рейтинге старая запись равна новой и уже стоит на её месте, её удалять нельзя
+            Set<Long> keptKeys = new HashSet<>();
+            if (BY_RATING.compare(old, rankedFilm) == 0) {
+                forEachKey(rankedFilm, keptKeys::add);
+            }
+            forEachKey(old, key -> {
+                if (!keptKeys.contains(key)) {
+                    rankings.get(key).remove(old);
+                }
+            });
+        }
+        version++;
+    }
+
+    private List<Integer> readRanking(long key, int limit) {
+        NavigableSet<RankedFilm> ranking = rankings.get(key);
+        List<Integer> filmIds = new ArrayList<>();
+        if (ranking == null) {
+            return filmIds;
+        }
+        Iterator<RankedFilm> iterator = ranking.iterator();
+        while (filmIds.size() < limit && iterator.hasNext()) {
+            filmIds.add(iterator.next().filmId);
+        }
+        return filmIds;
+    }
+
+    private void forEachKey(RankedFilm rankedFilm, LongConsumer consumer) {
+        consumer.accept(key(ALL, ALL));
+        consumer.accept(key(ALL, rankedFilm.year));
+        for (int genreId : rankedFilm.genreIds) {
+            consumer.accept(key(genreId, ALL));
+            consumer.accept(key(genreId, rankedFilm.year));
+        }
+    }
+
+    private static long key(int genreId, int year) {
+        return ((long) genreId << 32) | year;
+    }
+
+    private static int[] getGenreIds(Film film) {
+        return film.getGenres().stream()
+                .mapToInt(Genre::getId)
+                .distinct()
+                .toArray();
+    }
+
+    private static final class RankedFilm {
+        private final int filmId;
+        private final int year;
+        private final int[] genreIds;
+        private final int marksSum;
+        private final int marksCount;
+        private final double rating;
+
+        private RankedFilm(int filmId, int year, int[] genreIds, int marksSum, int marksCount) {
+            this.filmId = filmId;
+            this.year = year;
+            this.genreIds = genreIds;
+            this.marksSum = marksSum;
+            this.marksCount = marksCount;
+            // Как rating в film_ratings: без оценок рейтинга нет
+            this.rating = marksCount > 0 ? (double) marksSum / marksCount : 0;
+        }
+    }
+}
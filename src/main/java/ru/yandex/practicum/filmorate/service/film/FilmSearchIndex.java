@@ -0,0 +1,180 @@
+package ru.yandex.practicum.filmorate.service.film;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dao.DirectorDao;
+import ru.yandex.practicum.filmorate.dao.FilmDao;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+
+import javax.annotation.PostConstruct;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * Индекс поиска фильмов по подстроке названия и имени режиссёра в памяти (см. {@link TrigramIndex}).
+ * Сравнение без учёта регистра, как UPPER(...) LIKE UPPER('%q%') в БД. Для поиска по режиссёру сначала
+ * находятся режиссёры, затем объединяются их фильмы. Индекс строится при старте и обновляется
+ * при добавлении, изменении и удалении фильмов и режиссёров. Исходные названия и имена хранятся
+ * для подсказок при вводе ({@link FilmAutocomplete}).
+ */
+@Slf4j
+@Component
+public class FilmSearchIndex {
+    private static final int[] NO_DIRECTORS = new int[0];
+    private final FilmDao filmDao;
+    private final DirectorDao directorDao;
+    private final TrigramIndex titleIndex = new TrigramIndex();
+    private final TrigramIndex directorNameIndex = new TrigramIndex();
+    private final Map<Integer, String> filmNames = new HashMap<>();
+    private final Map<Integer, String> directorNames = new HashMap<>();
+    private final Map<Integer, int[]> filmIdToDirectorIds = new HashMap<>();
+    private final Map<Integer, Set<Integer>> directorIdToFilmIds = new HashMap<>();
+    private volatile long version;
+
+    public FilmSearchIndex(@Qualifier("filmDbStorage") FilmDao filmDao,
+                           @Qualifier("directorDbStorage") DirectorDao directorDao) {
+        this.filmDao = filmDao;
+        this.directorDao = directorDao;
+    }
+
+    // Фильмы читаются потоком, как при выгрузке каталога
+    @PostConstruct
+    public synchronized void load() {
+        for (Director director : directorDao.getDirectors()) {
+            indexDirector(director);
+        }
+        filmDao.exportFilms(this::index);
+        log.info("Индекс поиска построен, фильмов в индексе: {}, режиссёров: {}.", titleIndex.size(),
+                directorNameIndex.size());
+    }
+
+    public synchronized void addFilm(Film film) {
+        index(film);
+    }
+
+    // Режиссёры фильма могли смениться, поэтому связи строятся заново
+    public synchronized void updateFilm(Film film) {
+        index(film);
+    }
+
+    public synchronized void removeFilm(int filmId) {
+        titleIndex.remove(filmId);
+        filmNames.remove(filmId);
+        unlinkDirectors(filmId);
+        version++;
+    }
+
+    public synchronized void addDirector(Director director) {
+        indexDirector(director);
+    }
+
+    public synchronized void updateDirector(Director director) {
+        indexDirector(director);
+    }
+
+    public synchronized void removeDirector(int directorId) {
+        directorNameIndex.remove(directorId);
+        directorNames.remove(directorId);
+        version++;
+        Set<Integer> filmIds = directorIdToFilmIds.remove(directorId);
+        if (filmIds == null) {
+            return;
+        }
+        for (int filmId : filmIds) {
+            int[] directorIds = IntStream.of(filmIdToDirectorIds.get(filmId))
+                    .filter(id -> id != directorId)
+                    .toArray();
+            filmIdToDirectorIds.put(filmId, directorIds);
+        }
+    }
+
+    /**
+     * @return ид фильмов, в названии которых есть query, по возрастанию.
+     */
+    public synchronized int[] findByTitle(String query) {
+        return titleIndex.find(normalize(query));
+    }
+
+    /**
+     * @return ид фильмов, у которых есть режиссёр с query в имени, по возрастанию.
+     */
+    public synchronized int[] findByDirector(String query) {
+        return IntStream.of(directorNameIndex.find(normalize(query)))
+                .flatMap(directorId -> directorIdToFilmIds.getOrDefault(directorId, Set.of()).stream()
+                        .mapToInt(Integer::intValue))
+                .distinct()
+                .sorted()
+                .toArray();
+    }
+
+    public synchronized int[] findByTitleOrDirector(String query) {
+        return IntStream.concat(IntStream.of(findByTitle(query)), IntStream.of(findByDirector(query)))
+                .distinct()
+                .sorted()
+                .toArray();
+    }
+
+    // Счётчик изменений; по нему подсказки понимают, что их пора перестроить
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Передача всех фильмов и режиссёров с исходными названиями в построитель подсказок.
+     */
+    synchronized void copyTo(AutocompleteIndex.Builder builder) {
+        filmNames.forEach(builder::addFilm);
+        directorNames.forEach((directorId, name) -> builder.addDirector(directorId, name,
+                directorIdToFilmIds.getOrDefault(directorId, Set.of()).stream()
+                        .mapToInt(Integer::intValue)
+                        .toArray()));
+    }
+
+    private void indexDirector(Director director) {
+        directorNameIndex.put(director.getId(), normalize(director.getName()));
+        directorNames.put(director.getId(), director.getName());
+        version++;
+    }
+
+    private void index(Film film) {
+        int filmId = film.getId();
+        titleIndex.put(filmId, normalize(film.getName()));
+        filmNames.put(filmId, film.getName());
+        unlinkDirectors(filmId);
+        int[] directorIds = film.getDirectors() == null ? NO_DIRECTORS : film.getDirectors().stream()
+                .mapToInt(Director::getId)
+                .distinct()
+                .toArray();
+        filmIdToDirectorIds.put(filmId, directorIds);
+        for (int directorId : directorIds) {
+            directorIdToFilmIds.computeIfAbsent(directorId, id -> new HashSet<>()).add(filmId);
+        }
+        version++;
+    }
+
+    private void unlinkDirectors(int filmId) {
+        int[] directorIds = filmIdToDirectorIds.remove(filmId);
+        if (directorIds == null) {
+            return;
+        }
+        for (int directorId : directorIds) {
+            Set<Integer> filmIds = directorIdToFilmIds.get(directorId);
+            if (filmIds != null) {
+                filmIds.remove(filmId);
+                if (filmIds.isEmpty()) {
+                    directorIdToFilmIds.remove(directorId);
+                }
+            }
+        }
+    }
+
+    static String normalize(String text) {
+        return text == null ? "" : text.toUpperCase(Locale.ROOT);
+    }
+}
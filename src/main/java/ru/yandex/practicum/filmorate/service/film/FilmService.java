@@ -1,8 +1,13 @@
 package ru.yandex.practicum.filmorate.service.film;
 
+import ru.yandex.practicum.filmorate.dto.FilmFilter;
+import ru.yandex.practicum.filmorate.dto.FilmFilterResult;
+import ru.yandex.practicum.filmorate.dto.Page;
+import ru.yandex.practicum.filmorate.dto.Suggestion;
 import ru.yandex.practicum.filmorate.model.Film;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface FilmService {
     Film addFilm(Film film);
@@ -13,6 +18,10 @@ public interface FilmService {
 
     List<Film> getAllFilms();
 
+    Page<Film> getFilmsPage(String after, int limit);
+
+    void exportFilms(Consumer<Film> consumer);
+
     void addMark(int id, int userId, int mark);
 
     void deleteMark(int id, int userId);
@@ -23,7 +32,13 @@ public interface FilmService {
 
     List<Film> getCommonFilms(int userId, int friendId);
 
+    List<Film> getSimilarFilms(int id, int limit);
+
     List<Film> getFilmsByDirectorId(int directorId, String sortBy);
 
     List<Film> getFilmsBySearch(String query, List<String> params);
+
+    List<Suggestion> getSuggestions(String prefix, int limit);
+
+    FilmFilterResult filterFilms(FilmFilter filter);
 }
\ No newline at end of file
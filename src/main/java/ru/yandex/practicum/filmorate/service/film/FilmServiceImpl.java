@@ -4,35 +4,74 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.dao.FilmDao;
+import ru.yandex.practicum.filmorate.dto.FilmFilter;
+import ru.yandex.practicum.filmorate.dto.FilmFilterResult;
+import ru.yandex.practicum.filmorate.dto.Page;
+import ru.yandex.practicum.filmorate.dto.Suggestion;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.exception.SearchParameterException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
 import ru.yandex.practicum.filmorate.model.Event;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Mark;
 import ru.yandex.practicum.filmorate.service.event.EventService;
+import ru.yandex.practicum.filmorate.service.recommendation.FilmSimilarityIndex;
+import ru.yandex.practicum.filmorate.service.recommendation.Neighbours;
+import ru.yandex.practicum.filmorate.service.recommendation.RatingMatrix;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Service
 public class FilmServiceImpl implements FilmService {
-    private static final LocalDate INITIAL_RELEASE_DATE = LocalDate.of(1895, 12, 28);
+    static final LocalDate INITIAL_RELEASE_DATE = LocalDate.of(1895, 12, 28);
     public static final String DIRECTOR_PARAM = "director";
     public static final String TITLE_PARAM = "title";
     private final FilmDao filmDao;
     private final EventService eventService;
+    private final FilmPopularityIndex popularityIndex;
+    private final FilmCache filmCache;
+    private final MarkWriteBuffer markWriteBuffer;
+    private final RatingMatrix ratingMatrix;
+    private final FilmSimilarityIndex filmSimilarityIndex;
+    private final FilmSearchIndex searchIndex;
+    private final FilmAutocomplete autocomplete;
+    private final FilmFacetIndex facetIndex;
 
-    public FilmServiceImpl(@Qualifier("filmDbStorage") FilmDao filmStorage, EventService eventService) {
+    public FilmServiceImpl(@Qualifier("filmDbStorage") FilmDao filmStorage,
+                           EventService eventService,
+                           FilmPopularityIndex popularityIndex,
+                           FilmCache filmCache,
+                           MarkWriteBuffer markWriteBuffer,
+                           RatingMatrix ratingMatrix,
+                           FilmSimilarityIndex filmSimilarityIndex,
+                           FilmSearchIndex searchIndex,
+                           FilmAutocomplete autocomplete,
+                           FilmFacetIndex facetIndex) {
         this.filmDao = filmStorage;
         this.eventService = eventService;
+        this.popularityIndex = popularityIndex;
+        this.filmCache = filmCache;
+        this.markWriteBuffer = markWriteBuffer;
+        this.ratingMatrix = ratingMatrix;
+        this.filmSimilarityIndex = filmSimilarityIndex;
+        this.searchIndex = searchIndex;
+        this.autocomplete = autocomplete;
+        this.facetIndex = facetIndex;
     }
 
     @Override
     public Film addFilm(Film film) {
         isFilmValid(film);
         film = filmDao.addFilm(film);
+        popularityIndex.addFilm(film);
+        searchIndex.addFilm(film);
+        facetIndex.addFilm(film);
         log.info("Добавлен новый фильм с ID = {}", film.getId());
         return film;
     }
@@ -45,18 +84,22 @@ public class FilmServiceImpl implements FilmService {
         if (film == null) {
             throw new NotFoundException("Фильм с id " + filmId + " не найден.");
         }
+        popularityIndex.updateFilm(film);
+        searchIndex.updateFilm(film);
+        facetIndex.updateFilm(film);
+        filmCache.invalidate(filmId);
         log.info("Фильм с ID {} обновлён.", film.getId());
         return film;
     }
 
     @Override
     public Film getFilmById(int id) {
-        List<Film> films = filmDao.getFilmById(id);
-        if (films.size() == 0) {
+        Film film = findFilm(id);
+        if (film == null) {
             throw new NotFoundException("Фильм с id " + id + " не найден.");
         }
         log.info("Фильм с id {} возвращён.", id);
-        return films.get(0);
+        return film;
     }
 
     @Override
@@ -66,19 +109,63 @@ public class FilmServiceImpl implements FilmService {
         return films;
     }
 
+    // Запрашиваем на один фильм больше, чтобы понять, есть ли следующая страница
+    @Override
+    public Page<Film> getFilmsPage(String after, int limit) {
+        List<Film> films = filmDao.getFilmsPage(Page.decodeCursor(after), limit + 1);
+        String nextCursor = null;
+        if (films.size() > limit) {
+            films = films.subList(0, limit);
+            nextCursor = Page.encodeCursor(films.get(limit - 1).getId());
+        }
+        log.info("Страница фильмов размером {} возвращена.", films.size());
+        return new Page<>(films, nextCursor);
+    }
+
+    @Override
+    public void exportFilms(Consumer<Film> consumer) {
+        int[] count = new int[1];
+        filmDao.exportFilms(film -> {
+            consumer.accept(film);
+            count[0]++;
+        });
+        log.info("Выгрузка каталога завершена, выгружено фильмов: {}.", count[0]);
+    }
+
     @Override
     public void addMark(int id, int userId, int mark) {
+        if (markWriteBuffer.isEnabled()) {
+            markWriteBuffer.add(new Mark(userId, id, mark));
+            log.info("Оценка пользователя с id {} фильму с id {} поставлена в очередь на запись.", userId, id);
+            return;
+        }
         filmDao.addMark(id, userId, mark);
+        // Оценка записана, поэтому индексы обновляются по ней самой, без чтения из БД
+        List<Mark> marks = List.of(new Mark(userId, id, mark));
+        popularityIndex.addMarks(marks);
+        filmCache.invalidate(id);
+        ratingMatrix.addMarks(marks);
         eventService.addEvent(new Event(userId, "MARK", "ADD", id));
         log.info("Пользователь с id {} лайкнул фильм с id {}.", userId, id);
     }
 
     @Override
     public void deleteMark(int id, int userId) {
+        // Оценка может ещё ждать записи в очереди
+        markWriteBuffer.flush();
+        // Удаляемая оценка берётся из матрицы; если её там ещё нет, рейтинг перечитывается из БД
+        Integer oldMark = ratingMatrix.getMark(userId, id);
         Integer result = filmDao.deleteMark(id, userId);
         if (result == 0) {
             throw new NotFoundException("Фильм с id " + id + " или пользователь с id " + userId + " не найдены.");
         }
+        if (oldMark != null) {
+            popularityIndex.removeMark(id, oldMark);
+        } else {
+            popularityIndex.refreshRatings(List.of(id));
+        }
+        filmCache.invalidate(id);
+        ratingMatrix.removeMark(userId, id);
         eventService.addEvent(new Event(userId, "MARK", "REMOVE", id));
         log.info("Пользователь с id {} удалил лайк к фильму с id {}.", userId, id);
     }
@@ -87,37 +174,40 @@ public class FilmServiceImpl implements FilmService {
     public void deleteFilm(int id) {
         Integer result = filmDao.deleteFilm(id);
         if (result == 0) throw new NotFoundException("Фильм с id " + id + " не найден.");
+        popularityIndex.removeFilm(id);
+        searchIndex.removeFilm(id);
+        facetIndex.removeFilm(id);
+        filmCache.invalidate(id);
+        ratingMatrix.removeFilm(id);
         log.info("Фильм с id {} удален", id);
     }
 
     @Override
     public List<Film> getPopularFilms(Integer count, Integer genreId, Integer year) {
-        List<Film> films;
-        if (genreId == 0 && year == null && count == null) {
-            films = filmDao.getPopularFilms();
-            log.info("Список популярных фильмов без лимитов возвращён.");
-        } else if (genreId == 0 && year == null) {
-            films = filmDao.getPopularFilmsWithLimit(count);
-            log.info("Список популярных фильмов размером {} возвращён.", count);
-        } else if (genreId != 0 && year == null && count == null) {
-            films = filmDao.getPopularFilmsByGenre(genreId);
-            log.info("Список популярных фильмов жанра с ид {} без лимита возвращён.", genreId);
-        } else if (genreId != 0 && year == null) {
-            films = filmDao.getPopularFilmsByGenreWithLimit(count, genreId);
-            log.info("Список популярных фильмов с жанром с ид {} размером {} возвращён.", genreId, count);
-        } else if (genreId != 0 && count == null) {
-            films = filmDao.getPopularFilmsByYearAndGenre(genreId, year);
-            log.info("Список популярных фильмов {} года с жанром с ид {} возвращён.", year, genreId);
-        } else if (genreId != 0) {
-            films = filmDao.getPopularFilmsByYearAndGenreWithLimit(count, genreId, year);
-            log.info("Список популярных фильмов {} года с жанром с ид {} размером {} возвращён.", year, genreId, count);
-        } else if (count == null) {
-            films = filmDao.getPopularFilmsByYear(year);
-            log.info("Список популярных фильмов {} года возвращён.", year);
-        } else {
-            films = filmDao.getPopularFilmsByYearWithLimit(count, year);
-            log.info("Список популярных фильмов {} года размером {} возвращён.", year, count);
+        List<Integer> filmIds = popularityIndex.getPopularFilmIds(count, genreId, year);
+        List<Film> films = filmDao.getFilmsByIds(filmIds);
+        log.info("Список популярных фильмов жанра с ид {} {} года размером {} возвращён.", genreId, year, films.size());
+        return films;
+    }
+
+    /**
+     * Похожие фильмы по оценкам общих оценивших, см. {@link FilmSimilarityIndex}.
+     * Список берётся из индекса, фильмы - из кэша, поэтому повторный запрос не обращается к БД.
+     */
+    @Override
+    public List<Film> getSimilarFilms(int id, int limit) {
+        if (findFilm(id) == null) {
+            throw new NotFoundException("Фильм с id " + id + " не найден.");
+        }
+        Neighbours neighbours = filmSimilarityIndex.getNeighbours(id, limit);
+        List<Film> films = new ArrayList<>();
+        for (int i = 0; i < neighbours.size() && films.size() < limit; i++) {
+            Film film = findFilm(neighbours.id(i));
+            if (film != null) {
+                films.add(film);
+            }
         }
+        log.info("Список из {} похожих фильмов для фильма с id {} возвращён.", films.size(), id);
         return films;
     }
 
@@ -140,25 +230,65 @@ public class FilmServiceImpl implements FilmService {
         }
     }
 
+    /**
+     * Поиск по подстроке в названии и (или) имени режиссёра без учёта регистра.
+     * Ид фильмов находятся по индексу {@link FilmSearchIndex}, упорядочиваются по рейтингу
+     * из {@link FilmPopularityIndex}, а из БД читаются только найденные фильмы.
+     */
     @Override
     public List<Film> getFilmsBySearch(String query, List<String> params) {
+        int[] filmIds;
         if (params.size() == 1) {
             switch (params.get(0)) {
                 case TITLE_PARAM:
-                    log.info("Результат поиска фильма по части названия {}", query);
-                    return filmDao.getFilmsByTitleSearch(query);
+                    filmIds = searchIndex.findByTitle(query);
+                    break;
                 case DIRECTOR_PARAM:
-                    log.info("Результат поиска фильма по части названия {}", query);
-                    return filmDao.getFilmsByDirectorSearch(query);
+                    filmIds = searchIndex.findByDirector(query);
+                    break;
                 default:
                     return new ArrayList<>();
             }
         } else if (params.size() == 2 && params.containsAll(List.of(TITLE_PARAM, DIRECTOR_PARAM))) {
-            log.info("Результат поиска фильма по части названия {}", query);
-            return filmDao.getFilmsByTitleAndDirectorSearch(query);
+            filmIds = searchIndex.findByTitleOrDirector(query);
         } else {
             throw new SearchParameterException("Параметр поиска не определён.");
         }
+        List<Film> films = filmDao.getFilmsByIds(popularityIndex.sortByRating(filmIds));
+        log.info("Результат поиска фильмов по запросу {} размером {} возвращён.", query, films.size());
+        return films;
+    }
+
+    // Подсказки берутся из индекса в памяти, БД не используется
+    @Override
+    public List<Suggestion> getSuggestions(String prefix, int limit) {
+        List<Suggestion> suggestions = autocomplete.suggest(prefix, limit);
+        log.debug("Для префикса {} возвращено подсказок: {}.", prefix, suggestions.size());
+        return suggestions;
+    }
+
+    /**
+     * Отбор фильмов по любому сочетанию условий, см. {@link FilmFilter}.
+     * Условия проверяются по индексу {@link FilmFacetIndex}, из БД читаются только фильмы страницы.
+     */
+    @Override
+    public FilmFilterResult filterFilms(FilmFilter filter) {
+        if (!List.of(FilmFilter.ANY, FilmFilter.ALL).contains(filter.getGenreMode())) {
+            throw new ValidationException("Режим отбора по жанрам не определён: " + filter.getGenreMode());
+        }
+        if (!List.of(FilmFilter.SORT_BY_RATING, FilmFilter.SORT_BY_RELEASE_DATE).contains(filter.getSortBy())) {
+            throw new ValidationException("Параметр сортировки не определён: " + filter.getSortBy());
+        }
+        if (isReversed(filter.getYearFrom(), filter.getYearTo())
+                || isReversed(filter.getDurationFrom(), filter.getDurationTo())) {
+            throw new ValidationException("Начало интервала больше конца.");
+        }
+        FilmFacetIndex.Result result = facetIndex.filter(filter);
+        List<Film> films = filmDao.getFilmsByIds(Arrays.stream(result.getFilmIds())
+                .boxed()
+                .collect(Collectors.toList()));
+        log.info("Отобрано фильмов: {}, возвращено: {}.", result.getTotal(), films.size());
+        return new FilmFilterResult(result.getTotal(), films, result.getFacets());
     }
 
     // Метод проверки минимальной даты
@@ -167,4 +297,16 @@ public class FilmServiceImpl implements FilmService {
             throw new ValidationException("Фильм не прошёл валидацию. Дата релиза меньше минимального значения.");
         }
     }
-}
\ No newline at end of file
+
+    private static boolean isReversed(Integer from, Integer to) {
+        return from != null && to != null && from > to;
+    }
+
+    // Фильм из кэша или из БД, null - фильма нет
+    private Film findFilm(int id) {
+        return filmCache.get(id, filmId -> {
+            List<Film> films = filmDao.getFilmById(filmId);
+            return films.isEmpty() ? null : films.get(0);
+        });
+    }
+}
@@ -0,0 +1,353 @@
+package ru.yandex.practicum.filmorate.service.film;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.dao.EventDao;
+import ru.yandex.practicum.filmorate.dao.FilmDao;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.model.Event;
+import ru.yandex.practicum.filmorate.model.Mark;
+import ru.yandex.practicum.filmorate.service.event.FeedListener;
+import ru.yandex.practicum.filmorate.service.recommendation.RatingMatrix;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Отложенная запись оценок (write-behind). Включается свойством filmorate.marks.write-behind.enabled.
+ * Оценки вместе с событиями ленты складываются в ограниченную очередь, фоновый поток записывает их пачками
+ * одной транзакцией: пачка уходит, когда набралось max-batch-size оценок или с первой прошло max-latency-ms.
+ * Если очередь заполнена, запрос ждёт свободного места до offer-timeout-ms, а затем пишет оценку сам,
+ * так что нагрузка на БД ограничена, а оценки не теряются. При остановке приложения очередь дописывается.
+ * Оценка несуществующему фильму отклоняется сразу по индексу популярности. Остальные ошибки в оценке
+ * (повторная оценка, неизвестный или удалённый пользователь) обнаруживаются только при записи: в очереди
+ * такая оценка пропускается с записью в лог, остальные оценки пачки сохраняются, а при записи в потоке
+ * запроса ошибка возвращается вызывающему.
+ */
+@Slf4j
+@Component
+public class MarkWriteBuffer {
+    // Будит поток записи при остановке, в запись не попадает
+    private static final PendingMark STOP = new PendingMark(null, null);
+    private final FilmDao filmDao;
+    private final EventDao eventDao;
+    private final FilmPopularityIndex popularityIndex;
+    private final FilmCache filmCache;
+    private final RatingMatrix ratingMatrix;
+    private final List<FeedListener> feedListeners;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int maxBatchSize;
+    private final long maxLatencyNanos;
+    private final long offerTimeoutMillis;
+    private final BlockingQueue<PendingMark> queue;
+    private final Thread flusher;
+    private final LongAdder writtenMarks = new LongAdder();
+    private final LongAdder failedMarks = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder directWrites = new LongAdder();
+    // Счётчики для flush(): сколько оценок принято в очередь и сколько из них уже обработано
+    private long enqueued;
+    private long processed;
+    private volatile boolean running;
+
+    public MarkWriteBuffer(@Qualifier("filmDbStorage") FilmDao filmDao,
+                           EventDao eventDao,
+                           FilmPopularityIndex popularityIndex,
+                           FilmCache filmCache,
+                           RatingMatrix ratingMatrix,
+                           List<FeedListener> feedListeners,
+                           PlatformTransactionManager transactionManager,
+                           MeterRegistry meterRegistry,
+                           @Value("${filmorate.marks.write-behind.enabled:false}") boolean enabled,
+                           @Value("${filmorate.marks.write-behind.max-batch-size:500}") int maxBatchSize,
+                           @Value("${filmorate.marks.write-behind.max-latency-ms:50}") long maxLatencyMillis,
+                           @Value("${filmorate.marks.write-behind.queue-capacity:10000}") int queueCapacity,
+                           @Value("${filmorate.marks.write-behind.offer-timeout-ms:100}") long offerTimeoutMillis) {
+        this.filmDao = filmDao;
+        this.eventDao = eventDao;
+        this.popularityIndex = popularityIndex;
+        this.filmCache = filmCache;
+        this.ratingMatrix = ratingMatrix;
+        this.feedListeners = feedListeners;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.maxBatchSize = maxBatchSize;
+        this.maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(maxLatencyMillis);
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.flusher = new Thread(this::runFlusher, "mark-write-buffer");
+        this.flusher.setDaemon(true);
+        FunctionCounter.builder("filmorate.marks.write-behind.written", writtenMarks, LongAdder::sum)
+                .description("Оценки, записанные через очередь")
+                .register(meterRegistry);
+        FunctionCounter.builder("filmorate.marks.write-behind.failed", failedMarks, LongAdder::sum)
+                .description("Оценки, которые не удалось записать")
+                .register(meterRegistry);
+        FunctionCounter.builder("filmorate.marks.write-behind.batches", batches, LongAdder::sum)
+                .description("Записанные пачки оценок")
+                .register(meterRegistry);
+        FunctionCounter.builder("filmorate.marks.write-behind.direct-writes", directWrites, LongAdder::sum)
+                .description("Оценки, записанные в потоке запроса из-за заполненной очереди")
+                .register(meterRegistry);
+        Gauge.builder("filmorate.marks.write-behind.queue.size", queue, BlockingQueue::size)
+                .description("Оценки, ожидающие записи")
+                .register(meterRegistry);
+        if (enabled) {
+            running = true;
+            flusher.start();
+            log.info("Отложенная запись оценок включена: пачка до {} оценок, задержка до {} мс, очередь на {} оценок.",
+                    maxBatchSize, maxLatencyMillis, queueCapacity);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Постановка оценки в очередь на запись.
+     * Если очередь остаётся заполненной дольше offer-timeout-ms или буфер уже остановлен,
+     * оценка записывается сразу в текущем потоке, и ошибка записи пробрасывается вызывающему.
+     */
+    public void add(Mark mark) {
+        if (!popularityIndex.containsFilm(mark.getFilmId())) {
+            throw new NotFoundException("Фильм с id " + mark.getFilmId() + " не найден.");
+        }
+        // Время события фиксируется при постановке, а не при записи
+        PendingMark pendingMark = new PendingMark(mark,
+                new Event(mark.getUserId(), "MARK", "ADD", mark.getFilmId()));
+        boolean accepted = false;
+        if (running) {
+            try {
+                // Счётчик увеличивается до постановки, чтобы flush() не пропустил оценку, уже взятую из очереди
+                synchronized (this) {
+                    enqueued++;
+                }
+                accepted = queue.offer(pendingMark, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (!accepted) {
+                synchronized (this) {
+                    enqueued--;
+                    notifyAll();
+                }
+            }
+        }
+        if (!accepted) {
+            directWrites.increment();
+            writeDirectly(pendingMark);
+            return;
+        }
+        // Буфер остановился, пока оценка ставилась в очередь: поток записи её уже не возьмёт, дописываем сами
+        if (!running) {
+            flushRemaining();
+        }
+    }
+
+    /**
+     * Ожидание записи всех оценок, поставленных в очередь до вызова.
+     * Нужен перед операциями, которым важен актуальный набор оценок, например перед удалением оценки.
+     */
+    public void flush() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            long target = enqueued;
+            // Оценка, которую не удалось поставить в очередь, снимается со счёта и не должна ждаться
+            while (processed < Math.min(target, enqueued)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    public long getWrittenCount() {
+        return writtenMarks.sum();
+    }
+
+    public long getFailedCount() {
+        return failedMarks.sum();
+    }
+
+    public long getDirectWriteCount() {
+        return directWrites.sum();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        // Очередь может быть заполнена, но тогда поток записи и так не ждёт в poll
+        queue.offer(STOP);
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Оценки, поставленные одновременно с остановкой, дописываются в текущем потоке
+        flushRemaining();
+        log.info("Отложенная запись оценок остановлена, очередь записана.");
+    }
+
+    // Поток записи завершается, только когда буфер остановлен и очередь пуста
+    private void runFlusher() {
+        List<PendingMark> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingMark first = queue.poll(maxLatencyNanos, TimeUnit.NANOSECONDS);
+                if (first == null || first == STOP) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxLatencyNanos;
+                while (batch.size() < maxBatchSize) {
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatchSize || remaining <= 0 || !running) {
+                        break;
+                    }
+                    PendingMark next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+                batch.remove(STOP);
+            } catch (InterruptedException e) {
+                log.warn("Поток отложенной записи оценок прерван, оставшиеся оценки будут записаны сразу.");
+                queue.drainTo(batch);
+                batch.remove(STOP);
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                try {
+                    write(batch);
+                } finally {
+                    markProcessed(batch.size());
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    // drainTo забирает каждую оценку один раз, поэтому вызовы из нескольких потоков не пишут оценку дважды
+    private void flushRemaining() {
+        List<PendingMark> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        rest.remove(STOP);
+        if (!rest.isEmpty()) {
+            try {
+                write(rest);
+            } finally {
+                markProcessed(rest.size());
+            }
+        }
+    }
+
+    private synchronized void markProcessed(int count) {
+        processed += count;
+        notifyAll();
+    }
+
+    /**
+     * Запись пачки оценок и их событий одной транзакцией.
+     * Если пачка не записалась целиком, оценки записываются по одной, чтобы сохранить корректные.
+     */
+    private void write(List<PendingMark> marks) {
+        List<PendingMark> written = new ArrayList<>(marks.size());
+        try {
+            writeInTransaction(marks);
+            written.addAll(marks);
+            batches.increment();
+        } catch (DataAccessException e) {
+            log.warn("Пачка из {} оценок не записана, оценки будут записаны по одной. {}",
+                    marks.size(), e.getMessage());
+            for (PendingMark pendingMark : marks) {
+                try {
+                    writeInTransaction(List.of(pendingMark));
+                    written.add(pendingMark);
+                } catch (DataAccessException markException) {
+                    failedMarks.increment();
+                    log.warn("Оценка пользователя с id {} фильму с id {} не записана: {}",
+                            pendingMark.mark.getUserId(), pendingMark.mark.getFilmId(), markException.getMostSpecificCause().getMessage());
+                }
+            }
+        }
+        afterWrite(written);
+    }
+
+    // Оценка, не поместившаяся в очередь: ошибка не глотается, а возвращается в запрос, как и без буфера
+    private void writeDirectly(PendingMark pendingMark) {
+        try {
+            writeInTransaction(List.of(pendingMark));
+        } catch (DataAccessException e) {
+            failedMarks.increment();
+            throw e;
+        }
+        afterWrite(List.of(pendingMark));
+    }
+
+    private void afterWrite(List<PendingMark> written) {
+        if (written.isEmpty()) {
+            return;
+        }
+        writtenMarks.add(written.size());
+        Set<Integer> filmIds = new LinkedHashSet<>();
+        List<Mark> writtenMarkList = new ArrayList<>(written.size());
+        for (PendingMark pendingMark : written) {
+            filmIds.add(pendingMark.mark.getFilmId());
+            writtenMarkList.add(pendingMark.mark);
+        }
+        // Индексы обновляются по записанным оценкам без чтения из БД
+        popularityIndex.addMarks(writtenMarkList);
+        filmCache.invalidate(filmIds);
+        ratingMatrix.addMarks(writtenMarkList);
+    }
+
+    private void writeInTransaction(List<PendingMark> pendingMarks) {
+        List<Mark> marks = new ArrayList<>(pendingMarks.size());
+        List<Event> events = new ArrayList<>(pendingMarks.size());
+        for (PendingMark pendingMark : pendingMarks) {
+            marks.add(pendingMark.mark);
+            events.add(pendingMark.event);
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            filmDao.addMarks(marks);
+            eventDao.addEvents(events);
+        });
+        feedListeners.forEach(listener -> listener.onEventsWritten(events));
+    }
+
+    private static final class PendingMark {
+        private final Mark mark;
+        private final Event event;
+
+        private PendingMark(Mark mark, Event event) {
+            this.mark = mark;
+            this.event = event;
+        }
+    }
+}
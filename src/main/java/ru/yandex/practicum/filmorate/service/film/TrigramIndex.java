@@ -0,0 +1,139 @@
+package ru.yandex.practicum.filmorate.service.film;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Инвертированный индекс по триграммам (тройкам подряд идущих символов) текстов с числовыми ид.
+ * Для каждой триграммы хранится отсортированный список ид текстов, в которых она встречается.
+ * Подстрока длиной от трёх символов может быть только в текстах, содержащих все её триграммы, поэтому
+ * кандидаты - пересечение списков триграмм запроса, начиная с самого короткого; затем кандидаты
+ * проверяются на вхождение подстроки. Стоимость поиска зависит от длины списков, а не от количества текстов.
+ * Запросы короче трёх символов проверяются перебором всех текстов. Не потокобезопасен.
+ */
+final class TrigramIndex {
+    private static final int[] NOTHING = new int[0];
+    private final Map<Integer, String> texts = new HashMap<>();
+    private final Map<Long, Postings> postings = new HashMap<>();
+
+    void put(int id, String text) {
+        remove(id);
+        texts.put(id, text);
+        for (long trigram : trigrams(text)) {
+            postings.computeIfAbsent(trigram, key -> new Postings()).add(id);
+        }
+    }
+
+    void remove(int id) {
+        String old = texts.remove(id);
+        if (old == null) {
+            return;
+        }
+        for (long trigram : trigrams(old)) {
+            Postings list = postings.get(trigram);
+            list.remove(id);
+            if (list.size == 0) {
+                postings.remove(trigram);
+            }
+        }
+    }
+
+    /**
+     * @return ид текстов, содержащих query, по возрастанию.
+     */
+    int[] find(String query) {
+        if (query.length() < 3) {
+            return texts.entrySet().stream()
+                    .filter(entry -> entry.getValue().contains(query))
+                    .mapToInt(Map.Entry::getKey)
+                    .sorted()
+                    .toArray();
+        }
+        long[] queryTrigrams = trigrams(query);
+        Postings[] lists = new Postings[queryTrigrams.length];
+        for (int i = 0; i < queryTrigrams.length; i++) {
+            lists[i] = postings.get(queryTrigrams[i]);
+            if (lists[i] == null) {
+                return NOTHING;
+            }
+        }
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+        int[] candidates = Arrays.copyOf(lists[0].ids, lists[0].size);
+        int size = candidates.length;
+        for (int i = 1; i < lists.length && size > 0; i++) {
+            size = intersect(candidates, size, lists[i]);
+        }
+        int matched = 0;
+        for (int i = 0; i < size; i++) {
+            // Все триграммы есть, но не обязательно подряд
+            if (texts.get(candidates[i]).contains(query)) {
+                candidates[matched++] = candidates[i];
+            }
+        }
+        return Arrays.copyOf(candidates, matched);
+    }
+
+    int size() {
+        return texts.size();
+    }
+
+    // Оставляет в начале candidates ид, которые есть в list; возвращает их количество
+    private static int intersect(int[] candidates, int size, Postings list) {
+        int kept = 0;
+        int from = 0;
+        for (int i = 0; i < size && from < list.size; i++) {
+            // Кандидатов обычно намного меньше, чем ид в list, поэтому ищем двоичным поиском от прошлой позиции
+            int position = Arrays.binarySearch(list.ids, from, list.size, candidates[i]);
+            if (position >= 0) {
+                candidates[kept++] = candidates[i];
+                from = position + 1;
+            } else {
+                from = -position - 1;
+            }
+        }
+        return kept;
+    }
+
+    // Различные триграммы текста; символ занимает 16 бит, триграмма - 48 бит
+    private static long[] trigrams(String text) {
+        if (text.length() < 3) {
+            return new long[0];
+        }
+        long[] result = new long[text.length() - 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (long) text.charAt(i) << 32 | (long) text.charAt(i + 1) << 16 | text.charAt(i + 2);
+        }
+        return Arrays.stream(result).distinct().toArray();
+    }
+
+    private static final class Postings {
+        private int[] ids = new int[2];
+        private int size;
+
+        private void add(int id) {
+            // Новые фильмы получают возрастающие ид, поэтому обычно это добавление в конец
+            int position = size == 0 || ids[size - 1] < id ? size : Arrays.binarySearch(ids, 0, size, id);
+            if (position >= 0 && position < size) {
+                return;
+            }
+            if (position < 0) {
+                position = -position - 1;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = id;
+            size++;
+        }
+
+        private void remove(int id) {
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if (position >= 0) {
+                System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+                size--;
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package ru.yandex.practicum.filmorate.service.recommendation;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dao.MarkDao;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Рекомендации по модели матричного разложения ({@link FactorModel}, обучение - {@link AlsTrainer}).
+ * Модель обучается в фоне по расписанию. Если задан путь снимка (по умолчанию не задан), модель сохраняется
+ * в файл и при старте читается из него: снимок с неверной контрольной суммой или размерами отвергается,
+ * а принятый снимок отдаёт рекомендации до переобучения, которое запускается через snapshot-retrain-delay-ms,
+ * так как оценки могли измениться, пока приложение не работало. Без снимка модель обучается сразу.
+ * Новая модель подменяет старую одной записью ссылки, поэтому запросы не ждут обучения и всегда видят
+ * целую модель. Пока модели нет, рекомендаций по ней тоже нет.
+ */
+@Slf4j
+@Component
+public class AlsRecommender {
+    private final MarkDao markDao;
+    private final RatingMatrix ratingMatrix;
+    private final boolean enabled;
+    private final long retrainIntervalMillis;
+    private final long snapshotRetrainDelayMillis;
+    private final Path snapshotPath;
+    private final ExecutorService trainingPool;
+    private final AlsTrainer trainer;
+    private ScheduledExecutorService scheduler;
+    private volatile FactorModel model;
+    private final LongAdder trainings = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    public AlsRecommender(MarkDao markDao,
+                          RatingMatrix ratingMatrix,
+                          MeterRegistry meterRegistry,
+                          @Value("${filmorate.recommendations.als.enabled:true}") boolean enabled,
+                          @Value("${filmorate.recommendations.als.rank:32}") int rank,
+                          @Value("${filmorate.recommendations.als.iterations:10}") int iterations,
+                          @Value("${filmorate.recommendations.als.regularization:0.1}") double regularization,
+                          @Value("${filmorate.recommendations.als.threads:2}") int threads,
+                          @Value("${filmorate.recommendations.als.retrain-interval-ms:3600000}")
+                          long retrainIntervalMillis,
+                          @Value("${filmorate.recommendations.als.snapshot-retrain-delay-ms:60000}")
+                          long snapshotRetrainDelayMillis,
+                          @Value("${filmorate.recommendations.als.snapshot-path:}") String snapshotPath) {
+        this.markDao = markDao;
+        this.ratingMatrix = ratingMatrix;
+        this.enabled = enabled;
+        this.retrainIntervalMillis = retrainIntervalMillis;
+        this.snapshotRetrainDelayMillis = snapshotRetrainDelayMillis;
+        this.snapshotPath = snapshotPath.isEmpty() ? null : Paths.get(snapshotPath);
+        this.trainingPool = Executors.newFixedThreadPool(threads, daemonThreads("als-trainer-"));
+        this.trainer = new AlsTrainer(rank, iterations, regularization, trainingPool, threads);
+        FunctionCounter.builder("filmorate.recommendations.als.trainings", trainings, LongAdder::sum)
+                .description("Обучения модели рекомендаций")
+                .register(meterRegistry);
+        FunctionCounter.builder("filmorate.recommendations.als.failures", failures, LongAdder::sum)
+                .description("Обучения модели рекомендаций, завершившиеся ошибкой")
+                .register(meterRegistry);
+        Gauge.builder("filmorate.recommendations.als.model-age", this, AlsRecommender::getModelAgeSeconds)
+                .description("Возраст модели рекомендаций, секунды")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        if (snapshotPath != null && Files.exists(snapshotPath)) {
+            try {
+                model = FactorModel.readSnapshot(snapshotPath);
+                log.info("Модель рекомендаций загружена из {}: пользователей {}, фильмов {}, переобучение через {} мс.",
+                        snapshotPath, model.getUserCount(), model.getFilmCount(),
+                        Math.min(snapshotRetrainDelayMillis, retrainIntervalMillis));
+            } catch (IOException e) {
+                log.warn("Не удалось прочитать снимок модели рекомендаций {}: {}", snapshotPath, e.getMessage());
+            }
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("als-scheduler-"));
+        scheduler.scheduleWithFixedDelay(this::retrainQuietly,
+                model == null ? 0 : Math.min(snapshotRetrainDelayMillis, retrainIntervalMillis),
+                retrainIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Ид фильмов с наибольшим прогнозом оценки, кроме уже оценённых пользователем.
+     *
+     * @return не больше limit ид по убыванию прогноза или null, если модели нет или пользователь появился
+     * после обучения.
+     */
+    public int[] getRankedFilmIds(int userId, int limit) {
+        FactorModel current = model;
+        if (current == null) {
+            return null;
+        }
+        return current.recommend(userId, ratingMatrix.getUserRatings(userId), limit);
+    }
+
+    public FactorModel getModel() {
+        return model;
+    }
+
+    /**
+     * Обучение новой модели по текущим оценкам, сохранение снимка и подмена активной модели.
+     * Одновременно идёт не больше одного обучения.
+     */
+    public synchronized FactorModel retrain() throws InterruptedException {
+        long start = System.nanoTime();
+        FactorModel trained = trainer.train(markDao);
+        trainings.increment();
+        if (trained == null) {
+            log.info("Модель рекомендаций не обучена: оценок нет.");
+            return null;
+        }
+        if (snapshotPath != null) {
+            try {
+                trained.writeSnapshot(snapshotPath);
+            } catch (IOException e) {
+                log.warn("Не удалось сохранить снимок модели рекомендаций {}: {}", snapshotPath, e.getMessage());
+            }
+        }
+        model = trained;
+        log.info("Модель рекомендаций обучена за {} мс: пользователей {}, фильмов {}.",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), trained.getUserCount(),
+                trained.getFilmCount());
+        return trained;
+    }
+
+    public double getModelAgeSeconds() {
+        FactorModel current = model;
+        return current == null ? Double.NaN : (System.currentTimeMillis() - current.getTrainedAt()) / 1000.0;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        trainingPool.shutdownNow();
+    }
+
+    // Ошибка обучения не должна отменять следующие запуски по расписанию
+    private void retrainQuietly() {
+        try {
+            retrain();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            failures.increment();
+            log.error("Ошибка при обучении модели рекомендаций.", e);
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger number = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,241 @@
+package ru.yandex.practicum.filmorate.service.recommendation;
+
+import ru.yandex.practicum.filmorate.dao.MarkDao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Обучение {@link FactorModel} методом чередующихся наименьших квадратов (ALS) по явным оценкам.
+ * Оценки читаются потоком из БД в два компактных разреженных представления: по пользователям и по фильмам.
+ * На каждой итерации при зафиксированных факторах фильмов факторы каждого пользователя находятся точно,
+ * как решение системы rank x rank, затем наоборот. Строки решаются независимо, поэтому делятся на части
+ * и считаются в пуле потоков. Регуляризация пропорциональна количеству оценок строки (weighted-lambda).
+ */
+final class AlsTrainer {
+    // Частей на поток пула: строки с разным количеством оценок выравниваются очередью задач
+    private static final int CHUNKS_PER_THREAD = 4;
+    private final int rank;
+    private final int iterations;
+    private final double regularization;
+    private final ExecutorService pool;
+    private final int threads;
+
+    AlsTrainer(int rank, int iterations, double regularization, ExecutorService pool, int threads) {
+        this.rank = rank;
+        this.iterations = iterations;
+        this.regularization = regularization;
+        this.pool = pool;
+        this.threads = threads;
+    }
+
+    /**
+     * @return обученная модель или null, если оценок нет.
+     */
+    FactorModel train(MarkDao markDao) throws InterruptedException {
+        Marks marks = new Marks();
+        markDao.forEachMark(marks);
+        if (marks.size == 0) {
+            return null;
+        }
+        marks.finish();
+        float mean = (float) (marks.sum / marks.size);
+        float[] userValues = new float[marks.size];
+        for (int i = 0; i < marks.size; i++) {
+            userValues[i] = marks.values[i] - mean;
+        }
+        // Представление по фильмам - сортировка подсчётом, пользователи в строке фильма идут по возрастанию
+        int filmCount = marks.filmIds.length;
+        int[] filmOffsets = new int[filmCount + 1];
+        for (int i = 0; i < marks.size; i++) {
+            filmOffsets[marks.columns[i] + 1]++;
+        }
+        for (int film = 0; film < filmCount; film++) {
+            filmOffsets[film + 1] += filmOffsets[film];
+        }
+        int[] filmColumns = new int[marks.size];
+        float[] filmValues = new float[marks.size];
+        int[] cursors = Arrays.copyOf(filmOffsets, filmCount);
+        int userCount = marks.userCount;
+        for (int user = 0; user < userCount; user++) {
+            for (int i = marks.userOffsets[user]; i < marks.userOffsets[user + 1]; i++) {
+                int position = cursors[marks.columns[i]]++;
+                filmColumns[position] = user;
+                filmValues[position] = userValues[i];
+            }
+        }
+
+        // Постоянное зерно: при тех же оценках получается та же модель
+        SplittableRandom random = new SplittableRandom(42);
+        float[] filmFactors = new float[filmCount * rank];
+        for (int i = 0; i < filmFactors.length; i++) {
+            filmFactors[i] = (float) (random.nextDouble() * 0.1);
+        }
+        float[] userFactors = new float[userCount * rank];
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            solveRows(marks.userOffsets, marks.columns, userValues, filmFactors, userFactors);
+            solveRows(filmOffsets, filmColumns, filmValues, userFactors, filmFactors);
+        }
+        return new FactorModel(rank, mean, System.currentTimeMillis(), marks.userIds, userFactors,
+                marks.filmIds, filmFactors);
+    }
+
+    // Факторы всех строк target при зафиксированных факторах столбцов fixed
+    private void solveRows(int[] offsets, int[] columns, float[] values, float[] fixed, float[] target)
+            throws InterruptedException {
+        int rows = offsets.length - 1;
+        int chunkSize = Math.max(1, rows / (threads * CHUNKS_PER_THREAD));
+        List<Callable<Void>> chunks = new ArrayList<>();
+        for (int from = 0; from < rows; from += chunkSize) {
+            int fromRow = from;
+            int toRow = Math.min(rows, from + chunkSize);
+            chunks.add(() -> {
+                double[] matrix = new double[rank * rank];
+                double[] vector = new double[rank];
+                for (int row = fromRow; row < toRow; row++) {
+                    solveRow(offsets[row], offsets[row + 1], columns, values, fixed, matrix, vector);
+                    for (int f = 0; f < rank; f++) {
+                        target[row * rank + f] = (float) vector[f];
+                    }
+                }
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> chunk : pool.invokeAll(chunks)) {
+                chunk.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Ошибка при обучении модели", e.getCause());
+        }
+    }
+
+    // (Y^T Y + lambda * n * I) x = Y^T r по оценкам строки [from, to); результат в vector
+    private void solveRow(int from, int to, int[] columns, float[] values, float[] fixed,
+                          double[] matrix, double[] vector) {
+        Arrays.fill(matrix, 0);
+        Arrays.fill(vector, 0);
+        for (int p = from; p < to; p++) {
+            int offset = columns[p] * rank;
+            double value = values[p];
+            for (int i = 0; i < rank; i++) {
+                double y = fixed[offset + i];
+                vector[i] += value * y;
+                // Матрица симметричная, заполняется нижний треугольник
+                for (int j = 0; j <= i; j++) {
+                    matrix[i * rank + j] += y * fixed[offset + j];
+                }
+            }
+        }
+        double lambda = regularization * (to - from);
+        for (int i = 0; i < rank; i++) {
+            matrix[i * rank + i] += lambda;
+        }
+        solveCholesky(matrix, vector, rank);
+    }
+
+    /**
+     * Решение A x = b для симметричной положительно определённой A по нижнему треугольнику, разложением
+     * Холецкого на месте: A заменяется на L, b - на x.
+     */
+    private static void solveCholesky(double[] a, double[] b, int n) {
+        for (int j = 0; j < n; j++) {
+            double diagonal = a[j * n + j];
+            for (int k = 0; k < j; k++) {
+                diagonal -= a[j * n + k] * a[j * n + k];
+            }
+            diagonal = Math.sqrt(diagonal);
+            a[j * n + j] = diagonal;
+            for (int i = j + 1; i < n; i++) {
+                double sum = a[i * n + j];
+                for (int k = 0; k < j; k++) {
+                    sum -= a[i * n + k] * a[j * n + k];
+                }
+                a[i * n + j] = sum / diagonal;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            double sum = b[i];
+            for (int k = 0; k < i; k++) {
+                sum -= a[i * n + k] * b[k];
+            }
+            b[i] = sum / a[i * n + i];
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            double sum = b[i];
+            for (int k = i + 1; k < n; k++) {
+                sum -= a[k * n + i] * b[k];
+            }
+            b[i] = sum / a[i * n + i];
+        }
+    }
+
+    /**
+     * Оценки в порядке ид пользователя и фильма (так их отдаёт forEachMark) в виде строк пользователей:
+     * оценки пользователя i занимают [userOffsets[i], userOffsets[i + 1]). Пока идёт чтение, в columns
+     * лежат ид фильмов, после finish - номера фильмов в отсортированном filmIds.
+     */
+    private static final class Marks implements MarkDao.MarkHandler {
+        private int[] userIds = new int[1024];
+        private int[] userOffsets = new int[1025];
+        private int userCount;
+        private int[] columns = new int[4096];
+        private float[] values = new float[4096];
+        private int size;
+        private double sum;
+        private int maxFilmId;
+        private int[] filmIds;
+
+        @Override
+        public void accept(int userId, int filmId, int mark) {
+            if (userCount == 0 || userIds[userCount - 1] != userId) {
+                if (userCount == userIds.length) {
+                    userIds = Arrays.copyOf(userIds, userCount * 2);
+                    userOffsets = Arrays.copyOf(userOffsets, userCount * 2 + 1);
+                }
+                userIds[userCount] = userId;
+                userOffsets[userCount++] = size;
+            }
+            if (size == columns.length) {
+                columns = Arrays.copyOf(columns, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            columns[size] = filmId;
+            values[size++] = mark;
+            sum += mark;
+            maxFilmId = Math.max(maxFilmId, filmId);
+        }
+
+        private void finish() {
+            userOffsets = Arrays.copyOf(userOffsets, userCount + 1);
+            userOffsets[userCount] = size;
+            userIds = Arrays.copyOf(userIds, userCount);
+            boolean[] rated = new boolean[maxFilmId + 1];
+            int filmCount = 0;
+            for (int i = 0; i < size; i++) {
+                if (!rated[columns[i]]) {
+                    rated[columns[i]] = true;
+                    filmCount++;
+                }
+            }
+            filmIds = new int[filmCount];
+            int[] filmIndex = new int[maxFilmId + 1];
+            int film = 0;
+            for (int filmId = 0; filmId <= maxFilmId; filmId++) {
+                if (rated[filmId]) {
+                    filmIds[film] = filmId;
+                    filmIndex[filmId] = film++;
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                columns[i] = filmIndex[columns[i]];
+            }
+        }
+    }
+}
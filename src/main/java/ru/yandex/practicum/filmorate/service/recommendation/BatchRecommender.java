@@ -0,0 +1,100 @@
+package ru.yandex.practicum.filmorate.service.recommendation;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * Рекомендации сразу для блока пользователей (пакетная выдача для рассылок).
+ * Все пользователи считаются по одной матрице оценок в памяти; блок делится на части, которые считаются
+ * в отдельном пуле потоков, поэтому пакетная выдача не занимает потоки обработки запросов.
+ * Кэш {@link RecommendationCache} не используется, чтобы проход по всем пользователям не вытеснял
+ * из него записи активных пользователей.
+ */
+@Component
+public class BatchRecommender {
+    private final Recommender recommender;
+    private final int parallelism;
+    private final ExecutorService pool;
+    private final LongAdder users = new LongAdder();
+
+    public BatchRecommender(Recommender recommender,
+                            MeterRegistry meterRegistry,
+                            @Value("${filmorate.recommendations.batch.parallelism:4}") int parallelism) {
+        this.recommender = recommender;
+        this.parallelism = parallelism;
+        AtomicInteger number = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "recommendation-batch-" + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        FunctionCounter.builder("filmorate.recommendations.batch.users", users, LongAdder::sum)
+                .description("Пользователи, для которых рекомендации посчитаны пакетно")
+                .register(meterRegistry);
+    }
+
+    /**
+     * См. {@link Recommender#getFilmIdsForRecommendations}.
+     *
+     * @return ид фильмов для каждого пользователя в порядке userIds.
+     */
+    public int[][] getFilmIdsForRecommendations(int[] userIds) {
+        return recommend(userIds, recommender::getFilmIdsForRecommendations);
+    }
+
+    /**
+     * См. {@link Recommender#getRankedFilmIds}.
+     *
+     * @return ид фильмов для каждого пользователя в порядке userIds.
+     */
+    public int[][] getRankedFilmIds(int[] userIds, int k, int limit) {
+        return recommend(userIds, userId -> recommender.getRankedFilmIds(userId, k, limit));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private int[][] recommend(int[] userIds, IntFunction<int[]> recommendation) {
+        int[][] result = new int[userIds.length][];
+        int chunkSize = Math.max(1, (userIds.length + parallelism - 1) / parallelism);
+        List<Callable<Void>> chunks = new ArrayList<>();
+        for (int from = 0; from < userIds.length; from += chunkSize) {
+            int fromIndex = from;
+            int toIndex = Math.min(userIds.length, from + chunkSize);
+            chunks.add(() -> {
+                for (int i = fromIndex; i < toIndex; i++) {
+                    result[i] = recommendation.apply(userIds[i]);
+                }
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> chunk : pool.invokeAll(chunks)) {
+                chunk.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Пакетный расчёт рекомендаций прерван", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Ошибка при пакетном расчёте рекомендаций", e.getCause());
+        }
+        users.add(userIds.length);
+        return result;
+    }
+}
@@ -0,0 +1,125 @@
+package ru.yandex.practicum.filmorate.service.recommendation;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.service.recommendation.RatingMatrix.Ratings;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * Подсчёт совпадений пользователя со всеми со-оценившими (см. {@link NeighbourScorer}).
+ * Для пользователей, оценивших много фильмов, со-оценившие делятся на отрезки ид, которые считаются
+ * в отдельном пуле ForkJoin; размер пула ограничен, чтобы расчёт не занимал все ядра у потоков обработки
+ * запросов. Части не пересекаются по пользователям, поэтому результат совпадает с последовательным.
+ * Если просмотреть нужно меньше threshold оценок, расчёт выполняется в вызывающем потоке.
+ * Для фильмов расчёт тот же, со-оценённые фильмы делятся на отрезки ид фильмов.
+ */
+@Component
+public class CoRaterScorer {
+    // Отрезков на поток пула: неравномерные по количеству оценок отрезки выравниваются перехватом задач
+    private static final int RANGES_PER_THREAD = 4;
+    private final RatingMatrix ratingMatrix;
+    private final long threshold;
+    private final int parallelism;
+    private final ForkJoinPool pool;
+    private final LongAdder parallelComputations = new LongAdder();
+
+    public CoRaterScorer(RatingMatrix ratingMatrix,
+                         MeterRegistry meterRegistry,
+                         @Value("${filmorate.recommendations.parallel.threshold:200000}") long threshold,
+                         @Value("${filmorate.recommendations.parallel.parallelism:4}") int parallelism) {
+        this.ratingMatrix = ratingMatrix;
+        this.threshold = threshold;
+        this.parallelism = parallelism;
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("recommendation-scorer-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false) : null;
+        FunctionCounter.builder("filmorate.recommendations.parallel.computations", parallelComputations,
+                        LongAdder::sum)
+                .description("Расчёты похожести, выполненные в пуле ForkJoin")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Совпадения и сумма разниц оценок requester со всеми, кто оценил хотя бы один его фильм.
+     * Возвращённый накопитель нужно очистить после использования.
+     */
+    CoRaterScores score(int requesterId, Ratings requester) {
+        return score(ratingMatrix::getFilmRatings, ratingMatrix.getUserIdBound(), requesterId, requester);
+    }
+
+    // То же для фильма: совпадения с фильмами, которые оценил кто-то из оценивших его
+    CoRaterScores scoreFilm(int filmId, Ratings film) {
+        return score(ratingMatrix::getUserRatings, ratingMatrix.getFilmIdBound(), filmId, film);
+    }
+
+    public long getParallelComputationCount() {
+        return parallelComputations.sum();
+    }
+
+    private CoRaterScores score(IntFunction<Ratings> columns, int idBound, int requesterId, Ratings requester) {
+        if (pool == null || NeighbourScorer.countWork(columns, requester) < threshold) {
+            return NeighbourScorer.scoreCoRaters(columns, requesterId, requester);
+        }
+        parallelComputations.increment();
+        int rangeSize = Math.max(1, idBound / (parallelism * RANGES_PER_THREAD));
+        return pool.invoke(new RangeTask(columns, requesterId, requester, 0, idBound, rangeSize));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    private static final class RangeTask extends RecursiveTask<CoRaterScores> {
+        private final IntFunction<Ratings> columns;
+        private final int requesterId;
+        private final Ratings requester;
+        private final int fromId;
+        private final int toId;
+        private final int rangeSize;
+
+        private RangeTask(IntFunction<Ratings> columns, int requesterId, Ratings requester,
+                          int fromId, int toId, int rangeSize) {
+            this.columns = columns;
+            this.requesterId = requesterId;
+            this.requester = requester;
+            this.fromId = fromId;
+            this.toId = toId;
+            this.rangeSize = rangeSize;
+        }
+
+        @Override
+        protected CoRaterScores compute() {
+            if (toId - fromId <= rangeSize) {
+                // Накопитель потока здесь не подходит: поток пула может выполнять несколько задач одновременно
+                CoRaterScores scores = new CoRaterScores();
+                NeighbourScorer.scoreCoRaters(columns, requesterId, requester, fromId, toId, scores);
+                return scores;
+            }
+            int middle = fromId + (toId - fromId) / 2;
+            RangeTask left = new RangeTask(columns, requesterId, requester, fromId, middle, rangeSize);
+            left.fork();
+            CoRaterScores right = new RangeTask(columns, requesterId, requester, middle, toId, rangeSize).compute();
+            CoRaterScores leftScores = left.join();
+            if (leftScores.size() < right.size()) {
+                right.addAll(leftScores);
+                return right;
+            }
+            leftScores.addAll(right);
+            return leftScores;
+        }
+    }
+}
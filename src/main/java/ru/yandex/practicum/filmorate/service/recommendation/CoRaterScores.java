@@ -0,0 +1,107 @@
+package ru.yandex.practicum.filmorate.service.recommendation;
+
+/**
+ * Накопитель совпадений и суммы разниц оценок по пользователям (или фильмам): открытая адресация по int-ключам
+ * без упаковки. Объект переиспользуется между запросами одного потока, очищаются только занятые ячейки.
+ * Ид положительные, 0 обозначает пустую ячейку.
+ */
+final class CoRaterScores {
+    private static final int EMPTY = 0;
+    private int[] ids = new int[1024];
+    private int[] matches = new int[1024];
+    private int[] diffSums = new int[1024];
+    // Номера занятых ячеек в порядке добавления
+    private int[] used = new int[1024];
+    private int size;
+    // Накоплены не все со-оценившие, а только часть (кандидаты), см. UserMinHashIndex
+    private boolean partial;
+
+    void add(int id, int diff) {
+        add(id, 1, diff);
+    }
+
+    // Перенос накопленного в other, например, при слиянии результатов частей параллельного подсчёта
+    void addAll(CoRaterScores other) {
+        for (int k = 0; k < other.size(); k++) {
+            add(other.id(k), other.matches(k), other.diffSum(k));
+        }
+    }
+
+    void add(int id, int matchCount, int diff) {
+        if (size * 2 >= ids.length) {
+            grow();
+        }
+        int slot = find(ids, id);
+        if (ids[slot] == EMPTY) {
+            ids[slot] = id;
+            used[size++] = slot;
+        }
+        matches[slot] += matchCount;
+        diffSums[slot] += diff;
+    }
+
+    void markPartial() {
+        partial = true;
+    }
+
+    boolean isPartial() {
+        return partial;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Ид по порядковому номеру от 0 до size()
+    int id(int index) {
+        return ids[used[index]];
+    }
+
+    int matches(int index) {
+        return matches[used[index]];
+    }
+
+    int diffSum(int index) {
+        return diffSums[used[index]];
+    }
+
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            int slot = used[i];
+            ids[slot] = EMPTY;
+            matches[slot] = 0;
+            diffSums[slot] = 0;
+        }
+        size = 0;
+        partial = false;
+    }
+
+    private int find(int[] keys, int id) {
+        int mask = keys.length - 1;
+        int slot = (id * 0x9E3779B9) >>> 1 & mask;
+        while (keys[slot] != EMPTY && keys[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldIds = ids;
+        int[] oldMatches = matches;
+        int[] oldDiffSums = diffSums;
+        int[] oldUsed = used;
+        int capacity = oldIds.length * 2;
+        ids = new int[capacity];
+        matches = new int[capacity];
+        diffSums = new int[capacity];
+        used = new int[capacity];
+        for (int i = 0; i < size; i++) {
+            int oldSlot = oldUsed[i];
+            int slot = find(ids, oldIds[oldSlot]);
+            ids[slot] = oldIds[oldSlot];
+            matches[slot] = oldMatches[oldSlot];
+            diffSums[slot] = oldDiffSums[oldSlot];
+            used[i] = slot;
+        }
+    }
+}
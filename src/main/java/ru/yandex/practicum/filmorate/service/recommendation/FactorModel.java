@@ -0,0 +1,211 @@
+package ru.yandex.practicum.filmorate.service.recommendation;
+
+import ru.yandex.practicum.filmorate.service.recommendation.RatingMatrix.Ratings;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Обученная модель матричного разложения: скрытые факторы пользователей и фильмов размерности rank.
+ * Прогноз оценки пользователя фильму - скалярное произведение их факторов (плюс средняя оценка), поэтому
+ * рекомендации - это фильмы с наибольшим произведением. Ид отсортированы, факторы лежат подряд в массивах
+ * float: строка i занимает [i * rank, (i + 1) * rank). Модель неизменяемая.
+ * Снимок модели заканчивается контрольной суммой CRC32 всего содержимого, поэтому обрезанный или испорченный
+ * файл при чтении отвергается.
+ */
+public final class FactorModel {
+    // "FMF2"
+    private static final int SNAPSHOT_MAGIC = 0x464D4632;
+    private final int rank;
+    private final float mean;
+    private final long trainedAt;
+    private final int[] userIds;
+    private final float[] userFactors;
+    private final int[] filmIds;
+    private final float[] filmFactors;
+
+    FactorModel(int rank, float mean, long trainedAt, int[] userIds, float[] userFactors,
+                int[] filmIds, float[] filmFactors) {
+        this.rank = rank;
+        this.mean = mean;
+        this.trainedAt = trainedAt;
+        this.userIds = userIds;
+        this.userFactors = userFactors;
+        this.filmIds = filmIds;
+        this.filmFactors = filmFactors;
+    }
+
+    /**
+     * Лучшие по прогнозу фильмы для пользователя, кроме уже оценённых.
+     *
+     * @param rated текущие оценки пользователя.
+     * @return ид фильмов по убыванию прогноза, не больше limit, или null, если пользователя нет в модели.
+     */
+    public int[] recommend(int userId, Ratings rated, int limit) {
+        int user = Arrays.binarySearch(userIds, userId);
+        if (user < 0) {
+            return null;
+        }
+        int userOffset = user * rank;
+        TopScores top = new TopScores(limit);
+        int ratedCursor = 0;
+        for (int film = 0; film < filmIds.length; film++) {
+            int filmId = filmIds[film];
+            // Оба списка отсортированы по ид фильма
+            while (ratedCursor < rated.size() && rated.id(ratedCursor) < filmId) {
+                ratedCursor++;
+            }
+            if (ratedCursor < rated.size() && rated.id(ratedCursor) == filmId) {
+                continue;
+            }
+            int filmOffset = film * rank;
+            double score = 0;
+            for (int f = 0; f < rank; f++) {
+                score += userFactors[userOffset + f] * filmFactors[filmOffset + f];
+            }
+            top.offer(filmId, score);
+        }
+        return top.drainIds();
+    }
+
+    // Прогноз оценки или NaN, если пользователя или фильма нет в модели
+    public double predict(int userId, int filmId) {
+        int user = Arrays.binarySearch(userIds, userId);
+        int film = Arrays.binarySearch(filmIds, filmId);
+        if (user < 0 || film < 0) {
+            return Double.NaN;
+        }
+        double score = mean;
+        for (int f = 0; f < rank; f++) {
+            score += userFactors[user * rank + f] * filmFactors[film * rank + f];
+        }
+        return score;
+    }
+
+    public int getRank() {
+        return rank;
+    }
+
+    // Время окончания обучения, мс от начала эпохи
+    public long getTrainedAt() {
+        return trainedAt;
+    }
+
+    public int getUserCount() {
+        return userIds.length;
+    }
+
+    public int getFilmCount() {
+        return filmIds.length;
+    }
+
+    /**
+     * Запись модели в файл. Пишется во временный файл рядом, который затем переименовывается, поэтому
+     * читатель видит либо старый снимок, либо новый целиком.
+     */
+    public void writeSnapshot(Path path) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            CRC32 checksum = new CRC32();
+            try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp)), checksum))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(rank);
+                out.writeFloat(mean);
+                out.writeLong(trainedAt);
+                writeRows(out, userIds, userFactors);
+                writeRows(out, filmIds, filmFactors);
+                out.writeLong(checksum.getValue());
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Чтение модели из файла.
+     *
+     * @throws IOException если файл не является снимком модели, обрезан, испорчен или содержит
+     *                     несогласованные размеры и ид.
+     */
+    public static FactorModel readSnapshot(Path path) throws IOException {
+        // Ни один размер в снимке не может быть больше количества чисел в файле
+        long maxLength = Files.size(path) / Integer.BYTES;
+        CRC32 checksum = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(path)), checksum))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Файл " + path + " не является снимком модели");
+            }
+            int rank = in.readInt();
+            if (rank <= 0) {
+                throw new IOException("Неверная размерность модели в снимке " + path + ": " + rank);
+            }
+            checkLength(path, rank, maxLength);
+            float mean = in.readFloat();
+            long trainedAt = in.readLong();
+            int[] userIds = readIds(in, path, maxLength);
+            float[] userFactors = readFactors(in, path, (long) userIds.length * rank, maxLength);
+            int[] filmIds = readIds(in, path, maxLength);
+            float[] filmFactors = readFactors(in, path, (long) filmIds.length * rank, maxLength);
+            long expected = checksum.getValue();
+            if (in.readLong() != expected || in.read() != -1) {
+                throw new IOException("Контрольная сумма снимка модели " + path + " не совпадает");
+            }
+            return new FactorModel(rank, mean, trainedAt, userIds, userFactors, filmIds, filmFactors);
+        }
+    }
+
+    private static void writeRows(DataOutputStream out, int[] ids, float[] factors) throws IOException {
+        out.writeInt(ids.length);
+        for (int id : ids) {
+            out.writeInt(id);
+        }
+        for (float factor : factors) {
+            out.writeFloat(factor);
+        }
+    }
+
+    // Ид должны строго возрастать: по ним идёт двоичный поиск
+    private static int[] readIds(DataInputStream in, Path path, long maxLength) throws IOException {
+        int length = in.readInt();
+        checkLength(path, length, maxLength);
+        int[] ids = new int[length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = in.readInt();
+            if (i > 0 && ids[i] <= ids[i - 1]) {
+                throw new IOException("Ид в снимке модели " + path + " не упорядочены");
+            }
+        }
+        return ids;
+    }
+
+    private static float[] readFactors(DataInputStream in, Path path, long length, long maxLength)
+            throws IOException {
+        checkLength(path, length, maxLength);
+        float[] factors = new float[(int) length];
+        for (int i = 0; i < length; i++) {
+            factors[i] = in.readFloat();
+        }
+        return factors;
+    }
+
+    private static void checkLength(Path path, long length, long maxLength) throws IOException {
+        if (length < 0 || length > maxLength) {
+            throw new IOException("Неверный размер в снимке модели " + path + ": " + length);
+        }
+    }
+}
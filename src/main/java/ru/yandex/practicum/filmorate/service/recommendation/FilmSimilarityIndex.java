@@ -0,0 +1,57 @@
+package ru.yandex.practicum.filmorate.service.recommendation;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.service.recommendation.RatingMatrix.Ratings;
+
+/**
+ * Самые похожие фильмы по оценкам общих оценивших, см. {@link SimilarityIndex}.
+ * Мера та же, что у пользователей, с заменой строк на столбцы: она зависит только от общих оценивших пары,
+ * поэтому при изменении оценки пользователя u фильму f пересчитываются только пары f с фильмами, которые
+ * оценил u. У косинусной меры нормы зависят от всех оценок фильма, и изменение одной оценки меняло бы
+ * похожесть f со всеми фильмами.
+ */
+@Component
+public class FilmSimilarityIndex extends SimilarityIndex {
+    private final CoRaterScorer coRaterScorer;
+
+    public FilmSimilarityIndex(RatingMatrix ratingMatrix,
+                               CoRaterScorer coRaterScorer,
+                               MeterRegistry meterRegistry,
+                               @Value("${filmorate.recommendations.film-similarity.top-n:50}") int topN,
+                               @Value("${filmorate.recommendations.film-similarity.max-films:100000}") int maxFilms) {
+        super(ratingMatrix, meterRegistry, "filmorate.recommendations.film-similarity", "фильмов", topN, maxFilms);
+        this.coRaterScorer = coRaterScorer;
+    }
+
+    @Override
+    protected Ratings row(int filmId) {
+        return ratingMatrix.getFilmRatings(filmId);
+    }
+
+    @Override
+    protected Ratings column(int userId) {
+        return ratingMatrix.getUserRatings(userId);
+    }
+
+    @Override
+    CoRaterScores score(int filmId, Ratings film) {
+        return coRaterScorer.scoreFilm(filmId, film);
+    }
+
+    @Override
+    public void onMarkChanged(int userId, int filmId) {
+        onCellChanged(filmId, userId);
+    }
+
+    @Override
+    public void onUserRemoved(int userId, Ratings oldRatings) {
+        onColumnRemoved(oldRatings);
+    }
+
+    @Override
+    public void onFilmRemoved(int filmId, Ratings oldRatings) {
+        onRowRemoved(filmId);
+    }
+}
@@ -0,0 +1,120 @@
+package ru.yandex.practicum.filmorate.service.recommendation;
+
+import ru.yandex.practicum.filmorate.service.recommendation.RatingMatrix.Ratings;
+
+import java.util.function.IntFunction;
+
+/**
+ * Мера похожести пользователей: отношение суммы разниц оценок одних и тех же фильмов и корректирующего
+ * коэффициента к количеству таких фильмов. Чем меньше, тем пользователи похожее; при равенстве выше
+ * пользователь с большим количеством общих фильмов, затем с меньшим ид.
+ * Похожесть фильмов считается так же по оценкам общих оценивших: строки и столбцы матрицы меняются местами,
+ * поэтому методы принимают функцию получения столбца (columns).
+ */
+final class NeighbourScorer {
+    static final double CORRECTION_COEFFICIENT = 10;
+    // Накопитель на поток, переиспользуется между запросами
+    private static final ThreadLocal<CoRaterScores> SCORES = ThreadLocal.withInitial(CoRaterScores::new);
+
+    private NeighbourScorer() {
+    }
+
+    static double distance(int diffSum, int matches) {
+        return (diffSum + CORRECTION_COEFFICIENT) / matches;
+    }
+
+    // Отрицательное число, если первый пользователь похож больше второго
+    static int compare(int diffSumA, int matchesA, int userIdA, int diffSumB, int matchesB, int userIdB) {
+        int result = Double.compare(distance(diffSumA, matchesA), distance(diffSumB, matchesB));
+        if (result != 0) {
+            return result;
+        }
+        result = Integer.compare(matchesB, matchesA);
+        return result != 0 ? result : Integer.compare(userIdA, userIdB);
+    }
+
+    // Накопитель потока; его нужно очистить после использования
+    static CoRaterScores threadScores() {
+        return SCORES.get();
+    }
+
+    /**
+     * Совпадения и сумма разниц оценок requester со всеми, кто оценил хотя бы один его фильм.
+     * Возвращается накопитель потока: его нужно очистить после использования.
+     */
+    static CoRaterScores scoreCoRaters(IntFunction<Ratings> columns, int requesterId, Ratings requester) {
+        CoRaterScores scores = threadScores();
+        for (int i = 0; i < requester.size(); i++) {
+            int requesterMark = requester.mark(i);
+            Ratings film = columns.apply(requester.id(i));
+            for (int j = 0; j < film.size(); j++) {
+                int userId = film.id(j);
+                if (userId != requesterId) {
+                    scores.add(userId, Math.abs(requesterMark - film.mark(j)));
+                }
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * То же для со-оценивших с ид от fromId включительно до toId: строки фильмов отсортированы по ид
+     * пользователя, поэтому в каждой просматривается только нужный отрезок.
+     */
+    static void scoreCoRaters(IntFunction<Ratings> columns, int requesterId, Ratings requester,
+                              int fromId, int toId, CoRaterScores scores) {
+        for (int i = 0; i < requester.size(); i++) {
+            int requesterMark = requester.mark(i);
+            Ratings film = columns.apply(requester.id(i));
+            int j = film.indexOf(fromId);
+            for (j = j < 0 ? -j - 1 : j; j < film.size() && film.id(j) < toId; j++) {
+                int userId = film.id(j);
+                if (userId != requesterId) {
+                    scores.add(userId, Math.abs(requesterMark - film.mark(j)));
+                }
+            }
+        }
+    }
+
+    // Количество оценок со-оценивших, которые нужно просмотреть для requester
+    static long countWork(IntFunction<Ratings> columns, Ratings requester) {
+        long work = 0;
+        for (int i = 0; i < requester.size(); i++) {
+            work += columns.apply(requester.id(i)).size();
+        }
+        return work;
+    }
+
+    /**
+     * Совпадения и сумма разниц оценок двух пользователей слиянием их строк.
+     *
+     * @return количество совпадений в старших 32 битах, сумма разниц - в младших.
+     */
+    static long pairStats(Ratings a, Ratings b) {
+        int matches = 0;
+        int diffSum = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.size() && j < b.size()) {
+            int filmA = a.id(i);
+            int filmB = b.id(j);
+            if (filmA < filmB) {
+                i++;
+            } else if (filmA > filmB) {
+                j++;
+            } else {
+                matches++;
+                diffSum += Math.abs(a.mark(i++) - b.mark(j++));
+            }
+        }
+        return (long) matches << 32 | diffSum;
+    }
+
+    static int matches(long pairStats) {
+        return (int) (pairStats >>> 32);
+    }
+
+    static int diffSum(long pairStats) {
+        return (int) pairStats;
+    }
+}
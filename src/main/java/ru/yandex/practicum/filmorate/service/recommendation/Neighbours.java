@@ -0,0 +1,199 @@
+package ru.yandex.practicum.filmorate.service.recommendation;
+
+import java.util.Arrays;
+
+/**
+ * Самые похожие пользователи (или фильмы) по убыванию похожести, см. {@link NeighbourScorer}.
+ * Список - точное начало полного упорядоченного списка со-оценивших пользователей; complete означает,
+ * что других со-оценивших нет. Исключение - список, выбранный только из кандидатов {@link UserMinHashIndex}:
+ * он приближённый и всегда неполный. Список неизменяемый, изменения создают новый.
+ */
+public final class Neighbours {
+    static final Neighbours EMPTY = new Neighbours(new int[0], new int[0], new int[0], true);
+    private final int[] ids;
+    private final int[] matches;
+    private final int[] diffSums;
+    private final boolean complete;
+
+    private Neighbours(int[] ids, int[] matches, int[] diffSums, boolean complete) {
+        this.ids = ids;
+        this.matches = matches;
+        this.diffSums = diffSums;
+        this.complete = complete;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public int id(int index) {
+        return ids[index];
+    }
+
+    public int matches(int index) {
+        return matches[index];
+    }
+
+    public int diffSum(int index) {
+        return diffSums[index];
+    }
+
+    public double distance(int index) {
+        return NeighbourScorer.distance(diffSums[index], matches[index]);
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Выбор limit самых похожих из накопленных со-оценивших: ограниченная куча, в корне - наименее похожий
+     * из отобранных, поэтому все кандидаты не сортируются.
+     */
+    static Neighbours top(CoRaterScores scores, int limit) {
+        int size = Math.min(limit, scores.size());
+        int[] heap = new int[size];
+        int heapSize = 0;
+        for (int k = 0; k < scores.size(); k++) {
+            if (heapSize < size) {
+                heap[heapSize] = k;
+                siftUp(scores, heap, heapSize++);
+            } else if (size > 0 && compare(scores, k, heap[0]) < 0) {
+                heap[0] = k;
+                siftDown(scores, heap, heapSize);
+            }
+        }
+        int[] ids = new int[size];
+        int[] matches = new int[size];
+        int[] diffSums = new int[size];
+        // Извлечение из кучи даёт порядок от наименее похожего
+        for (int i = size - 1; i >= 0; i--) {
+            int k = heap[0];
+            ids[i] = scores.id(k);
+            matches[i] = scores.matches(k);
+            diffSums[i] = scores.diffSum(k);
+            heap[0] = heap[--heapSize];
+            siftDown(scores, heap, heapSize);
+        }
+        return new Neighbours(ids, matches, diffSums, !scores.isPartial() && scores.size() <= limit);
+    }
+
+    /**
+     * Список после изменения совпадений с пользователем (фильмом) id, matches = 0 - общих фильмов больше нет.
+     * Ставший менее похожим, чем последний в неполном списке, из списка убирается: между ними
+     * могут оказаться пользователи, которых в списке нет.
+     *
+     * @return новый список или null, если список стал слишком коротким и его нужно пересчитать.
+     */
+    Neighbours with(int id, int newMatches, int newDiffSum, int limit) {
+        int index = indexOf(id);
+        Neighbours updated = index < 0 ? this : without(index);
+        if (newMatches > 0) {
+            int last = updated.size() - 1;
+            boolean fits = updated.complete || last >= 0 && NeighbourScorer.compare(newDiffSum, newMatches, id,
+                    updated.diffSums[last], updated.matches[last], updated.ids[last]) < 0;
+            if (fits) {
+                updated = updated.insert(id, newMatches, newDiffSum, limit);
+            }
+        }
+        if (!updated.complete && updated.size() < (limit + 1) / 2) {
+            return null;
+        }
+        return updated;
+    }
+
+    private int indexOf(int id) {
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Neighbours without(int index) {
+        int[] newIds = new int[ids.length - 1];
+        int[] newMatches = new int[ids.length - 1];
+        int[] newDiffSums = new int[ids.length - 1];
+        System.arraycopy(ids, 0, newIds, 0, index);
+        System.arraycopy(matches, 0, newMatches, 0, index);
+        System.arraycopy(diffSums, 0, newDiffSums, 0, index);
+        System.arraycopy(ids, index + 1, newIds, index, ids.length - index - 1);
+        System.arraycopy(matches, index + 1, newMatches, index, ids.length - index - 1);
+        System.arraycopy(diffSums, index + 1, newDiffSums, index, ids.length - index - 1);
+        return new Neighbours(newIds, newMatches, newDiffSums, complete);
+    }
+
+    private Neighbours insert(int id, int newMatches, int newDiffSum, int limit) {
+        int index = 0;
+        while (index < ids.length && NeighbourScorer.compare(diffSums[index], matches[index], ids[index],
+                newDiffSum, newMatches, id) < 0) {
+            index++;
+        }
+        int size = Math.min(ids.length + 1, limit);
+        if (index >= size) {
+            return new Neighbours(ids, matches, diffSums, false);
+        }
+        int[] newIds = new int[size];
+        int[] newMatchesArray = new int[size];
+        int[] newDiffSums = new int[size];
+        System.arraycopy(ids, 0, newIds, 0, index);
+        System.arraycopy(matches, 0, newMatchesArray, 0, index);
+        System.arraycopy(diffSums, 0, newDiffSums, 0, index);
+        newIds[index] = id;
+        newMatchesArray[index] = newMatches;
+        newDiffSums[index] = newDiffSum;
+        System.arraycopy(ids, index, newIds, index + 1, size - index - 1);
+        System.arraycopy(matches, index, newMatchesArray, index + 1, size - index - 1);
+        System.arraycopy(diffSums, index, newDiffSums, index + 1, size - index - 1);
+        // Если последний не поместился, за списком остались пользователи
+        boolean newComplete = complete && ids.length + 1 <= limit;
+        return new Neighbours(newIds, newMatchesArray, newDiffSums, newComplete);
+    }
+
+    private static int compare(CoRaterScores scores, int a, int b) {
+        return NeighbourScorer.compare(scores.diffSum(a), scores.matches(a), scores.id(a),
+                scores.diffSum(b), scores.matches(b), scores.id(b));
+    }
+
+    // Куча упорядочена так, что в корне наименее похожий
+    private static void siftUp(CoRaterScores scores, int[] heap, int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (compare(scores, heap[index], heap[parent]) <= 0) {
+                return;
+            }
+            swap(heap, index, parent);
+            index = parent;
+        }
+    }
+
+    private static void siftDown(CoRaterScores scores, int[] heap, int size) {
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                return;
+            }
+            if (child + 1 < size && compare(scores, heap[child + 1], heap[child]) > 0) {
+                child++;
+            }
+            if (compare(scores, heap[index], heap[child]) >= 0) {
+                return;
+            }
+            swap(heap, index, child);
+            index = child;
+        }
+    }
+
+    private static void swap(int[] heap, int i, int j) {
+        int tmp = heap[i];
+        heap[i] = heap[j];
+        heap[j] = tmp;
+    }
+
+    @Override
+    public String toString() {
+        return "Neighbours" + Arrays.toString(ids) + (complete ? "" : "...");
+    }
+}
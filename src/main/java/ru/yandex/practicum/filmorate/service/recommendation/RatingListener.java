@@ -0,0 +1,21 @@
+package ru.yandex.practicum.filmorate.service.recommendation;
+
+import ru.yandex.practicum.filmorate.service.recommendation.RatingMatrix.Ratings;
+
+/**
+ * Получатель изменений матрицы оценок.
+ * Методы вызываются после того, как изменение применено в матрице, уже без её блокировки: вызовы о разных
+ * изменениях могут идти параллельно и не по порядку, поэтому получатель читает текущее состояние матрицы,
+ * а не полагается на порядок уведомлений.
+ */
+public interface RatingListener {
+    // Оценка пользователя фильму добавлена, изменена или удалена
+    void onMarkChanged(int userId, int filmId);
+
+    void onUserRemoved(int userId, Ratings oldRatings);
+
+    void onFilmRemoved(int filmId, Ratings oldRatings);
+
+    // Матрица загружена из БД заново
+    void onReloaded();
+}
@@ -0,0 +1,370 @@
+package ru.yandex.practicum.filmorate.service.recommendation;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dao.MarkDao;
+import ru.yandex.practicum.filmorate.model.Mark;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Разреженная матрица оценок в памяти для рекомендаций.
+ * Оценки хранятся дважды: по пользователям (ид фильмов и оценки) и по фильмам (ид пользователей и оценки),
+ * в каждой строке ид отсортированы и лежат в int[], оценки - в byte[]. Строки неизменяемые: при изменении
+ * оценки строка копируется и подменяется, поэтому чтение идёт без блокировок и без упаковки чисел.
+ * Матрица загружается из БД при старте и обновляется при изменении оценок, удалении пользователей и фильмов.
+ * Об изменениях сообщается зарегистрированным {@link RatingListener} после снятия блокировки матрицы,
+ * поэтому запись оценок не ждёт пересчёта индексов.
+ */
+@Slf4j
+@Component
+public class RatingMatrix {
+    private final MarkDao markDao;
+    // Индекс - ид пользователя или фильма; массивы растут под блокировкой матрицы
+    private volatile AtomicReferenceArray<Ratings> userRatings = new AtomicReferenceArray<>(0);
+    private volatile AtomicReferenceArray<Ratings> filmRatings = new AtomicReferenceArray<>(0);
+    private volatile long markCount;
+    private final List<RatingListener> listeners = new CopyOnWriteArrayList<>();
+
+    public RatingMatrix(MarkDao markDao, MeterRegistry meterRegistry) {
+        this.markDao = markDao;
+        Gauge.builder("filmorate.recommendations.matrix.marks", this, RatingMatrix::getMarkCount)
+                .description("Оценки в матрице рекомендаций")
+                .register(meterRegistry);
+    }
+
+    public void addListener(RatingListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Загрузка всех оценок из БД.
+     * Оценки читаются потоком в порядке ид пользователя и фильма, строки пользователей собираются сразу,
+     * строки фильмов - вторым проходом по подсчитанным размерам.
+     */
+    @PostConstruct
+    public void load() {
+        synchronized (this) {
+            loadMarks();
+        }
+        listeners.forEach(RatingListener::onReloaded);
+    }
+
+    private void loadMarks() {
+        Loader loader = new Loader();
+        markDao.forEachMark(loader);
+        loader.finishUser();
+        AtomicReferenceArray<Ratings> users = new AtomicReferenceArray<>(loader.users);
+        int[] filmSizes = new int[loader.maxFilmId + 1];
+        for (Ratings ratings : loader.users) {
+            if (ratings != null) {
+                for (int filmId : ratings.ids) {
+                    filmSizes[filmId]++;
+                }
+            }
+        }
+        int[][] filmUserIds = new int[filmSizes.length][];
+        byte[][] filmMarks = new byte[filmSizes.length][];
+        for (int filmId = 0; filmId < filmSizes.length; filmId++) {
+            filmUserIds[filmId] = new int[filmSizes[filmId]];
+            filmMarks[filmId] = new byte[filmSizes[filmId]];
+        }
+        // Пользователи перебираются по возрастанию ид, поэтому строки фильмов получаются отсортированными
+        int[] filled = new int[filmSizes.length];
+        for (int userId = 0; userId < loader.users.length; userId++) {
+            Ratings ratings = loader.users[userId];
+            if (ratings == null) {
+                continue;
+            }
+            for (int i = 0; i < ratings.ids.length; i++) {
+                int filmId = ratings.ids[i];
+                filmUserIds[filmId][filled[filmId]] = userId;
+                filmMarks[filmId][filled[filmId]++] = ratings.marks[i];
+            }
+        }
+        AtomicReferenceArray<Ratings> films = new AtomicReferenceArray<>(filmSizes.length);
+        for (int filmId = 0; filmId < filmSizes.length; filmId++) {
+            if (filmSizes[filmId] > 0) {
+                films.set(filmId, new Ratings(filmUserIds[filmId], filmMarks[filmId]));
+            }
+        }
+        userRatings = users;
+        filmRatings = films;
+        markCount = loader.markCount;
+        log.info("Матрица оценок загружена: оценок {}, пользователей до ид {}, фильмов до ид {}.",
+                loader.markCount, users.length() - 1, films.length() - 1);
+    }
+
+    // Оценки пользователя по возрастанию ид фильма
+    public Ratings getUserRatings(int userId) {
+        return get(userRatings, userId);
+    }
+
+    // Оценки фильма по возрастанию ид пользователя
+    public Ratings getFilmRatings(int filmId) {
+        return get(filmRatings, filmId);
+    }
+
+    // Верхняя граница ид пользователей в матрице
+    public int getUserIdBound() {
+        return userRatings.length();
+    }
+
+    // Верхняя граница ид фильмов в матрице
+    public int getFilmIdBound() {
+        return filmRatings.length();
+    }
+
+    public long getMarkCount() {
+        return markCount;
+    }
+
+    // Оценка пользователя фильму или null, если её нет
+    public Integer getMark(int userId, int filmId) {
+        Ratings user = getUserRatings(userId);
+        int index = user.indexOf(filmId);
+        return index < 0 ? null : user.mark(index);
+    }
+
+    /**
+     * Учёт записанных в БД оценок без обращения к БД.
+     */
+    public void addMarks(List<Mark> marks) {
+        if (marks.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            for (Mark mark : marks) {
+                put(mark.getUserId(), mark.getFilmId(), mark.getMark());
+            }
+        }
+        notifyMarksChanged(marks);
+    }
+
+    // Учёт удалённой из БД оценки без обращения к БД
+    public void removeMark(int userId, int filmId) {
+        synchronized (this) {
+            remove(userId, filmId);
+        }
+        listeners.forEach(listener -> listener.onMarkChanged(userId, filmId));
+    }
+
+    /**
+     * Перечитывание оценок из БД, когда их новые значения неизвестны.
+     * Из marks используются только ид пользователя и фильма: если оценки в БД уже нет, она удаляется из матрицы.
+     * Чтение выполняется под блокировкой матрицы, чтобы более старое значение не перезаписало более новое.
+     */
+    public void refresh(List<Mark> marks) {
+        if (marks.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            Map<Long, Integer> stored = new HashMap<>();
+            for (Mark mark : markDao.getMarks(marks)) {
+                stored.put(cellKey(mark.getUserId(), mark.getFilmId()), mark.getMark());
+            }
+            // Каждая ячейка меняется одной заменой строки и столбца: изменённая оценка не удаляется перед вставкой
+            for (Mark mark : marks) {
+                Integer value = stored.get(cellKey(mark.getUserId(), mark.getFilmId()));
+                if (value != null) {
+                    put(mark.getUserId(), mark.getFilmId(), value);
+                } else {
+                    remove(mark.getUserId(), mark.getFilmId());
+                }
+            }
+        }
+        notifyMarksChanged(marks);
+    }
+
+    public void refresh(int userId, int filmId) {
+        refresh(List.of(new Mark(userId, filmId, null)));
+    }
+
+    public void removeUser(int userId) {
+        Ratings ratings;
+        synchronized (this) {
+            ratings = getUserRatings(userId);
+            for (int filmId : ratings.ids) {
+                remove(userId, filmId);
+            }
+        }
+        listeners.forEach(listener -> listener.onUserRemoved(userId, ratings));
+    }
+
+    public void removeFilm(int filmId) {
+        Ratings ratings;
+        synchronized (this) {
+            ratings = getFilmRatings(filmId);
+            for (int userId : ratings.ids) {
+                remove(userId, filmId);
+            }
+        }
+        listeners.forEach(listener -> listener.onFilmRemoved(filmId, ratings));
+    }
+
+    private void notifyMarksChanged(List<Mark> marks) {
+        for (Mark mark : marks) {
+            listeners.forEach(listener -> listener.onMarkChanged(mark.getUserId(), mark.getFilmId()));
+        }
+    }
+
+    // Новая оценка вставляется, существующая заменяется; каждая из двух строк копируется один раз
+    private void put(int userId, int filmId, int mark) {
+        Ratings user = getUserRatings(userId);
+        int index = user.indexOf(filmId);
+        if (index >= 0 && user.mark(index) == mark) {
+            return;
+        }
+        if (index < 0) {
+            markCount++;
+        }
+        userRatings = set(userRatings, userId, user.with(filmId, mark));
+        filmRatings = set(filmRatings, filmId, getFilmRatings(filmId).with(userId, mark));
+    }
+
+    private void remove(int userId, int filmId) {
+        Ratings user = getUserRatings(userId);
+        if (user.indexOf(filmId) < 0) {
+            return;
+        }
+        markCount--;
+        userRatings = set(userRatings, userId, user.without(filmId));
+        filmRatings = set(filmRatings, filmId, getFilmRatings(filmId).without(userId));
+    }
+
+    private static long cellKey(int userId, int filmId) {
+        return (long) userId << 32 | filmId & 0xFFFFFFFFL;
+    }
+
+    private static Ratings get(AtomicReferenceArray<Ratings> rows, int id) {
+        if (id < 0 || id >= rows.length()) {
+            return Ratings.EMPTY;
+        }
+        Ratings ratings = rows.get(id);
+        return ratings == null ? Ratings.EMPTY : ratings;
+    }
+
+    // Массив увеличивается вдвое, если ид за его границей
+    private static AtomicReferenceArray<Ratings> set(AtomicReferenceArray<Ratings> rows, int id, Ratings ratings) {
+        if (id >= rows.length()) {
+            AtomicReferenceArray<Ratings> grown = new AtomicReferenceArray<>(Math.max(id + 1, rows.length() * 2));
+            for (int i = 0; i < rows.length(); i++) {
+                grown.set(i, rows.get(i));
+            }
+            rows = grown;
+        }
+        rows.set(id, ratings.size() == 0 ? null : ratings);
+        return rows;
+    }
+
+    /**
+     * Строка матрицы: отсортированные ид (фильмов для пользователя, пользователей для фильма) и оценки.
+     */
+    public static final class Ratings {
+        static final Ratings EMPTY = new Ratings(new int[0], new byte[0]);
+        private final int[] ids;
+        private final byte[] marks;
+
+        private Ratings(int[] ids, byte[] marks) {
+            this.ids = ids;
+            this.marks = marks;
+        }
+
+        public int size() {
+            return ids.length;
+        }
+
+        public int id(int index) {
+            return ids[index];
+        }
+
+        public int mark(int index) {
+            return marks[index];
+        }
+
+        // Позиция ид в строке или отрицательное число, если его нет
+        public int indexOf(int id) {
+            return Arrays.binarySearch(ids, id);
+        }
+
+        // При замене оценки массив ид общий со старой строкой, копируются только оценки
+        private Ratings with(int id, int mark) {
+            int index = indexOf(id);
+            if (index >= 0) {
+                byte[] newMarks = marks.clone();
+                newMarks[index] = (byte) mark;
+                return new Ratings(ids, newMarks);
+            }
+            index = -index - 1;
+            int[] newIds = new int[ids.length + 1];
+            byte[] newMarks = new byte[ids.length + 1];
+            System.arraycopy(ids, 0, newIds, 0, index);
+            System.arraycopy(marks, 0, newMarks, 0, index);
+            newIds[index] = id;
+            newMarks[index] = (byte) mark;
+            System.arraycopy(ids, index, newIds, index + 1, ids.length - index);
+            System.arraycopy(marks, index, newMarks, index + 1, ids.length - index);
+            return new Ratings(newIds, newMarks);
+        }
+
+        private Ratings without(int id) {
+            int index = indexOf(id);
+            if (index < 0) {
+                return this;
+            }
+            int[] newIds = new int[ids.length - 1];
+            byte[] newMarks = new byte[ids.length - 1];
+            System.arraycopy(ids, 0, newIds, 0, index);
+            System.arraycopy(marks, 0, newMarks, 0, index);
+            System.arraycopy(ids, index + 1, newIds, index, ids.length - index - 1);
+            System.arraycopy(marks, index + 1, newMarks, index, ids.length - index - 1);
+            return new Ratings(newIds, newMarks);
+        }
+    }
+
+    // Сборка строк пользователей из потока оценок, упорядоченного по ид пользователя и фильма
+    private static final class Loader implements MarkDao.MarkHandler {
+        private Ratings[] users = new Ratings[16];
+        private int[] filmIds = new int[16];
+        private byte[] marks = new byte[16];
+        private int size;
+        private int userId = -1;
+        private int maxFilmId;
+        private long markCount;
+
+        @Override
+        public void accept(int userId, int filmId, int mark) {
+            if (userId != this.userId) {
+                finishUser();
+                this.userId = userId;
+            }
+            if (size == filmIds.length) {
+                filmIds = Arrays.copyOf(filmIds, size * 2);
+                marks = Arrays.copyOf(marks, size * 2);
+            }
+            filmIds[size] = filmId;
+            marks[size++] = (byte) mark;
+            maxFilmId = Math.max(maxFilmId, filmId);
+            markCount++;
+        }
+
+        private void finishUser() {
+            if (size == 0) {
+                return;
+            }
+            if (userId >= users.length) {
+                users = Arrays.copyOf(users, Math.max(userId + 1, users.length * 2));
+            }
+            users[userId] = new Ratings(Arrays.copyOf(filmIds, size), Arrays.copyOf(marks, size));
+            size = 0;
+        }
+    }
+}
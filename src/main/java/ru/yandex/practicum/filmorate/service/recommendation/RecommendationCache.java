@@ -0,0 +1,220 @@
+package ru.yandex.practicum.filmorate.service.recommendation;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.service.recommendation.RatingMatrix.Ratings;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Кэш посчитанных {@link Recommender} ид рекомендованных фильмов, по одной записи на пользователя для каждого
+ * режима; для голосования k похожих хранится результат с последними запрошенными k и limit.
+ * Запись удаляется, когда пользователь ставит, меняет или удаляет оценку. Изменения у похожих пользователей
+ * проверяются лениво при чтении: запись устарела, если сохранённый в {@link UserSimilarityIndex} список
+ * похожих заменён или кто-то из использованных похожих менял оценки после расчёта. Если рекомендации
+ * искались перебором всех со-оценивших, запись устаревает при любом изменении матрицы.
+ * Хранятся только ид, фильмы собираются при каждом запросе. В каждом режиме хранится не больше
+ * max-size записей, давно не запрошенные вытесняются.
+ */
+@Component
+public class RecommendationCache implements RatingListener {
+    private final Recommender recommender;
+    private final UserSimilarityIndex similarityIndex;
+    private final Map<Integer, Entry> entries;
+    private final Map<Integer, Entry> rankedEntries;
+    // Номер последнего изменения матрицы и номера последних изменений оценок каждого пользователя
+    private long version;
+    private long[] userVersions = new long[0];
+    // Записи, посчитанные до перезагрузки матрицы, устарели
+    private long reloadVersion;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public RecommendationCache(Recommender recommender,
+                               UserSimilarityIndex similarityIndex,
+                               RatingMatrix ratingMatrix,
+                               MeterRegistry meterRegistry,
+                               @Value("${filmorate.recommendations.cache.max-size:100000}") int maxSize) {
+        this.recommender = recommender;
+        this.similarityIndex = similarityIndex;
+        this.entries = lruMap(maxSize);
+        this.rankedEntries = lruMap(maxSize);
+        FunctionCounter.builder("filmorate.recommendations.cache.hits", hits, LongAdder::sum)
+                .description("Рекомендации, возвращённые из кэша")
+                .register(meterRegistry);
+        FunctionCounter.builder("filmorate.recommendations.cache.misses", misses, LongAdder::sum)
+                .description("Рекомендации, которых не было в кэше")
+                .register(meterRegistry);
+        FunctionCounter.builder("filmorate.recommendations.cache.stale", stale, LongAdder::sum)
+                .description("Рекомендации, устаревшие из-за изменений у похожих пользователей")
+                .register(meterRegistry);
+        FunctionCounter.builder("filmorate.recommendations.cache.invalidations", invalidations, LongAdder::sum)
+                .description("Записи, удалённые после изменения оценок пользователя")
+                .register(meterRegistry);
+        Gauge.builder("filmorate.recommendations.cache.hit-ratio", this, RecommendationCache::getHitRatio)
+                .description("Доля запросов рекомендаций, обслуженных из кэша")
+                .register(meterRegistry);
+        Gauge.builder("filmorate.recommendations.cache.size", this, RecommendationCache::size)
+                .description("Записи в кэше рекомендаций")
+                .register(meterRegistry);
+        ratingMatrix.addListener(this);
+    }
+
+    /**
+     * См. {@link Recommender#getFilmIdsForRecommendations}.
+     */
+    public int[] getFilmIdsForRecommendations(int userId) {
+        return get(entries, userId, 0, 0, () -> recommender.recommend(userId));
+    }
+
+    /**
+     * См. {@link Recommender#getRankedFilmIds}.
+     */
+    public int[] getRankedFilmIds(int userId, int k, int limit) {
+        return get(rankedEntries, userId, k, limit, () -> recommender.recommendRanked(userId, k, limit));
+    }
+
+    // Доля попаданий среди всех запросов, устаревшие записи считаются промахами
+    public double getHitRatio() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum() + stale.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getStaleCount() {
+        return stale.sum();
+    }
+
+    public long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    public synchronized int size() {
+        return entries.size() + rankedEntries.size();
+    }
+
+    @Override
+    public synchronized void onMarkChanged(int userId, int filmId) {
+        changed(userId);
+    }
+
+    @Override
+    public synchronized void onUserRemoved(int userId, Ratings oldRatings) {
+        changed(userId);
+    }
+
+    @Override
+    public synchronized void onFilmRemoved(int filmId, Ratings oldRatings) {
+        for (int i = 0; i < oldRatings.size(); i++) {
+            changed(oldRatings.id(i));
+        }
+    }
+
+    @Override
+    public synchronized void onReloaded() {
+        entries.clear();
+        rankedEntries.clear();
+        userVersions = new long[0];
+        reloadVersion = ++version;
+    }
+
+    private int[] get(Map<Integer, Entry> entries, int userId, int k, int limit,
+                      Supplier<Recommender.Result> compute) {
+        Entry entry;
+        long computeVersion;
+        synchronized (this) {
+            entry = entries.get(userId);
+            computeVersion = version;
+        }
+        if (entry == null || entry.k != k || entry.limit != limit) {
+            misses.increment();
+        } else if (isFresh(userId, entry)) {
+            hits.increment();
+            return entry.result.filmIds;
+        } else {
+            stale.increment();
+        }
+        // Изменения во время расчёта видны при проверке записи: номер версии взят до расчёта
+        Recommender.Result result = compute.get();
+        synchronized (this) {
+            entries.put(userId, new Entry(k, limit, result, computeVersion));
+        }
+        return result.filmIds;
+    }
+
+    private boolean isFresh(int userId, Entry entry) {
+        Recommender.Result result = entry.result;
+        // Получение списка может его посчитать, поэтому вне блокировки кэша
+        if (result.neighbours != null && similarityIndex.getNeighbours(userId) != result.neighbours) {
+            return false;
+        }
+        synchronized (this) {
+            if (entry.version < reloadVersion || userVersion(userId) > entry.version) {
+                return false;
+            }
+            if (result.fullScan) {
+                return version == entry.version;
+            }
+            for (int i = 0; i < result.usedNeighbours; i++) {
+                if (userVersion(result.neighbours.id(i)) > entry.version) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private void changed(int userId) {
+        if (entries.remove(userId) != null) {
+            invalidations.increment();
+        }
+        if (rankedEntries.remove(userId) != null) {
+            invalidations.increment();
+        }
+        if (userId >= userVersions.length) {
+            userVersions = Arrays.copyOf(userVersions, Math.max(userId + 1, userVersions.length * 2));
+        }
+        userVersions[userId] = ++version;
+    }
+
+    private static Map<Integer, Entry> lruMap(int maxSize) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    private long userVersion(int userId) {
+        return userId < userVersions.length ? userVersions[userId] : 0;
+    }
+
+    private static final class Entry {
+        private final int k;
+        private final int limit;
+        private final Recommender.Result result;
+        // Номер изменения матрицы, после которого начат расчёт
+        private final long version;
+
+        private Entry(int k, int limit, Recommender.Result result, long version) {
+            this.k = k;
+            this.limit = limit;
+            this.result = result;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package ru.yandex.practicum.filmorate.service.recommendation;
+
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.service.recommendation.RatingMatrix.Ratings;
+
+/**
+ * Подбор фильмов для рекомендаций по матрице оценок.
+ * Алгоритм определяет пользователя с наиболее похожими оценками (см. {@link NeighbourScorer}), у которого есть
+ * положительно оценённые фильмы, не оценённые искомым пользователем, и рекомендует эти фильмы.
+ * Похожие пользователи берутся из {@link UserSimilarityIndex}, поэтому запрос сводится к просмотру готового
+ * списка и слиянию строк двух пользователей. Только если ни у кого из списка рекомендовать нечего, а за списком
+ * есть другие пользователи, со-оценившие перебираются полностью.
+ * Второй режим - взвешенное голосование k самых похожих пользователей, см. {@link #getRankedFilmIds}.
+ */
+@Component
+public class Recommender {
+    static final int MAX_NEGATIVE_MARK = 5;
+    private static final int[] NO_FILMS = new int[0];
+    private final RatingMatrix ratingMatrix;
+    private final UserSimilarityIndex similarityIndex;
+    private final CoRaterScorer coRaterScorer;
+
+    public Recommender(RatingMatrix ratingMatrix, UserSimilarityIndex similarityIndex, CoRaterScorer coRaterScorer) {
+        this.ratingMatrix = ratingMatrix;
+        this.similarityIndex = similarityIndex;
+        this.coRaterScorer = coRaterScorer;
+    }
+
+    /**
+     * Ид фильмов для рекомендации по возрастанию ид, пустой массив - рекомендовать нечего.
+     */
+    public int[] getFilmIdsForRecommendations(int requesterId) {
+        return recommend(requesterId).filmIds;
+    }
+
+    // То же с данными, от которых зависит результат, для RecommendationCache
+    Result recommend(int requesterId) {
+        Ratings requester = ratingMatrix.getUserRatings(requesterId);
+        if (requester.size() == 0) {
+            return Result.NOTHING;
+        }
+        Neighbours neighbours = similarityIndex.getNeighbours(requesterId);
+        for (int i = 0; i < neighbours.size(); i++) {
+            Ratings candidate = ratingMatrix.getUserRatings(neighbours.id(i));
+            if (countRecommendable(requester, candidate) > 0) {
+                return new Result(getRecommendable(requester, candidate), neighbours, i + 1, false);
+            }
+        }
+        if (neighbours.isComplete()) {
+            return new Result(NO_FILMS, neighbours, neighbours.size(), false);
+        }
+        return new Result(findByFullScan(requesterId, requester), neighbours, 0, true);
+    }
+
+    /**
+     * Рекомендации по k самым похожим пользователям: каждый фильм, положительно оценённый кем-то из них
+     * и не оценённый requester, получает сумму оценок, взвешенных похожестью (1 / расстояние).
+     * Строки соседей отсортированы по ид фильма, поэтому голоса собираются слиянием строк без словаря,
+     * а лучшие limit фильмов отбираются ограниченной кучей.
+     *
+     * @return ид фильмов по убыванию суммы голосов, не больше limit.
+     */
+    public int[] getRankedFilmIds(int requesterId, int k, int limit) {
+        return recommendRanked(requesterId, k, limit).filmIds;
+    }
+
+    Result recommendRanked(int requesterId, int k, int limit) {
+        Ratings requester = ratingMatrix.getUserRatings(requesterId);
+        if (requester.size() == 0) {
+            return Result.NOTHING;
+        }
+        // Как в SimilarityIndex#getNeighbours(int, int): короткий неполный список считается заново по всем
+        Neighbours stored = similarityIndex.getNeighbours(requesterId);
+        boolean recomputed = stored.size() < k && !stored.isComplete();
+        Neighbours neighbours = recomputed ? similarityIndex.getNeighbours(requesterId, k) : stored;
+        int count = Math.min(k, neighbours.size());
+        Ratings[] rows = new Ratings[count];
+        double[] weights = new double[count];
+        for (int i = 0; i < count; i++) {
+            rows[i] = ratingMatrix.getUserRatings(neighbours.id(i));
+            weights[i] = 1 / neighbours.distance(i);
+        }
+        TopScores top = new TopScores(limit);
+        int[] cursors = new int[count];
+        int requesterCursor = 0;
+        while (true) {
+            // Соседей немного (k), поэтому наименьший ид фильма ищется простым проходом по строкам
+            int filmId = Integer.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                if (cursors[i] < rows[i].size() && rows[i].id(cursors[i]) < filmId) {
+                    filmId = rows[i].id(cursors[i]);
+                }
+            }
+            if (filmId == Integer.MAX_VALUE) {
+                break;
+            }
+            double score = 0;
+            for (int i = 0; i < count; i++) {
+                if (cursors[i] < rows[i].size() && rows[i].id(cursors[i]) == filmId) {
+                    int mark = rows[i].mark(cursors[i]++);
+                    if (mark > MAX_NEGATIVE_MARK) {
+                        score += weights[i] * mark;
+                    }
+                }
+            }
+            while (requesterCursor < requester.size() && requester.id(requesterCursor) < filmId) {
+                requesterCursor++;
+            }
+            boolean rated = requesterCursor < requester.size() && requester.id(requesterCursor) == filmId;
+            if (score > 0 && !rated) {
+                top.offer(filmId, score);
+            }
+        }
+        return new Result(top.drainIds(), stored, count, recomputed);
+    }
+
+    private int[] findByFullScan(int requesterId, Ratings requester) {
+        CoRaterScores coRaters = coRaterScorer.score(requesterId, requester);
+        try {
+            int bestUserId = 0;
+            int bestMatches = 0;
+            int bestDiffSum = 0;
+            for (int k = 0; k < coRaters.size(); k++) {
+                int userId = coRaters.id(k);
+                int matches = coRaters.matches(k);
+                int diffSum = coRaters.diffSum(k);
+                boolean better = bestMatches == 0
+                        || NeighbourScorer.compare(diffSum, matches, userId, bestDiffSum, bestMatches, bestUserId) < 0;
+                // Наличие фильмов для рекомендации проверяется только у претендента на лучшего
+                if (better && countRecommendable(requester, ratingMatrix.getUserRatings(userId)) > 0) {
+                    bestUserId = userId;
+                    bestMatches = matches;
+                    bestDiffSum = diffSum;
+                }
+            }
+            if (bestMatches == 0) {
+                return NO_FILMS;
+            }
+            return getRecommendable(requester, ratingMatrix.getUserRatings(bestUserId));
+        } finally {
+            coRaters.clear();
+        }
+    }
+
+    // Количество положительно оценённых candidate фильмов, которых нет у requester
+    static int countRecommendable(Ratings requester, Ratings candidate) {
+        int count = 0;
+        int i = 0;
+        for (int j = 0; j < candidate.size(); j++) {
+            if (candidate.mark(j) <= MAX_NEGATIVE_MARK) {
+                continue;
+            }
+            int filmId = candidate.id(j);
+            while (i < requester.size() && requester.id(i) < filmId) {
+                i++;
+            }
+            if (i == requester.size() || requester.id(i) != filmId) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static int[] getRecommendable(Ratings requester, Ratings candidate) {
+        int[] filmIds = new int[countRecommendable(requester, candidate)];
+        int size = 0;
+        int i = 0;
+        for (int j = 0; j < candidate.size(); j++) {
+            if (candidate.mark(j) <= MAX_NEGATIVE_MARK) {
+                continue;
+            }
+            int filmId = candidate.id(j);
+            while (i < requester.size() && requester.id(i) < filmId) {
+                i++;
+            }
+            if (i == requester.size() || requester.id(i) != filmId) {
+                filmIds[size++] = filmId;
+            }
+        }
+        return filmIds;
+    }
+
+    /**
+     * Ид фильмов и то, на чём они основаны: первые usedNeighbours из сохранённого в индексе списка похожих.
+     * fullScan - результат зависит от всех со-оценивших, а не только от списка.
+     */
+    static final class Result {
+        static final Result NOTHING = new Result(NO_FILMS, null, 0, false);
+        final int[] filmIds;
+        final Neighbours neighbours;
+        final int usedNeighbours;
+        final boolean fullScan;
+
+        private Result(int[] filmIds, Neighbours neighbours, int usedNeighbours, boolean fullScan) {
+            this.filmIds = filmIds;
+            this.neighbours = neighbours;
+            this.usedNeighbours = usedNeighbours;
+            this.fullScan = fullScan;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package ru.yandex.practicum.filmorate.service.recommendation;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import ru.yandex.practicum.filmorate.service.recommendation.RatingMatrix.Ratings;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Кэш списков самых похожих (top-n) по мере {@link NeighbourScorer} для строк матрицы оценок:
+ * пользователей в {@link UserSimilarityIndex}, фильмов в {@link FilmSimilarityIndex}.
+ * Индекс ленивый: список считается при первом запросе и дальше обновляется по изменениям матрицы. Когда
+ * меняется ячейка (строка r, столбец c), меняется похожесть r только со строками, у которых есть столбец c,
+ * поэтому в их списках пересчитывается одна пара слиянием двух строк, а в списке самой r - пары со всеми
+ * строками столбца c. Изменения обрабатываются в потоке записи оценки, поэтому пар за одно изменение
+ * пересчитывается не больше MAX_PAIR_UPDATES: список r, если в столбце c больше строк, и остальные затронутые
+ * списки (у популярного фильма их могут быть тысячи) удаляются и пересчитываются при запросе, как и списки,
+ * ставшие после изменений слишком короткими.
+ * Хранится не больше max-size списков, давно не запрошенные вытесняются.
+ */
+public abstract class SimilarityIndex implements RatingListener {
+    static final int MAX_PAIR_UPDATES = 100;
+    protected final RatingMatrix ratingMatrix;
+    private final int topN;
+    private final int maxSize;
+    private final Map<Integer, Neighbours> neighbours;
+    // Списки, которые сейчас считаются: если во время расчёта пришло изменение, результат не сохраняется
+    private final Map<Integer, Computation> computations = new HashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder computed = new LongAdder();
+
+    /**
+     * @param metricPrefix префикс имён метрик.
+     * @param subject      кого сравнивает индекс, в родительном падеже, для описания метрик.
+     */
+    protected SimilarityIndex(RatingMatrix ratingMatrix, MeterRegistry meterRegistry, String metricPrefix,
+                              String subject, int topN, int maxSize) {
+        this.ratingMatrix = ratingMatrix;
+        this.topN = topN;
+        this.maxSize = maxSize;
+        this.neighbours = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Neighbours> eldest) {
+                return size() > SimilarityIndex.this.maxSize;
+            }
+        };
+        FunctionCounter.builder(metricPrefix + ".hits", hits, LongAdder::sum)
+                .description("Списки похожих " + subject + ", найденные в индексе")
+                .register(meterRegistry);
+        FunctionCounter.builder(metricPrefix + ".computations", computed, LongAdder::sum)
+                .description("Полные пересчёты списков похожих " + subject)
+                .register(meterRegistry);
+        Gauge.builder(metricPrefix + ".size", this, SimilarityIndex::size)
+                .description("Списки похожих " + subject + " в индексе")
+                .register(meterRegistry);
+        ratingMatrix.addListener(this);
+    }
+
+    // Строка матрицы: оценки пользователя или оценки фильма
+    protected abstract Ratings row(int id);
+
+    // Столбец матрицы: строка другого измерения
+    protected abstract Ratings column(int id);
+
+    // Совпадения строки со всеми строками, у которых есть общие столбцы; накопитель нужно очистить
+    abstract CoRaterScores score(int id, Ratings row);
+
+    /**
+     * Самые похожие на id, не больше top-n.
+     */
+    public Neighbours getNeighbours(int id) {
+        Computation computation = new Computation();
+        synchronized (this) {
+            Neighbours result = neighbours.get(id);
+            if (result != null) {
+                hits.increment();
+                return result;
+            }
+            // Список уже считается в другом потоке: считаем и мы, но не сохраняем
+            if (computations.putIfAbsent(id, computation) != null) {
+                computation = null;
+            }
+        }
+        Neighbours result;
+        try {
+            result = compute(id, topN);
+        } finally {
+            if (computation != null) {
+                synchronized (this) {
+                    computations.remove(id);
+                }
+            }
+        }
+        if (computation != null) {
+            synchronized (this) {
+                if (!computation.stale) {
+                    neighbours.put(id, result);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Не меньше limit самых похожих, если они есть. Если в сохранённом списке меньше limit, а за ним есть
+     * другие, список на limit считается заново и не сохраняется.
+     */
+    public Neighbours getNeighbours(int id, int limit) {
+        Neighbours result = getNeighbours(id);
+        if (result.size() < limit && !result.isComplete()) {
+            result = compute(id, limit);
+        }
+        return result;
+    }
+
+    public int getTopN() {
+        return topN;
+    }
+
+    public synchronized int size() {
+        return neighbours.size();
+    }
+
+    public long getComputationCount() {
+        return computed.sum();
+    }
+
+    @Override
+    public synchronized void onReloaded() {
+        neighbours.clear();
+        computations.values().forEach(computation -> computation.stale = true);
+    }
+
+    /**
+     * Изменилась ячейка (rowId, columnId).
+     * Работа ограничена размером индекса, а не столбца: перебираются только сохранённые и считающиеся списки.
+     */
+    protected synchronized void onCellChanged(int rowId, int columnId) {
+        markStale(rowId);
+        Ratings column = column(columnId);
+        Ratings row = row(rowId);
+        updateOwnList(rowId, row, column);
+        computations.forEach((otherId, computation) -> {
+            if (column.indexOf(otherId) >= 0) {
+                computation.stale = true;
+            }
+        });
+        List<Integer> affected = new ArrayList<>();
+        if (column.size() <= neighbours.size()) {
+            for (int i = 0; i < column.size(); i++) {
+                if (column.id(i) != rowId && neighbours.containsKey(column.id(i))) {
+                    affected.add(column.id(i));
+                }
+            }
+        } else {
+            for (int otherId : neighbours.keySet()) {
+                if (otherId != rowId && column.indexOf(otherId) >= 0) {
+                    affected.add(otherId);
+                }
+            }
+        }
+        for (int i = 0; i < affected.size(); i++) {
+            int otherId = affected.get(i);
+            Neighbours other = i < MAX_PAIR_UPDATES ? neighbours.get(otherId) : null;
+            Neighbours updated = null;
+            if (other != null) {
+                long stats = NeighbourScorer.pairStats(row(otherId), row);
+                updated = other.with(rowId, NeighbourScorer.matches(stats), NeighbourScorer.diffSum(stats), topN);
+            }
+            if (updated == null) {
+                neighbours.remove(otherId);
+            } else {
+                neighbours.put(otherId, updated);
+            }
+        }
+    }
+
+    // Список изменённой строки: меняются пары со всеми строками столбца, кроме неё самой
+    private void updateOwnList(int rowId, Ratings row, Ratings column) {
+        Neighbours own = neighbours.get(rowId);
+        if (own == null) {
+            return;
+        }
+        if (column.size() > MAX_PAIR_UPDATES) {
+            neighbours.remove(rowId);
+            return;
+        }
+        for (int i = 0; i < column.size() && own != null; i++) {
+            int otherId = column.id(i);
+            if (otherId != rowId) {
+                long stats = NeighbourScorer.pairStats(row, row(otherId));
+                own = own.with(otherId, NeighbourScorer.matches(stats), NeighbourScorer.diffSum(stats), topN);
+            }
+        }
+        if (own == null) {
+            neighbours.remove(rowId);
+        } else {
+            neighbours.put(rowId, own);
+        }
+    }
+
+    protected synchronized void onRowRemoved(int rowId) {
+        neighbours.remove(rowId);
+        computations.values().forEach(computation -> computation.stale = true);
+        neighbours.replaceAll((otherId, other) -> other.with(rowId, 0, 0, topN));
+        neighbours.values().removeIf(other -> other == null);
+    }
+
+    // Меняется похожесть всех пар строк, у которых был столбец, их списки пересчитываются при запросе
+    protected synchronized void onColumnRemoved(Ratings oldColumn) {
+        for (int i = 0; i < oldColumn.size(); i++) {
+            neighbours.remove(oldColumn.id(i));
+            markStale(oldColumn.id(i));
+        }
+    }
+
+    private void markStale(int id) {
+        Computation computation = computations.get(id);
+        if (computation != null) {
+            computation.stale = true;
+        }
+    }
+
+    private Neighbours compute(int id, int limit) {
+        computed.increment();
+        Ratings row = row(id);
+        if (row.size() == 0) {
+            return Neighbours.EMPTY;
+        }
+        CoRaterScores scores = score(id, row);
+        try {
+            return Neighbours.top(scores, limit);
+        } finally {
+            scores.clear();
+        }
+    }
+
+    // Изменяется под блокировкой индекса
+    private static final class Computation {
+        private boolean stale;
+    }
+}
@@ -0,0 +1,87 @@
+package ru.yandex.practicum.filmorate.service.recommendation;
+
+/**
+ * Отбор limit ид с наибольшей оценкой: ограниченная куча, в корне - худший из отобранных, поэтому
+ * кандидаты не сортируются и не накапливаются. При равной оценке выше меньший ид.
+ */
+public final class TopScores {
+    private final int[] ids;
+    private final double[] scores;
+    private int size;
+
+    public TopScores(int limit) {
+        ids = new int[limit];
+        scores = new double[limit];
+    }
+
+    public void offer(int id, double score) {
+        if (size < ids.length) {
+            ids[size] = id;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (size > 0 && isWorse(scores[0], ids[0], score, id)) {
+            ids[0] = id;
+            scores[0] = score;
+            siftDown();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Отобранные ид от лучшего к худшему; куча после этого пуста
+    public int[] drainIds() {
+        int[] result = new int[size];
+        for (int i = size - 1; i >= 0; i--) {
+            result[i] = ids[0];
+            size--;
+            ids[0] = ids[size];
+            scores[0] = scores[size];
+            siftDown();
+        }
+        return result;
+    }
+
+    private static boolean isWorse(double scoreA, int idA, double scoreB, int idB) {
+        return scoreA < scoreB || scoreA == scoreB && idA > idB;
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (!isWorse(scores[index], ids[index], scores[parent], ids[parent])) {
+                return;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown() {
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                return;
+            }
+            if (child + 1 < size && isWorse(scores[child + 1], ids[child + 1], scores[child], ids[child])) {
+                child++;
+            }
+            if (!isWorse(scores[child], ids[child], scores[index], ids[index])) {
+                return;
+            }
+            swap(index, child);
+            index = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+        double score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+    }
+}
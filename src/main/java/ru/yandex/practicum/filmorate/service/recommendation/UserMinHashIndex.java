@@ -0,0 +1,242 @@
+package ru.yandex.practicum.filmorate.service.recommendation;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.service.recommendation.RatingMatrix.Ratings;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Индекс LSH (MinHash) по множествам положительно оценённых пользователями фильмов.
+ * Для пользователя хранится подпись из bands * rows минимальных хешей его фильмов; подпись делится на bands
+ * полос, и пользователи с одинаковой полосой попадают в одну корзину. Пользователи с большой долей общих
+ * фильмов (мера Жаккара) с высокой вероятностью делят хотя бы одну корзину.
+ * Для пользователя, у которого точный перебор со-оценивших просматривает больше threshold оценок, похожие
+ * ищутся только среди не больше max-candidates кандидатов из его корзин, поэтому стоимость расчёта
+ * не зависит от количества пользователей. Такой список приближённый и помечается как неполный.
+ */
+@Component
+public class UserMinHashIndex implements RatingListener {
+    private static final ThreadLocal<CoRaterScores> BAND_HITS = ThreadLocal.withInitial(CoRaterScores::new);
+    private static final int[] NO_CANDIDATES = new int[0];
+    private final RatingMatrix ratingMatrix;
+    private final boolean enabled;
+    private final int bands;
+    private final int rows;
+    private final long threshold;
+    private final int maxCandidates;
+    private final long[] seeds;
+    private final Map<Integer, int[]> signatures = new HashMap<>();
+    // Ключ - номер полосы в старших 32 битах и хеш полосы в младших
+    private final Map<Long, Bucket> buckets = new HashMap<>();
+    private final LongAdder queries = new LongAdder();
+
+    public UserMinHashIndex(RatingMatrix ratingMatrix,
+                            MeterRegistry meterRegistry,
+                            @Value("${filmorate.recommendations.lsh.enabled:true}") boolean enabled,
+                            @Value("${filmorate.recommendations.lsh.bands:32}") int bands,
+                            @Value("${filmorate.recommendations.lsh.rows:2}") int rows,
+                            @Value("${filmorate.recommendations.lsh.threshold:200000}") long threshold,
+                            @Value("${filmorate.recommendations.lsh.max-candidates:500}") int maxCandidates) {
+        this.ratingMatrix = ratingMatrix;
+        this.enabled = enabled;
+        this.bands = bands;
+        this.rows = rows;
+        this.threshold = threshold;
+        this.maxCandidates = maxCandidates;
+        // Постоянное зерно: подписи не зависят от перезапуска
+        SplittableRandom random = new SplittableRandom(42);
+        this.seeds = new long[bands * rows];
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = random.nextLong();
+        }
+        FunctionCounter.builder("filmorate.recommendations.lsh.queries", queries, LongAdder::sum)
+                .description("Расчёты похожих пользователей по кандидатам LSH")
+                .register(meterRegistry);
+        Gauge.builder("filmorate.recommendations.lsh.users", this, UserMinHashIndex::size)
+                .description("Пользователи в индексе LSH")
+                .register(meterRegistry);
+        if (enabled) {
+            ratingMatrix.addListener(this);
+            // Матрица могла загрузиться до регистрации
+            onReloaded();
+        }
+    }
+
+    /**
+     * Совпадения user только с кандидатами из его корзин.
+     *
+     * @return накопитель потока, помеченный как неполный, или null, если индекс выключен или точный перебор
+     * для пользователя достаточно дешёвый.
+     */
+    CoRaterScores scoreCandidates(int userId, Ratings user) {
+        if (!enabled || NeighbourScorer.countWork(ratingMatrix::getFilmRatings, user) < threshold) {
+            return null;
+        }
+        queries.increment();
+        CoRaterScores scores = NeighbourScorer.threadScores();
+        for (int candidateId : getCandidates(userId)) {
+            long stats = NeighbourScorer.pairStats(user, ratingMatrix.getUserRatings(candidateId));
+            if (NeighbourScorer.matches(stats) > 0) {
+                scores.add(candidateId, NeighbourScorer.matches(stats), NeighbourScorer.diffSum(stats));
+            }
+        }
+        scores.markPartial();
+        return scores;
+    }
+
+    /**
+     * Кандидаты в похожие: пользователи из корзин userId, не больше max-candidates, сначала те,
+     * с кем совпало больше полос. Из каждой корзины просматривается не больше max-candidates пользователей.
+     */
+    public synchronized int[] getCandidates(int userId) {
+        int[] signature = signatures.get(userId);
+        if (signature == null) {
+            return NO_CANDIDATES;
+        }
+        CoRaterScores bandHits = BAND_HITS.get();
+        try {
+            for (int band = 0; band < bands; band++) {
+                Bucket bucket = buckets.get(bucketKey(band, signature));
+                for (int i = 0; i < Math.min(bucket.size, maxCandidates); i++) {
+                    if (bucket.ids[i] != userId) {
+                        bandHits.add(bucket.ids[i], 0);
+                    }
+                }
+            }
+            TopScores top = new TopScores(Math.min(maxCandidates, bandHits.size()));
+            for (int k = 0; k < bandHits.size(); k++) {
+                top.offer(bandHits.id(k), bandHits.matches(k));
+            }
+            return top.drainIds();
+        } finally {
+            bandHits.clear();
+        }
+    }
+
+    public synchronized int size() {
+        return signatures.size();
+    }
+
+    @Override
+    public synchronized void onMarkChanged(int userId, int filmId) {
+        update(userId);
+    }
+
+    @Override
+    public synchronized void onUserRemoved(int userId, Ratings oldRatings) {
+        remove(userId);
+    }
+
+    @Override
+    public synchronized void onFilmRemoved(int filmId, Ratings oldRatings) {
+        for (int i = 0; i < oldRatings.size(); i++) {
+            if (oldRatings.mark(i) > Recommender.MAX_NEGATIVE_MARK) {
+                update(oldRatings.id(i));
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onReloaded() {
+        signatures.clear();
+        buckets.clear();
+        for (int userId = 0; userId < ratingMatrix.getUserIdBound(); userId++) {
+            update(userId);
+        }
+    }
+
+    private void update(int userId) {
+        int[] signature = signature(ratingMatrix.getUserRatings(userId));
+        int[] old = signatures.get(userId);
+        if (Arrays.equals(old, signature)) {
+            return;
+        }
+        remove(userId);
+        if (signature == null) {
+            return;
+        }
+        signatures.put(userId, signature);
+        for (int band = 0; band < bands; band++) {
+            buckets.computeIfAbsent(bucketKey(band, signature), key -> new Bucket()).add(userId);
+        }
+    }
+
+    private void remove(int userId) {
+        int[] signature = signatures.remove(userId);
+        if (signature == null) {
+            return;
+        }
+        for (int band = 0; band < bands; band++) {
+            long key = bucketKey(band, signature);
+            Bucket bucket = buckets.get(key);
+            bucket.remove(userId);
+            if (bucket.size == 0) {
+                buckets.remove(key);
+            }
+        }
+    }
+
+    // Минимальные хеши положительно оценённых фильмов или null, если таких нет
+    private int[] signature(Ratings user) {
+        int[] signature = null;
+        for (int i = 0; i < user.size(); i++) {
+            if (user.mark(i) <= Recommender.MAX_NEGATIVE_MARK) {
+                continue;
+            }
+            if (signature == null) {
+                signature = new int[seeds.length];
+                Arrays.fill(signature, Integer.MAX_VALUE);
+            }
+            for (int h = 0; h < seeds.length; h++) {
+                signature[h] = Math.min(signature[h], hash(user.id(i), seeds[h]));
+            }
+        }
+        return signature;
+    }
+
+    private long bucketKey(int band, int[] signature) {
+        int hash = band;
+        for (int r = band * rows; r < (band + 1) * rows; r++) {
+            hash = 31 * hash + signature[r];
+        }
+        return (long) band << 32 | hash & 0xFFFFFFFFL;
+    }
+
+    private static int hash(int filmId, long seed) {
+        long x = (filmId + seed) * 0x9E3779B97F4A7C15L;
+        x ^= x >>> 32;
+        x *= 0xD6E8FEB86659FD93L;
+        x ^= x >>> 32;
+        return (int) x;
+    }
+
+    private static final class Bucket {
+        private int[] ids = new int[4];
+        private int size;
+
+        private void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        // Порядок не сохраняется: на место удалённого встаёт последний
+        private void remove(int id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    ids[i] = ids[--size];
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package ru.yandex.practicum.filmorate.service.recommendation;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.service.recommendation.RatingMatrix.Ratings;
+
+/**
+ * Самые похожие пользователи по общим оценённым фильмам, см. {@link SimilarityIndex}.
+ * Когда меняется оценка пользователя u фильму f, в списках оценивших f пересчитывается пара с u.
+ * Для пользователей с очень большим количеством со-оценивших список строится по кандидатам
+ * {@link UserMinHashIndex} и остаётся приближённым.
+ */
+@Component
+public class UserSimilarityIndex extends SimilarityIndex {
+    private final CoRaterScorer coRaterScorer;
+    private final UserMinHashIndex minHashIndex;
+
+    public UserSimilarityIndex(RatingMatrix ratingMatrix,
+                               CoRaterScorer coRaterScorer,
+                               UserMinHashIndex minHashIndex,
+                               MeterRegistry meterRegistry,
+                               @Value("${filmorate.recommendations.similarity.top-n:50}") int topN,
+                               @Value("${filmorate.recommendations.similarity.max-users:100000}") int maxUsers) {
+        super(ratingMatrix, meterRegistry, "filmorate.recommendations.similarity", "пользователей", topN, maxUsers);
+        this.coRaterScorer = coRaterScorer;
+        this.minHashIndex = minHashIndex;
+    }
+
+    @Override
+    protected Ratings row(int userId) {
+        return ratingMatrix.getUserRatings(userId);
+    }
+
+    @Override
+    protected Ratings column(int filmId) {
+        return ratingMatrix.getFilmRatings(filmId);
+    }
+
+    @Override
+    CoRaterScores score(int userId, Ratings user) {
+        CoRaterScores candidates = minHashIndex.scoreCandidates(userId, user);
+        return candidates != null ? candidates : coRaterScorer.score(userId, user);
+    }
+
+    @Override
+    public void onMarkChanged(int userId, int filmId) {
+        onCellChanged(userId, filmId);
+    }
+
+    @Override
+    public void onUserRemoved(int userId, Ratings oldRatings) {
+        onRowRemoved(userId);
+    }
+
+    @Override
+    public void onFilmRemoved(int filmId, Ratings oldRatings) {
+        onColumnRemoved(oldRatings);
+    }
+}
@@ -1,10 +1,14 @@
 package ru.yandex.practicum.filmorate.service.user;
 
+import ru.yandex.practicum.filmorate.dto.Page;
+import ru.yandex.practicum.filmorate.dto.RecommendationBatchRequest;
+import ru.yandex.practicum.filmorate.dto.UserRecommendations;
 import ru.yandex.practicum.filmorate.model.Event;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.User;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface UserService {
     User addUser(User user);
@@ -15,6 +19,8 @@ public interface UserService {
 
     List<User> getAllUsers();
 
+    Page<User> getUsersPage(String after, int limit);
+
     void deleteUser(int id);
 
     void addFriend(int id, int friendId);
@@ -27,5 +33,15 @@ public interface UserService {
 
     List<Film> getRecommendations(int id);
 
+    List<Film> getRecommendations(int id, Integer k, int limit);
+
+    List<Film> getModelRecommendations(int id, String model, int limit);
+
+    void getRecommendationsBatch(RecommendationBatchRequest request, Consumer<UserRecommendations> consumer);
+
     List<Event> getEventsByUser(int userId);
+
+    List<Event> getEventsPageByUser(int userId, Integer sinceEventId, Integer beforeEventId, int limit);
+
+    List<Event> getTimeline(int userId, Integer beforeEventId, int limit);
 }
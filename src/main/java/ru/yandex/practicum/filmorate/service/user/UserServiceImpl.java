@@ -7,37 +7,69 @@ import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.dao.FilmDao;
 import ru.yandex.practicum.filmorate.dao.MarkDao;
 import ru.yandex.practicum.filmorate.dao.UserDao;
-import ru.yandex.practicum.filmorate.dto.params.RecommendationsParams;
+import ru.yandex.practicum.filmorate.dto.Page;
+import ru.yandex.practicum.filmorate.dto.RecommendationBatchRequest;
+import ru.yandex.practicum.filmorate.dto.UserRecommendations;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
 import ru.yandex.practicum.filmorate.model.*;
 import ru.yandex.practicum.filmorate.service.event.EventService;
+import ru.yandex.practicum.filmorate.service.event.FriendsTimeline;
+import ru.yandex.practicum.filmorate.service.film.FilmCache;
+import ru.yandex.practicum.filmorate.service.film.FilmPopularityIndex;
+import ru.yandex.practicum.filmorate.service.recommendation.AlsRecommender;
+import ru.yandex.practicum.filmorate.service.recommendation.BatchRecommender;
+import ru.yandex.practicum.filmorate.service.recommendation.RatingMatrix;
+import ru.yandex.practicum.filmorate.service.recommendation.RecommendationCache;
+import ru.yandex.practicum.filmorate.service.recommendation.Recommender;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Slf4j
 @Service
 public class UserServiceImpl implements UserService {
-    private static final int MAX_NEGATIVE_MARK_COUNT = 5;
     private static final int STANDARD_LIMIT_COUNT = 5;
-    private static final double CORRECTION_COEFFICIENT = 10;
+    private static final int DEFAULT_NEIGHBOURS_COUNT = 10;
+    private static final String ALS_MODEL = "als";
+    private static final int BATCH_BLOCK_SIZE = 512;
     private final UserDao userDao;
     private final FilmDao filmDao;
     private final MarkDao markDao;
     private final EventService eventService;
+    private final FilmPopularityIndex popularityIndex;
+    private final FilmCache filmCache;
+    private final FriendsTimeline friendsTimeline;
+    private final RatingMatrix ratingMatrix;
+    private final RecommendationCache recommendationCache;
+    private final AlsRecommender alsRecommender;
+    private final BatchRecommender batchRecommender;
 
     public UserServiceImpl(@Qualifier("userDbStorage") UserDao userStorage,
                            @Qualifier("filmDbStorage") FilmDao filmDao,
                            MarkDao markDao,
-                           EventService eventService) {
+                           EventService eventService,
+                           FilmPopularityIndex popularityIndex,
+                           FilmCache filmCache,
+                           FriendsTimeline friendsTimeline,
+                           RatingMatrix ratingMatrix,
+                           RecommendationCache recommendationCache,
+                           AlsRecommender alsRecommender,
+                           BatchRecommender batchRecommender) {
         this.userDao = userStorage;
         this.eventService = eventService;
         this.filmDao = filmDao;
         this.markDao = markDao;
+        this.popularityIndex = popularityIndex;
+        this.filmCache = filmCache;
+        this.friendsTimeline = friendsTimeline;
+        this.ratingMatrix = ratingMatrix;
+        this.recommendationCache = recommendationCache;
+        this.alsRecommender = alsRecommender;
+        this.batchRecommender = batchRecommender;
     }
 
     @Override
@@ -77,12 +109,31 @@ public class UserServiceImpl implements UserService {
         return users;
     }
 
+    // Запрашиваем на одного пользователя больше, чтобы понять, есть ли следующая страница
+    @Override
+    public Page<User> getUsersPage(String after, int limit) {
+        List<User> users = userDao.getUsersPage(Page.decodeCursor(after), limit + 1);
+        String nextCursor = null;
+        if (users.size() > limit) {
+            users = users.subList(0, limit);
+            nextCursor = Page.encodeCursor(users.get(limit - 1).getId());
+        }
+        log.info("Страница пользователей размером {} возвращена.", users.size());
+        return new Page<>(users, nextCursor);
+    }
+
     @Override
     public void deleteUser(int id) {
+        // Оценки пользователя удаляются вместе с ним, поэтому рейтинги этих фильмов нужно перечитать
+        List<Integer> markedFilmIds = markDao.getFilmIdsByUserId(id);
         int result = userDao.deleteUser(id);
         if (result == 0) {
             throw new NotFoundException("Пользователь с id " + id + " не найден.");
         }
+        popularityIndex.refreshRatings(markedFilmIds);
+        filmCache.invalidate(markedFilmIds);
+        friendsTimeline.removeUser(id);
+        ratingMatrix.removeUser(id);
         log.info("Пользователь с ID {} удалён.", id);
     }
 
@@ -94,6 +145,7 @@ public class UserServiceImpl implements UserService {
         } catch (DataIntegrityViolationException e) {
             throw new NotFoundException("Пользователь не найден.");
         }
+        friendsTimeline.invalidate(id);
         eventService.addEvent(new Event(id, "FRIEND", "ADD", friendId));
     }
 
@@ -103,6 +155,7 @@ public class UserServiceImpl implements UserService {
         if (result == 0) {
             throw new NotFoundException("Пользователь с id " + id + " или с id " + friendId + " не найден.");
         }
+        friendsTimeline.invalidate(id);
         eventService.addEvent(new Event(id, "FRIEND", "REMOVE", friendId));
         log.info("Пользователи с id {} удалил из друзей пользователя с id {}.", id, friendId);
     }
@@ -125,108 +178,168 @@ public class UserServiceImpl implements UserService {
 
     /**
      * Получение списка рекомендованных к просмотру фильмов.
-     * Алгоритм определяет пользователя с наиболее похожими оценками, затем выбирает из списка положительно
-     * оценённых фильмов те, которые не были оценены искомым пользователем.
-     * Пользователь с наиболее похожими оценками определяются путём отношения суммы разниц всех оценок к одним и тем же
-     * фильмам и корректирующего коэффициента к количеству оценок.
+     * Фильмы подбираются по матрице оценок в памяти, см. {@link Recommender}; ид фильмов кэшируются
+     * в {@link RecommendationCache}. Если подобрать нечего, возвращаются популярные фильмы.
      *
      * @return список рекомендованных к просмотру фильмов.
      */
     @Override
     public List<Film> getRecommendations(int requesterId) {
-        Map<Integer, HashMap<Integer, Integer>> userIdToFilmIdWithMark = markDao.getUserIdToFilmIdWithMark(requesterId);
-        Map<Integer, HashMap<Integer, Integer>> userIdToFilmIdWithDiff = new HashMap<>();
-        Map<Integer, Integer> userIdToMatch = new HashMap<>();
-        RecommendationsParams params = new RecommendationsParams(
-                userIdToFilmIdWithDiff,
-                userIdToFilmIdWithMark,
-                userIdToMatch,
-                requesterId
-        );
-        calculateDifferencesAndMatchesBetweenUsers(params);
-        List<Integer> filmIdsForRecommendations = getFilmIdsForRecommendations(params);
+        int[] filmIdsForRecommendations = recommendationCache.getFilmIdsForRecommendations(requesterId);
         List<Film> recommendations;
-        if (filmIdsForRecommendations.isEmpty()) {
-            recommendations = filmDao.getPopularFilmsWithLimit(STANDARD_LIMIT_COUNT);
+        if (filmIdsForRecommendations.length == 0) {
+            recommendations = getPopularFilms(STANDARD_LIMIT_COUNT);
         } else {
-            recommendations = filmDao.getRecommendations(filmIdsForRecommendations);
-            Map<Integer, List<Genre>> filmIdToGenreList = filmDao.getFilmIdToGenres(filmIdsForRecommendations);
-            Map<Integer, List<Director>> filmIdToDirectorList = filmDao.getFilmIdToDirectors(filmIdsForRecommendations);
-            for (Film film : recommendations) {
-                film.setGenres(filmIdToGenreList.get(film.getId()));
-                film.setDirectors(filmIdToDirectorList.get(film.getId()));
-            }
+            // Жанры и режиссёры догружаются пачками внутри getRecommendations
+            recommendations = filmDao.getRecommendations(Arrays.stream(filmIdsForRecommendations)
+                    .boxed()
+                    .collect(Collectors.toList()));
         }
         log.info("Список рекомендаций для пользователя с id {} возвращён.", requesterId);
         return recommendations;
     }
 
-    private void calculateDifferencesAndMatchesBetweenUsers(RecommendationsParams params) {
-        for (Map.Entry<Integer, HashMap<Integer, Integer>> currentUserIdToFilmIdWithMark : params.getUserIdToFilmIdWithMark().entrySet()) {
-            if (currentUserIdToFilmIdWithMark.getKey() != params.getRequesterId()) {
-                enrichDifferencesAndMatches(currentUserIdToFilmIdWithMark, params);
-            }
+    /**
+     * Получение рекомендаций голосованием k самых похожих пользователей, см. {@link Recommender#getRankedFilmIds}.
+     * Если подобрать нечего, возвращаются популярные фильмы.
+     *
+     * @param k     количество учитываемых похожих пользователей, по умолчанию 10.
+     * @param limit максимальный размер списка.
+     * @return список рекомендованных фильмов по убыванию веса.
+     */
+    @Override
+    public List<Film> getRecommendations(int requesterId, Integer k, int limit) {
+        int neighboursCount = k == null ? DEFAULT_NEIGHBOURS_COUNT : k;
+        int[] filmIds = recommendationCache.getRankedFilmIds(requesterId, neighboursCount, limit);
+        List<Film> recommendations;
+        if (filmIds.length == 0) {
+            recommendations = getPopularFilms(Math.min(limit, STANDARD_LIMIT_COUNT));
+        } else {
+            // Порядок ид сохраняется
+            recommendations = filmDao.getFilmsByIds(Arrays.stream(filmIds)
+                    .boxed()
+                    .collect(Collectors.toList()));
         }
+        log.info("Список из {} рекомендаций по {} похожим пользователям для пользователя с id {} возвращён.",
+                recommendations.size(), neighboursCount, requesterId);
+        return recommendations;
     }
 
-    private List<Integer> getFilmIdsForRecommendations(RecommendationsParams params) {
-        double minDiffCount = Double.MAX_VALUE;
-        Integer userIdWithMinDiff = null;
-        List<Integer> filmIdsForRecommendations = new ArrayList<>();
-        for (Map.Entry<Integer, HashMap<Integer, Integer>> checkedUserIdToFilmIdWithDiff : params.getUserIdToFilmIdWithDiff().entrySet()) {
-            int checkedUserId = checkedUserIdToFilmIdWithDiff.getKey();
-            List<Integer> filmIdsWithPositiveMark = getFilmIdsWithPositiveMark(params, checkedUserId);
-            if (params.getUserIdToMatch().get(checkedUserId) == 0 || filmIdsWithPositiveMark.isEmpty()) {
-                continue;
-            }
-            int sumDiff = checkedUserIdToFilmIdWithDiff.getValue().values().stream().mapToInt(e -> e).sum();
-            double diffCount = (sumDiff + CORRECTION_COEFFICIENT) / params.getUserIdToMatch().get(checkedUserId);
-            if ((diffCount < minDiffCount)
-                    || ((diffCount == minDiffCount) && (params.getUserIdToMatch().get(checkedUserId) > params.getUserIdToMatch().get(userIdWithMinDiff)))) {
-                minDiffCount = diffCount;
-                userIdWithMinDiff = checkedUserId;
-                filmIdsForRecommendations = filmIdsWithPositiveMark;
-            }
+    /**
+     * Получение рекомендаций по обученной модели, см. {@link AlsRecommender}. Если модель ещё не обучена
+     * или пользователь появился после обучения, рекомендации подбираются по похожим пользователям.
+     *
+     * @param model название модели, поддерживается als.
+     * @return список рекомендованных фильмов по убыванию прогноза оценки.
+     */
+    @Override
+    public List<Film> getModelRecommendations(int requesterId, String model, int limit) {
+        if (!ALS_MODEL.equals(model)) {
+            throw new ValidationException("Неизвестная модель рекомендаций: " + model);
+        }
+        int[] filmIds = alsRecommender.getRankedFilmIds(requesterId, limit);
+        if (filmIds == null) {
+            log.info("Пользователя с id {} нет в модели рекомендаций, используются похожие пользователи.",
+                    requesterId);
+            return getRecommendations(requesterId, null, limit);
         }
-        return filmIdsForRecommendations;
+        List<Film> recommendations;
+        if (filmIds.length == 0) {
+            recommendations = getPopularFilms(Math.min(limit, STANDARD_LIMIT_COUNT));
+        } else {
+            // Порядок ид сохраняется
+            recommendations = filmDao.getFilmsByIds(Arrays.stream(filmIds)
+                    .boxed()
+                    .collect(Collectors.toList()));
+        }
+        log.info("Список из {} рекомендаций модели {} для пользователя с id {} возвращён.",
+                recommendations.size(), model, requesterId);
+        return recommendations;
     }
 
-    private void enrichDifferencesAndMatches(Map.Entry<Integer, HashMap<Integer, Integer>> currentUserIdToFilmIdWithMark,
-                                             RecommendationsParams params) {
-        for (Map.Entry<Integer, Integer> e : currentUserIdToFilmIdWithMark.getValue().entrySet()) {
-            int userId = currentUserIdToFilmIdWithMark.getKey();
-            if (!params.getUserIdToFilmIdWithDiff().containsKey(userId)) {
-                params.getUserIdToFilmIdWithDiff().put(userId, new HashMap<>());
-                params.getUserIdToMatch().put(userId, 0);
+    /**
+     * Пакетные рекомендации для рассылок. Пользователи обрабатываются блоками, блок считается параллельно
+     * (см. {@link BatchRecommender}), и его результаты сразу передаются consumer в порядке ид. Пользователи
+     * отрезка читаются из БД по страницам. Если подобрать нечего, передаются ид популярных фильмов.
+     */
+    @Override
+    public void getRecommendationsBatch(RecommendationBatchRequest request, Consumer<UserRecommendations> consumer) {
+        Function<int[], int[][]> recommend;
+        int popularLimit;
+        if (request.getK() == null && request.getLimit() == null) {
+            recommend = batchRecommender::getFilmIdsForRecommendations;
+            popularLimit = STANDARD_LIMIT_COUNT;
+        } else {
+            int k = request.getK() == null ? DEFAULT_NEIGHBOURS_COUNT : request.getK();
+            int limit = request.getLimit() == null ? Page.DEFAULT_LIMIT : request.getLimit();
+            recommend = userIds -> batchRecommender.getRankedFilmIds(userIds, k, limit);
+            popularLimit = Math.min(limit, STANDARD_LIMIT_COUNT);
+        }
+        int[] popularFilmIds = popularityIndex.getPopularFilmIds(popularLimit, 0, null).stream()
+                .mapToInt(Integer::intValue)
+                .toArray();
+        int count = 0;
+        if (request.getUserIds() != null) {
+            List<Integer> userIds = request.getUserIds();
+            for (int from = 0; from < userIds.size(); from += BATCH_BLOCK_SIZE) {
+                int[] block = userIds.subList(from, Math.min(userIds.size(), from + BATCH_BLOCK_SIZE)).stream()
+                        .mapToInt(Integer::intValue)
+                        .toArray();
+                count += recommendBlock(block, recommend, popularFilmIds, consumer);
             }
-            int filmId = e.getKey();
-            int userMark = e.getValue();
-            if (params.getUserIdToFilmIdWithMark().get(params.getRequesterId()).containsKey(filmId)) {
-                int requesterMark = params.getUserIdToFilmIdWithMark().get(params.getRequesterId()).get(filmId);
-                params.getUserIdToFilmIdWithDiff().get(userId).put(filmId, Math.abs(requesterMark - userMark));
-                int newMatchCount = params.getUserIdToMatch().get(userId) + 1;
-                params.getUserIdToMatch().put(userId, newMatchCount);
+        } else {
+            int afterId = request.getFromId() - 1;
+            while (true) {
+                List<Integer> page = userDao.getUserIdsPage(afterId, BATCH_BLOCK_SIZE);
+                int[] block = page.stream()
+                        .mapToInt(Integer::intValue)
+                        .filter(userId -> userId <= request.getToId())
+                        .toArray();
+                if (block.length > 0) {
+                    count += recommendBlock(block, recommend, popularFilmIds, consumer);
+                }
+                if (block.length < BATCH_BLOCK_SIZE) {
+                    break;
+                }
+                afterId = block[block.length - 1];
             }
         }
+        log.info("Пакетные рекомендации для {} пользователей переданы.", count);
     }
 
-    private List<Integer> getFilmIdsWithPositiveMark(RecommendationsParams params, int checkedUserId) {
-        int requesterId = params.getRequesterId();
-        Map<Integer, Integer> requesterMarksMap = params.getUserIdToFilmIdWithMark().get(requesterId);
-        Map<Integer, Integer> checkedUserMarksMap = params.getUserIdToFilmIdWithMark().get(checkedUserId);
-        return checkedUserMarksMap.entrySet().stream()
-                .filter(filmIdToMarkMap -> !requesterMarksMap.containsKey(filmIdToMarkMap.getKey())
-                        && filmIdToMarkMap.getValue() > MAX_NEGATIVE_MARK_COUNT)
-                .map(Map.Entry::getKey)
-                .collect(Collectors.toList());
+    // Популярные фильмы для пользователей, которым нечего рекомендовать: порядок из индекса, без сортировки в БД
+    private List<Film> getPopularFilms(int count) {
+        return filmDao.getFilmsByIds(popularityIndex.getPopularFilmIds(count, 0, null));
+    }
+
+    private int recommendBlock(int[] userIds, Function<int[], int[][]> recommend, int[] popularFilmIds,
+                               Consumer<UserRecommendations> consumer) {
+        int[][] filmIds = recommend.apply(userIds);
+        for (int i = 0; i < userIds.length; i++) {
+            boolean popular = filmIds[i].length == 0;
+            consumer.accept(new UserRecommendations(userIds[i], popular ? popularFilmIds : filmIds[i], popular));
+        }
+        return userIds.length;
     }
 
     @Override
     public List<Event> getEventsByUser(int userId) {
-        getUserById(userId); // Проверка на наличие пользователя в базе
+        // Наличие пользователя проверяется в хранилище событий
         return eventService.getUserEvents(userId);
     }
 
+    @Override
+    public List<Event> getTimeline(int userId, Integer beforeEventId, int limit) {
+        List<Event> events = friendsTimeline.getTimeline(userId, beforeEventId, limit);
+        log.info("Страница ленты друзей пользователя с ид {} размером {} возвращена.", userId, events.size());
+        return events;
+    }
+
+    @Override
+    public List<Event> getEventsPageByUser(int userId, Integer sinceEventId, Integer beforeEventId, int limit) {
+        return eventService.getUserEventsPage(userId, sinceEventId, beforeEventId, limit);
+    }
+
     // Метод проверки наличия пробела в логине и замены пустого имени на логин
     private void isUserValid(User user) {
         if (user.getLogin().contains(" ")) {
@@ -1,5 +1,5 @@
 drop table if exists users, mpa, films, likes, genres, film_genres, friends,
-directors, directors_film, reviews, users_reviews_rates, users_events;
+directors, directors_film, reviews, users_reviews_rates, users_events, film_ratings;
 
 create table if not exists users (
 	id integer generated by default as identity not null primary key,
@@ -42,6 +42,23 @@ create table if not exists marks (
 	primary key (user_id, film_id)
 );
 
+create table if not exists film_ratings (
+	film_id integer not null primary key references films(id) on delete cascade,
+	marks_sum integer not null default 0,
+	marks_count integer not null default 0,
+	rating double precision
+);
+
+create index if not exists film_ratings_rating_idx on film_ratings (rating);
+
+-- Агрегаты для фильмов, добавленных до появления film_ratings
+insert into film_ratings (film_id, marks_sum, marks_count, rating)
+select f.id, coalesce(sum(m.mark), 0), count(m.mark), avg(cast(m.mark as double precision))
+from films as f
+left join marks as m on m.film_id = f.id
+where not exists (select 1 from film_ratings as fr where fr.film_id = f.id)
+group by f.id;
+
 create table if not exists genres (
 	id integer generated by default as identity not null primary key,
 	name varchar(255) not null unique
@@ -83,3 +100,5 @@ create table if not exists users_events (
     entity_id integer not null,
     timestamp bigint not null
 );
+
+create index if not exists users_events_user_id_event_id_idx on users_events (user_id, event_id);
@@ -0,0 +1,181 @@
+package ru.yandex.practicum.filmorate.dao.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.service.recommendation.AlsRecommender;
+import ru.yandex.practicum.filmorate.service.recommendation.FactorModel;
+import ru.yandex.practicum.filmorate.service.recommendation.RatingMatrix;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Пользователи двух групп высоко оценивают фильмы своей группы и низко - чужой, каждый оценивает
+ * случайную часть фильмов. Модель должна рекомендовать неоценённые фильмы своей группы.
+ */
+@Slf4j
+@JdbcTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class AlsRecommenderTest {
+    private static final int USERS_COUNT = 60;
+    private static final int FILMS_COUNT = 40;
+    private final Random random = new Random(8);
+    private RatingMatrix ratingMatrix;
+    private MarkDbStorage markDbStorage;
+    private List<Integer> userIds;
+    private List<Integer> filmIds;
+    private final JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        List<Object[]> users = new ArrayList<>();
+        for (int i = 0; i < USERS_COUNT; i++) {
+            users.add(new Object[]{"user" + i, "User " + i, "user" + i + "@mail.ru", Date.valueOf("1986-10-25")});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO users (login, name, email, birthday) VALUES (?, ?, ?, ?)", users);
+        List<Object[]> films = new ArrayList<>();
+        for (int i = 0; i < FILMS_COUNT; i++) {
+            films.add(new Object[]{"Фильм " + i, Date.valueOf("2000-01-01"), "Описание", 100, 1});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO films (name, releaseDate, description, duration, mpa_id) " +
+                "VALUES (?, ?, ?, ?, ?)", films);
+        userIds = jdbcTemplate.queryForList("SELECT id FROM users ORDER BY id", Integer.class);
+        filmIds = jdbcTemplate.queryForList("SELECT id FROM films ORDER BY id", Integer.class);
+        List<Object[]> marks = new ArrayList<>();
+        for (int i = 0; i < USERS_COUNT; i++) {
+            for (int j = 0; j < FILMS_COUNT; j++) {
+                if (random.nextInt(2) == 0) {
+                    boolean ownGroup = i % 2 == j % 2;
+                    int mark = ownGroup ? 8 + random.nextInt(3) : 1 + random.nextInt(3);
+                    marks.add(new Object[]{userIds.get(i), filmIds.get(j), mark});
+                }
+            }
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO marks (user_id, film_id, mark) VALUES (?, ?, ?)", marks);
+        markDbStorage = new MarkDbStorage(jdbcTemplate);
+        ratingMatrix = new RatingMatrix(markDbStorage, new SimpleMeterRegistry());
+        ratingMatrix.load();
+    }
+
+    @Test
+    @DisplayName("Модель рекомендует неоценённые фильмы своей группы")
+    void testModelShouldRecommendOwnGroupFilms() throws InterruptedException {
+        AlsRecommender recommender = createRecommender(false, "");
+        assertNull(recommender.getRankedFilmIds(userIds.get(0), 5));
+
+        FactorModel model = recommender.retrain();
+        assertSame(model, recommender.getModel());
+        assertEquals(USERS_COUNT, model.getUserCount());
+        for (int i = 0; i < USERS_COUNT; i++) {
+            int userId = userIds.get(i);
+            Set<Integer> rated = new HashSet<>(jdbcTemplate.queryForList(
+                    "SELECT film_id FROM marks WHERE user_id = ?", Integer.class, userId));
+            int[] recommended = recommender.getRankedFilmIds(userId, 3);
+            assertEquals(3, recommended.length);
+            for (int filmId : recommended) {
+                assertFalse(rated.contains(filmId));
+                assertEquals(i % 2, filmIds.indexOf(filmId) % 2, "Рекомендация пользователю " + userId);
+            }
+        }
+        shutdown(recommender);
+    }
+
+    @Test
+    @DisplayName("Модель из снимка даёт те же рекомендации")
+    void testSnapshotShouldRestoreModel() throws Exception {
+        Path snapshot = Files.createTempFile("als-model", ".bin");
+        try {
+            AlsRecommender trained = createRecommender(false, snapshot.toString());
+            FactorModel model = trained.retrain();
+            shutdown(trained);
+
+            AlsRecommender restored = createRecommender(true, snapshot.toString());
+            restored.start();
+            FactorModel loaded = restored.getModel();
+            assertNotNull(loaded);
+            assertEquals(model.getTrainedAt(), loaded.getTrainedAt());
+            for (int userId : userIds) {
+                assertArrayEquals(trained.getRankedFilmIds(userId, 10), restored.getRankedFilmIds(userId, 10));
+                assertEquals(model.predict(userId, filmIds.get(0)), loaded.predict(userId, filmIds.get(0)));
+            }
+            shutdown(restored);
+        } finally {
+            Files.deleteIfExists(snapshot);
+        }
+    }
+
+    @Test
+    @DisplayName("Испорченный снимок модели отвергается")
+    void testCorruptedSnapshotShouldBeRejected() throws Exception {
+        Path snapshot = Files.createTempFile("als-model", ".bin");
+        try {
+            AlsRecommender trained = createRecommender(false, snapshot.toString());
+            trained.retrain();
+            shutdown(trained);
+            byte[] bytes = Files.readAllBytes(snapshot);
+            bytes[bytes.length / 2] ^= 1;
+            Files.write(snapshot, bytes);
+
+            assertThrows(IOException.class, () -> FactorModel.readSnapshot(snapshot));
+            Files.write(snapshot, Arrays.copyOf(bytes, bytes.length / 2));
+            assertThrows(IOException.class, () -> FactorModel.readSnapshot(snapshot));
+        } finally {
+            Files.deleteIfExists(snapshot);
+        }
+    }
+
+    @Test
+    @DisplayName("После загрузки снимка модель переобучается")
+    void testModelFromSnapshotShouldBeRetrained() throws Exception {
+        Path snapshot = Files.createTempFile("als-model", ".bin");
+        try {
+            AlsRecommender trained = createRecommender(false, snapshot.toString());
+            FactorModel model = trained.retrain();
+            shutdown(trained);
+
+            AlsRecommender restored = createRecommender(true, snapshot.toString(), 100);
+            restored.start();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (restored.getModel().getTrainedAt() == model.getTrainedAt()
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertNotEquals(model.getTrainedAt(), restored.getModel().getTrainedAt());
+            shutdown(restored);
+        } finally {
+            Files.deleteIfExists(snapshot);
+        }
+    }
+
+    private AlsRecommender createRecommender(boolean enabled, String snapshotPath) {
+        return createRecommender(enabled, snapshotPath, 3600000);
+    }
+
+    private AlsRecommender createRecommender(boolean enabled, String snapshotPath, long snapshotRetrainDelayMillis) {
+        return new AlsRecommender(markDbStorage, ratingMatrix, new SimpleMeterRegistry(), enabled, 8, 10, 0.1, 2,
+                3600000, snapshotRetrainDelayMillis, snapshotPath);
+    }
+
+    private static void shutdown(AlsRecommender recommender) {
+        recommender.shutdown();
+    }
+}
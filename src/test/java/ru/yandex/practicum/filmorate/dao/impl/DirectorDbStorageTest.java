@@ -28,8 +28,9 @@ class DirectorDbStorageTest {
 
     @BeforeEach
     void setUp() {
+        ReferenceDataRegistry referenceDataRegistry = new ReferenceDataRegistry(jdbcTemplate);
 
-        directorDbStorage = new DirectorDbStorage(jdbcTemplate);
+        directorDbStorage = new DirectorDbStorage(jdbcTemplate, referenceDataRegistry);
 
         directorOne = new Director(1,"Director");
 
@@ -65,4 +66,14 @@ class DirectorDbStorageTest {
 
     }
 
+    @Test
+    @DisplayName("Изменение полученного режиссера не меняет справочник")
+    void changeReturnedDirectorShouldNotChangeRegistry() {
+        directorDbStorage.addDirector(directorOne);
+        directorDbStorage.getDirectorById(1).get(0).setName("Changed");
+        directorDbStorage.getDirectors().get(0).setName("Changed");
+
+        assertEquals("Director", directorDbStorage.getDirectorById(1).get(0).getName());
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,95 @@
+package ru.yandex.practicum.filmorate.dao.impl;
+
+import lombok.Data;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import ru.yandex.practicum.filmorate.exception.ErrorHandler;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
+
+import javax.validation.ConstraintViolationException;
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import java.util.Set;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class ErrorHandlerTest {
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        mockMvc = MockMvcBuilders.standaloneSetup(new TestController())
+                .setControllerAdvice(new ErrorHandler())
+                .build();
+    }
+
+    @Test
+    @DisplayName("Ошибки проверки параметров запроса возвращают 400")
+    void testValidationErrorsShouldBeBadRequest() throws Exception {
+        mockMvc.perform(get("/constraint"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.errorMessage").exists());
+        mockMvc.perform(get("/bind").param("count", "0"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.errorMessage").exists());
+        mockMvc.perform(post("/body").contentType(MediaType.APPLICATION_JSON).content("{\"count\": 0}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.errorMessage").exists());
+    }
+
+    @Test
+    @DisplayName("Остальные ошибки сохраняют свои статусы")
+    void testOtherErrorsShouldKeepStatus() throws Exception {
+        mockMvc.perform(get("/not-found"))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(get("/failure"))
+                .andExpect(status().isInternalServerError());
+        mockMvc.perform(get("/bind").param("count", "1"))
+                .andExpect(status().isOk());
+    }
+
+    @RestController
+    static class TestController {
+        @GetMapping("/constraint")
+        public String constraint() {
+            throw new ConstraintViolationException("count: должно быть не меньше 1", Set.of());
+        }
+
+        @GetMapping("/bind")
+        public String bind(@Valid Form form) {
+            return "ok";
+        }
+
+        @PostMapping("/body")
+        public String body(@Valid @RequestBody Form form) {
+            return "ok";
+        }
+
+        @GetMapping("/not-found")
+        public String notFound() {
+            throw new NotFoundException("Не найдено");
+        }
+
+        @GetMapping("/failure")
+        public String failure() {
+            throw new IllegalStateException("Сбой");
+        }
+    }
+
+    @Data
+    static class Form {
+        @Min(1)
+        private int count;
+    }
+}
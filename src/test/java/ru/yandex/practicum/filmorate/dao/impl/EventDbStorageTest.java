@@ -15,7 +15,9 @@ import ru.yandex.practicum.filmorate.model.Review;
 import ru.yandex.practicum.filmorate.model.User;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.AssertionsForClassTypes.assertThatThrownBy;
@@ -39,11 +41,12 @@ public class EventDbStorageTest {
 
     @BeforeEach
     void setUp() {
+        ReferenceDataRegistry referenceDataRegistry = new ReferenceDataRegistry(jdbcTemplate);
         userDbStorage = new UserDbStorage(jdbcTemplate);
-        filmDbStorage = new FilmDbStorage(jdbcTemplate);
+        filmDbStorage = new FilmDbStorage(jdbcTemplate, referenceDataRegistry);
         eventDbStorage = new EventDbStorage(jdbcTemplate);
         reviewDbStorage = new ReviewDbStorage(jdbcTemplate);
-        mpaDbStorage = new MpaDbStorage(jdbcTemplate);
+        mpaDbStorage = new MpaDbStorage(referenceDataRegistry);
 
         user1 = userDbStorage.addUser(new User("test1@mail.ru", "test1 login",
                 "test1 name", LocalDate.of(2000, 11, 11)));
@@ -139,4 +142,97 @@ public class EventDbStorageTest {
                 .isNotBlank()
                 .isEqualTo("UPDATE");
     }
+
+    @Test
+    @DisplayName("Получение страниц ленты по границам ид событий")
+    void shouldGetFeedPagesOfUser1() {
+        for (int i = 0; i < 5; i++) {
+            eventDbStorage.addEvent(new Event(user1.getId(), "MARK", "ADD", film1.getId()));
+        }
+        eventDbStorage.addEvent(new Event(user2.getId(), "MARK", "ADD", film1.getId()));
+        List<Event> all = eventDbStorage.getUserEvents(user1.getId());
+
+        assertThat(eventDbStorage.getUserEventsPage(user1.getId(), all.get(0).getEventId(), null, 2))
+                .isEqualTo(all.subList(1, 3));
+        assertThat(eventDbStorage.getUserEventsPage(user1.getId(), null, null, 2))
+                .isEqualTo(all.subList(3, 5));
+        assertThat(eventDbStorage.getUserEventsPage(user1.getId(), null, all.get(4).getEventId(), 2))
+                .isEqualTo(all.subList(2, 4));
+        assertThat(eventDbStorage.getUserEventsPage(user1.getId(), all.get(4).getEventId(), null, 2))
+                .isEqualTo(List.of());
+        assertThatThrownBy(() -> eventDbStorage.getUserEventsPage(999, null, null, 2))
+                .isInstanceOf(NotFoundException.class);
+    }
+
+    @Test
+    @DisplayName("Страницы ленты друзей по убыванию ид событий")
+    void shouldMergeFriendsEventsPages() {
+        userDbStorage.addFriend(user1.getId(), user2.getId());
+        userDbStorage.addFriend(user1.getId(), user3.getId());
+        for (int i = 0; i < 4; i++) {
+            eventDbStorage.addEvent(new Event(user2.getId(), "MARK", "ADD", film1.getId()));
+            eventDbStorage.addEvent(new Event(user3.getId(), "MARK", "ADD", film1.getId()));
+            eventDbStorage.addEvent(new Event(user1.getId(), "MARK", "ADD", film1.getId()));
+        }
+        List<Event> friendsEvents = jdbcTemplate.query("select * from users_events where user_id in (?, ?) " +
+                "order by event_id", (rs, rowNum) -> new Event(rs.getInt("event_id"), rs.getInt("user_id"),
+                rs.getString("event_type"), rs.getString("operation"), rs.getInt("entity_id"),
+                rs.getLong("timestamp")), user2.getId(), user3.getId());
+
+        assertThat(eventDbStorage.getFriendsEventsPage(user1.getId(), null, 3))
+                .isEqualTo(friendsEvents.subList(5, 8));
+        assertThat(eventDbStorage.getFriendsEventsPage(user1.getId(), friendsEvents.get(5).getEventId(), 3))
+                .isEqualTo(friendsEvents.subList(2, 5));
+        assertThat(eventDbStorage.getFriendsEventsPage(user1.getId(), friendsEvents.get(1).getEventId(), 3))
+                .isEqualTo(friendsEvents.subList(0, 1));
+        assertThat(eventDbStorage.getFriendsEventsPage(user2.getId(), null, 3))
+                .isEqualTo(List.of());
+    }
+
+    @Test
+    @DisplayName("Постраничный обход ленты пользователя с большим числом друзей")
+    void shouldPageFriendsEventsOfUserWithManyFriends() {
+        List<Integer> friendIds = new ArrayList<>();
+        List<Integer> strangerIds = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            int id = userDbStorage.addUser(new User("friend" + i + "@mail.ru", "friend" + i, "Friend " + i,
+                    LocalDate.of(2000, 1, 1))).getId();
+            if (i % 3 == 0) {
+                strangerIds.add(id);
+            } else {
+                userDbStorage.addFriend(user1.getId(), id);
+                friendIds.add(id);
+            }
+        }
+        List<Event> events = new ArrayList<>();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 60; i++) {
+                int authorId = i % 3 == 0 ? strangerIds.get(i / 3) : friendIds.get(i - i / 3 - 1);
+                events.add(new Event(authorId, "MARK", "ADD", film1.getId()));
+            }
+        }
+        eventDbStorage.addEvents(events);
+        List<Event> expected = events.stream()
+                .filter(event -> friendIds.contains(event.getUserId()))
+                .collect(Collectors.toList());
+
+        // Первая страница - последние 7 событий друзей, следующие - строго до первого события предыдущей
+        List<Event> page = eventDbStorage.getFriendsEventsPage(user1.getId(), null, 7);
+        assertThat(page).isEqualTo(expected.subList(expected.size() - 7, expected.size()));
+        List<Event> walked = new ArrayList<>(page);
+        while (!page.isEmpty()) {
+            page = eventDbStorage.getFriendsEventsPage(user1.getId(), page.get(0).getEventId(), 7);
+            assertThat(page.size()).isLessThanOrEqualTo(7);
+            walked.addAll(0, page);
+        }
+        assertThat(walked).isEqualTo(expected);
+
+        Event boundary = expected.get(50);
+        assertThat(eventDbStorage.getFriendsEventsPage(user1.getId(), boundary.getEventId(), 3))
+                .isEqualTo(expected.subList(47, 50));
+        assertThat(eventDbStorage.getFriendsEventsPage(user1.getId(), boundary.getEventId() + 1, 3))
+                .isEqualTo(expected.subList(48, 51));
+        assertThat(eventDbStorage.getFriendsEventsPage(user1.getId(), expected.get(0).getEventId(), 3))
+                .isEqualTo(List.of());
+    }
 }
@@ -0,0 +1,105 @@
+package ru.yandex.practicum.filmorate.dao.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.model.Event;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.service.event.EventDelivery;
+import ru.yandex.practicum.filmorate.service.event.EventWriter;
+import ru.yandex.practicum.filmorate.service.event.FeedHub;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Поток записи событий работает со своим соединением, поэтому тест не оборачивается в транзакцию.
+ */
+@JdbcTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class EventWriterTest {
+    private static final int THREADS = 8;
+    private static final int EVENTS_PER_THREAD = 250;
+    private EventDbStorage eventDbStorage;
+    private EventWriter eventWriter;
+    private int userId;
+    private final JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        eventDbStorage = new EventDbStorage(jdbcTemplate);
+        userId = new UserDbStorage(jdbcTemplate)
+                .addUser(new User("user@mail.ru", "user", "User", LocalDate.of(1986, 10, 25)))
+                .getId();
+        FeedHub feedHub = new FeedHub(eventDbStorage, new SimpleMeterRegistry(), 16, 60_000, 15_000, 1);
+        eventWriter = new EventWriter(eventDbStorage, List.of(feedHub), new SimpleMeterRegistry(), true, 64, 500);
+    }
+
+    @AfterEach
+    void tearDown() {
+        eventWriter.shutdown();
+    }
+
+    @Test
+    @DisplayName("Событие с гарантией записи видно сразу после вызова")
+    void testStrictWriteShouldBeVisibleAfterReturn() {
+        Event event = new Event(userId, "FRIEND", "ADD", 2);
+        eventWriter.write(event, EventDelivery.STRICT);
+
+        List<Event> events = eventDbStorage.getUserEvents(userId);
+        assertEquals(1, events.size());
+        assertEquals(events.get(0).getEventId(), event.getEventId());
+        assertEquals("FRIEND", events.get(0).getEventType());
+        assertEquals(1, eventWriter.getWrittenCount());
+    }
+
+    @Test
+    @DisplayName("Ошибка записи возвращается вызывающему только при гарантии записи")
+    void testStrictWriteShouldThrowOnFailedEvent() {
+        assertThrows(DataIntegrityViolationException.class,
+                () -> eventWriter.write(new Event(9999, "FRIEND", "ADD", 2), EventDelivery.STRICT));
+
+        eventWriter.write(new Event(9999, "FRIEND", "ADD", 2), EventDelivery.RELAXED);
+        eventWriter.write(new Event(userId, "FRIEND", "ADD", 2), EventDelivery.STRICT);
+
+        assertEquals(2, eventWriter.getFailedCount());
+        assertEquals(1, eventDbStorage.getUserEvents(userId).size());
+    }
+
+    @Test
+    @DisplayName("Запись событий из нескольких потоков без потерь")
+    void testConcurrentWritesShouldPersistAllEvents() throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            EventDelivery delivery = t % 2 == 0 ? EventDelivery.STRICT : EventDelivery.RELAXED;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < EVENTS_PER_THREAD; i++) {
+                    eventWriter.write(new Event(userId, "MARK", "ADD", i), delivery);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        eventWriter.shutdown();
+
+        assertEquals(THREADS * EVENTS_PER_THREAD, eventDbStorage.getUserEvents(userId).size());
+        assertEquals(THREADS * EVENTS_PER_THREAD, eventWriter.getWrittenCount() + eventWriter.getDirectWriteCount());
+    }
+}
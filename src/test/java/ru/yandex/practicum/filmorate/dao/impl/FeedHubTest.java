@@ -0,0 +1,90 @@
+package ru.yandex.practicum.filmorate.dao.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.model.Event;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.service.event.FeedHub;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@JdbcTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class FeedHubTest {
+    private static final int BUFFER_SIZE = 1;
+    private FeedHub feedHub;
+    private int userId;
+    private final JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        feedHub = new FeedHub(new EventDbStorage(jdbcTemplate), new SimpleMeterRegistry(), BUFFER_SIZE, 60_000,
+                15_000, 1);
+        userId = new UserDbStorage(jdbcTemplate)
+                .addUser(new User("user@mail.ru", "user", "User", LocalDate.of(1986, 10, 25)))
+                .getId();
+    }
+
+    @AfterEach
+    void tearDown() {
+        feedHub.shutdown();
+    }
+
+    @Test
+    @DisplayName("Подписка на ленту несуществующего пользователя")
+    void testSubscribeShouldFailForUnknownUser() {
+        assertThrows(NotFoundException.class, () -> feedHub.subscribe(9999, null));
+        assertEquals(0, feedHub.getSubscriberCount());
+    }
+
+    @Test
+    @DisplayName("Закрытие подписки клиента, который не успевает читать события")
+    void testPublishShouldEvictSlowSubscriber() throws InterruptedException {
+        SseEmitter emitter = feedHub.subscribe(userId, null);
+        assertEquals(1, feedHub.getSubscriberCount());
+
+        // Отправка в SseEmitter синхронизирована на нём, поэтому пока тест держит монитор, поток отправки стоит.
+        // Публикующий поток при этом не должен ждать монитор, даже когда вытесняет подписчика
+        synchronized (emitter) {
+            Thread publisher = new Thread(() -> {
+                for (int i = 1; i <= BUFFER_SIZE + 2; i++) {
+                    feedHub.onEventsWritten(List.of(new Event(i, userId, "MARK", "ADD", i,
+                            System.currentTimeMillis())));
+                }
+            });
+            publisher.start();
+            publisher.join(5_000);
+            assertFalse(publisher.isAlive());
+        }
+
+        assertEquals(1, feedHub.getEvictedCount());
+        assertEquals(0, feedHub.getSubscriberCount());
+    }
+
+    @Test
+    @DisplayName("События других пользователей подписчику не отправляются")
+    void testPublishShouldIgnoreOtherUsers() {
+        feedHub.subscribe(userId, null);
+
+        for (int i = 1; i <= BUFFER_SIZE + 2; i++) {
+            feedHub.onEventsWritten(List.of(new Event(i, userId + 1, "MARK", "ADD", i, System.currentTimeMillis())));
+        }
+
+        assertEquals(0, feedHub.getEvictedCount());
+        assertEquals(1, feedHub.getSubscriberCount());
+    }
+}
@@ -0,0 +1,202 @@
+package ru.yandex.practicum.filmorate.dao.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.dto.Suggestion;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.service.film.FilmAutocomplete;
+import ru.yandex.practicum.filmorate.service.film.FilmPopularityIndex;
+import ru.yandex.practicum.filmorate.service.film.FilmSearchIndex;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@JdbcTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class FilmAutocompleteTest {
+    private static final Mpa MPA = new Mpa(1, "G");
+    private FilmDbStorage filmDbStorage;
+    private FilmPopularityIndex popularityIndex;
+    private FilmSearchIndex searchIndex;
+    private FilmAutocomplete autocomplete;
+    private Director tarkovsky;
+    private int knightId;
+    private int interstellarId;
+    private int solarisId;
+    private int mirrorId;
+    private int userId;
+    private final JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        ReferenceDataRegistry referenceDataRegistry = new ReferenceDataRegistry(jdbcTemplate);
+        filmDbStorage = new FilmDbStorage(jdbcTemplate, referenceDataRegistry);
+        DirectorDbStorage directorDbStorage = new DirectorDbStorage(jdbcTemplate, referenceDataRegistry);
+        Director nolan = directorDbStorage.addDirector(new Director(0, "Кристофер Нолан"));
+        tarkovsky = directorDbStorage.addDirector(new Director(0, "Андрей Тарковский"));
+        knightId = addFilm("Тёмный рыцарь", nolan);
+        interstellarId = addFilm("Интерстеллар", nolan);
+        solarisId = addFilm("Солярис", tarkovsky);
+        mirrorId = addFilm("Зеркало", tarkovsky);
+        int watersId = addFilm("Тёмные воды");
+        userId = new UserDbStorage(jdbcTemplate)
+                .addUser(new User("user@mail.ru", "user", "User", LocalDate.of(1986, 10, 25)))
+                .getId();
+        filmDbStorage.addMark(knightId, userId, 9);
+        filmDbStorage.addMark(interstellarId, userId, 7);
+        filmDbStorage.addMark(solarisId, userId, 8);
+        filmDbStorage.addMark(watersId, userId, 5);
+        popularityIndex = new FilmPopularityIndex(filmDbStorage);
+        popularityIndex.load();
+        searchIndex = new FilmSearchIndex(filmDbStorage, directorDbStorage);
+        searchIndex.load();
+        autocomplete = new FilmAutocomplete(searchIndex, popularityIndex, new SimpleMeterRegistry(),
+                1000, 10000, 60000);
+        autocomplete.rebuild();
+    }
+
+    @Test
+    @DisplayName("Подсказки по началу слова без учёта регистра, по убыванию рейтинга")
+    void testSuggestShouldMatchWordStartsByRating() {
+        assertEquals(List.of("Тёмный рыцарь", "Андрей Тарковский", "Тёмные воды"), names("т", 10));
+        assertEquals(List.of("Тёмный рыцарь"), names("т", 1));
+        assertEquals(List.of("Тёмный рыцарь", "Тёмные воды"), names("  ТЁМ", 10));
+        assertEquals(List.of("Тёмный рыцарь"), names("тёмный р", 10));
+        assertEquals(List.of("Тёмный рыцарь"), names("Ры", 10));
+        assertEquals(List.of(), names("ыцарь", 10));
+        assertEquals(List.of(), names("", 10));
+
+        Suggestion nolan = autocomplete.suggest("нол", 10).get(0);
+        assertEquals(Suggestion.DIRECTOR, nolan.getType());
+        assertArrayEquals(new int[]{knightId, interstellarId}, nolan.getFilmIds());
+        Suggestion knight = autocomplete.suggest("рыц", 10).get(0);
+        assertEquals(Suggestion.FILM, knight.getType());
+        assertArrayEquals(new int[]{knightId}, knight.getFilmIds());
+    }
+
+    @Test
+    @DisplayName("Подсказки после перестроения учитывают новые фильмы и оценки")
+    void testRebuildShouldFollowFilmsAndMarks() {
+        filmDbStorage.addMark(mirrorId, userId, 10);
+        popularityIndex.refreshRatings(List.of(mirrorId));
+        Film tower = newFilm("Тёмная башня");
+        tower.setId(filmDbStorage.addFilm(tower).getId());
+        popularityIndex.addFilm(tower);
+        searchIndex.addFilm(tower);
+
+        assertEquals(List.of("Тёмный рыцарь", "Тёмные воды"), names("тём", 10));
+
+        autocomplete.rebuild();
+
+        assertEquals(List.of("Андрей Тарковский", "Тёмный рыцарь", "Тёмные воды", "Тёмная башня"),
+                names("т", 10));
+        assertEquals(List.of("Тёмный рыцарь", "Тёмные воды", "Тёмная башня"), names("тём", 10));
+        Suggestion director = autocomplete.suggest("тар", 10).get(0);
+        assertEquals((int) tarkovsky.getId(), director.getId());
+        assertArrayEquals(new int[]{mirrorId, solarisId}, director.getFilmIds());
+    }
+
+    @Test
+    @DisplayName("Изменения фильмов копятся и перестраивают подсказки не чаще заданного периода")
+    void testFilmChangesShouldBeBatched() throws InterruptedException {
+        long filmRefreshIntervalMillis = 500;
+        FilmAutocomplete batched = new FilmAutocomplete(searchIndex, popularityIndex, new SimpleMeterRegistry(),
+                10, filmRefreshIntervalMillis, 60000);
+        long start = System.nanoTime();
+        batched.start();
+        try {
+            for (int i = 0; i < 5; i++) {
+                Film film = newFilm("Тёмная башня " + i);
+                film.setId(filmDbStorage.addFilm(film).getId());
+                searchIndex.addFilm(film);
+                Thread.sleep(20);
+            }
+            if (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(filmRefreshIntervalMillis)) {
+                assertEquals(1, batched.getRebuildCount());
+            }
+            long deadline = System.currentTimeMillis() + 10000;
+            while (batched.suggest("баш", 10).size() < 5 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(5, batched.suggest("баш", 10).size());
+            // Начальное построение и не больше одного перестроения за каждый период
+            long periods = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) / filmRefreshIntervalMillis;
+            assertTrue(batched.getRebuildCount() <= 1 + periods, "Перестроений: " + batched.getRebuildCount());
+        } finally {
+            batched.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Лучшие подсказки диапазона ключей совпадают с перебором всех названий")
+    void testSuggestShouldMatchFullScan() {
+        // Слова не пересекаются с названиями и именами из setUp
+        Random random = new Random(24);
+        String[] words = {"Бег", "Берег", "Бета", "Гол", "Голос", "Дом", "Дорога", "Ель"};
+        List<Film> films = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Film film = newFilm(words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)]);
+            film.setId(filmDbStorage.addFilm(film).getId());
+            if (random.nextBoolean()) {
+                filmDbStorage.addMark(film.getId(), userId, 1 + random.nextInt(10));
+            }
+            films.add(film);
+        }
+        popularityIndex.load();
+        searchIndex.load();
+        autocomplete.rebuild();
+
+        for (String prefix : List.of("б", "бе", "бег", "г", "гол", "голо", "д", "до", "е", "ж")) {
+            List<Integer> expected = films.stream()
+                    .filter(film -> Arrays.stream(film.getName().toUpperCase(Locale.ROOT).split(" "))
+                            .anyMatch(word -> word.startsWith(prefix.toUpperCase(Locale.ROOT))))
+                    .sorted(Comparator.comparingDouble((Film film) -> popularityIndex.getRating(film.getId()))
+                            .reversed()
+                            .thenComparingInt(Film::getId))
+                    .limit(FilmAutocomplete.MAX_LIMIT)
+                    .map(Film::getId)
+                    .collect(Collectors.toList());
+            assertEquals(expected, autocomplete.suggest(prefix, FilmAutocomplete.MAX_LIMIT).stream()
+                    .map(Suggestion::getId)
+                    .collect(Collectors.toList()), prefix);
+        }
+    }
+
+    private List<String> names(String prefix, int limit) {
+        return autocomplete.suggest(prefix, limit).stream()
+                .map(Suggestion::getName)
+                .collect(Collectors.toList());
+    }
+
+    private int addFilm(String name, Director... directors) {
+        return filmDbStorage.addFilm(newFilm(name, directors)).getId();
+    }
+
+    private static Film newFilm(String name, Director... directors) {
+        Film film = new Film(name, "Описание", LocalDate.of(2000, 1, 1), 100, MPA);
+        film.setDirectors(List.of(directors));
+        return film;
+    }
+}
@@ -0,0 +1,126 @@
+package ru.yandex.practicum.filmorate.dao.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.model.*;
+import ru.yandex.practicum.filmorate.service.event.EventDelivery;
+import ru.yandex.practicum.filmorate.service.event.EventServiceImpl;
+import ru.yandex.practicum.filmorate.service.event.EventWriter;
+import ru.yandex.practicum.filmorate.service.film.FilmAutocomplete;
+import ru.yandex.practicum.filmorate.service.film.FilmCache;
+import ru.yandex.practicum.filmorate.service.film.FilmFacetIndex;
+import ru.yandex.practicum.filmorate.service.film.FilmPopularityIndex;
+import ru.yandex.practicum.filmorate.service.film.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.service.film.FilmServiceImpl;
+import ru.yandex.practicum.filmorate.service.film.MarkWriteBuffer;
+import ru.yandex.practicum.filmorate.service.recommendation.CoRaterScorer;
+import ru.yandex.practicum.filmorate.service.recommendation.FilmSimilarityIndex;
+import ru.yandex.practicum.filmorate.service.recommendation.RatingMatrix;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@JdbcTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class FilmCacheTest {
+    private static final Mpa MPA = new Mpa(1, "G");
+    private static final int MAX_SIZE = 1;
+    private FilmCache filmCache;
+    private FilmServiceImpl filmService;
+    private int filmOneId;
+    private int filmTwoId;
+    private int userId;
+    private final JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        // Фоновая запись событий и оценок выключена, рассылки ленты нет: тест не запускает потоков
+        ReferenceDataRegistry referenceDataRegistry = new ReferenceDataRegistry(jdbcTemplate);
+        FilmDbStorage filmDbStorage = new FilmDbStorage(jdbcTemplate, referenceDataRegistry);
+        filmCache = new FilmCache(MAX_SIZE, new SimpleMeterRegistry());
+        EventDbStorage eventDbStorage = new EventDbStorage(jdbcTemplate);
+        FilmPopularityIndex popularityIndex = new FilmPopularityIndex(filmDbStorage);
+        RatingMatrix ratingMatrix = new RatingMatrix(new MarkDbStorage(jdbcTemplate), new SimpleMeterRegistry());
+        MarkWriteBuffer markWriteBuffer = new MarkWriteBuffer(filmDbStorage, eventDbStorage, popularityIndex, filmCache,
+                ratingMatrix, List.of(), new DataSourceTransactionManager(jdbcTemplate.getDataSource()),
+                new SimpleMeterRegistry(), false, 500, 50, 10000, 100);
+        EventWriter eventWriter = new EventWriter(eventDbStorage, List.of(), new SimpleMeterRegistry(),
+                false, 16, 500);
+        FilmSearchIndex searchIndex = new FilmSearchIndex(filmDbStorage,
+                new DirectorDbStorage(jdbcTemplate, referenceDataRegistry));
+        EventServiceImpl eventService = new EventServiceImpl(eventDbStorage, eventWriter, EventDelivery.STRICT);
+        filmService = new FilmServiceImpl(filmDbStorage, eventService, popularityIndex,
+                filmCache, markWriteBuffer, ratingMatrix, new FilmSimilarityIndex(ratingMatrix,
+                new CoRaterScorer(ratingMatrix, new SimpleMeterRegistry(), 200000, 1), new SimpleMeterRegistry(),
+                50, 1000), searchIndex,
+                new FilmAutocomplete(searchIndex, popularityIndex, new SimpleMeterRegistry(), 1000, 10000, 60000),
+                new FilmFacetIndex(filmDbStorage, popularityIndex));
+        filmOneId = filmService.addFilm(new Film("Фильм один", "Описание", LocalDate.of(1986, 10, 25), 100, MPA))
+                .getId();
+        filmTwoId = filmService.addFilm(new Film("Фильм два", "Описание", LocalDate.of(1990, 1, 1), 100, MPA))
+                .getId();
+        userId = new UserDbStorage(jdbcTemplate)
+                .addUser(new User("user@mail.ru", "user", "User", LocalDate.of(1986, 10, 25)))
+                .getId();
+    }
+
+    @Test
+    @DisplayName("Повторное получение фильма из кэша")
+    void testGetFilmByIdShouldHitCacheOnSecondCall() {
+        Film first = filmService.getFilmById(filmOneId);
+        Film second = filmService.getFilmById(filmOneId);
+
+        assertEquals(first, second);
+        assertEquals(1, filmCache.getMissCount());
+        assertEquals(1, filmCache.getHitCount());
+    }
+
+    @Test
+    @DisplayName("Изменение полученного фильма не меняет фильм в кэше")
+    void testChangedFilmShouldNotChangeCachedFilm() {
+        Film first = filmService.getFilmById(filmOneId);
+        first.setRating(10.0);
+        first.getGenres().add(new Genre(1, "Комедия"));
+        filmService.getFilmById(filmOneId).getMpa().setName("R");
+
+        Film cached = filmService.getFilmById(filmOneId);
+
+        assertNotSame(first, cached);
+        assertEquals(0, cached.getRating());
+        assertTrue(cached.getGenres().isEmpty());
+        assertEquals("G", cached.getMpa().getName());
+        assertEquals(2, filmCache.getHitCount());
+    }
+
+    @Test
+    @DisplayName("Сброс фильма в кэше после оценки")
+    void testAddMarkShouldInvalidateFilm() {
+        filmService.getFilmById(filmOneId);
+
+        filmService.addMark(filmOneId, userId, 7);
+
+        assertEquals(7, filmService.getFilmById(filmOneId).getRating());
+        assertEquals(2, filmCache.getMissCount());
+    }
+
+    @Test
+    @DisplayName("Вытеснение фильма при превышении размера кэша")
+    void testGetFilmByIdShouldEvictLeastRecentlyUsed() {
+        filmService.getFilmById(filmOneId);
+        filmService.getFilmById(filmTwoId);
+
+        assertEquals(MAX_SIZE, filmCache.size());
+        assertEquals(1, filmCache.getEvictionCount());
+    }
+}
@@ -7,10 +7,13 @@ import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.annotation.DirtiesContext;
 import ru.yandex.practicum.filmorate.model.*;
+import ru.yandex.practicum.filmorate.service.film.FilmPopularityIndex;
+import ru.yandex.practicum.filmorate.service.film.FilmSearchIndex;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.BiFunction;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -56,9 +59,10 @@ class FilmDbStorageTest {
 
     @BeforeEach
     void setUp() {
-        filmDbStorage = new FilmDbStorage(jdbcTemplate);
+        ReferenceDataRegistry referenceDataRegistry = new ReferenceDataRegistry(jdbcTemplate);
+        filmDbStorage = new FilmDbStorage(jdbcTemplate, referenceDataRegistry);
         userDbStorage = new UserDbStorage(jdbcTemplate);
-        directorDbStorage = new DirectorDbStorage(jdbcTemplate);
+        directorDbStorage = new DirectorDbStorage(jdbcTemplate, referenceDataRegistry);
 
         directorDbStorage.addDirector(directorOne);
         directorDbStorage.addDirector(directorTwo);
@@ -104,6 +108,22 @@ class FilmDbStorageTest {
         assertEquals(filmOne, savedFilm);
     }
 
+    @Test
+    @DisplayName("Пакетное добавление фильмов")
+    void testAddFilmsShouldBeEquals() {
+        filmOne.setGenres(List.of(genreOne, genreOne));
+        List<Film> addedFilms = filmDbStorage.addFilms(List.of(filmOne, filmTwo));
+
+        assertEquals(2, addedFilms.size());
+        assertNotNull(filmOne.getId());
+        assertNotNull(filmTwo.getId());
+        Film savedFilmOne = filmDbStorage.getFilmById(filmOne.getId()).get(0);
+        assertEquals(List.of(genreOne), savedFilmOne.getGenres());
+        assertEquals(List.of(directorOne, directorTwo), savedFilmOne.getDirectors());
+        assertEquals(filmTwo.getName(), filmDbStorage.getFilmById(filmTwo.getId()).get(0).getName());
+        assertEquals(2, filmDbStorage.getFilmIdToMarksSumAndCount(List.of(filmOne.getId(), filmTwo.getId())).size());
+    }
+
     @Test
     @DisplayName("Обновление фильма")
     void testUpdateFilmShouldBeEquals() {
@@ -171,6 +191,51 @@ class FilmDbStorageTest {
         assertEquals(films, returnedFilms);
     }
 
+    @Test
+    @DisplayName("Получение страниц фильмов по ид")
+    void testGetFilmsPageShouldContinueAfterId() {
+        int filmOneId = filmDbStorage.addFilm(filmOne).getId();
+        filmOne.setId(filmOneId);
+        int filmTwoId = filmDbStorage.addFilm(filmTwo).getId();
+        filmTwo.setId(filmTwoId);
+
+        List<Film> firstPage = filmDbStorage.getFilmsPage(0, 1);
+        List<Film> secondPage = filmDbStorage.getFilmsPage(filmOneId, 1);
+
+        assertEquals(List.of(filmOne), firstPage);
+        assertEquals(List.of(filmTwo), secondPage);
+        assertTrue(filmDbStorage.getFilmsPage(filmTwoId, 1).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Потоковая выгрузка всех фильмов")
+    void testExportFilmsShouldReturnHydratedFilmsInIdOrder() {
+        filmOne.setId(filmDbStorage.addFilm(filmOne).getId());
+        filmTwo.setId(filmDbStorage.addFilm(filmTwo).getId());
+        List<Film> exportedFilms = new ArrayList<>();
+
+        filmDbStorage.exportFilms(exportedFilms::add);
+
+        assertEquals(List.of(filmOne, filmTwo), exportedFilms);
+    }
+
+    @Test
+    @DisplayName("Справочники в фильмах не связаны между собой и обновление режиссёра")
+    void testFilmsShouldNotShareReferenceDataAndSeeUpdatedDirector() {
+        filmTwo.setGenres(List.of(genreOne));
+        int filmOneId = filmDbStorage.addFilm(filmOne).getId();
+        int filmTwoId = filmDbStorage.addFilm(filmTwo).getId();
+        directorDbStorage.updateDirector(new Director(directorOne.getId(), "Director one renamed"));
+
+        Film returnedFilmOne = filmDbStorage.getFilmById(filmOneId).get(0);
+        Film returnedFilmTwo = filmDbStorage.getFilmById(filmTwoId).get(0);
+
+        returnedFilmOne.getGenres().get(0).setName("Изменённый жанр");
+        assertEquals(genreOne.getName(), returnedFilmTwo.getGenres().get(0).getName());
+        assertEquals(genreOne.getName(), filmDbStorage.getFilmById(filmOneId).get(0).getGenres().get(0).getName());
+        assertEquals("Director one renamed", returnedFilmOne.getDirectors().get(0).getName());
+    }
+
     @Test
     @DisplayName("Получение всех фильмов с 1 лайком в фильме 1")
     void testGetAllFilmsShouldBe1() {
@@ -212,6 +277,52 @@ class FilmDbStorageTest {
         assertEquals(0, film.getRating());
     }
 
+    @Test
+    @DisplayName("Пересчёт рейтинга после удаления одной из оценок")
+    void testDeleteOneOfMarksShouldRecalculateRating() {
+        int filmId = filmDbStorage.addFilm(filmOne).getId();
+        int userId = userDbStorage.addUser(userOne).getId();
+        int userIdTwo = userDbStorage.addUser(new User("222@mail.ru", "22222", "2222", BIRTHDAY_USER_ONE)).getId();
+        filmDbStorage.addMark(filmId, userId, 10);
+        filmDbStorage.addMark(filmId, userIdTwo, 4);
+
+        Integer result = filmDbStorage.deleteMark(filmId, userId);
+
+        assertEquals(1, result);
+        assertEquals(4, filmDbStorage.getFilmById(filmId).get(0).getRating());
+        assertEquals(0, filmDbStorage.deleteMark(filmId, userId));
+    }
+
+    @Test
+    @DisplayName("Пересчёт рейтинга после удаления пользователя")
+    void testDeleteUserShouldRecalculateRating() {
+        int filmId = filmDbStorage.addFilm(filmOne).getId();
+        int userId = userDbStorage.addUser(userOne).getId();
+        int userIdTwo = userDbStorage.addUser(new User("222@mail.ru", "22222", "2222", BIRTHDAY_USER_ONE)).getId();
+        filmDbStorage.addMark(filmId, userId, 10);
+        filmDbStorage.addMark(filmId, userIdTwo, 6);
+
+        userDbStorage.deleteUser(userId);
+
+        assertEquals(6, filmDbStorage.getFilmById(filmId).get(0).getRating());
+    }
+
+    @Test
+    @DisplayName("Оценка фильма без строки агрегата создаёт агрегат")
+    void testAddMarkShouldCreateMissingRating() {
+        int userId = userDbStorage.addUser(userOne).getId();
+        int userIdTwo = userDbStorage.addUser(new User("222@mail.ru", "22222", "2222", BIRTHDAY_USER_ONE)).getId();
+        int filmId = filmDbStorage.addFilm(filmOne).getId();
+        filmDbStorage.addMark(filmId, userId, 10);
+        jdbcTemplate.update("DELETE FROM film_ratings WHERE film_id = ?", filmId);
+
+        filmDbStorage.addMark(filmId, userIdTwo, 6);
+
+        assertEquals(8, filmDbStorage.getFilmById(filmId).get(0).getRating());
+        assertEquals(2, (int) jdbcTemplate.queryForObject(
+                "SELECT marks_count FROM film_ratings WHERE film_id = ?", Integer.class, filmId));
+    }
+
     @Test
     @DisplayName("Получение всех популярных фильмов")
     void testGetAllPopularFilmsShouldBe2WhenCountIsNull() {
@@ -223,7 +334,7 @@ class FilmDbStorageTest {
         filmDbStorage.addMark(filmId, userId, 10);
         filmDbStorage.addMark(filmTwoId, userId, 6);
 
-        List<Film> films = filmDbStorage.getPopularFilms();
+        List<Film> films = popularFilms(null, 0, null);
 
         assertEquals(3, films.size());
         assertEquals(filmId, films.get(0).getId());
@@ -238,7 +349,7 @@ class FilmDbStorageTest {
         filmOne.setId(filmId);
         filmDbStorage.addMark(filmId, userId, 7);
 
-        List<Film> films = filmDbStorage.getPopularFilmsWithLimit(1);
+        List<Film> films = popularFilms(1, 0, null);
 
         assertEquals(1, films.size());
         assertEquals(filmId, films.get(0).getId());
@@ -294,7 +405,7 @@ class FilmDbStorageTest {
         filmDbStorage.addMark(filmId, userId, 10);
         filmDbStorage.addMark(filmIdTwo, userId, 8);
 
-        List<Film> films = filmDbStorage.getPopularFilmsByGenre(1);
+        List<Film> films = popularFilms(null, 1, null);
 
         assertEquals(1, films.size());
         assertEquals(filmId, films.get(0).getId());
@@ -310,7 +421,7 @@ class FilmDbStorageTest {
         filmDbStorage.addMark(filmId, userId, 10);
         filmDbStorage.addMark(filmIdTwo, userId, 8);
 
-        List<Film> films = filmDbStorage.getPopularFilmsByGenreWithLimit(1, 1);
+        List<Film> films = popularFilms(1, 1, null);
 
         assertEquals(1, films.size());
         assertEquals(filmId, films.get(0).getId());
@@ -325,7 +436,7 @@ class FilmDbStorageTest {
         filmOne.setId(filmId);
         filmDbStorage.addMark(filmId, userId, 10);
 
-        List<Film> films = filmDbStorage.getPopularFilmsByYear(1986);
+        List<Film> films = popularFilms(null, 0, 1986);
 
         assertEquals(1, films.size());
         assertEquals(filmId, films.get(0).getId());
@@ -340,12 +451,25 @@ class FilmDbStorageTest {
         filmOne.setId(filmId);
         filmDbStorage.addMark(filmId, userId, 10);
 
-        List<Film> films = filmDbStorage.getPopularFilmsByYearAndGenre(1, 1986);
+        List<Film> films = popularFilms(null, 1, 1986);
 
         assertEquals(1, films.size());
         assertEquals(filmId, films.get(0).getId());
     }
 
+    @Test
+    @DisplayName("Получение фильмов по списку ид с сохранением порядка")
+    void testGetFilmsByIdsShouldKeepOrder() {
+        int filmId = filmDbStorage.addFilm(filmOne).getId();
+        int filmIdTwo = filmDbStorage.addFilm(filmTwo).getId();
+        filmOne.setId(filmId);
+        filmTwo.setId(filmIdTwo);
+
+        List<Film> films = filmDbStorage.getFilmsByIds(List.of(filmIdTwo, 999, filmId));
+
+        assertEquals(List.of(filmTwo, filmOne), films);
+    }
+
     @Test
     @DisplayName("Поиск фильма по названию")
     void testSearchByTitle() {
@@ -353,7 +477,7 @@ class FilmDbStorageTest {
         filmDbStorage.addFilm(filmTwo);
         userDbStorage.addUser(userOne);
         filmDbStorage.addMark(2, 1, 10);
-        List<Film> films = filmDbStorage.getFilmsByTitleSearch("фильм");
+        List<Film> films = searchFilms(FilmSearchIndex::findByTitle, "фильм");
         assertEquals(2, films.size());
         assertEquals(10, films.get(0).getRating());
     }
@@ -365,7 +489,7 @@ class FilmDbStorageTest {
         filmDbStorage.addFilm(filmTwo);
         userDbStorage.addUser(userOne);
 
-        List<Film> films = filmDbStorage.getFilmsByTitleSearch("pbvf");
+        List<Film> films = searchFilms(FilmSearchIndex::findByTitle, "pbvf");
 
         assertEquals(0, films.size());
     }
@@ -378,7 +502,7 @@ class FilmDbStorageTest {
         userDbStorage.addUser(userOne);
         filmDbStorage.addMark(2, 1, 10);
 
-        List<Film> films = filmDbStorage.getFilmsByTitleAndDirectorSearch("dir");
+        List<Film> films = searchFilms(FilmSearchIndex::findByTitleOrDirector, "dir");
 
         assertEquals(2, films.size());
         assertEquals(10, films.get(0).getRating());
@@ -391,7 +515,7 @@ class FilmDbStorageTest {
         filmDbStorage.addFilm(filmTwo);
         userDbStorage.addUser(userOne);
 
-        List<Film> films = filmDbStorage.getFilmsByTitleAndDirectorSearch("pbvf");
+        List<Film> films = searchFilms(FilmSearchIndex::findByTitleOrDirector, "pbvf");
 
         assertEquals(0, films.size());
     }
@@ -404,7 +528,7 @@ class FilmDbStorageTest {
         userDbStorage.addUser(userOne);
         filmDbStorage.addMark(2, 1, 10);
 
-        List<Film> films = filmDbStorage.getFilmsByDirectorSearch("dir");
+        List<Film> films = searchFilms(FilmSearchIndex::findByDirector, "dir");
 
         assertEquals(2, films.size());
         assertEquals(10, films.get(0).getRating());
@@ -417,8 +541,24 @@ class FilmDbStorageTest {
         filmDbStorage.addFilm(filmTwo);
         userDbStorage.addUser(userOne);
 
-        List<Film> films = filmDbStorage.getFilmsByDirectorSearch("pbvf");
+        List<Film> films = searchFilms(FilmSearchIndex::findByDirector, "pbvf");
 
         assertEquals(0, films.size());
     }
-}
\ No newline at end of file
+
+    // Популярные фильмы так же, как их отдаёт сервис: ид из индекса популярности, фильмы из БД
+    private List<Film> popularFilms(Integer count, int genreId, Integer year) {
+        FilmPopularityIndex popularityIndex = new FilmPopularityIndex(filmDbStorage);
+        popularityIndex.load();
+        return filmDbStorage.getFilmsByIds(popularityIndex.getPopularFilmIds(count, genreId, year));
+    }
+
+    // Поиск так же, как в сервисе: ид из индекса поиска, порядок по рейтингу, фильмы из БД
+    private List<Film> searchFilms(BiFunction<FilmSearchIndex, String, int[]> search, String query) {
+        FilmPopularityIndex popularityIndex = new FilmPopularityIndex(filmDbStorage);
+        popularityIndex.load();
+        FilmSearchIndex searchIndex = new FilmSearchIndex(filmDbStorage, directorDbStorage);
+        searchIndex.load();
+        return filmDbStorage.getFilmsByIds(popularityIndex.sortByRating(search.apply(searchIndex, query)));
+    }
+}
@@ -0,0 +1,238 @@
+package ru.yandex.practicum.filmorate.dao.impl;
+
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.dto.FilmFacets;
+import ru.yandex.practicum.filmorate.dto.FilmFilter;
+import ru.yandex.practicum.filmorate.model.*;
+import ru.yandex.practicum.filmorate.service.film.FilmFacetIndex;
+import ru.yandex.practicum.filmorate.service.film.FilmPopularityIndex;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Результаты индекса сравниваются с перебором всех фильмов каталога.
+ */
+@JdbcTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class FilmFacetIndexTest {
+    private static final int FILMS_COUNT = 300;
+    private static final int DIRECTORS_COUNT = 8;
+    private final Random random = new Random(25);
+    private FilmDbStorage filmDbStorage;
+    private DirectorDbStorage directorDbStorage;
+    private FilmPopularityIndex popularityIndex;
+    private FilmFacetIndex facetIndex;
+    private List<Director> directors;
+    private final JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        ReferenceDataRegistry referenceDataRegistry = new ReferenceDataRegistry(jdbcTemplate);
+        filmDbStorage = new FilmDbStorage(jdbcTemplate, referenceDataRegistry);
+        directorDbStorage = new DirectorDbStorage(jdbcTemplate, referenceDataRegistry);
+        directors = new ArrayList<>();
+        for (int i = 0; i < DIRECTORS_COUNT; i++) {
+            directors.add(directorDbStorage.addDirector(new Director(0, "Режиссёр " + i)));
+        }
+        for (int i = 0; i < FILMS_COUNT; i++) {
+            filmDbStorage.addFilm(randomFilm("Фильм " + i));
+        }
+        int userId = new UserDbStorage(jdbcTemplate)
+                .addUser(new User("user@mail.ru", "user", "User", LocalDate.of(1986, 10, 25)))
+                .getId();
+        for (Film film : filmDbStorage.getAllFilms()) {
+            if (random.nextInt(3) > 0) {
+                filmDbStorage.addMark(film.getId(), userId, 1 + random.nextInt(10));
+            }
+        }
+        popularityIndex = new FilmPopularityIndex(filmDbStorage);
+        popularityIndex.load();
+        facetIndex = new FilmFacetIndex(filmDbStorage, popularityIndex);
+        facetIndex.load();
+    }
+
+    @Test
+    @DisplayName("Отбор, сортировка и количества по измерениям совпадают с перебором")
+    void testFilterShouldMatchFullScan() {
+        assertSameAsFullScan(new FilmFilter());
+        for (int i = 0; i < 40; i++) {
+            assertSameAsFullScan(randomFilter());
+        }
+    }
+
+    @Test
+    @DisplayName("Индекс следует за изменениями фильмов и режиссёров")
+    void testIndexShouldFollowWrites() {
+        List<Film> films = filmDbStorage.getAllFilms();
+        for (int i = 0; i < films.size(); i += 3) {
+            filmDbStorage.deleteFilm(films.get(i).getId());
+            facetIndex.removeFilm(films.get(i).getId());
+        }
+        for (int i = 1; i < films.size(); i += 3) {
+            Film film = randomFilm(films.get(i).getName());
+            film.setId(films.get(i).getId());
+            facetIndex.updateFilm(filmDbStorage.updateFilm(film));
+        }
+        for (int i = 0; i < 20; i++) {
+            Film film = filmDbStorage.addFilm(randomFilm("Новый фильм " + i));
+            popularityIndex.addFilm(film);
+            facetIndex.addFilm(film);
+        }
+        int directorId = directors.get(0).getId();
+        directorDbStorage.deleteDirector(directorId);
+        facetIndex.removeDirector(directorId);
+
+        assertSameAsFullScan(new FilmFilter());
+        for (int i = 0; i < 40; i++) {
+            assertSameAsFullScan(randomFilter());
+        }
+    }
+
+    private void assertSameAsFullScan(FilmFilter filter) {
+        List<Film> films = filmDbStorage.getAllFilms();
+        FilmFacetIndex.Result result = facetIndex.filter(filter);
+
+        List<Film> matched = films.stream()
+                .filter(film -> matches(film, filter, null))
+                .sorted(order(filter))
+                .collect(Collectors.toList());
+        assertEquals(matched.size(), result.getTotal(), filter.toString());
+        assertArrayEquals(matched.stream()
+                .skip(filter.getOffset())
+                .limit(filter.getLimit())
+                .mapToInt(Film::getId)
+                .toArray(), result.getFilmIds(), filter.toString());
+
+        FilmFacets expected = new FilmFacets();
+        for (Film film : films) {
+            if (matches(film, filter, "genres")) {
+                film.getGenres().stream()
+                        .map(Genre::getId)
+                        .distinct()
+                        .forEach(genreId -> increment(expected.getGenres(), genreId));
+            }
+            if (matches(film, filter, "mpa")) {
+                increment(expected.getMpa(), film.getMpa().getId());
+            }
+            if (matches(film, filter, "years")) {
+                increment(expected.getYears(), film.getReleaseDate().getYear());
+            }
+            if (matches(film, filter, "durations")) {
+                int bucket = FilmFacetIndex.DURATION_BUCKET;
+                increment(expected.getDurations(), film.getDuration() / bucket * bucket);
+            }
+            if (matches(film, filter, "directors")) {
+                film.getDirectors().forEach(director -> increment(expected.getDirectors(), director.getId()));
+            }
+        }
+        assertEquals(expected, result.getFacets(), filter.toString());
+    }
+
+    // Проверка всех условий, кроме условия на измерение except
+    private static boolean matches(Film film, FilmFilter filter, String except) {
+        List<Integer> genreIds = ids(film.getGenres(), Genre::getId);
+        List<Integer> directorIds = ids(film.getDirectors(), Director::getId);
+        int year = film.getReleaseDate().getYear();
+        return ("genres".equals(except) || isEmpty(filter.getGenres()) || (FilmFilter.ALL.equals(filter.getGenreMode())
+                ? genreIds.containsAll(filter.getGenres())
+                : filter.getGenres().stream().anyMatch(genreIds::contains)))
+                && ("mpa".equals(except) || isEmpty(filter.getMpa()) || filter.getMpa().contains(film.getMpa().getId()))
+                && ("years".equals(except) || inRange(year, filter.getYearFrom(), filter.getYearTo()))
+                && ("durations".equals(except)
+                || inRange(film.getDuration(), filter.getDurationFrom(), filter.getDurationTo()))
+                && ("directors".equals(except) || isEmpty(filter.getDirectors())
+                || filter.getDirectors().stream().anyMatch(directorIds::contains));
+    }
+
+    private static Comparator<Film> order(FilmFilter filter) {
+        Comparator<Film> order = FilmFilter.SORT_BY_RELEASE_DATE.equals(filter.getSortBy())
+                ? Comparator.comparing(Film::getReleaseDate).reversed()
+                : Comparator.comparingDouble((Film film) -> film.getRating() == null ? 0 : film.getRating())
+                .reversed();
+        return order.thenComparingInt(Film::getId);
+    }
+
+    // Пустой список, как и отсутствующий, не ограничивает выборку
+    private static boolean isEmpty(List<Integer> ids) {
+        return ids == null || ids.isEmpty();
+    }
+
+    private static boolean inRange(int value, Integer from, Integer to) {
+        return (from == null || value >= from) && (to == null || value <= to);
+    }
+
+    private static <T> List<Integer> ids(List<T> items, Function<T, Integer> id) {
+        return items.stream().map(id).collect(Collectors.toList());
+    }
+
+    private static void increment(Map<Integer, Integer> counts, int key) {
+        counts.merge(key, 1, Integer::sum);
+    }
+
+    private FilmFilter randomFilter() {
+        FilmFilter filter = new FilmFilter();
+        if (random.nextBoolean()) {
+            filter.setGenres(randomIds(1, 6, 1 + random.nextInt(2)));
+            filter.setGenreMode(random.nextBoolean() ? FilmFilter.ANY : FilmFilter.ALL);
+        }
+        if (random.nextBoolean()) {
+            filter.setMpa(randomIds(1, 5, 1 + random.nextInt(3)));
+        }
+        if (random.nextBoolean()) {
+            filter.setYearFrom(1950 + random.nextInt(40));
+            filter.setYearTo(filter.getYearFrom() + random.nextInt(40));
+        }
+        if (random.nextBoolean()) {
+            filter.setDurationTo(60 + random.nextInt(120));
+        }
+        if (random.nextInt(3) == 0) {
+            filter.setDirectors(directors.stream()
+                    .map(Director::getId)
+                    .filter(id -> random.nextInt(3) == 0)
+                    .collect(Collectors.toList()));
+        }
+        filter.setSortBy(random.nextBoolean() ? FilmFilter.SORT_BY_RATING : FilmFilter.SORT_BY_RELEASE_DATE);
+        filter.setOffset(random.nextInt(20));
+        filter.setLimit(1 + random.nextInt(30));
+        return filter;
+    }
+
+    private List<Integer> randomIds(int from, int to, int count) {
+        return IntStream.rangeClosed(from, to)
+                .boxed()
+                .filter(id -> random.nextInt(to - from + 1) < count)
+                .collect(Collectors.toList());
+    }
+
+    private Film randomFilm(String name) {
+        int mpaId = 1 + random.nextInt(5);
+        Film film = new Film(name, "Описание", LocalDate.of(1950 + random.nextInt(70), 1 + random.nextInt(12),
+                1 + random.nextInt(28)), 60 + random.nextInt(150), new Mpa(mpaId, null));
+        film.setGenres(randomIds(1, 6, 2).stream()
+                .map(genreId -> new Genre(genreId, null))
+                .collect(Collectors.toList()));
+        film.setDirectors(directors.stream()
+                .filter(director -> random.nextInt(DIRECTORS_COUNT) == 0)
+                .collect(Collectors.toList()));
+        return film;
+    }
+}
@@ -0,0 +1,166 @@
+package ru.yandex.practicum.filmorate.dao.impl;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.model.*;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Сравнение загрузки каталога одним запросом с join жанров и режиссёров (как было раньше)
+ * и двухфазной загрузки: сначала строки фильмов, затем жанры и режиссёры пакетами по ид фильмов.
+ * В обычной сборке проверяется количество строк, которые FilmDbStorage действительно читает из результатов
+ * запросов, замер времени помечен тегом benchmark и выводится только в лог.
+ */
+@Slf4j
+@JdbcTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class FilmHydrationBenchmarkTest {
+    private static final int FILMS_COUNT = 200;
+    private static final int GENRES_PER_FILM = 6;
+    private static final int DIRECTORS_PER_FILM = 4;
+    private static final int ITERATIONS = 5;
+    private static final String BENCHMARK = "benchmark";
+    private static final String JOINED_SQL = "SELECT f.*, m.name AS mpa_name, fg.genre_id, g.name AS genre_name, " +
+            "df.director_id, d.director_name, fr.rating " +
+            "FROM films AS f " +
+            "LEFT JOIN mpa AS m ON f.mpa_id = m.id " +
+            "LEFT JOIN film_genres AS fg ON f.id = fg.film_id " +
+            "LEFT JOIN genres AS g ON fg.genre_id = g.id " +
+            "LEFT JOIN directors_film AS df ON f.id = df.film_id " +
+            "LEFT JOIN directors AS d ON df.director_id = d.director_id " +
+            "LEFT JOIN film_ratings AS fr ON f.id = fr.film_id " +
+            "ORDER BY fr.rating DESC NULLS LAST";
+    private FilmDbStorage filmDbStorage;
+    private RowCountingJdbcTemplate rowCountingJdbcTemplate;
+    private final JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        ReferenceDataRegistry referenceDataRegistry = new ReferenceDataRegistry(jdbcTemplate);
+        rowCountingJdbcTemplate = new RowCountingJdbcTemplate(jdbcTemplate.getDataSource());
+        filmDbStorage = new FilmDbStorage(rowCountingJdbcTemplate, referenceDataRegistry);
+        DirectorDbStorage directorDbStorage = new DirectorDbStorage(jdbcTemplate, referenceDataRegistry);
+        List<Director> directors = new ArrayList<>();
+        for (int i = 1; i <= DIRECTORS_PER_FILM; i++) {
+            directors.add(directorDbStorage.addDirector(new Director(i, "Director " + i)));
+        }
+        List<Genre> genres = new ArrayList<>();
+        for (int i = 1; i <= GENRES_PER_FILM; i++) {
+            Genre genre = new Genre();
+            genre.setId(i);
+            genres.add(genre);
+        }
+        Mpa mpa = new Mpa();
+        mpa.setId(1);
+        for (int i = 0; i < FILMS_COUNT; i++) {
+            Film film = new Film("Фильм " + i, "Описание фильма " + i, LocalDate.of(2000, 1, 1), 100, mpa);
+            film.setGenres(genres);
+            film.setDirectors(directors);
+            filmDbStorage.addFilm(film);
+        }
+    }
+
+    @Test
+    void testTwoPhaseLoadingShouldReadFewerRows() {
+        long joinedRows = countJoinedRows();
+        long twoPhaseRows = countTwoPhaseRows();
+
+        assertEquals((long) FILMS_COUNT * GENRES_PER_FILM * DIRECTORS_PER_FILM, joinedRows);
+        assertEquals((long) FILMS_COUNT * (1 + GENRES_PER_FILM + DIRECTORS_PER_FILM), twoPhaseRows);
+        assertTrue(twoPhaseRows < joinedRows);
+    }
+
+    @Test
+    @Tag(BENCHMARK)
+    void benchmarkTwoPhaseLoadingAgainstJoin() {
+        long joinedRows = countJoinedRows();
+        long twoPhaseRows = countTwoPhaseRows();
+        long joinedNanos = Long.MAX_VALUE;
+        long twoPhaseNanos = Long.MAX_VALUE;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            countJoinedRows();
+            joinedNanos = Math.min(joinedNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            List<Film> films = filmDbStorage.getAllFilms();
+            twoPhaseNanos = Math.min(twoPhaseNanos, System.nanoTime() - start);
+            assertEquals(FILMS_COUNT, films.size());
+        }
+        log.info("Каталог из {} фильмов: один запрос с join - {} строк, {} мкс; двухфазная загрузка - {} строк, {} мкс.",
+                FILMS_COUNT, joinedRows, joinedNanos / 1000, twoPhaseRows, twoPhaseNanos / 1000);
+    }
+
+    @Test
+    void testTwoPhaseLoadingShouldKeepAllGenresAndDirectors() {
+        for (Film film : filmDbStorage.getAllFilms()) {
+            assertEquals(GENRES_PER_FILM, film.getGenres().size());
+            assertEquals(DIRECTORS_PER_FILM, film.getDirectors().size());
+        }
+    }
+
+    private long countJoinedRows() {
+        long[] rows = new long[1];
+        jdbcTemplate.query(JOINED_SQL, (RowCallbackHandler) rs -> rows[0]++);
+        return rows[0];
+    }
+
+    // Строки, которые FilmDbStorage прочитал из результатов запросов при загрузке всего каталога
+    private long countTwoPhaseRows() {
+        rowCountingJdbcTemplate.rows = 0;
+        assertEquals(FILMS_COUNT, filmDbStorage.getAllFilms().size());
+        return rowCountingJdbcTemplate.rows;
+    }
+
+    /**
+     * JdbcTemplate, считающий строки, прочитанные из ResultSet.
+     * Через этот метод проходят все запросы с параметрами, в том числе из NamedParameterJdbcTemplate.
+     */
+    private static class RowCountingJdbcTemplate extends JdbcTemplate {
+        private long rows;
+
+        RowCountingJdbcTemplate(DataSource dataSource) {
+            super(dataSource);
+        }
+
+        @Override
+        public <T> T query(PreparedStatementCreator psc, PreparedStatementSetter pss, ResultSetExtractor<T> rse) {
+            return super.query(psc, pss, rs -> rse.extractData(countingResultSet(rs)));
+        }
+
+        private ResultSet countingResultSet(ResultSet rs) {
+            return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                    (proxy, method, args) -> {
+                        try {
+                            Object result = method.invoke(rs, args);
+                            if ("next".equals(method.getName()) && Boolean.TRUE.equals(result)) {
+                                rows++;
+                            }
+                            return result;
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+        }
+    }
+}
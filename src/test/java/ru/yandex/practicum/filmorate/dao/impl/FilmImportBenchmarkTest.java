@@ -0,0 +1,97 @@
+package ru.yandex.practicum.filmorate.dao.impl;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.model.*;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Сравнение добавления фильмов по одному через addFilm и пакетом через addFilms.
+ * В обычной сборке проверяется количество записанных строк. Замер времени помечен тегом benchmark:
+ * на H2 в памяти пакетная запись быстрее примерно в 4 раза, проверяется ускорение не меньше MIN_SPEEDUP.
+ */
+@Slf4j
+@JdbcTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class FilmImportBenchmarkTest {
+    private static final int FILMS_COUNT = 500;
+    private static final int GENRES_PER_FILM = 3;
+    private static final int MIN_SPEEDUP = 2;
+    private static final String BENCHMARK = "benchmark";
+    private FilmDbStorage filmDbStorage;
+    private Director director;
+    private final JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        ReferenceDataRegistry referenceDataRegistry = new ReferenceDataRegistry(jdbcTemplate);
+        filmDbStorage = new FilmDbStorage(jdbcTemplate, referenceDataRegistry);
+        director = new DirectorDbStorage(jdbcTemplate, referenceDataRegistry).addDirector(new Director(1, "Director"));
+    }
+
+    @Test
+    void testAddFilmsShouldWriteSameRowsAsAddFilm() {
+        for (Film film : createFilms()) {
+            filmDbStorage.addFilm(film);
+        }
+        filmDbStorage.addFilms(createFilms());
+
+        assertEquals(2 * FILMS_COUNT, count("films"));
+        assertEquals(2 * FILMS_COUNT, count("film_ratings"));
+        assertEquals(2 * FILMS_COUNT * GENRES_PER_FILM, count("film_genres"));
+        assertEquals(2 * FILMS_COUNT, count("directors_film"));
+    }
+
+    @Test
+    @Tag(BENCHMARK)
+    void benchmarkAddFilmsAgainstAddFilm() {
+        long start = System.nanoTime();
+        for (Film film : createFilms()) {
+            filmDbStorage.addFilm(film);
+        }
+        long singleNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        filmDbStorage.addFilms(createFilms());
+        long batchNanos = System.nanoTime() - start;
+
+        assertEquals(2 * FILMS_COUNT, count("films"));
+        log.info("Добавление {} фильмов: по одному - {} мс, пакетом - {} мс.",
+                FILMS_COUNT, singleNanos / 1_000_000, batchNanos / 1_000_000);
+        assertTrue(singleNanos >= MIN_SPEEDUP * batchNanos,
+                "Пакетная запись быстрее в " + (double) singleNanos / batchNanos + " раза");
+    }
+
+    private List<Film> createFilms() {
+        Mpa mpa = new Mpa(1, "G");
+        List<Genre> genres = new ArrayList<>();
+        for (int i = 1; i <= GENRES_PER_FILM; i++) {
+            genres.add(new Genre(i, null));
+        }
+        List<Film> films = new ArrayList<>();
+        for (int i = 0; i < FILMS_COUNT; i++) {
+            Film film = new Film("Фильм " + i, "Описание фильма " + i, LocalDate.of(2000, 1, 1), 100, mpa);
+            film.setGenres(genres);
+            film.setDirectors(List.of(director));
+            films.add(film);
+        }
+        return films;
+    }
+
+    private int count(String table) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table, Integer.class);
+    }
+}
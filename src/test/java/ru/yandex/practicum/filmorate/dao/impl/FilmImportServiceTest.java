@@ -0,0 +1,177 @@
+package ru.yandex.practicum.filmorate.dao.impl;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.dto.FilmFilter;
+import ru.yandex.practicum.filmorate.dto.FilmImportResult;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.service.film.FilmFacetIndex;
+import ru.yandex.practicum.filmorate.service.film.FilmImportServiceImpl;
+import ru.yandex.practicum.filmorate.service.film.FilmPopularityIndex;
+import ru.yandex.practicum.filmorate.service.film.FilmSearchIndex;
+
+import javax.validation.Validation;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@JdbcTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class FilmImportServiceTest {
+    private static final String FAILING_NAME = "Не записывается";
+    private FilmDbStorage filmDbStorage;
+    private FilmPopularityIndex popularityIndex;
+    private FilmSearchIndex searchIndex;
+    private FilmFacetIndex facetIndex;
+    private FilmImportServiceImpl importService;
+    private int directorId;
+    private final JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        ReferenceDataRegistry referenceDataRegistry = new ReferenceDataRegistry(jdbcTemplate);
+        // Пачка с фильмом FAILING_NAME не записывается, как при нарушении ограничения в БД
+        filmDbStorage = new FilmDbStorage(jdbcTemplate, referenceDataRegistry) {
+            @Override
+            public List<Film> addFilms(List<Film> films) {
+                if (films.stream().anyMatch(film -> FAILING_NAME.equals(film.getName()))) {
+                    throw new DataIntegrityViolationException("Нарушено ограничение");
+                }
+                return super.addFilms(films);
+            }
+        };
+        DirectorDbStorage directorDbStorage = new DirectorDbStorage(jdbcTemplate, referenceDataRegistry);
+        directorId = directorDbStorage.addDirector(new Director(0, "Режиссёр")).getId();
+        popularityIndex = new FilmPopularityIndex(filmDbStorage);
+        popularityIndex.load();
+        searchIndex = new FilmSearchIndex(filmDbStorage, directorDbStorage);
+        searchIndex.load();
+        facetIndex = new FilmFacetIndex(filmDbStorage, popularityIndex);
+        facetIndex.load();
+        importService = new FilmImportServiceImpl(filmDbStorage, new GenreDbStorage(referenceDataRegistry),
+                new MpaDbStorage(referenceDataRegistry), directorDbStorage, popularityIndex, searchIndex, facetIndex,
+                Validation.buildDefaultValidatorFactory().getValidator(),
+                Jackson2ObjectMapperBuilder.json()
+                        .modulesToInstall(new ParameterNamesModule(JsonCreator.Mode.DEFAULT)).build());
+    }
+
+    @Test
+    @DisplayName("Загрузка JSON-массива с корректными и ошибочными фильмами")
+    void testImportJsonArrayShouldReportEachItem() throws IOException {
+        FilmImportResult result = importFilms("[" + String.join(",", mixedItems()) + "]");
+
+        assertMixedResult(result);
+    }
+
+    @Test
+    @DisplayName("Загрузка NDJSON с корректными и ошибочными фильмами")
+    void testImportNdjsonShouldReportEachItem() throws IOException {
+        FilmImportResult result = importFilms(String.join("\n", mixedItems()));
+
+        assertMixedResult(result);
+    }
+
+    @Test
+    @DisplayName("Некорректный JSON останавливает загрузку, прочитанные фильмы записываются")
+    void testImportShouldStopOnMalformedJson() throws IOException {
+        FilmImportResult result = importFilms(film("Первый", "2000-01-01") + "\n{\"name\": }\n"
+                + film("Второй", "2000-01-01"));
+
+        assertEquals(1, result.getCreated());
+        assertEquals(1, result.getFailed());
+        assertEquals(2, result.getItems().size());
+        assertNotNull(result.getItems().get(0).getId());
+        assertEquals(1, result.getItems().get(1).getIndex());
+        assertTrue(result.getItems().get(1).getError().startsWith("Некорректный JSON, загрузка остановлена"));
+        assertEquals(List.of("Первый"), filmNames());
+    }
+
+    @Test
+    @DisplayName("Если пачка не записалась, фильмы записываются по одному")
+    void testImportShouldFallBackToSingleWrites() throws IOException {
+        FilmImportResult result = importFilms("[" + film("Первый", "2000-01-01") + ","
+                + film(FAILING_NAME, "2000-01-01") + "," + film("Третий", "2000-01-01") + "]");
+
+        assertEquals(2, result.getCreated());
+        assertEquals(1, result.getFailed());
+        assertNotNull(result.getItems().get(0).getId());
+        assertEquals("Фильм не записан: Нарушено ограничение", result.getItems().get(1).getError());
+        assertNotNull(result.getItems().get(2).getId());
+        assertEquals(List.of("Первый", "Третий"), filmNames());
+        assertEquals(2, facetIndex.filter(new FilmFilter()).getTotal());
+    }
+
+    // Фильмы 0 и 7 корректны, остальные содержат по одной ошибке
+    private List<String> mixedItems() {
+        return List.of(
+                film("Первый", "2000-01-01"),
+                film("Без рейтинга", "2000-01-01").replace("\"mpa\":{\"id\":1}", "\"mpa\":{\"id\":99}"),
+                film("Без жанра", "2000-01-01").replace("\"genres\":[{\"id\":1}]", "\"genres\":[{\"id\":99}]"),
+                film("Без режиссёра", "2000-01-01").replace("\"directors\":[{\"id\":" + directorId + "}]",
+                        "\"directors\":[{\"id\":999}]"),
+                film("Слишком ранний", "1895-12-27"),
+                film("Без продолжительности", "2000-01-01").replace(",\"duration\":100", ""),
+                film("Битая дата", "не дата"),
+                film("Второй", "1895-12-28"));
+    }
+
+    private void assertMixedResult(FilmImportResult result) {
+        List<FilmImportResult.Item> items = result.getItems();
+        assertEquals(2, result.getCreated());
+        assertEquals(6, result.getFailed());
+        assertEquals(8, items.size());
+        for (int i = 0; i < items.size(); i++) {
+            assertEquals(i, items.get(i).getIndex());
+        }
+        assertEquals("Рейтинг MPA с id 99 не найден.", items.get(1).getError());
+        assertEquals("Жанр с id 99 не найден.", items.get(2).getError());
+        assertEquals("Режиссёр с id 999 не найден.", items.get(3).getError());
+        assertEquals("Дата релиза меньше минимального значения.", items.get(4).getError());
+        assertEquals("Не указана продолжительность.", items.get(5).getError());
+        assertTrue(items.get(6).getError().startsWith("Фильм не удалось прочитать"));
+
+        int firstId = items.get(0).getId();
+        int secondId = items.get(7).getId();
+        List<Film> films = filmDbStorage.getFilmsByIds(List.of(firstId, secondId));
+        assertEquals(List.of("Первый", "Второй"), films.stream().map(Film::getName).collect(Collectors.toList()));
+        assertEquals(1, films.get(0).getGenres().size());
+        assertEquals(directorId, films.get(0).getDirectors().get(0).getId());
+        assertEquals(List.of("Первый", "Второй"), filmNames());
+
+        assertArrayEquals(new int[]{firstId}, searchIndex.findByTitle("первый"));
+        assertArrayEquals(new int[]{firstId, secondId}, searchIndex.findByDirector("режиссёр"));
+        assertEquals(List.of(firstId, secondId), popularityIndex.getPopularFilmIds(null, 0, null));
+        assertEquals(List.of(secondId), popularityIndex.getPopularFilmIds(null, 0, 1895));
+        assertEquals(2, facetIndex.filter(new FilmFilter()).getTotal());
+    }
+
+    private String film(String name, String releaseDate) {
+        return "{\"name\":\"" + name + "\",\"description\":\"Описание\",\"releaseDate\":\"" + releaseDate + "\"" +
+                ",\"duration\":100,\"mpa\":{\"id\":1},\"genres\":[{\"id\":1}],\"directors\":[{\"id\":" + directorId +
+                "}]}";
+    }
+
+    private FilmImportResult importFilms(String body) throws IOException {
+        return importService.importFilms(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private List<String> filmNames() {
+        return jdbcTemplate.queryForList("SELECT name FROM films ORDER BY id", String.class);
+    }
+}
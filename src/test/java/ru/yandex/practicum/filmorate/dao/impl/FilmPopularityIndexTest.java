@@ -0,0 +1,126 @@
+package ru.yandex.practicum.filmorate.dao.impl;
+
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.model.*;
+import ru.yandex.practicum.filmorate.service.film.FilmPopularityIndex;
+
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@JdbcTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class FilmPopularityIndexTest {
+    private static final Mpa MPA = new Mpa(1, "G");
+    private static final LocalDate BIRTHDAY_USER = LocalDate.of(1986, 10, 25);
+    private FilmDbStorage filmDbStorage;
+    private FilmPopularityIndex popularityIndex;
+    private int filmId1986;
+    private int filmId1990;
+    private int filmIdWithoutMarks;
+    private int userId;
+    private final JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        ReferenceDataRegistry referenceDataRegistry = new ReferenceDataRegistry(jdbcTemplate);
+        filmDbStorage = new FilmDbStorage(jdbcTemplate, referenceDataRegistry);
+        UserDbStorage userDbStorage = new UserDbStorage(jdbcTemplate);
+        Film film1986 = new Film("Фильм 1986", "Описание", LocalDate.of(1986, 10, 25), 100, MPA);
+        film1986.setGenres(List.of(new Genre(1, "Комедия")));
+        Film film1990 = new Film("Фильм 1990", "Описание", LocalDate.of(1990, 1, 1), 100, MPA);
+        film1990.setGenres(List.of(new Genre(1, "Комедия"), new Genre(2, "Драма")));
+        filmId1986 = filmDbStorage.addFilm(film1986).getId();
+        filmId1990 = filmDbStorage.addFilm(film1990).getId();
+        filmIdWithoutMarks = filmDbStorage.addFilm(new Film("Фильм", "Описание", LocalDate.of(1990, 1, 1), 100, MPA))
+                .getId();
+        userId = userDbStorage.addUser(new User("mail@mail.ru", "login", "name", BIRTHDAY_USER)).getId();
+        filmDbStorage.addMark(filmId1986, userId, 6);
+        filmDbStorage.addMark(filmId1990, userId, 9);
+        popularityIndex = new FilmPopularityIndex(filmDbStorage);
+        popularityIndex.load();
+    }
+
+    @Test
+    @DisplayName("Получение популярных фильмов из индекса")
+    void testGetPopularFilmIdsShouldBeOrderedByRating() {
+        assertEquals(List.of(filmId1990, filmId1986, filmIdWithoutMarks),
+                popularityIndex.getPopularFilmIds(null, 0, null));
+        assertEquals(List.of(filmId1990), popularityIndex.getPopularFilmIds(1, 0, null));
+        assertEquals(List.of(filmId1990), popularityIndex.getPopularFilmIds(null, 2, null));
+        assertEquals(List.of(filmId1990, filmIdWithoutMarks), popularityIndex.getPopularFilmIds(null, 0, 1990));
+        assertEquals(List.of(filmId1986), popularityIndex.getPopularFilmIds(null, 1, 1986));
+        assertEquals(List.of(), popularityIndex.getPopularFilmIds(null, 3, null));
+    }
+
+    @Test
+    @DisplayName("Фильм не пропадает из выдачи и не повторяется, пока меняется его рейтинг")
+    void testConcurrentReadsShouldSeeEveryFilmOnce() throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            while (running.get()) {
+                popularityIndex.addMarks(List.of(new Mark(userId, filmIdWithoutMarks, 10)));
+                popularityIndex.removeMark(filmIdWithoutMarks, 10);
+            }
+        });
+        writer.start();
+        try {
+            for (int i = 0; i < 20000; i++) {
+                List<Integer> filmIds = popularityIndex.getPopularFilmIds(null, 0, null);
+                assertEquals(Set.of(filmId1986, filmId1990, filmIdWithoutMarks), new HashSet<>(filmIds));
+                assertEquals(3, filmIds.size(), filmIds.toString());
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+    }
+
+    @Test
+    @DisplayName("Обновление индекса после изменения оценок и удаления фильма")
+    void testIndexShouldFollowMarksAndDeletes() {
+        filmDbStorage.deleteMark(filmId1990, userId);
+        popularityIndex.refreshRatings(List.of(filmId1990));
+
+        assertEquals(List.of(filmId1986, filmId1990, filmIdWithoutMarks),
+                popularityIndex.getPopularFilmIds(null, 0, null));
+
+        popularityIndex.removeFilm(filmId1986);
+
+        assertEquals(List.of(filmId1990, filmIdWithoutMarks), popularityIndex.getPopularFilmIds(null, 0, null));
+        assertEquals(List.of(filmId1990), popularityIndex.getPopularFilmIds(null, 1, null));
+    }
+
+    @Test
+    @DisplayName("Учёт оценок в памяти совпадает с рейтингом в БД")
+    void testMarkDeltasShouldMatchDatabaseRatings() {
+        int userTwoId = new UserDbStorage(jdbcTemplate)
+                .addUser(new User("two@mail.ru", "two", "two", BIRTHDAY_USER)).getId();
+        filmDbStorage.addMark(filmId1986, userTwoId, 10);
+        popularityIndex.addMarks(List.of(new Mark(userTwoId, filmId1986, 10)));
+
+        assertEquals(8, popularityIndex.getRating(filmId1986));
+        assertEquals(List.of(filmId1990, filmId1986, filmIdWithoutMarks),
+                popularityIndex.getPopularFilmIds(null, 0, null));
+
+        filmDbStorage.deleteMark(filmId1990, userId);
+        popularityIndex.removeMark(filmId1990, 9);
+
+        assertEquals(0, popularityIndex.getRating(filmId1990));
+        for (Film film : filmDbStorage.getAllFilms()) {
+            assertEquals(film.getRating(), popularityIndex.getRating(film.getId()));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package ru.yandex.practicum.filmorate.dao.impl;
+
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.service.film.FilmSearchIndex;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * Результаты индекса сравниваются с поиском через LIKE в БД.
+ */
+@JdbcTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class FilmSearchIndexTest {
+    private static final Mpa MPA = new Mpa(1, "G");
+    private static final List<String> QUERIES = List.of("а", "ФИ", "фильм", "Ильм", "тёмн", "нолан", "лан",
+            "КРИС", "рыцарь", "ь т", "нет такого", "");
+    private static final String TITLE_SQL = "SELECT id FROM films WHERE UPPER(name) LIKE UPPER(?)";
+    private static final String DIRECTOR_SQL = "SELECT df.film_id FROM directors_film AS df " +
+            "JOIN directors AS d ON df.director_id = d.director_id WHERE UPPER(d.director_name) LIKE UPPER(?)";
+    private FilmDbStorage filmDbStorage;
+    private DirectorDbStorage directorDbStorage;
+    private FilmSearchIndex searchIndex;
+    private Director nolan;
+    private Director tarkovsky;
+    private Film knight;
+    private final JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        ReferenceDataRegistry referenceDataRegistry = new ReferenceDataRegistry(jdbcTemplate);
+        filmDbStorage = new FilmDbStorage(jdbcTemplate, referenceDataRegistry);
+        directorDbStorage = new DirectorDbStorage(jdbcTemplate, referenceDataRegistry);
+        nolan = directorDbStorage.addDirector(new Director(0, "Кристофер Нолан"));
+        tarkovsky = directorDbStorage.addDirector(new Director(0, "Андрей Тарковский"));
+        knight = addFilm("Тёмный рыцарь", nolan);
+        addFilm("Солярис", tarkovsky);
+        addFilm("Зеркало", tarkovsky);
+        addFilm("Фильм без режиссёра");
+        addFilm("Интерстеллар", nolan);
+        searchIndex = new FilmSearchIndex(filmDbStorage, directorDbStorage);
+        searchIndex.load();
+    }
+
+    @Test
+    @DisplayName("Индекс находит те же фильмы, что и поиск в БД")
+    void testIndexShouldMatchDatabaseSearch() {
+        assertSameAsDatabase();
+    }
+
+    @Test
+    @DisplayName("Индекс следует за изменениями фильмов и режиссёров")
+    void testIndexShouldFollowWrites() {
+        Film film = filmDbStorage.addFilm(newFilm("Тёмный фильм", tarkovsky));
+        searchIndex.addFilm(film);
+        assertSameAsDatabase();
+
+        Film renamed = newFilm("Рыцарь", tarkovsky);
+        renamed.setId(knight.getId());
+        searchIndex.updateFilm(filmDbStorage.updateFilm(renamed));
+        assertSameAsDatabase();
+
+        nolan.setName("Нолан");
+        searchIndex.updateDirector(directorDbStorage.updateDirector(nolan));
+        assertSameAsDatabase();
+
+        directorDbStorage.deleteDirector(tarkovsky.getId());
+        searchIndex.removeDirector(tarkovsky.getId());
+        filmDbStorage.deleteFilm(film.getId());
+        searchIndex.removeFilm(film.getId());
+        assertSameAsDatabase();
+    }
+
+    private void assertSameAsDatabase() {
+        for (String query : QUERIES) {
+            assertArrayEquals(likeSearch(TITLE_SQL, query), searchIndex.findByTitle(query), "Название: " + query);
+            assertArrayEquals(likeSearch(DIRECTOR_SQL, query), searchIndex.findByDirector(query),
+                    "Режиссёр: " + query);
+            assertArrayEquals(likeSearch(TITLE_SQL + " UNION " + DIRECTOR_SQL, query),
+                    searchIndex.findByTitleOrDirector(query), "Название или режиссёр: " + query);
+        }
+    }
+
+    // Ид фильмов по запросу через LIKE без учёта регистра, как искали до индекса
+    private int[] likeSearch(String sql, String query) {
+        Object[] params = new Object[sql.split("\\?", -1).length - 1];
+        Arrays.fill(params, "%" + query + "%");
+        return jdbcTemplate.queryForList(sql, Integer.class, params).stream()
+                .mapToInt(Integer::intValue)
+                .distinct()
+                .sorted()
+                .toArray();
+    }
+
+    private Film addFilm(String name, Director... directors) {
+        return filmDbStorage.addFilm(newFilm(name, directors));
+    }
+
+    private static Film newFilm(String name, Director... directors) {
+        Film film = new Film(name, "Описание", LocalDate.of(2000, 1, 1), 100, MPA);
+        film.setDirectors(List.of(directors));
+        return film;
+    }
+
+}
@@ -0,0 +1,146 @@
+package ru.yandex.practicum.filmorate.dao.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.service.recommendation.CoRaterScorer;
+import ru.yandex.practicum.filmorate.service.recommendation.FilmSimilarityIndex;
+import ru.yandex.practicum.filmorate.service.recommendation.Neighbours;
+import ru.yandex.practicum.filmorate.service.recommendation.RatingMatrix;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Slf4j
+@JdbcTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class FilmSimilarityIndexTest {
+    private static final int USERS_COUNT = 40;
+    private static final int FILMS_COUNT = 60;
+    private static final int TOP_N = 8;
+    private final Random random = new Random(11);
+    private RatingMatrix ratingMatrix;
+    private CoRaterScorer coRaterScorer;
+    private FilmSimilarityIndex similarityIndex;
+    private List<Integer> userIds;
+    private List<Integer> filmIds;
+    private final JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        List<Object[]> users = new ArrayList<>();
+        for (int i = 0; i < USERS_COUNT; i++) {
+            users.add(new Object[]{"user" + i, "User " + i, "user" + i + "@mail.ru", Date.valueOf("1986-10-25")});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO users (login, name, email, birthday) VALUES (?, ?, ?, ?)", users);
+        List<Object[]> films = new ArrayList<>();
+        for (int i = 0; i < FILMS_COUNT; i++) {
+            films.add(new Object[]{"Фильм " + i, Date.valueOf("2000-01-01"), "Описание", 100, 1});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO films (name, releaseDate, description, duration, mpa_id) " +
+                "VALUES (?, ?, ?, ?, ?)", films);
+        userIds = jdbcTemplate.queryForList("SELECT id FROM users ORDER BY id", Integer.class);
+        filmIds = jdbcTemplate.queryForList("SELECT id FROM films ORDER BY id", Integer.class);
+        ratingMatrix = new RatingMatrix(new MarkDbStorage(jdbcTemplate), new SimpleMeterRegistry());
+        coRaterScorer = new CoRaterScorer(ratingMatrix, new SimpleMeterRegistry(), 200000, 1);
+        similarityIndex = new FilmSimilarityIndex(ratingMatrix, coRaterScorer, new SimpleMeterRegistry(), TOP_N,
+                FILMS_COUNT);
+    }
+
+    @Test
+    @DisplayName("Похожие фильмы упорядочены по оценкам общих оценивших")
+    void testNeighboursShouldBeOrderedBySimilarity() {
+        // Фильм 0 и фильм 1 оценены одинаково двумя пользователями: расстояние (0 + 10) / 2 = 5
+        addMark(0, 0, 8);
+        addMark(1, 0, 8);
+        addMark(0, 1, 4);
+        addMark(1, 1, 4);
+        // Фильм 2: один общий оценивший, разница 1 - расстояние 11
+        addMark(2, 0, 9);
+        // Фильм 3: один общий оценивший, разница 0 - расстояние 10
+        addMark(3, 1, 4);
+        // Фильм 4 не пересекается с фильмом 0
+        addMark(4, 2, 10);
+        ratingMatrix.load();
+
+        Neighbours neighbours = similarityIndex.getNeighbours(filmIds.get(0));
+        assertEquals(3, neighbours.size());
+        assertEquals((int) filmIds.get(1), neighbours.id(0));
+        assertEquals((int) filmIds.get(3), neighbours.id(1));
+        assertEquals((int) filmIds.get(2), neighbours.id(2));
+        assertTrue(neighbours.isComplete());
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            similarityIndex.getNeighbours(filmIds.get(0));
+        }
+        log.info("Похожие фильмы из индекса: {} нс на запрос.", (System.nanoTime() - start) / 1000);
+        assertEquals(1, similarityIndex.getComputationCount());
+    }
+
+    @Test
+    @DisplayName("Списки похожих фильмов после изменений оценок совпадают с посчитанными заново")
+    void testIncrementalUpdatesShouldMatchRecomputation() {
+        List<Object[]> marks = new ArrayList<>();
+        for (int userId : userIds) {
+            for (int filmId : filmIds) {
+                if (random.nextInt(4) == 0) {
+                    marks.add(new Object[]{userId, filmId, 1 + random.nextInt(10)});
+                }
+            }
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO marks (user_id, film_id, mark) VALUES (?, ?, ?)", marks);
+        ratingMatrix.load();
+        filmIds.forEach(similarityIndex::getNeighbours);
+        for (int i = 0; i < 300; i++) {
+            int userId = userIds.get(random.nextInt(USERS_COUNT));
+            int filmId = filmIds.get(random.nextInt(FILMS_COUNT));
+            if (jdbcTemplate.update("DELETE FROM marks WHERE user_id = ? AND film_id = ?", userId, filmId) == 0
+                    || random.nextBoolean()) {
+                jdbcTemplate.update("INSERT INTO marks (user_id, film_id, mark) VALUES (?, ?, ?)",
+                        userId, filmId, 1 + random.nextInt(10));
+            }
+            ratingMatrix.refresh(userId, filmId);
+            if (i % 50 == 0) {
+                filmIds.forEach(similarityIndex::getNeighbours);
+            }
+        }
+        int removedFilmId = filmIds.get(0);
+        ratingMatrix.removeFilm(removedFilmId);
+
+        FilmSimilarityIndex recomputed = new FilmSimilarityIndex(ratingMatrix, coRaterScorer,
+                new SimpleMeterRegistry(), TOP_N, FILMS_COUNT);
+        for (int filmId : filmIds) {
+            Neighbours actual = similarityIndex.getNeighbours(filmId);
+            Neighbours expected = recomputed.getNeighbours(filmId);
+            // Список после изменений может быть короче, но должен быть точным началом полного
+            assertTrue(actual.size() <= expected.size(), actual + " и " + expected);
+            for (int i = 0; i < actual.size(); i++) {
+                assertEquals(expected.id(i), actual.id(i), actual + " и " + expected);
+                assertEquals(expected.matches(i), actual.matches(i));
+                assertEquals(expected.diffSum(i), actual.diffSum(i));
+                assertNotEquals(removedFilmId, actual.id(i));
+            }
+            if (actual.isComplete()) {
+                assertEquals(expected.size(), actual.size());
+            }
+        }
+    }
+
+    private void addMark(int filmIndex, int userIndex, int mark) {
+        jdbcTemplate.update("INSERT INTO marks (user_id, film_id, mark) VALUES (?, ?, ?)",
+                userIds.get(userIndex), filmIds.get(filmIndex), mark);
+    }
+}
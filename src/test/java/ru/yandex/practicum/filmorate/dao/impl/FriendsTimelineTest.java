@@ -0,0 +1,185 @@
+package ru.yandex.practicum.filmorate.dao.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.model.Event;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.service.event.FriendsTimeline;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@JdbcTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class FriendsTimelineTest {
+    private static final int CAPACITY = 5;
+    private EventDbStorage eventDbStorage;
+    private UserDbStorage userDbStorage;
+    private int readerId;
+    private int friendId;
+    private int otherUserId;
+    private final JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        eventDbStorage = new EventDbStorage(jdbcTemplate);
+        userDbStorage = new UserDbStorage(jdbcTemplate);
+        readerId = addUser("reader");
+        friendId = addUser("friend");
+        otherUserId = addUser("other");
+        userDbStorage.addFriend(readerId, friendId);
+    }
+
+    @Test
+    @DisplayName("Лента друзей после первой загрузки отдаётся из памяти")
+    void testTimelineShouldBeServedFromMemory() {
+        List<Integer> friendEventIds = addEvents(friendId, 3);
+        addEvents(otherUserId, 2);
+        FriendsTimeline timeline = createTimeline(1000);
+
+        assertEquals(friendEventIds, eventIds(timeline.getTimeline(readerId, null, 10)));
+        List<Event> older = timeline.getTimeline(readerId, friendEventIds.get(2), 10);
+        assertEquals(friendEventIds.subList(0, 2), eventIds(older));
+        assertEquals(2, timeline.getMemoryReadCount());
+        assertEquals(0, timeline.getDatabaseReadCount());
+    }
+
+    @Test
+    @DisplayName("Новые события друга раскладываются в ленту при записи")
+    void testWrittenEventsShouldBeFannedOut() {
+        addEvents(friendId, 2);
+        FriendsTimeline timeline = createTimeline(1000);
+        timeline.getTimeline(readerId, null, 10);
+
+        Event event = new Event(friendId, "MARK", "ADD", 1);
+        eventDbStorage.addEvent(event);
+        timeline.onEventsWritten(List.of(event));
+        Event otherEvent = new Event(otherUserId, "MARK", "ADD", 1);
+        eventDbStorage.addEvent(otherEvent);
+        timeline.onEventsWritten(List.of(otherEvent));
+
+        List<Event> page = timeline.getTimeline(readerId, null, 1);
+        assertEquals(List.of(event.getEventId()), eventIds(page));
+        assertEquals(3, timeline.getTimeline(readerId, null, 10).size());
+        assertEquals(0, timeline.getDatabaseReadCount());
+    }
+
+    @Test
+    @DisplayName("Страница за пределами ленты в памяти читается из БД")
+    void testPageBeyondCapacityShouldBeReadFromDatabase() {
+        List<Integer> friendEventIds = addEvents(friendId, CAPACITY + 3);
+        FriendsTimeline timeline = createTimeline(1000);
+
+        List<Event> latest = timeline.getTimeline(readerId, null, CAPACITY);
+        assertEquals(friendEventIds.subList(3, CAPACITY + 3), eventIds(latest));
+        List<Event> older = timeline.getTimeline(readerId, latest.get(0).getEventId(), CAPACITY);
+        assertEquals(friendEventIds.subList(0, 3), eventIds(older));
+        assertEquals(1, timeline.getMemoryReadCount());
+        assertEquals(1, timeline.getDatabaseReadCount());
+    }
+
+    @Test
+    @DisplayName("Лента пользователя с большим количеством друзей не хранится в памяти")
+    void testTimelineOfUserWithManyFriendsShouldBeReadFromDatabase() {
+        userDbStorage.addFriend(readerId, otherUserId);
+        List<Integer> eventIds = new ArrayList<>(addEvents(friendId, 2));
+        eventIds.addAll(addEvents(otherUserId, 2));
+        FriendsTimeline timeline = createTimeline(1);
+
+        assertEquals(eventIds, eventIds(timeline.getTimeline(readerId, null, 10)));
+        assertEquals(eventIds, eventIds(timeline.getTimeline(readerId, null, 10)));
+        assertEquals(2, timeline.getDatabaseReadCount());
+        assertEquals(0, timeline.getMemoryReadCount());
+    }
+
+    @Test
+    @DisplayName("Изменение списка друзей сбрасывает ленту")
+    void testInvalidatedTimelineShouldBeReloaded() {
+        addEvents(friendId, 2);
+        List<Integer> otherEventIds = addEvents(otherUserId, 2);
+        FriendsTimeline timeline = createTimeline(1000);
+        assertEquals(2, timeline.getTimeline(readerId, null, 10).size());
+
+        userDbStorage.deleteFriend(readerId, friendId);
+        userDbStorage.addFriend(readerId, otherUserId);
+        timeline.invalidate(readerId);
+
+        assertEquals(otherEventIds, eventIds(timeline.getTimeline(readerId, null, 10)));
+        Event friendEvent = new Event(friendId, "MARK", "ADD", 1);
+        eventDbStorage.addEvent(friendEvent);
+        timeline.onEventsWritten(List.of(friendEvent));
+        assertEquals(otherEventIds, eventIds(timeline.getTimeline(readerId, null, 10)));
+    }
+
+    @Test
+    @DisplayName("События, записанные во время загрузки ленты и вытеснившие старые, не теряются")
+    void testEventsWrittenDuringLoadShouldKeepTimelineIncomplete() {
+        List<Integer> friendEventIds = new ArrayList<>(addEvents(friendId, 3));
+        FriendsTimeline[] timeline = new FriendsTimeline[1];
+        EventDbStorage loadingEventDbStorage = new EventDbStorage(jdbcTemplate) {
+            @Override
+            public List<Event> getFriendsEventsPage(int userId, Integer beforeEventId, int limit) {
+                List<Event> page = super.getFriendsEventsPage(userId, beforeEventId, limit);
+                if (timeline[0].getDatabaseReadCount() == 0 && timeline[0].getMemoryReadCount() == 0) {
+                    List<Event> written = new ArrayList<>();
+                    for (int i = 0; i < CAPACITY - 2; i++) {
+                        written.add(new Event(friendId, "MARK", "ADD", i + 1));
+                    }
+                    eventDbStorage.addEvents(written);
+                    timeline[0].onEventsWritten(written);
+                    friendEventIds.addAll(eventIds(written));
+                }
+                return page;
+            }
+        };
+        timeline[0] = new FriendsTimeline(loadingEventDbStorage, userDbStorage, new SimpleMeterRegistry(),
+                CAPACITY, 1000, 100);
+
+        assertEquals(friendEventIds, eventIds(timeline[0].getTimeline(readerId, null, 10)));
+    }
+
+    @Test
+    @DisplayName("Лента неизвестного пользователя")
+    void testTimelineOfUnknownUserShouldThrow() {
+        FriendsTimeline timeline = createTimeline(1000);
+
+        assertThrows(NotFoundException.class, () -> timeline.getTimeline(9999, null, 10));
+        assertEquals(0, timeline.size());
+    }
+
+    private FriendsTimeline createTimeline(int maxFriendsForFanOut) {
+        return new FriendsTimeline(eventDbStorage, userDbStorage, new SimpleMeterRegistry(),
+                CAPACITY, maxFriendsForFanOut, 100);
+    }
+
+    private int addUser(String login) {
+        return userDbStorage.addUser(new User(login + "@mail.ru", login, login, LocalDate.of(1986, 10, 25)))
+                .getId();
+    }
+
+    private List<Integer> addEvents(int userId, int count) {
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            events.add(new Event(userId, "MARK", "ADD", i + 1));
+        }
+        eventDbStorage.addEvents(events);
+        return eventIds(events);
+    }
+
+    private static List<Integer> eventIds(List<Event> events) {
+        return events.stream().map(Event::getEventId).collect(Collectors.toList());
+    }
+}
@@ -26,7 +26,8 @@ class GenreDbStorageTest {
 
     @BeforeEach
     void setUp() {
-        genreDbStorage = new GenreDbStorage(jdbcTemplate);
+        ReferenceDataRegistry referenceDataRegistry = new ReferenceDataRegistry(jdbcTemplate);
+        genreDbStorage = new GenreDbStorage(referenceDataRegistry);
         genreOne = new Genre(GENRE_ID_ONE, GENRE_NAME_ONE);
     }
 
@@ -0,0 +1,182 @@
+package ru.yandex.practicum.filmorate.dao.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.model.*;
+import ru.yandex.practicum.filmorate.service.event.FeedHub;
+import ru.yandex.practicum.filmorate.service.film.FilmCache;
+import ru.yandex.practicum.filmorate.service.film.FilmPopularityIndex;
+import ru.yandex.practicum.filmorate.service.film.MarkWriteBuffer;
+import ru.yandex.practicum.filmorate.service.recommendation.RatingMatrix;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Поток записи работает в своей транзакции, поэтому тест не оборачивается в транзакцию:
+ * иначе записанные в тесте фильмы и пользователи не были бы видны потоку записи.
+ */
+@JdbcTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class MarkWriteBufferTest {
+    private static final Mpa MPA = new Mpa(1, "G");
+    private static final int USERS_COUNT = 3;
+    private FilmDbStorage filmDbStorage;
+    private EventDbStorage eventDbStorage;
+    private FilmPopularityIndex popularityIndex;
+    private MarkWriteBuffer markWriteBuffer;
+    private int filmOneId;
+    private int filmTwoId;
+    private final List<Integer> userIds = new ArrayList<>();
+    private final JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        ReferenceDataRegistry referenceDataRegistry = new ReferenceDataRegistry(jdbcTemplate);
+        filmDbStorage = new FilmDbStorage(jdbcTemplate, referenceDataRegistry);
+        eventDbStorage = new EventDbStorage(jdbcTemplate);
+        filmOneId = filmDbStorage.addFilm(new Film("Фильм один", "Описание", LocalDate.of(1986, 10, 25), 100, MPA))
+                .getId();
+        filmTwoId = filmDbStorage.addFilm(new Film("Фильм два", "Описание", LocalDate.of(1990, 1, 1), 100, MPA))
+                .getId();
+        popularityIndex = new FilmPopularityIndex(filmDbStorage);
+        popularityIndex.load();
+        UserDbStorage userDbStorage = new UserDbStorage(jdbcTemplate);
+        for (int i = 0; i < USERS_COUNT; i++) {
+            userIds.add(userDbStorage.addUser(new User("user" + i + "@mail.ru", "user" + i, "User " + i,
+                    LocalDate.of(1986, 10, 25))).getId());
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (markWriteBuffer != null) {
+            markWriteBuffer.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Запись оценок и событий пачкой")
+    void testFlushShouldWriteMarksEventsAndRatings() {
+        markWriteBuffer = createBuffer(500, 20, 100);
+
+        markWriteBuffer.add(new Mark(userIds.get(0), filmOneId, 6));
+        markWriteBuffer.add(new Mark(userIds.get(1), filmOneId, 8));
+        markWriteBuffer.add(new Mark(userIds.get(2), filmTwoId, 5));
+        markWriteBuffer.flush();
+
+        assertEquals(3, markWriteBuffer.getWrittenCount());
+        assertEquals(7, filmDbStorage.getFilmById(filmOneId).get(0).getRating());
+        assertEquals(5, filmDbStorage.getFilmById(filmTwoId).get(0).getRating());
+        assertEquals(1, eventDbStorage.getUserEvents(userIds.get(0)).size());
+        assertEquals("MARK", eventDbStorage.getUserEvents(userIds.get(2)).get(0).getEventType());
+    }
+
+    @Test
+    @DisplayName("Запись очереди при остановке")
+    void testShutdownShouldWritePendingMarks() {
+        markWriteBuffer = createBuffer(500, 60_000, 100);
+
+        markWriteBuffer.add(new Mark(userIds.get(0), filmOneId, 6));
+        markWriteBuffer.add(new Mark(userIds.get(1), filmTwoId, 8));
+        markWriteBuffer.shutdown();
+
+        assertEquals(2, countMarks());
+        assertEquals(6, filmDbStorage.getFilmById(filmOneId).get(0).getRating());
+    }
+
+    @Test
+    @DisplayName("Пропуск ошибочной оценки без потери остальных")
+    void testFlushShouldSkipInvalidMarks() {
+        markWriteBuffer = createBuffer(500, 20, 100);
+
+        markWriteBuffer.add(new Mark(userIds.get(0), filmOneId, 6));
+        markWriteBuffer.add(new Mark(userIds.get(0), filmOneId, 9));
+        markWriteBuffer.add(new Mark(9999, filmTwoId, 9));
+        markWriteBuffer.add(new Mark(userIds.get(1), filmOneId, 8));
+        markWriteBuffer.flush();
+
+        assertEquals(2, markWriteBuffer.getWrittenCount());
+        assertEquals(2, markWriteBuffer.getFailedCount());
+        assertEquals(7, filmDbStorage.getFilmById(filmOneId).get(0).getRating());
+        assertEquals(1, eventDbStorage.getUserEvents(userIds.get(1)).size());
+    }
+
+    @Test
+    @DisplayName("Оценка несуществующему фильму отклоняется сразу")
+    void testAddShouldRejectUnknownFilm() {
+        markWriteBuffer = createBuffer(500, 20, 100);
+
+        assertThrows(NotFoundException.class, () -> markWriteBuffer.add(new Mark(userIds.get(0), 9999, 9)));
+        markWriteBuffer.flush();
+        assertEquals(0, countMarks());
+    }
+
+    @Test
+    @DisplayName("Запись в потоке запроса при заполненной очереди")
+    void testAddShouldWriteDirectlyWhenQueueIsFull() {
+        markWriteBuffer = createBuffer(1, 20, 1);
+
+        // Пока тест держит индекс популярности, поток записи не может закончить пачку и очередь не освобождается
+        synchronized (popularityIndex) {
+            markWriteBuffer.add(new Mark(userIds.get(0), filmOneId, 6));
+            markWriteBuffer.add(new Mark(userIds.get(1), filmOneId, 8));
+            markWriteBuffer.add(new Mark(userIds.get(2), filmOneId, 10));
+        }
+
+        assertTrue(markWriteBuffer.getDirectWriteCount() >= 1);
+        markWriteBuffer.shutdown();
+        assertEquals(3, countMarks());
+        assertEquals(8, filmDbStorage.getFilmById(filmOneId).get(0).getRating());
+    }
+
+    @Test
+    @DisplayName("Ошибка записи в потоке запроса возвращается вызывающему")
+    void testAddShouldThrowWhenDirectWriteFails() {
+        markWriteBuffer = createBuffer(1, 20, 1);
+
+        // Первая оценка занимает поток записи, вторая - очередь, третья пишется в потоке запроса
+        synchronized (popularityIndex) {
+            markWriteBuffer.add(new Mark(userIds.get(0), filmOneId, 6));
+            markWriteBuffer.add(new Mark(userIds.get(1), filmOneId, 8));
+            assertThrows(DataIntegrityViolationException.class,
+                    () -> markWriteBuffer.add(new Mark(9999, filmOneId, 10)));
+        }
+
+        assertTrue(markWriteBuffer.getDirectWriteCount() >= 1);
+        assertEquals(1, markWriteBuffer.getFailedCount());
+        markWriteBuffer.shutdown();
+        assertEquals(2, countMarks());
+    }
+
+    private MarkWriteBuffer createBuffer(int maxBatchSize, long maxLatencyMillis, int queueCapacity) {
+        return new MarkWriteBuffer(filmDbStorage, eventDbStorage, popularityIndex,
+                new FilmCache(10, new SimpleMeterRegistry()),
+                new RatingMatrix(new MarkDbStorage(jdbcTemplate), new SimpleMeterRegistry()),
+                List.of(new FeedHub(eventDbStorage, new SimpleMeterRegistry(), 16, 60_000, 15_000, 1)),
+                new DataSourceTransactionManager(jdbcTemplate.getDataSource()), new SimpleMeterRegistry(),
+                true, maxBatchSize, maxLatencyMillis, queueCapacity, 10);
+    }
+
+    private int countMarks() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM marks", Integer.class);
+    }
+}
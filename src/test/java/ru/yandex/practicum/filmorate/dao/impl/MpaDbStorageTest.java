@@ -26,7 +26,8 @@ class MpaDbStorageTest {
 
     @BeforeEach
     void setUp() {
-        mpaDbStorage = new MpaDbStorage(jdbcTemplate);
+        ReferenceDataRegistry referenceDataRegistry = new ReferenceDataRegistry(jdbcTemplate);
+        mpaDbStorage = new MpaDbStorage(referenceDataRegistry);
         mpaOne = new Mpa(MPA_ID_ONE, MPA_NAME_ONE);
     }
 
@@ -0,0 +1,132 @@
+package ru.yandex.practicum.filmorate.dao.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Mark;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.service.recommendation.RatingMatrix;
+import ru.yandex.practicum.filmorate.service.recommendation.RatingMatrix.Ratings;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@JdbcTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class RatingMatrixTest {
+    private FilmDbStorage filmDbStorage;
+    private UserDbStorage userDbStorage;
+    private RatingMatrix ratingMatrix;
+    private final int[] userIds = new int[3];
+    private final int[] filmIds = new int[3];
+    private final JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        ReferenceDataRegistry referenceDataRegistry = new ReferenceDataRegistry(jdbcTemplate);
+        filmDbStorage = new FilmDbStorage(jdbcTemplate, referenceDataRegistry);
+        userDbStorage = new UserDbStorage(jdbcTemplate);
+        Mpa mpa = new Mpa();
+        mpa.setId(1);
+        for (int i = 0; i < userIds.length; i++) {
+            userIds[i] = userDbStorage.addUser(new User("user" + i + "@mail.ru", "user" + i, "User",
+                    LocalDate.of(1986, 10, 25))).getId();
+            filmIds[i] = filmDbStorage.addFilm(new Film("Фильм " + i, "Описание", LocalDate.of(2000, 1, 1), 100, mpa))
+                    .getId();
+        }
+        filmDbStorage.addMark(filmIds[2], userIds[0], 7);
+        filmDbStorage.addMark(filmIds[0], userIds[0], 3);
+        filmDbStorage.addMark(filmIds[0], userIds[1], 9);
+        ratingMatrix = new RatingMatrix(new MarkDbStorage(jdbcTemplate), new SimpleMeterRegistry());
+        ratingMatrix.load();
+    }
+
+    @Test
+    @DisplayName("Загрузка матрицы: строки пользователей и фильмов отсортированы по ид")
+    void testLoadShouldBuildSortedRows() {
+        Ratings user = ratingMatrix.getUserRatings(userIds[0]);
+        assertEquals(2, user.size());
+        assertEquals(filmIds[0], user.id(0));
+        assertEquals(3, user.mark(0));
+        assertEquals(filmIds[2], user.id(1));
+        assertEquals(7, user.mark(1));
+
+        Ratings film = ratingMatrix.getFilmRatings(filmIds[0]);
+        assertEquals(2, film.size());
+        assertEquals(userIds[0], film.id(0));
+        assertEquals(userIds[1], film.id(1));
+        assertEquals(9, film.mark(1));
+        assertEquals(0, ratingMatrix.getFilmRatings(filmIds[1]).size());
+        assertEquals(0, ratingMatrix.getUserRatings(9999).size());
+        assertEquals(3, ratingMatrix.getMarkCount());
+    }
+
+    @Test
+    @DisplayName("Изменения оценок перечитываются из БД")
+    void testRefreshShouldFollowDatabase() {
+        filmDbStorage.addMark(filmIds[1], userIds[2], 10);
+        filmDbStorage.deleteMark(filmIds[0], userIds[0]);
+        ratingMatrix.refresh(List.of(new Mark(userIds[2], filmIds[1], null),
+                new Mark(userIds[0], filmIds[0], null)));
+
+        assertEquals(1, ratingMatrix.getUserRatings(userIds[0]).size());
+        assertEquals(filmIds[2], ratingMatrix.getUserRatings(userIds[0]).id(0));
+        assertEquals(1, ratingMatrix.getFilmRatings(filmIds[0]).size());
+        assertEquals(10, ratingMatrix.getFilmRatings(filmIds[1]).mark(0));
+        assertEquals(userIds[2], ratingMatrix.getFilmRatings(filmIds[1]).id(0));
+        assertEquals(3, ratingMatrix.getMarkCount());
+    }
+
+    @Test
+    @DisplayName("Изменённая оценка заменяется на месте")
+    void testRefreshShouldReplaceChangedMark() {
+        Ratings filmBefore = ratingMatrix.getFilmRatings(filmIds[0]);
+        jdbcTemplate.update("UPDATE marks SET mark = 5 WHERE user_id = ? AND film_id = ?", userIds[0], filmIds[0]);
+        ratingMatrix.refresh(userIds[0], filmIds[0]);
+
+        Ratings film = ratingMatrix.getFilmRatings(filmIds[0]);
+        assertEquals(2, film.size());
+        assertEquals(5, film.mark(0));
+        assertEquals(9, film.mark(1));
+        assertEquals(3, filmBefore.mark(0));
+        assertEquals(5, ratingMatrix.getMark(userIds[0], filmIds[0]));
+        assertEquals(3, ratingMatrix.getMarkCount());
+    }
+
+    @Test
+    @DisplayName("Учёт записанных и удалённых оценок без чтения из БД")
+    void testAddAndRemoveMarksShouldUpdateBothRows() {
+        ratingMatrix.addMarks(List.of(new Mark(userIds[2], filmIds[1], 8)));
+        ratingMatrix.removeMark(userIds[0], filmIds[2]);
+
+        assertEquals(8, ratingMatrix.getMark(userIds[2], filmIds[1]));
+        assertEquals(userIds[2], ratingMatrix.getFilmRatings(filmIds[1]).id(0));
+        assertNull(ratingMatrix.getMark(userIds[0], filmIds[2]));
+        assertEquals(0, ratingMatrix.getFilmRatings(filmIds[2]).size());
+        assertEquals(3, ratingMatrix.getMarkCount());
+    }
+
+    @Test
+    @DisplayName("Удаление пользователя и фильма убирает их оценки из обеих строк")
+    void testRemoveUserAndFilm() {
+        ratingMatrix.removeUser(userIds[1]);
+        assertEquals(1, ratingMatrix.getFilmRatings(filmIds[0]).size());
+
+        ratingMatrix.removeFilm(filmIds[0]);
+        assertEquals(1, ratingMatrix.getUserRatings(userIds[0]).size());
+        assertEquals(filmIds[2], ratingMatrix.getUserRatings(userIds[0]).id(0));
+        assertEquals(0, ratingMatrix.getFilmRatings(filmIds[0]).size());
+        assertEquals(1, ratingMatrix.getMarkCount());
+    }
+}
@@ -0,0 +1,321 @@
+package ru.yandex.practicum.filmorate.dao.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.dao.MarkDao;
+import ru.yandex.practicum.filmorate.model.Mark;
+import ru.yandex.practicum.filmorate.service.recommendation.CoRaterScorer;
+import ru.yandex.practicum.filmorate.service.recommendation.Neighbours;
+import ru.yandex.practicum.filmorate.service.recommendation.RatingMatrix;
+import ru.yandex.practicum.filmorate.service.recommendation.Recommender;
+import ru.yandex.practicum.filmorate.service.recommendation.UserMinHashIndex;
+import ru.yandex.practicum.filmorate.service.recommendation.UserSimilarityIndex;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Сравнение подбора рекомендаций по матрице оценок в памяти с прежним способом: оценки всех пользователей,
+ * оценивших те же фильмы, читаются из БД в Map&lt;Integer, HashMap&lt;Integer, Integer&gt;&gt;.
+ * Проверяется совпадение результатов для каждого пользователя и совпадение последовательного и параллельного
+ * расчёта похожести для пользователей с большим количеством оценок. Проверки совпадения входят в обычную сборку
+ * и идут на небольших данных. Замеры времени и выделенной памяти только выводятся в лог и зависят от машины,
+ * поэтому помечены тегом benchmark, в обычную сборку не входят и идут на данных полного размера.
+ */
+@Slf4j
+@JdbcTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class RecommendationBenchmarkTest {
+    private static final int USERS_COUNT = 400;
+    private static final int FILMS_COUNT = 300;
+    private static final int MARKS_PER_USER = 60;
+    private static final int CHECK_USERS_COUNT = 100;
+    private static final int CHECK_FILMS_COUNT = 90;
+    private static final int CHECK_MARKS_PER_USER = 18;
+    private static final int ITERATIONS = 20;
+    private static final int TOP_N = 3;
+    private static final int HEAVY_USERS_MATRIX_SIZE = 3000;
+    private static final int HEAVY_USERS_COUNT = 10;
+    private static final int CHECK_HEAVY_USERS_MATRIX_SIZE = 500;
+    private static final int CHECK_HEAVY_USERS_COUNT = 3;
+    private static final String BENCHMARK = "benchmark";
+    private MarkDbStorage markDbStorage;
+    private Recommender recommender;
+    private List<Integer> userIds;
+    private final JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        markDbStorage = new MarkDbStorage(jdbcTemplate);
+    }
+
+    // Пользователи, фильмы и оценки в БД и подбор рекомендаций по ним
+    private void createMarks(int usersCount, int filmsCount, int marksPerUser) {
+        List<Object[]> users = new ArrayList<>();
+        for (int i = 0; i < usersCount; i++) {
+            users.add(new Object[]{"user" + i, "User " + i, "user" + i + "@mail.ru", Date.valueOf("1986-10-25")});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO users (login, name, email, birthday) VALUES (?, ?, ?, ?)", users);
+        List<Object[]> films = new ArrayList<>();
+        for (int i = 0; i < filmsCount; i++) {
+            films.add(new Object[]{"Фильм " + i, Date.valueOf(LocalDate.of(2000, 1, 1)), "Описание", 100, 1});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO films (name, releaseDate, description, duration, mpa_id) " +
+                "VALUES (?, ?, ?, ?, ?)", films);
+        userIds = jdbcTemplate.queryForList("SELECT id FROM users ORDER BY id", Integer.class);
+        List<Integer> filmIds = jdbcTemplate.queryForList("SELECT id FROM films ORDER BY id", Integer.class);
+        Random random = new Random(42);
+        List<Object[]> marks = new ArrayList<>();
+        for (int userId : userIds) {
+            List<Integer> shuffled = new ArrayList<>(filmIds);
+            // Популярные фильмы (в начале списка) оцениваются чаще
+            Collections.shuffle(shuffled.subList(0, filmsCount / 3), random);
+            Collections.shuffle(shuffled.subList(filmsCount / 3, filmsCount), random);
+            int popular = marksPerUser / 2;
+            for (int filmId : shuffled.subList(0, popular)) {
+                marks.add(new Object[]{userId, filmId, 1 + random.nextInt(10)});
+            }
+            for (int filmId : shuffled.subList(filmsCount / 3, filmsCount / 3 + marksPerUser - popular)) {
+                marks.add(new Object[]{userId, filmId, 1 + random.nextInt(10)});
+            }
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO marks (user_id, film_id, mark) VALUES (?, ?, ?)", marks);
+        RatingMatrix ratingMatrix = new RatingMatrix(markDbStorage, new SimpleMeterRegistry());
+        ratingMatrix.load();
+        UserMinHashIndex minHashIndex = new UserMinHashIndex(ratingMatrix, new SimpleMeterRegistry(), false,
+                32, 2, 0, 500);
+        CoRaterScorer coRaterScorer = new CoRaterScorer(ratingMatrix, new SimpleMeterRegistry(), Long.MAX_VALUE, 1);
+        // Короткие списки похожих, чтобы проверялся и полный перебор, когда в списке рекомендовать нечего
+        recommender = new Recommender(ratingMatrix,
+                new UserSimilarityIndex(ratingMatrix, coRaterScorer, minHashIndex, new SimpleMeterRegistry(), TOP_N,
+                        usersCount),
+                coRaterScorer);
+    }
+
+    @Test
+    void testMatrixShouldGiveSameRecommendationsAsMaps() {
+        createMarks(CHECK_USERS_COUNT, CHECK_FILMS_COUNT, CHECK_MARKS_PER_USER);
+        for (int userId : userIds) {
+            List<Integer> expected = recommendByMaps(userId);
+            List<Integer> actual = Arrays.stream(recommender.getFilmIdsForRecommendations(userId))
+                    .boxed()
+                    .collect(Collectors.toList());
+            assertEquals(expected, actual, "Рекомендации пользователя " + userId);
+        }
+    }
+
+    @Test
+    @Tag(BENCHMARK)
+    void benchmarkAllocationsPerRequest() {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        createMarks(USERS_COUNT, FILMS_COUNT, MARKS_PER_USER);
+        int requesterId = userIds.get(0);
+        // Прогрев
+        for (int i = 0; i < ITERATIONS; i++) {
+            recommendByMaps(requesterId);
+            recommender.getFilmIdsForRecommendations(requesterId);
+        }
+
+        long mapsBytes = Long.MAX_VALUE;
+        long matrixBytes = Long.MAX_VALUE;
+        long mapsNanos = Long.MAX_VALUE;
+        long matrixNanos = Long.MAX_VALUE;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long allocated = threadBean.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            recommendByMaps(requesterId);
+            mapsNanos = Math.min(mapsNanos, System.nanoTime() - start);
+            mapsBytes = Math.min(mapsBytes, threadBean.getThreadAllocatedBytes(threadId) - allocated);
+
+            allocated = threadBean.getThreadAllocatedBytes(threadId);
+            start = System.nanoTime();
+            recommender.getFilmIdsForRecommendations(requesterId);
+            matrixNanos = Math.min(matrixNanos, System.nanoTime() - start);
+            matrixBytes = Math.min(matrixBytes, threadBean.getThreadAllocatedBytes(threadId) - allocated);
+        }
+
+        log.info("Рекомендации при {} пользователях по {} оценок: через Map - {} байт, {} мкс; " +
+                        "по матрице - {} байт, {} мкс.",
+                USERS_COUNT, MARKS_PER_USER, mapsBytes, mapsNanos / 1000, matrixBytes, matrixNanos / 1000);
+    }
+
+    @Test
+    void testParallelScoringShouldMatchSequential() {
+        RatingMatrix ratingMatrix = heavyUsersMatrix(CHECK_HEAVY_USERS_MATRIX_SIZE, CHECK_HEAVY_USERS_COUNT);
+        UserMinHashIndex minHashIndex = new UserMinHashIndex(ratingMatrix, new SimpleMeterRegistry(), false,
+                32, 2, 0, 500);
+        CoRaterScorer sequential = new CoRaterScorer(ratingMatrix, new SimpleMeterRegistry(), Long.MAX_VALUE, 1);
+        CoRaterScorer parallel = new CoRaterScorer(ratingMatrix, new SimpleMeterRegistry(), 0, parallelism());
+        try {
+            // Полные списки со-оценивших; max-users = 0 - списки не хранятся и каждый раз считаются заново
+            UserSimilarityIndex sequentialFull = new UserSimilarityIndex(ratingMatrix, sequential, minHashIndex,
+                    new SimpleMeterRegistry(), CHECK_HEAVY_USERS_MATRIX_SIZE, 0);
+            UserSimilarityIndex parallelFull = new UserSimilarityIndex(ratingMatrix, parallel, minHashIndex,
+                    new SimpleMeterRegistry(), CHECK_HEAVY_USERS_MATRIX_SIZE, 0);
+            for (int userId = 1; userId <= CHECK_HEAVY_USERS_COUNT; userId++) {
+                Neighbours expected = sequentialFull.getNeighbours(userId);
+                Neighbours actual = parallelFull.getNeighbours(userId);
+                assertEquals(expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.id(i), actual.id(i), "Пользователь " + userId);
+                    assertEquals(expected.matches(i), actual.matches(i));
+                    assertEquals(expected.diffSum(i), actual.diffSum(i));
+                }
+            }
+            assertEquals(CHECK_HEAVY_USERS_COUNT, parallel.getParallelComputationCount());
+        } finally {
+            parallel.shutdown();
+        }
+    }
+
+    @Test
+    @Tag(BENCHMARK)
+    void benchmarkParallelScoring() {
+        RatingMatrix ratingMatrix = heavyUsersMatrix(HEAVY_USERS_MATRIX_SIZE, HEAVY_USERS_COUNT);
+        UserMinHashIndex minHashIndex = new UserMinHashIndex(ratingMatrix, new SimpleMeterRegistry(), false,
+                32, 2, 0, 500);
+        CoRaterScorer sequential = new CoRaterScorer(ratingMatrix, new SimpleMeterRegistry(), Long.MAX_VALUE, 1);
+        CoRaterScorer parallel = new CoRaterScorer(ratingMatrix, new SimpleMeterRegistry(), 0, parallelism());
+        try {
+            UserSimilarityIndex sequentialTop = new UserSimilarityIndex(ratingMatrix, sequential, minHashIndex,
+                    new SimpleMeterRegistry(), TOP_N, 0);
+            UserSimilarityIndex parallelTop = new UserSimilarityIndex(ratingMatrix, parallel, minHashIndex,
+                    new SimpleMeterRegistry(), TOP_N, 0);
+            long sequentialNanos = Long.MAX_VALUE;
+            long parallelNanos = Long.MAX_VALUE;
+            for (int i = 0; i < ITERATIONS; i++) {
+                int userId = 1 + i % HEAVY_USERS_COUNT;
+                long start = System.nanoTime();
+                sequentialTop.getNeighbours(userId);
+                sequentialNanos = Math.min(sequentialNanos, System.nanoTime() - start);
+                start = System.nanoTime();
+                parallelTop.getNeighbours(userId);
+                parallelNanos = Math.min(parallelNanos, System.nanoTime() - start);
+            }
+            log.info("Похожие пользователи для оценившего 1500 фильмов при {} пользователях: последовательно - {} мкс, " +
+                    "в пуле из {} потоков - {} мкс.", HEAVY_USERS_MATRIX_SIZE, sequentialNanos / 1000, parallelism(),
+                    parallelNanos / 1000);
+        } finally {
+            parallel.shutdown();
+        }
+    }
+
+    // Первые heavyUsersCount пользователей оценили по 1500 фильмов, остальные - по 150
+    private static RatingMatrix heavyUsersMatrix(int usersCount, int heavyUsersCount) {
+        RatingMatrix ratingMatrix = new RatingMatrix(generatedMarks(usersCount, 2000, 150,
+                heavyUsersCount, 1500), new SimpleMeterRegistry());
+        ratingMatrix.load();
+        return ratingMatrix;
+    }
+
+    private static int parallelism() {
+        return Math.max(2, Runtime.getRuntime().availableProcessors());
+    }
+
+    // Оценки без БД: первые heavyUsersCount пользователей оценивают heavyMarks фильмов, остальные - marksPerUser
+    private static MarkDao generatedMarks(int usersCount, int filmsCount, int marksPerUser,
+                                          int heavyUsersCount, int heavyMarks) {
+        return new MarkDao() {
+            @Override
+            public void forEachMark(MarkHandler handler) {
+                Random random = new Random(42);
+                List<Integer> filmIds = new ArrayList<>();
+                for (int filmId = 1; filmId <= filmsCount; filmId++) {
+                    filmIds.add(filmId);
+                }
+                for (int userId = 1; userId <= usersCount; userId++) {
+                    Collections.shuffle(filmIds, random);
+                    int[] rated = filmIds.stream()
+                            .limit(userId <= heavyUsersCount ? heavyMarks : marksPerUser)
+                            .mapToInt(Integer::intValue)
+                            .sorted()
+                            .toArray();
+                    for (int filmId : rated) {
+                        handler.accept(userId, filmId, 1 + random.nextInt(10));
+                    }
+                }
+            }
+
+            @Override
+            public List<Integer> getFilmIdsByUserId(int userId) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public List<Mark> getMarks(List<Mark> keys) {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Прежний алгоритм: оценки со-оценивших пользователей из БД, перебор пользователей по возрастанию ид,
+     * при равенстве похожести побеждает пользователь с большим количеством общих фильмов.
+     */
+    private List<Integer> recommendByMaps(int requesterId) {
+        Map<Integer, HashMap<Integer, Integer>> userIdToFilmIdWithMark = userIdToFilmIdWithMark(requesterId);
+        Map<Integer, Integer> requesterMarks = userIdToFilmIdWithMark.get(requesterId);
+        double minDiff = Double.MAX_VALUE;
+        int bestMatches = 0;
+        List<Integer> result = new ArrayList<>();
+        for (Integer userId : new TreeSet<>(userIdToFilmIdWithMark.keySet())) {
+            if (userId == requesterId) {
+                continue;
+            }
+            Map<Integer, Integer> userMarks = userIdToFilmIdWithMark.get(userId);
+            int matches = 0;
+            int sumDiff = 0;
+            for (Map.Entry<Integer, Integer> mark : userMarks.entrySet()) {
+                if (requesterMarks.containsKey(mark.getKey())) {
+                    matches++;
+                    sumDiff += Math.abs(requesterMarks.get(mark.getKey()) - mark.getValue());
+                }
+            }
+            List<Integer> positive = userMarks.entrySet().stream()
+                    .filter(mark -> !requesterMarks.containsKey(mark.getKey()) && mark.getValue() > 5)
+                    .map(Map.Entry::getKey)
+                    .sorted()
+                    .collect(Collectors.toList());
+            if (matches == 0 || positive.isEmpty()) {
+                continue;
+            }
+            double diff = (sumDiff + 10.0) / matches;
+            if (diff < minDiff || diff == minDiff && matches > bestMatches) {
+                minDiff = diff;
+                bestMatches = matches;
+                result = positive;
+            }
+        }
+        return result;
+    }
+
+    // Оценки всех пользователей, оценивших хотя бы один фильм из оценённых requesterId, включая его самого
+    private Map<Integer, HashMap<Integer, Integer>> userIdToFilmIdWithMark(int requesterId) {
+        Map<Integer, HashMap<Integer, Integer>> userIdToFilmIdWithMark = new HashMap<>();
+        jdbcTemplate.query("SELECT * " +
+                "FROM marks AS m1 " +
+                "WHERE m1.user_id IN (SELECT m2.user_id " +
+                "FROM marks AS m2 " +
+                "WHERE m2.film_id IN (SELECT m3.film_id FROM marks AS m3 WHERE m3.user_id = ?))", rs -> {
+            userIdToFilmIdWithMark.computeIfAbsent(rs.getInt("user_id"), userId -> new HashMap<>())
+                    .put(rs.getInt("film_id"), rs.getInt("mark"));
+        }, requesterId);
+        return userIdToFilmIdWithMark;
+    }
+}
@@ -0,0 +1,124 @@
+package ru.yandex.practicum.filmorate.dao.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.service.recommendation.CoRaterScorer;
+import ru.yandex.practicum.filmorate.service.recommendation.RatingMatrix;
+import ru.yandex.practicum.filmorate.service.recommendation.RecommendationCache;
+import ru.yandex.practicum.filmorate.service.recommendation.Recommender;
+import ru.yandex.practicum.filmorate.service.recommendation.UserMinHashIndex;
+import ru.yandex.practicum.filmorate.service.recommendation.UserSimilarityIndex;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@JdbcTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class RecommendationCacheTest {
+    private static final int USERS_COUNT = 40;
+    private static final int FILMS_COUNT = 60;
+    private final Random random = new Random(5);
+    private RatingMatrix ratingMatrix;
+    private Recommender recommender;
+    private RecommendationCache recommendationCache;
+    private List<Integer> userIds;
+    private List<Integer> filmIds;
+    private final JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        List<Object[]> users = new ArrayList<>();
+        for (int i = 0; i < USERS_COUNT; i++) {
+            users.add(new Object[]{"user" + i, "User " + i, "user" + i + "@mail.ru", Date.valueOf("1986-10-25")});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO users (login, name, email, birthday) VALUES (?, ?, ?, ?)", users);
+        List<Object[]> films = new ArrayList<>();
+        for (int i = 0; i < FILMS_COUNT; i++) {
+            films.add(new Object[]{"Фильм " + i, Date.valueOf("2000-01-01"), "Описание", 100, 1});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO films (name, releaseDate, description, duration, mpa_id) " +
+                "VALUES (?, ?, ?, ?, ?)", films);
+        userIds = jdbcTemplate.queryForList("SELECT id FROM users ORDER BY id", Integer.class);
+        filmIds = jdbcTemplate.queryForList("SELECT id FROM films ORDER BY id", Integer.class);
+        List<Object[]> marks = new ArrayList<>();
+        for (int userId : userIds) {
+            for (int filmId : filmIds) {
+                if (random.nextInt(5) == 0) {
+                    marks.add(new Object[]{userId, filmId, 1 + random.nextInt(10)});
+                }
+            }
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO marks (user_id, film_id, mark) VALUES (?, ?, ?)", marks);
+        ratingMatrix = new RatingMatrix(new MarkDbStorage(jdbcTemplate), new SimpleMeterRegistry());
+        ratingMatrix.load();
+        CoRaterScorer coRaterScorer = new CoRaterScorer(ratingMatrix, new SimpleMeterRegistry(), 200000, 1);
+        // Короткие списки похожих, чтобы проверялся и полный перебор
+        UserSimilarityIndex similarityIndex = new UserSimilarityIndex(ratingMatrix, coRaterScorer,
+                new UserMinHashIndex(ratingMatrix, new SimpleMeterRegistry(), false, 32, 2, 0, 500),
+                new SimpleMeterRegistry(), 3, USERS_COUNT);
+        recommender = new Recommender(ratingMatrix, similarityIndex, coRaterScorer);
+        recommendationCache = new RecommendationCache(recommender, similarityIndex, ratingMatrix,
+                new SimpleMeterRegistry(), USERS_COUNT);
+    }
+
+    @Test
+    @DisplayName("Рекомендации из кэша после изменений оценок совпадают с посчитанными заново")
+    void testCachedRecommendationsShouldMatchRecomputation() {
+        for (int i = 0; i < 300; i++) {
+            int userId = userIds.get(random.nextInt(USERS_COUNT));
+            int filmId = filmIds.get(random.nextInt(FILMS_COUNT));
+            if (jdbcTemplate.update("DELETE FROM marks WHERE user_id = ? AND film_id = ?", userId, filmId) == 0
+                    || random.nextBoolean()) {
+                jdbcTemplate.update("INSERT INTO marks (user_id, film_id, mark) VALUES (?, ?, ?)",
+                        userId, filmId, 1 + random.nextInt(10));
+            }
+            ratingMatrix.refresh(userId, filmId);
+            for (int j = 0; j < 5; j++) {
+                int requesterId = userIds.get(random.nextInt(USERS_COUNT));
+                assertArrayEquals(recommender.getFilmIdsForRecommendations(requesterId),
+                        recommendationCache.getFilmIdsForRecommendations(requesterId),
+                        "Рекомендации пользователя " + requesterId);
+                assertArrayEquals(recommender.getRankedFilmIds(requesterId, 5, 10),
+                        recommendationCache.getRankedFilmIds(requesterId, 5, 10),
+                        "Рекомендации по похожим пользователя " + requesterId);
+            }
+        }
+        assertTrue(recommendationCache.getHitCount() > 0);
+        assertTrue(recommendationCache.getStaleCount() > 0);
+    }
+
+    @Test
+    @DisplayName("Запись удаляется после оценки пользователя")
+    void testEntryShouldBeInvalidatedByOwnMark() {
+        int userId = userIds.get(0);
+        int[] first = recommendationCache.getFilmIdsForRecommendations(userId);
+        assertArrayEquals(first, recommendationCache.getFilmIdsForRecommendations(userId));
+        assertEquals(1, recommendationCache.size());
+        assertEquals(0.5, recommendationCache.getHitRatio());
+
+        int filmId = first.length > 0 ? first[0] : filmIds.get(0);
+        jdbcTemplate.update("DELETE FROM marks WHERE user_id = ? AND film_id = ?", userId, filmId);
+        jdbcTemplate.update("INSERT INTO marks (user_id, film_id, mark) VALUES (?, ?, ?)", userId, filmId, 10);
+        ratingMatrix.refresh(userId, filmId);
+
+        assertEquals(0, recommendationCache.size());
+        assertEquals(1, recommendationCache.getInvalidationCount());
+        int[] second = recommendationCache.getFilmIdsForRecommendations(userId);
+        assertArrayEquals(recommender.getFilmIdsForRecommendations(userId), second);
+        for (int id : second) {
+            assertNotEquals(filmId, id);
+        }
+    }
+}
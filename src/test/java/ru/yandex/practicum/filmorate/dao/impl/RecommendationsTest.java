@@ -1,6 +1,8 @@
 package ru.yandex.practicum.filmorate.dao.impl;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -8,13 +10,30 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.dto.RecommendationBatchRequest;
+import ru.yandex.practicum.filmorate.dto.UserRecommendations;
 import ru.yandex.practicum.filmorate.model.*;
+import ru.yandex.practicum.filmorate.service.event.EventDelivery;
 import ru.yandex.practicum.filmorate.service.event.EventServiceImpl;
+import ru.yandex.practicum.filmorate.service.event.EventWriter;
+import ru.yandex.practicum.filmorate.service.event.FriendsTimeline;
+import ru.yandex.practicum.filmorate.service.film.FilmCache;
+import ru.yandex.practicum.filmorate.service.film.FilmPopularityIndex;
+import ru.yandex.practicum.filmorate.service.recommendation.AlsRecommender;
+import ru.yandex.practicum.filmorate.service.recommendation.BatchRecommender;
+import ru.yandex.practicum.filmorate.service.recommendation.CoRaterScorer;
+import ru.yandex.practicum.filmorate.service.recommendation.RatingMatrix;
+import ru.yandex.practicum.filmorate.service.recommendation.RecommendationCache;
+import ru.yandex.practicum.filmorate.service.recommendation.Recommender;
+import ru.yandex.practicum.filmorate.service.recommendation.UserMinHashIndex;
+import ru.yandex.practicum.filmorate.service.recommendation.UserSimilarityIndex;
 import ru.yandex.practicum.filmorate.service.user.UserServiceImpl;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -33,15 +52,48 @@ public class RecommendationsTest {
     private FilmDbStorage filmDbStorage;
     private MarkDbStorage markDbStorage;
     private DirectorDbStorage directorDbStorage;
+    private RatingMatrix ratingMatrix;
+    private FilmPopularityIndex popularityIndex;
+    private AlsRecommender alsRecommender;
+    private BatchRecommender batchRecommender;
     private final JdbcTemplate jdbcTemplate;
 
     @BeforeEach
     void setUp() {
+        ReferenceDataRegistry referenceDataRegistry = new ReferenceDataRegistry(jdbcTemplate);
         userDbStorage = new UserDbStorage(jdbcTemplate);
-        filmDbStorage = new FilmDbStorage(jdbcTemplate);
+        filmDbStorage = new FilmDbStorage(jdbcTemplate, referenceDataRegistry);
         markDbStorage = new MarkDbStorage(jdbcTemplate);
-        directorDbStorage = new DirectorDbStorage(jdbcTemplate);
-        userServiceImpl = new UserServiceImpl(userDbStorage, filmDbStorage, markDbStorage, new EventServiceImpl(new EventDbStorage(jdbcTemplate)));
+        directorDbStorage = new DirectorDbStorage(jdbcTemplate, referenceDataRegistry);
+        ratingMatrix = new RatingMatrix(markDbStorage, new SimpleMeterRegistry());
+        popularityIndex = new FilmPopularityIndex(filmDbStorage);
+        UserMinHashIndex minHashIndex = new UserMinHashIndex(ratingMatrix, new SimpleMeterRegistry(), false,
+                32, 2, 0, 500);
+        CoRaterScorer coRaterScorer = new CoRaterScorer(ratingMatrix, new SimpleMeterRegistry(), 200000, 1);
+        UserSimilarityIndex similarityIndex = new UserSimilarityIndex(ratingMatrix, coRaterScorer, minHashIndex,
+                new SimpleMeterRegistry(), 50, 1000);
+        Recommender recommender = new Recommender(ratingMatrix, similarityIndex, coRaterScorer);
+        alsRecommender = new AlsRecommender(markDbStorage, ratingMatrix, new SimpleMeterRegistry(), false, 8, 5, 0.1,
+                1, 3600000, 60000, "");
+        batchRecommender = new BatchRecommender(recommender, new SimpleMeterRegistry(), 2);
+        EventDbStorage eventDbStorage = new EventDbStorage(jdbcTemplate);
+        EventServiceImpl eventService = new EventServiceImpl(eventDbStorage,
+                new EventWriter(eventDbStorage, List.of(), new SimpleMeterRegistry(), false, 16, 500),
+                EventDelivery.STRICT);
+        userServiceImpl = new UserServiceImpl(userDbStorage, filmDbStorage, markDbStorage, eventService,
+                popularityIndex,
+                new FilmCache(10, new SimpleMeterRegistry()),
+                new FriendsTimeline(eventDbStorage, userDbStorage, new SimpleMeterRegistry(), 200, 1000, 10000),
+                ratingMatrix,
+                new RecommendationCache(recommender, similarityIndex, ratingMatrix, new SimpleMeterRegistry(), 1000),
+                alsRecommender,
+                batchRecommender);
+    }
+
+    @AfterEach
+    void tearDown() {
+        alsRecommender.shutdown();
+        batchRecommender.shutdown();
     }
 
     @Test
@@ -145,6 +197,9 @@ public class RecommendationsTest {
         filmDbStorage.addMark(filmsId.get(13), usersId.get(6), 7);
         filmDbStorage.addMark(filmsId.get(14), usersId.get(6), 9);
 
+        // Оценки добавлены напрямую в БД, матрицу и индекс популярности перечитываем
+        ratingMatrix.load();
+        popularityIndex.load();
         List<Film> recommendations = userServiceImpl.getRecommendations(usersId.get(0));
 
         assertNotNull(recommendations);
@@ -244,6 +299,9 @@ public class RecommendationsTest {
         filmDbStorage.addMark(filmsId.get(13), usersId.get(6), 7);
         filmDbStorage.addMark(filmsId.get(14), usersId.get(6), 9);
 
+        // Оценки добавлены напрямую в БД, матрицу и индекс популярности перечитываем
+        ratingMatrix.load();
+        popularityIndex.load();
         List<Film> recommendations = userServiceImpl.getRecommendations(usersId.get(0));
 
         assertNotNull(recommendations);
@@ -297,6 +355,9 @@ public class RecommendationsTest {
         filmDbStorage.addMark(filmsId.get(11), usersId.get(6), 6);
         filmDbStorage.addMark(filmsId.get(12), usersId.get(6), 5);
 
+        // Оценки добавлены напрямую в БД, матрицу и индекс популярности перечитываем
+        ratingMatrix.load();
+        popularityIndex.load();
         List<Film> recommendations = userServiceImpl.getRecommendations(usersId.get(0));
         assertNotNull(recommendations);
         assertEquals(5, recommendations.size());
@@ -325,11 +386,113 @@ public class RecommendationsTest {
         filmDbStorage.addMark(filmsId.get(8), userId, 9);
         filmDbStorage.addMark(filmsId.get(9), userId, 9);
 
+        // Оценки добавлены напрямую в БД, матрицу и индекс популярности перечитываем
+        ratingMatrix.load();
+        popularityIndex.load();
         List<Film> recommendations = userServiceImpl.getRecommendations(userId);
         assertNotNull(recommendations);
         assertEquals(5, recommendations.size());
     }
 
+    @Test
+    @DisplayName("Получение рекомендаций голосованием k похожих пользователей")
+    void testGetRecommendations_WithKNearestNeighbours() {
+        List<User> users = usersBuilder();
+        List<Film> films = filmsBuilder();
+
+        List<Integer> usersId = users.stream()
+                .map(user -> userDbStorage.addUser(user).getId())
+                .collect(Collectors.toList());
+        List<Integer> filmsId = films.stream()
+                .map(film -> filmDbStorage.addFilm(film).getId())
+                .collect(Collectors.toList());
+
+        // Целевой пользователь
+        filmDbStorage.addMark(filmsId.get(0), usersId.get(0), 8);
+        filmDbStorage.addMark(filmsId.get(1), usersId.get(0), 8);
+
+        // Самый похожий: расстояние 5, вес 0.2
+        filmDbStorage.addMark(filmsId.get(0), usersId.get(1), 8);
+        filmDbStorage.addMark(filmsId.get(1), usersId.get(1), 8);
+        filmDbStorage.addMark(filmsId.get(2), usersId.get(1), 10);
+        filmDbStorage.addMark(filmsId.get(3), usersId.get(1), 6);
+        filmDbStorage.addMark(filmsId.get(6), usersId.get(1), 3);
+
+        // Расстояние 10, вес 0.1
+        filmDbStorage.addMark(filmsId.get(0), usersId.get(2), 8);
+        filmDbStorage.addMark(filmsId.get(3), usersId.get(2), 10);
+        filmDbStorage.addMark(filmsId.get(4), usersId.get(2), 9);
+
+        // Расстояние 17
+        filmDbStorage.addMark(filmsId.get(1), usersId.get(3), 1);
+        filmDbStorage.addMark(filmsId.get(5), usersId.get(3), 10);
+
+        // Оценки добавлены напрямую в БД, матрицу и индекс популярности перечитываем
+        ratingMatrix.load();
+        popularityIndex.load();
+        // Голоса: фильм 3 - 0.2 * 6 + 0.1 * 10 = 2.2, фильм 2 - 0.2 * 10 = 2, фильм 4 - 0.1 * 9 = 0.9
+        assertEquals(List.of(filmsId.get(3), filmsId.get(2)),
+                userServiceImpl.getRecommendations(usersId.get(0), 2, 2).stream()
+                        .map(Film::getId)
+                        .collect(Collectors.toList()));
+        assertEquals(List.of(filmsId.get(3), filmsId.get(2), filmsId.get(4), filmsId.get(5)),
+                userServiceImpl.getRecommendations(usersId.get(0), 3, 10).stream()
+                        .map(Film::getId)
+                        .collect(Collectors.toList()));
+    }
+
+    @Test
+    @DisplayName("Пакетные рекомендации совпадают с рекомендациями по одному пользователю")
+    void testGetRecommendationsBatch_ShouldMatchSingleRequests() {
+        List<Integer> usersId = usersBuilder().stream()
+                .map(user -> userDbStorage.addUser(user).getId())
+                .collect(Collectors.toList());
+        List<Integer> filmsId = filmsBuilder().stream()
+                .map(film -> filmDbStorage.addFilm(film).getId())
+                .collect(Collectors.toList());
+        Random random = new Random(4);
+        // Последний пользователь без оценок
+        for (int userId : usersId.subList(0, usersId.size() - 1)) {
+            for (int filmId : filmsId) {
+                if (random.nextInt(3) == 0) {
+                    filmDbStorage.addMark(filmId, userId, 1 + random.nextInt(10));
+                }
+            }
+        }
+        ratingMatrix.load();
+        popularityIndex.load();
+
+        RecommendationBatchRequest range = new RecommendationBatchRequest();
+        range.setFromId(usersId.get(0));
+        range.setToId(usersId.get(usersId.size() - 1));
+        range.setK(3);
+        range.setLimit(4);
+        List<UserRecommendations> batch = new ArrayList<>();
+        userServiceImpl.getRecommendationsBatch(range, batch::add);
+
+        assertEquals(usersId.size(), batch.size());
+        for (int i = 0; i < usersId.size(); i++) {
+            assertEquals((int) usersId.get(i), batch.get(i).getUserId());
+            List<Integer> expected = userServiceImpl.getRecommendations(usersId.get(i), 3, 4).stream()
+                    .map(Film::getId)
+                    .collect(Collectors.toList());
+            assertEquals(expected, Arrays.stream(batch.get(i).getFilmIds()).boxed().collect(Collectors.toList()));
+        }
+        assertTrue(batch.get(usersId.size() - 1).isPopular());
+
+        RecommendationBatchRequest list = new RecommendationBatchRequest();
+        list.setUserIds(List.of(usersId.get(2), usersId.get(0)));
+        batch.clear();
+        userServiceImpl.getRecommendationsBatch(list, batch::add);
+        assertEquals(2, batch.size());
+        assertEquals((int) usersId.get(2), batch.get(0).getUserId());
+        assertEquals(userServiceImpl.getRecommendations(usersId.get(0)).stream()
+                        .map(Film::getId)
+                        .sorted()
+                        .collect(Collectors.toList()),
+                Arrays.stream(batch.get(1).getFilmIds()).boxed().sorted().collect(Collectors.toList()));
+    }
+
     private List<Film> filmsBuilder() {
         List<Film> films = new ArrayList<>();
         for (int i = 1; i < 16; i++) {
@@ -38,8 +38,9 @@ class ReviewDbStorageTest {
 
     @BeforeEach
     public void setup() {
+        ReferenceDataRegistry referenceDataRegistry = new ReferenceDataRegistry(jdbcTemplate);
         reviewDbStorage = new ReviewDbStorage(jdbcTemplate);
-        filmDbStorage = new FilmDbStorage(jdbcTemplate);
+        filmDbStorage = new FilmDbStorage(jdbcTemplate, referenceDataRegistry);
         userDbStorage = new UserDbStorage(jdbcTemplate);
 
         createMockUser("test0@test.com", "user0", "user0");
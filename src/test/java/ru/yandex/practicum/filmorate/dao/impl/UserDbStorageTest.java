@@ -13,6 +13,7 @@ import ru.yandex.practicum.filmorate.model.User;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -103,6 +104,25 @@ class UserDbStorageTest {
         assertEquals(2, returnedUsers.size());
     }
 
+    @Test
+    @DisplayName("Получение страниц пользователей с друзьями")
+    void testGetUsersPageShouldContinueAfterId() {
+        int userOneId = userDbStorage.addUser(userOne).getId();
+        int userTwoId = userDbStorage.addUser(userTwo).getId();
+        userDbStorage.addFriend(userTwoId, userOneId);
+
+        List<User> firstPage = userDbStorage.getUsersPage(0, 1);
+        List<User> secondPage = userDbStorage.getUsersPage(userOneId, 1);
+
+        assertEquals(1, firstPage.size());
+        assertEquals(userOneId, firstPage.get(0).getId());
+        assertTrue(firstPage.get(0).getFriends().isEmpty());
+        assertEquals(1, secondPage.size());
+        assertEquals(userTwoId, secondPage.get(0).getId());
+        assertEquals(Set.of(userOneId), secondPage.get(0).getFriends());
+        assertTrue(userDbStorage.getUsersPage(userTwoId, 1).isEmpty());
+    }
+
     @Test
     @DisplayName("Удаление пользователя")
     void testDeleteUserShouldBeEquals() {
@@ -0,0 +1,152 @@
+package ru.yandex.practicum.filmorate.dao.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.service.recommendation.CoRaterScorer;
+import ru.yandex.practicum.filmorate.service.recommendation.Neighbours;
+import ru.yandex.practicum.filmorate.service.recommendation.RatingMatrix;
+import ru.yandex.practicum.filmorate.service.recommendation.UserMinHashIndex;
+import ru.yandex.practicum.filmorate.service.recommendation.UserSimilarityIndex;
+
+import java.sql.Date;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Полнота (recall) похожих пользователей, найденных по кандидатам LSH, относительно точного перебора.
+ * Пользователи разбиты на группы с общими любимыми фильмами и дополнительно оценивают случайные фильмы.
+ */
+@Slf4j
+@JdbcTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class UserMinHashIndexTest {
+    private static final int GROUPS_COUNT = 30;
+    private static final int GROUP_SIZE = 20;
+    private static final int USERS_COUNT = GROUPS_COUNT * GROUP_SIZE;
+    private static final int FILMS_COUNT = 620;
+    private static final int TOP_N = 10;
+    private final Random random = new Random(3);
+    private RatingMatrix ratingMatrix;
+    private CoRaterScorer coRaterScorer;
+    private List<Integer> userIds;
+    private List<Integer> filmIds;
+    private final JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        List<Object[]> users = new ArrayList<>();
+        for (int i = 0; i < USERS_COUNT; i++) {
+            users.add(new Object[]{"user" + i, "User " + i, "user" + i + "@mail.ru", Date.valueOf("1986-10-25")});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO users (login, name, email, birthday) VALUES (?, ?, ?, ?)", users);
+        List<Object[]> films = new ArrayList<>();
+        for (int i = 0; i < FILMS_COUNT; i++) {
+            films.add(new Object[]{"Фильм " + i, Date.valueOf("2000-01-01"), "Описание", 100, 1});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO films (name, releaseDate, description, duration, mpa_id) " +
+                "VALUES (?, ?, ?, ?, ?)", films);
+        userIds = jdbcTemplate.queryForList("SELECT id FROM users ORDER BY id", Integer.class);
+        filmIds = jdbcTemplate.queryForList("SELECT id FROM films ORDER BY id", Integer.class);
+        List<Object[]> marks = new ArrayList<>();
+        for (int i = 0; i < USERS_COUNT; i++) {
+            int group = i / GROUP_SIZE;
+            // 15 из 25 любимых фильмов группы с высокими оценками и 10 случайных фильмов
+            Set<Integer> rated = new HashSet<>();
+            List<Integer> liked = new ArrayList<>(filmIds.subList(group * 20, group * 20 + 25));
+            Collections.shuffle(liked, random);
+            for (int filmId : liked.subList(0, 15)) {
+                rated.add(filmId);
+                marks.add(new Object[]{userIds.get(i), filmId, 7 + random.nextInt(4)});
+            }
+            while (rated.size() < 25) {
+                int filmId = filmIds.get(random.nextInt(FILMS_COUNT));
+                if (rated.add(filmId)) {
+                    marks.add(new Object[]{userIds.get(i), filmId, 1 + random.nextInt(10)});
+                }
+            }
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO marks (user_id, film_id, mark) VALUES (?, ?, ?)", marks);
+        ratingMatrix = new RatingMatrix(new MarkDbStorage(jdbcTemplate), new SimpleMeterRegistry());
+        ratingMatrix.load();
+        coRaterScorer = new CoRaterScorer(ratingMatrix, new SimpleMeterRegistry(), 200000, 1);
+    }
+
+    @Test
+    @DisplayName("Похожие пользователи по кандидатам LSH совпадают с точным перебором")
+    void testCandidatesShouldRecallExactNeighbours() {
+        UserSimilarityIndex exact = new UserSimilarityIndex(ratingMatrix, coRaterScorer,
+                new UserMinHashIndex(ratingMatrix, new SimpleMeterRegistry(), false, 32, 2, 0, 100),
+                new SimpleMeterRegistry(), TOP_N, USERS_COUNT);
+        UserMinHashIndex minHashIndex = new UserMinHashIndex(ratingMatrix, new SimpleMeterRegistry(), true,
+                32, 2, 0, 100);
+        UserSimilarityIndex approximate = new UserSimilarityIndex(ratingMatrix, coRaterScorer, minHashIndex,
+                new SimpleMeterRegistry(), TOP_N, USERS_COUNT);
+
+        long found = 0;
+        long expected = 0;
+        long candidates = 0;
+        long coRaters = 0;
+        for (int userId : userIds) {
+            Neighbours exactNeighbours = exact.getNeighbours(userId);
+            Neighbours approximateNeighbours = approximate.getNeighbours(userId);
+            assertFalse(approximateNeighbours.isComplete());
+            Set<Integer> exactIds = new HashSet<>();
+            for (int i = 0; i < exactNeighbours.size(); i++) {
+                exactIds.add(exactNeighbours.id(i));
+            }
+            for (int i = 0; i < approximateNeighbours.size(); i++) {
+                if (exactIds.contains(approximateNeighbours.id(i))) {
+                    found++;
+                }
+            }
+            expected += exactIds.size();
+            candidates += minHashIndex.getCandidates(userId).length;
+            coRaters += exact.getNeighbours(userId, USERS_COUNT).size();
+        }
+        double recall = (double) found / expected;
+        log.info("Полнота LSH для {} лучших: {}; кандидатов в среднем {}, со-оценивших в среднем {}.",
+                TOP_N, recall, candidates / USERS_COUNT, coRaters / USERS_COUNT);
+        assertTrue(recall >= 0.8, "Полнота " + recall);
+        assertTrue(candidates < coRaters / 2, "Кандидатов " + candidates + ", со-оценивших " + coRaters);
+    }
+
+    @Test
+    @DisplayName("Корзины после изменений оценок совпадают с построенными заново")
+    void testIncrementalUpdatesShouldMatchRebuild() {
+        UserMinHashIndex minHashIndex = new UserMinHashIndex(ratingMatrix, new SimpleMeterRegistry(), true,
+                32, 2, 0, USERS_COUNT);
+        for (int i = 0; i < 300; i++) {
+            int userId = userIds.get(random.nextInt(USERS_COUNT));
+            int filmId = filmIds.get(random.nextInt(FILMS_COUNT));
+            if (jdbcTemplate.update("DELETE FROM marks WHERE user_id = ? AND film_id = ?", userId, filmId) == 0
+                    || random.nextBoolean()) {
+                jdbcTemplate.update("INSERT INTO marks (user_id, film_id, mark) VALUES (?, ?, ?)",
+                        userId, filmId, 1 + random.nextInt(10));
+            }
+            ratingMatrix.refresh(userId, filmId);
+        }
+        ratingMatrix.removeUser(userIds.get(0));
+        ratingMatrix.removeFilm(filmIds.get(0));
+
+        UserMinHashIndex rebuilt = new UserMinHashIndex(ratingMatrix, new SimpleMeterRegistry(), true,
+                32, 2, 0, USERS_COUNT);
+        assertEquals(rebuilt.size(), minHashIndex.size());
+        for (int userId : userIds) {
+            int[] actual = minHashIndex.getCandidates(userId);
+            int[] expected = rebuilt.getCandidates(userId);
+            Arrays.sort(actual);
+            Arrays.sort(expected);
+            assertArrayEquals(expected, actual, "Кандидаты пользователя " + userId);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package ru.yandex.practicum.filmorate.dao.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.service.recommendation.CoRaterScorer;
+import ru.yandex.practicum.filmorate.service.recommendation.Neighbours;
+import ru.yandex.practicum.filmorate.service.recommendation.RatingMatrix;
+import ru.yandex.practicum.filmorate.service.recommendation.UserMinHashIndex;
+import ru.yandex.practicum.filmorate.service.recommendation.UserSimilarityIndex;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@JdbcTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class UserSimilarityIndexTest {
+    private static final int USERS_COUNT = 60;
+    private static final int FILMS_COUNT = 40;
+    private static final int TOP_N = 8;
+    private final Random random = new Random(7);
+    private RatingMatrix ratingMatrix;
+    private CoRaterScorer coRaterScorer;
+    private UserMinHashIndex minHashIndex;
+    private UserSimilarityIndex similarityIndex;
+    private List<Integer> userIds;
+    private List<Integer> filmIds;
+    private final JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        List<Object[]> users = new ArrayList<>();
+        for (int i = 0; i < USERS_COUNT; i++) {
+            users.add(new Object[]{"user" + i, "User " + i, "user" + i + "@mail.ru", Date.valueOf("1986-10-25")});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO users (login, name, email, birthday) VALUES (?, ?, ?, ?)", users);
+        List<Object[]> films = new ArrayList<>();
+        for (int i = 0; i < FILMS_COUNT; i++) {
+            films.add(new Object[]{"Фильм " + i, Date.valueOf("2000-01-01"), "Описание", 100, 1});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO films (name, releaseDate, description, duration, mpa_id) " +
+                "VALUES (?, ?, ?, ?, ?)", films);
+        userIds = jdbcTemplate.queryForList("SELECT id FROM users ORDER BY id", Integer.class);
+        filmIds = jdbcTemplate.queryForList("SELECT id FROM films ORDER BY id", Integer.class);
+        List<Object[]> marks = new ArrayList<>();
+        for (int userId : userIds) {
+            for (int filmId : filmIds) {
+                if (random.nextInt(4) == 0) {
+                    marks.add(new Object[]{userId, filmId, 1 + random.nextInt(10)});
+                }
+            }
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO marks (user_id, film_id, mark) VALUES (?, ?, ?)", marks);
+        ratingMatrix = new RatingMatrix(new MarkDbStorage(jdbcTemplate), new SimpleMeterRegistry());
+        ratingMatrix.load();
+        coRaterScorer = new CoRaterScorer(ratingMatrix, new SimpleMeterRegistry(), 200000, 1);
+        minHashIndex = new UserMinHashIndex(ratingMatrix, new SimpleMeterRegistry(), false, 32, 2, 0, 500);
+        similarityIndex = new UserSimilarityIndex(ratingMatrix, coRaterScorer, minHashIndex, new SimpleMeterRegistry(),
+                TOP_N, USERS_COUNT);
+    }
+
+    @Test
+    @DisplayName("Списки похожих после изменений оценок совпадают с посчитанными заново")
+    void testIncrementalUpdatesShouldMatchRecomputation() {
+        userIds.forEach(similarityIndex::getNeighbours);
+        for (int i = 0; i < 300; i++) {
+            int userId = userIds.get(random.nextInt(USERS_COUNT));
+            int filmId = filmIds.get(random.nextInt(FILMS_COUNT));
+            int mark = 1 + random.nextInt(10);
+            if (jdbcTemplate.update("DELETE FROM marks WHERE user_id = ? AND film_id = ?", userId, filmId) == 0
+                    || random.nextBoolean()) {
+                jdbcTemplate.update("INSERT INTO marks (user_id, film_id, mark) VALUES (?, ?, ?)",
+                        userId, filmId, mark);
+            }
+            ratingMatrix.refresh(userId, filmId);
+            if (i % 50 == 0) {
+                userIds.forEach(similarityIndex::getNeighbours);
+            }
+        }
+        assertTrue(similarityIndex.getComputationCount() < USERS_COUNT * 4L,
+                "Пересчётов: " + similarityIndex.getComputationCount());
+
+        UserSimilarityIndex recomputed = new UserSimilarityIndex(ratingMatrix, coRaterScorer, minHashIndex,
+                new SimpleMeterRegistry(), TOP_N, USERS_COUNT);
+        for (int userId : userIds) {
+            Neighbours actual = similarityIndex.getNeighbours(userId);
+            Neighbours expected = recomputed.getNeighbours(userId);
+            // Список после изменений может быть короче, но должен быть точным началом полного
+            assertTrue(actual.size() <= expected.size(), actual + " и " + expected);
+            for (int i = 0; i < actual.size(); i++) {
+                assertEquals(expected.id(i), actual.id(i), actual + " и " + expected);
+                assertEquals(expected.matches(i), actual.matches(i));
+                assertEquals(expected.diffSum(i), actual.diffSum(i));
+            }
+            if (actual.isComplete()) {
+                assertEquals(expected.size(), actual.size());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Список поставившего оценку обновляется без пересчёта")
+    void testRaterListShouldBeUpdatedWithoutRecomputation() {
+        userIds.forEach(similarityIndex::getNeighbours);
+        long computationCount = similarityIndex.getComputationCount();
+        int userId = userIds.get(0);
+        int filmId = jdbcTemplate.queryForObject("SELECT MIN(id) FROM films WHERE id NOT IN " +
+                "(SELECT film_id FROM marks WHERE user_id = ?)", Integer.class, userId);
+        jdbcTemplate.update("INSERT INTO marks (user_id, film_id, mark) VALUES (?, ?, ?)", userId, filmId, 7);
+        ratingMatrix.refresh(userId, filmId);
+
+        Neighbours actual = similarityIndex.getNeighbours(userId);
+        assertEquals(computationCount, similarityIndex.getComputationCount());
+        Neighbours expected = new UserSimilarityIndex(ratingMatrix, coRaterScorer, minHashIndex,
+                new SimpleMeterRegistry(), TOP_N, USERS_COUNT).getNeighbours(userId);
+        assertTrue(actual.size() <= expected.size(), actual + " и " + expected);
+        for (int i = 0; i < actual.size(); i++) {
+            assertEquals(expected.id(i), actual.id(i), actual + " и " + expected);
+        }
+    }
+
+    @Test
+    @DisplayName("Удалённый пользователь пропадает из списков похожих")
+    void testRemovedUserShouldLeaveNeighbourLists() {
+        userIds.forEach(similarityIndex::getNeighbours);
+        int removedUserId = similarityIndex.getNeighbours(userIds.get(0)).id(0);
+        ratingMatrix.removeUser(removedUserId);
+
+        for (int userId : userIds) {
+            Neighbours neighbours = similarityIndex.getNeighbours(userId);
+            for (int i = 0; i < neighbours.size(); i++) {
+                assertNotEquals(removedUserId, neighbours.id(i));
+            }
+        }
+        assertEquals(0, similarityIndex.getNeighbours(removedUserId).size());
+    }
+}